@@ -18,16 +18,17 @@ package com.clust4j.algo;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Random;
 import java.util.UUID;
 
+import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
 import com.clust4j.GlobalState;
 import com.clust4j.NamedEntity;
+import com.clust4j.algo.ParallelChunkingTask.FixedChunkingStrategy;
 import com.clust4j.except.ModelNotFitException;
 import com.clust4j.except.NaNException;
 import com.clust4j.kernel.Kernel;
@@ -59,6 +60,8 @@ public abstract class AbstractClusterer
 	
 	/** Whether algorithms should by default behave in a verbose manner */
 	public static boolean DEF_VERBOSE = false;
+	/** Whether models copy and validate their input by default */
+	public static boolean DEF_COPY_DATA = true;
 	
 	/** By default, uses the {@link GlobalState#DEFAULT_RANDOM_STATE} */
 	protected final static Random DEF_SEED = GlobalState.DEFAULT_RANDOM_STATE;
@@ -133,9 +136,15 @@ public abstract class AbstractClusterer
 			warn("running " + getName() + " in Kernel mode can be an expensive option");
 		
 		// Handle data, now...
-		this.data = as_is ? 
-			(Array2DRowRealMatrix)data : // internally, always 2d...
-				initData(data);
+		if(as_is) {
+			this.data = (Array2DRowRealMatrix)data; // internally, always 2d...
+		} else if(!planner.getCopyData() && data instanceof Array2DRowRealMatrix) {
+			this.data = (Array2DRowRealMatrix)data; // caller guarantees it's clean
+			this.singular_value = allEqual(this.data.getDataRef());
+		} else {
+			this.data = initData(data);
+		}
+		
 		if(singular_value)
 			warn("all elements in input matrix are equal ("+data.getEntry(0, 0)+")");
 			
@@ -156,73 +165,258 @@ public abstract class AbstractClusterer
 	
 	final private Array2DRowRealMatrix initData(final RealMatrix data) {
 		final int m = data.getRowDimension(), n = data.getColumnDimension();
-		final double[][] ref = new double[m][n];
-		final HashSet<Double> unique = new HashSet<>();
 		
-		// Used to compute variance on the fly for summaries later...
-		double[] sum   = new double[n];
-		double[] sumSq = new double[n];
-		double[] maxes = VecUtils.rep(Double.NEGATIVE_INFINITY, n);
-		double[] mins  = VecUtils.rep(Double.POSITIVE_INFINITY, n);
+		/*
+		 * If we can read the rows directly, copy them as we validate. Otherwise
+		 * let the matrix make its own copy once, and validate that in place.
+		 */
+		final double[][] src, ref;
+		if(data instanceof Array2DRowRealMatrix) {
+			src = ((Array2DRowRealMatrix)data).getDataRef();
+			ref = new double[m][];
+		} else {
+			src = data.getData();
+			ref = null;
+		}
+		
+		final ColumnSummary stats;
+		if(parallel && (long)m * (long)n > GlobalState.ParallelismConf.MIN_ELEMENTS) {
+			stats = ParallelValidationTask.doAll(src, ref);
+		} else {
+			stats = new ColumnSummary(n).scan(src, ref, 0, m);
+		}
+		
+		if(stats.nan) {
+			error(new NaNException("NaN in input data. "
+				+ "Select a matrix imputation method for "
+				+ "incomplete records"));
+		}
 		
 		// This will store summaries for each column + a header
 		ModelSummary summaries = new ModelSummary(new Object[]{
 			"Feature #","Variance","Std. Dev","Mean","Max","Min"
 		});
 		
+		if(m > 0) {
+			for(int j = 0; j < n; j++) {
+				double var = (stats.sumSq[j] - (stats.sum[j]*stats.sum[j])/(double)m ) / ((double)m - 1.0);
+				if(var == 0) {
+					warn("zero variance in feature " + j);
+				}
+				
+				summaries.add(new Object[]{
+					j, // feature num
+					var, // var
+					m < 2 ? Double.NaN : FastMath.sqrt(var), // std dev
+					stats.sum[j] / (double)m, // mean
+					stats.maxes[j], // max
+					stats.mins[j] // min
+				});
+			}
+		}
+		
+		// Log the summaries
+		summaryLogger(formatter.format(summaries));
+		
+		if(stats.isSingular())
+			this.singular_value = true;
+		
 		/*
-		 * Internally performs the copy
+		 * Don't need to copy again, because already internally copied...
 		 */
-		double entry;
-		for(int i = 0; i < m; i++) {
-			for(int j = 0; j < n; j++) {
-				entry = data.getEntry(i, j);
-						
-				if(Double.isNaN(entry)) {
-					error(new NaNException("NaN in input data. "
-						+ "Select a matrix imputation method for "
-						+ "incomplete records"));
-				} else {
-					// copy the entry
-					ref[i][j] = entry;
-					unique.add(entry);
+		return new Array2DRowRealMatrix(null == ref ? src : ref, false);
+	}
+	
+	/**
+	 * Whether every element in the matrix is equal, exiting at the first
+	 * element that differs. Elements are compared as {@link Double#equals(Object)} 
+	 * would compare them.
+	 * @param X
+	 * @return whether the matrix contains exactly one unique value
+	 */
+	static boolean allEqual(final double[][] X) {
+		if(0 == X.length || 0 == X[0].length)
+			return false;
+		
+		final long first = Double.doubleToLongBits(X[0][0]);
+		for(double[] row: X)
+			for(double d: row)
+				if(Double.doubleToLongBits(d) != first)
+					return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Accumulates the per-column statistics for the summary along with
+	 * the validation flags, without allocating anything per element
+	 * @author Taylor G Smith
+	 */
+	static class ColumnSummary {
+		final double[] sum, sumSq, maxes, mins;
+		/** Whether any NaN was found */
+		boolean nan = false;
+		/** Whether every element seen so far is equal to {@link #first} */
+		boolean allEqual = true;
+		/** Whether any element has been seen */
+		boolean any = false;
+		/** The bits of the first element seen */
+		long first;
+		
+		ColumnSummary(final int n) {
+			this.sum   = new double[n];
+			this.sumSq = new double[n];
+			this.maxes = VecUtils.rep(Double.NEGATIVE_INFINITY, n);
+			this.mins  = VecUtils.rep(Double.POSITIVE_INFINITY, n);
+		}
+		
+		/**
+		 * Validate and accumulate rows <tt>[lo, hi)</tt> of the source
+		 * @param src
+		 * @param dest - if not null, each row of the source is copied into it
+		 * @param lo
+		 * @param hi
+		 * @return this
+		 */
+		ColumnSummary scan(final double[][] src, final double[][] dest, final int lo, final int hi) {
+			final int n = sum.length;
+			
+			double entry;
+			double[] row, copy;
+			for(int i = lo; i < hi; i++) {
+				row = src[i];
+				if(row.length != n)
+					throw new DimensionMismatchException(row.length, n);
+				
+				copy = null == dest ? row : (dest[i] = new double[n]);
+				
+				for(int j = 0; j < n; j++) {
+					entry = row[j];
+					
+					if(Double.isNaN(entry)) {
+						nan = true;
+						continue;
+					}
+					
+					copy[j] = entry;
+					track(entry);
 					
 					// capture stats...
 					sumSq[j] += entry * entry;
 					sum[j]   += entry;
 					maxes[j]  = FastMath.max(entry, maxes[j]);
 					mins[j]   = FastMath.min(entry, mins[j]);
-					
-					// if it's the last row, we can compute these:
-					if(i == m - 1) {
-						double var = (sumSq[j] - (sum[j]*sum[j])/(double)m ) / ((double)m - 1.0);
-						if(var == 0) {
-							warn("zero variance in feature " + j);
-						}
-						
-						summaries.add(new Object[]{
-							j, // feature num
-							var, // var
-							m < 2 ? Double.NaN : FastMath.sqrt(var), // std dev
-							sum[j] / (double)m, // mean
-							maxes[j], // max
-							mins[j] // min
-						});
-					}
 				}
 			}
+			
+			return this;
 		}
 		
-		// Log the summaries
-		summaryLogger(formatter.format(summaries));
+		private void track(final double entry) {
+			if(!allEqual)
+				return;
+			
+			final long bits = Double.doubleToLongBits(entry);
+			if(!any) {
+				first = bits;
+				any = true;
+			} else if(bits != first) {
+				allEqual = false;
+			}
+		}
 		
-		if(unique.size() == 1)
-			this.singular_value = true;
-
-		/*
-		 * Don't need to copy again, because already internally copied...
+		/**
+		 * Merge the summary of the rows following this one's into this one
+		 * @param other
+		 * @return this
+		 */
+		ColumnSummary merge(final ColumnSummary other) {
+			for(int j = 0; j < sum.length; j++) {
+				sum[j]   += other.sum[j];
+				sumSq[j] += other.sumSq[j];
+				maxes[j]  = FastMath.max(maxes[j], other.maxes[j]);
+				mins[j]   = FastMath.min(mins[j], other.mins[j]);
+			}
+			
+			nan |= other.nan;
+			if(other.any) {
+				if(!any) {
+					first = other.first;
+					allEqual = other.allEqual;
+					any = true;
+				} else {
+					allEqual &= other.allEqual && other.first == first;
+				}
+			}
+			
+			return this;
+		}
+		
+		/** @return whether exactly one unique (non-NaN) value was seen */
+		boolean isSingular() {
+			return any && allEqual;
+		}
+	}
+	
+	/**
+	 * Validates and copies the input in row chunks across the
+	 * {@link GlobalState.ParallelismConf#FJ_THREADPOOL}. Chunks are merged
+	 * in row order over a {@link FixedChunkingStrategy}, so the summary does
+	 * not depend on the number of threads.
+	 * @author Taylor G Smith
+	 */
+	static class ParallelValidationTask extends ParallelChunkingTask<ColumnSummary> {
+		private static final long serialVersionUID = -1587043962128870325L;
+		
+		final double[][] src, dest;
+		final int lo, hi;
+		
+		ParallelValidationTask(final double[][] src, final double[][] dest) {
+			super(src, new FixedChunkingStrategy(src.length));
+			this.src = src;
+			this.dest = dest;
+			this.lo = 0;
+			this.hi = chunks.size();
+		}
+		
+		ParallelValidationTask(final ParallelValidationTask task, final int lo, final int hi) {
+			super(task);
+			this.src = task.src;
+			this.dest = task.dest;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		public ColumnSummary reduce(Chunk chunk) {
+			return new ColumnSummary(src[0].length)
+				.scan(src, dest, chunk.start, chunk.start + chunk.size());
+		}
+		
+		@Override
+		protected ColumnSummary compute() {
+			if(hi - lo <= 1) {
+				return reduce(chunks.get(lo));
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				ParallelValidationTask left  = new ParallelValidationTask(this, this.lo, mid);
+				ParallelValidationTask right = new ParallelValidationTask(this, mid, this.hi);
+				
+				left.fork();
+				ColumnSummary r = right.compute();
+				return left.join().merge(r);
+			}
+		}
+		
+		/**
+		 * Validate the source rows
+		 * @param src
+		 * @param dest - if not null, the rows are copied into it
+		 * @return the summary of all the rows
 		 */
-		return new Array2DRowRealMatrix(ref, false);
+		static ColumnSummary doAll(final double[][] src, final double[][] dest) {
+			return getThreadPool().invoke(new ParallelValidationTask(src, dest));
+		}
 	}
 	
 	
@@ -335,6 +529,15 @@ public abstract class AbstractClusterer
 		return verbose;
 	}
 	
+	/**
+	 * Whether the model runs in parallel: parallelism was both
+	 * requested by its planner and is globally allowed
+	 * @return whether the model uses parallelism
+	 */
+	public boolean getParallel() {
+		return parallel;
+	}
+	
 	/**
 	 * Returns a collection of warnings if there are any, otherwise null
 	 * @return
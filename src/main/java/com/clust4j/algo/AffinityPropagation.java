@@ -16,8 +16,11 @@
 package com.clust4j.algo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
@@ -55,6 +58,8 @@ final public class AffinityPropagation extends AbstractAutonomousClusterer imple
 	 *  method can disable this option */
 	final public static boolean DEF_ADD_GAUSSIAN_NOISE = true;
 	final public static HashSet<Class<? extends GeometricallySeparable>> UNSUPPORTED_METRICS;
+	/** The default min number of rows (or columns) in a parallel chunk of a message passing pass */
+	static final int MIN_PARALLEL_CHUNK_SIZE = 64;
 	
 	
 	/**
@@ -274,39 +279,28 @@ final public class AffinityPropagation extends AbstractAutonomousClusterer imple
 	 */
 	protected static double[][] computeSmoothedSimilarity(final double[][] X, GeometricallySeparable metric, Random seed, boolean addNoise) {
 		/*
-		 * Originally, we computed similarity matrix, then refactored the diagonal vector, and
-		 * then computed the following portions. We can do this all at once and save lots of passes
-		 * (5?) on the order of O(M^2), condensing it all to one pass of O(M choose 2).
-		 * 
 		 * After the sim matrix is computed, we need to do three things:
 		 * 
 		 * 1. Create a matrix of very small values (tiny_scaled) to remove degeneracies in sim_mal
 		 * 2. Multiply tiny_scaled by an extremely small value (GlobalState.Mathematics.TINY*100)
 		 * 3. Create a noise matrix of random Gaussian values and add it to the similarity matrix.
 		 * 
-		 * The methods exist to build these in three to five separate O(M^2) passes, but that's 
-		 * extremely expensive, so we're going to do it in one giant, convoluted loop. If you're 
-		 * trying to debug this, sorry...
+		 * The preference (the diagonal) is the median of the similarities, which
+		 * is selected from the matrix itself rather than a sorted M^2 copy. The
+		 * noise is drawn in the same order as the similarities are visited.
 		 * 
-		 * Total runtime: O(2M * M choose 2)
+		 * Total runtime: O(M choose 2) metric computations and a few O(M^2) passes
 		 */
 		final int m = X.length;
 		double[][] sim_mat = new double[m][m];
 		
-		int idx = 0;
 		final double tiny_val = GlobalState.Mathematics.TINY*100;
-		final double[] vector = new double[m * m];
 		double sim, noise;
-		boolean last_iter = false;
 		
 		
 		// Do this a little differently... set the diagonal FIRST.
-		for(int i = 0; i < m; i++) {
-			sim = -(metric.getPartialDistance(X[i], X[i]));
-			sim_mat[i][i] = sim;
-			vector[idx++] = sim;
-		}
-		
+		for(int i = 0; i < m; i++)
+			sim_mat[i][i] = -(metric.getPartialDistance(X[i], X[i]));
 		
 		for(int i = 0; i < m - 1; i++) {
 			for(int j = i + 1; j < m; j++) { // Upper triangular
@@ -315,200 +309,323 @@ final public class AffinityPropagation extends AbstractAutonomousClusterer imple
 				// Assign to upper and lower portion
 				sim_mat[i][j] = sim;
 				sim_mat[j][i] = sim;
-				
-				// Add to the vector (twice)
-				for(int b = 0; b < 2; b++)
-					vector[idx++] = sim;
-				
-				// Catch the last iteration, compute the pref:
-				double median = 0.0;
-				if(last_iter = (i == m - 2 && j == m - 1))
-					median = VecUtils.median(vector);
-				
-				if(addNoise) {
-					noise = (sim * GlobalState.Mathematics.EPS + tiny_val);
+			}
+		}
+		
+		if(m < 2)
+			return sim_mat;
+		
+		
+		// Compute the pref:
+		final double median = similarityMedian(sim_mat);
+		
+		if(addNoise) {
+			for(int i = 0; i < m - 1; i++) {
+				for(int j = i + 1; j < m; j++) {
+					noise = (sim_mat[i][j] * GlobalState.Mathematics.EPS + tiny_val);
 					sim_mat[i][j] += (noise * seed.nextGaussian());
 					sim_mat[j][i] += (noise * seed.nextGaussian());
-					
-					if(last_iter) { // set diag and do the noise thing.
-						noise = (median * GlobalState.Mathematics.EPS + tiny_val);
-						for(int h = 0; h < m; h++)
-							sim_mat[h][h] = median + (noise * seed.nextGaussian());
-					}
-				} else if(last_iter) {
-					// it's the last iter and no noise. Just set diag.
-					for(int h = 0; h < m; h++)
-						sim_mat[h][h] = median;
 				}
 			}
+			
+			// set diag and do the noise thing.
+			noise = (median * GlobalState.Mathematics.EPS + tiny_val);
+			for(int h = 0; h < m; h++)
+				sim_mat[h][h] = median + (noise * seed.nextGaussian());
+		} else {
+			// No noise. Just set diag.
+			for(int h = 0; h < m; h++)
+				sim_mat[h][h] = median;
 		}
 		
 		return sim_mat;
 	}
-
 	
 	/**
-	 * Computes the first portion of the AffinityPropagation iteration
-	 * sequence in place. Separating this piece from the {@link #fit()} method
-	 * itself allows for easier testing.
-	 * @param A
+	 * The median of all M^2 entries of a symmetric similarity matrix, identical to
+	 * that of {@link VecUtils#median(double[])}. Each off-diagonal value counts twice,
+	 * so only the upper triangle is read. The order statistics are found by a radix
+	 * selection over the bits of the values, 16 bits per pass, so no copy is made.
 	 * @param S
-	 * @param tmp
-	 * @param I
-	 * @param Y
-	 * @param Y2
+	 * @return the median similarity
 	 */
-	protected static void affinityPiece1(double[][] A, double[][] S, double[][] tmp, int[] I, double[] Y, double[] Y2) {
+	static double similarityMedian(final double[][] S) {
 		final int m = S.length;
+		final long n = (long)m * m, lo = (n - 1) / 2;
+		final long loKey = selectKey(S, lo);
+		if(n % 2 != 0)
+			return fromSortableKey(loKey);
 		
-		// Reassign tmp, create vector of arg maxes. Can
-		// assign tmp like this:
-		//
-		//		tmp = MatUtils.add(A, sim_mat);
-		//
-		//
-		// But requires extra M x M pass. Also get indices of ROW max. 
-		// Can do like this:
-		//
-		//		I = MatUtils.argMax(tmp, Axis.ROW);
-		//
-		// But requires extra pass on order of M. Finally, capture the second
-		// highest record in each row, and store in a vector. Then row-wise
-		// scalar subtract Y from the sim_mat
+		// find the next order statistic: the lower again, or the least greater key
+		long atMost = 0, key, nextKey = Long.MAX_VALUE;
 		for(int i = 0; i < m; i++) {
-			
-			// Compute row maxes
-			double runningMax = Double.NEGATIVE_INFINITY;
-			double secondMax  = Double.NEGATIVE_INFINITY;
-			int runningMaxIdx = 0; //-1; // Idx of max row element -- start at 0 in case metric produces -Infs
-			
-			for(int j = 0; j < m; j++) { 	// Create tmp as A + sim_mat
-				tmp[i][j] = A[i][j] + S[i][j];
-				
-				if(tmp[i][j] > runningMax) {
-					secondMax = runningMax;
-					runningMax = tmp[i][j];
-					runningMaxIdx = j;
-				} else if(tmp[i][j] > secondMax) {
-					secondMax = tmp[i][j];
+			for(int j = i; j < m; j++) {
+				key = sortableKey(S[i][j]);
+				if(key <= loKey)
+					atMost += i == j ? 1 : 2;
+				else if(key < nextKey)
+					nextKey = key;
+			}
+		}
+		
+		final long hiKey = atMost > lo + 1 ? loKey : nextKey;
+		return (fromSortableKey(loKey) + fromSortableKey(hiKey)) / 2d;
+	}
+	
+	/**
+	 * Select the key of the given rank (from 0) among the similarities
+	 */
+	private static long selectKey(final double[][] S, long rank) {
+		final int m = S.length;
+		final long[] hist = new long[1 << 16];
+		long prefix = 0, key; // the unsigned keys, with the sign bit flipped
+		
+		for(int shift = 48; shift >= 0; shift -= 16) {
+			Arrays.fill(hist, 0L);
+			
+			// count the keys sharing the selected high bits, by their next 16 bits
+			for(int i = 0; i < m; i++) {
+				for(int j = i; j < m; j++) {
+					key = sortableKey(S[i][j]) ^ Long.MIN_VALUE;
+					if(shift == 48 || (key >>> (shift + 16)) == (prefix >>> (shift + 16)))
+						hist[(int)(key >>> shift) & 0xFFFF] += i == j ? 1 : 2;
 				}
 			}
 			
-			I[i] = runningMaxIdx;			// Idx of max element for row
-			Y[i] = tmp[i][I[i]]; // Grab the current val
-			Y2[i] = secondMax;
-			tmp[i][I[i]] = Double.NEGATIVE_INFINITY; // Set that idx to neg inf now
+			int bucket = 0;
+			while(rank >= hist[bucket])
+				rank -= hist[bucket++];
+			prefix |= (long)bucket << shift;
 		}
+		
+		return prefix ^ Long.MIN_VALUE;
 	}
 	
 	/**
-	 * Computes the second portion of the AffinityPropagation iteration
-	 * sequence in place. Separating this piece from the {@link #fit()} method
-	 * itself allows for easier testing.
-	 * @param colSums
-	 * @param tmp
-	 * @param I
+	 * Map a double to a long whose order is the order of {@link Arrays#sort(double[])}
+	 */
+	static long sortableKey(final double d) {
+		final long bits = Double.doubleToLongBits(d);
+		return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+	}
+	
+	static double fromSortableKey(final long key) {
+		return Double.longBitsToDouble(key < 0 ? key ^ Long.MAX_VALUE : key);
+	}
+
+	
+	/**
+	 * Computes the responsibility portion of the AffinityPropagation iteration
+	 * sequence in place. Each row of <tt>A + S</tt> is scanned for its max and 
+	 * second max, and the damped responsibilities are updated in the same row, 
+	 * so no intermediate matrix is needed. The rows are split across the pool
+	 * if parallel. Separating this piece from the {@link #fit()} method itself 
+	 * allows for easier testing.
+	 * @param A
 	 * @param S
 	 * @param R
-	 * @param Y
-	 * @param Y2
 	 * @param damping
+	 * @param parallel
 	 */
-	protected static void affinityPiece2(double[] colSums, double[][] tmp, int[] I, 
-			double[][] S, double[][] R, double[] Y, double[] Y2, double damping) {
+	protected static void updateResponsibilities(final double[][] A, final double[][] S, 
+			final double[][] R, final double damping, final boolean parallel) {
 		
 		final int m = S.length;
-		
-		// Second i thru m loop, get new max vector and then first damping.
-		// First damping ====================================
-		// This can be done like this (which is more readable):
-		//
-		//		tmp	= MatUtils.scalarMultiply(tmp, 1 - damping);
-		//		R	= MatUtils.scalarMultiply(R, damping);
-		//		R	= MatUtils.add(R, tmp);
-		//
-		// But it requires two extra MXM passes, which can be costly...
-		// We know R & tmp are both m X m, so we can combine the 
-		// three steps all together...
-		// Finally, compute availability -- start by setting anything 
-		// less than 0 to 0 in tmp. Also calc column sums in same pass...
-		int ind = 0;
 		final double omd = 1.0 - damping;
 		
-		for(int i = 0; i < m; i++) {
-			// Get new max vector
-			for(int j = 0; j < m; j++) 
-				tmp[i][j] = S[i][j] - Y[i];
-			tmp[ind][I[i]] = S[ind][I[i]] - Y2[ind++];
-			
-			// Perform damping, then piecewise 
-			// calculate column sums
-			for(int j = 0; j < m; j++) {
-				tmp[i][j] *= omd;
-				R[i][j] = (R[i][j] * damping) + tmp[i][j];
-
-				tmp[i][j] = FastMath.max(R[i][j], 0);
-				if(i != j) // Because we set diag after this outside j loop
-					colSums[j] += tmp[i][j];
+		RangeTask.run(m, parallel, new RangePass() {
+			@Override
+			public void computeRange(int lo, int hi) {
+				double runningMax, secondMax, v, max, second;
+				int runningMaxIdx;
+				double[] a, s, r;
+				
+				for(int i = lo; i < hi; i++) {
+					a = A[i];
+					s = S[i];
+					r = R[i];
+					
+					// Compute row maxes of A + S
+					runningMax = Double.NEGATIVE_INFINITY;
+					secondMax  = Double.NEGATIVE_INFINITY;
+					runningMaxIdx = 0; // start at 0 in case metric produces -Infs
+					
+					for(int j = 0; j < m; j++) {
+						v = a[j] + s[j];
+						
+						if(v > runningMax) {
+							secondMax = runningMax;
+							runningMax = v;
+							runningMaxIdx = j;
+						} else if(v > secondMax) {
+							secondMax = v;
+						}
+					}
+					
+					max = a[runningMaxIdx] + s[runningMaxIdx];
+					second = secondMax;
+					
+					// Subtract the max (or second max at the argmax), then damp
+					for(int j = 0; j < m; j++) {
+						v = s[j] - (j == runningMaxIdx ? second : max);
+						v *= omd;
+						r[j] = (r[j] * damping) + v;
+					}
+				}
 			}
-			
-			tmp[i][i] = R[i][i]; // Set diagonal elements in tmp equal to those in R
-			colSums[i] += tmp[i][i];
-		}
+		});
 	}
 	
 	/**
-	 * Computes the third portion of the AffinityPropagation iteration
-	 * sequence in place. Separating this piece from the {@link #fit()} method
-	 * itself allows for easier testing.
-	 * @param tmp
-	 * @param colSums
+	 * Computes the column sums of the responsibilities, with the off-diagonal
+	 * values floored at 0. The columns are split across the pool if parallel, 
+	 * and each column is summed in row order either way, so parallel sums are 
+	 * identical to serial ones. Separating this piece from the {@link #fit()} 
+	 * method itself allows for easier testing.
+	 * @param R
+	 * @param colSums - the sums, overwritten in place
+	 * @param parallel
+	 */
+	protected static void availabilityColumnSums(final double[][] R, 
+			final double[] colSums, final boolean parallel) {
+		
+		final int m = R.length;
+		
+		RangeTask.run(m, parallel, new RangePass() {
+			@Override
+			public void computeRange(int lo, int hi) {
+				double[] r;
+				
+				for(int j = lo; j < hi; j++)
+					colSums[j] = 0.0;
+				
+				for(int i = 0; i < m; i++) {
+					r = R[i];
+					for(int j = lo; j < hi; j++)
+						colSums[j] += i == j ? r[j] : FastMath.max(r[j], 0);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Computes the availability portion of the AffinityPropagation iteration
+	 * sequence in place from the column sums of the responsibilities, and
+	 * marks the exemplars in the mask. The rows are split across the pool if
+	 * parallel. Separating this piece from the {@link #fit()} method itself 
+	 * allows for easier testing.
 	 * @param A
 	 * @param R
+	 * @param colSums
 	 * @param mask
 	 * @param damping
+	 * @param parallel
 	 */
-	protected static void affinityPiece3(double[][] tmp, double[] colSums, 
-			double[][] A, double[][] R, double[] mask, double damping) {
+	protected static void updateAvailabilities(final double[][] A, final double[][] R, 
+			final double[] colSums, final double[] mask, final double damping, final boolean parallel) {
+		
 		final int m = A.length;
 		
-		// Set any negative values to zero but keep diagonal at original
-		// Originally ran this way, but costs an extra M x M operation:
-		// tmp = MatUtils.scalarSubtract(tmp, colSums, Axis.COL);
-		// Finally, more damping...
-		// More damping ====================================
-		// This can be done like this (which is more readable):
-		//
-		//		tmp	= MatUtils.scalarMultiply(tmp, 1 - damping);
-		//		A	= MatUtils.scalarMultiply(A, damping);
-		//		A	= MatUtils.subtract(A, tmp);
-		//
-		// But it requires two extra MXM passes, which can be costly... O(2M^2)
-		// We know A & tmp are both m X m, so we can combine the 
-		// three steps all together...
-		
-		// ALSO CHECK CONVERGENCE CRITERIA
-		
-		// Check convergence criteria =====================
-		// This can be done like this for readability:
-		//
-		//		final double[] diagA = MatUtils.diagFromSquare(A);
-		//		final double[] diagR = MatUtils.diagFromSquare(R);
-		//		final double[] mask = new double[diagA.length];
-		//		for(int i = 0; i < mask.length; i++)
-		//			mask[i] = diagA[i] + diagR[i] > 0 ? 1d : 0d;
-		for(int i = 0; i < m; i++) {
-			for(int j = 0; j < m; j++) {
-				tmp[i][j] -= colSums[j];
-				
-				if(tmp[i][j] < 0 && i != j) // Don't set diag to 0
-					tmp[i][j] = 0;
+		RangeTask.run(m, parallel, new RangePass() {
+			@Override
+			public void computeRange(int lo, int hi) {
+				double v;
+				double[] a, r;
+				
+				for(int i = lo; i < hi; i++) {
+					a = A[i];
+					r = R[i];
+					
+					// Set any negative values to zero but keep diagonal at original
+					for(int j = 0; j < m; j++) {
+						v = (i == j ? r[j] : FastMath.max(r[j], 0)) - colSums[j];
+						
+						if(v < 0 && i != j) // Don't set diag to 0
+							v = 0;
+						
+						v *= (1 - damping);
+						a[j] = (a[j] * damping) - v;
+					}
+					
+					mask[i] = a[i] + r[i] > 0 ? 1.0 : 0.0;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * A pass over the rows (or columns) of the matrices
+	 * @author Taylor G Smith
+	 */
+	interface RangePass {
+		/**
+		 * Run the pass over the range
+		 * @param lo - the first row, inclusive
+		 * @param hi - the last row, exclusive
+		 */
+		void computeRange(int lo, int hi);
+	}
+	
+	/**
+	 * Runs a pass over a range of rows (or columns), recursively splitting
+	 * the range across the pool if parallel
+	 * @author Taylor G Smith
+	 */
+	static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = -6024869152447351873L;
+		
+		final RangePass pass;
+		final boolean parallel;
+		final int chunkSize, lo, hi;
+		
+		RangeTask(RangePass pass, boolean parallel, int chunkSize, int lo, int hi) {
+			this.pass = pass;
+			this.parallel = parallel;
+			this.chunkSize = chunkSize;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		/**
+		 * Run the pass over <tt>[0, n)</tt>
+		 * @param n
+		 * @param parallel
+		 * @param pass
+		 */
+		static void run(int n, boolean parallel, RangePass pass) {
+			run(n, parallel, MIN_PARALLEL_CHUNK_SIZE, pass);
+		}
+		
+		/**
+		 * Run the pass over <tt>[0, n)</tt>
+		 * @param n
+		 * @param parallel
+		 * @param chunkSize - the max number of rows a task passes over without splitting
+		 * @param pass
+		 */
+		static void run(int n, boolean parallel, int chunkSize, RangePass pass) {
+			final RangeTask task = new RangeTask(pass, parallel, chunkSize, 0, n);
+			if(!parallel)
+				task.compute();
+			else if(ForkJoinTask.inForkJoinPool())
+				task.invoke();
+			else
+				ParallelChunkingTask.getThreadPool().invoke(task);
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= chunkSize) {
+				pass.computeRange(lo, hi);
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				RangeTask left  = new RangeTask(pass, parallel, chunkSize, this.lo, mid);
+				RangeTask right = new RangeTask(pass, parallel, chunkSize, mid, this.hi);
 				
-				tmp[i][j] *= (1 - damping);
-				A[i][j] = (A[i][j] * damping) - tmp[i][j];
+				left.fork();
+				right.compute();
+				left.join();
 			}
-			
-			mask[i] = A[i][i] + R[i][i] > 0 ? 1.0 : 0.0;
 		}
 	}
 	
@@ -545,17 +662,17 @@ final public class AffinityPropagation extends AbstractAutonomousClusterer imple
 			
 			
 			// Affinity propagation uses two matrices: the responsibility 
-			// matrix, R, and the availability matrix, A
+			// matrix, R, and the availability matrix, A. Both are updated
+			// in place a row at a time, so no M x M staging matrix is needed
 			double[][] A = new double[m][m];
 			double[][] R = new double[m][m];
-			double[][] tmp = new double[m][m]; // Intermediate staging...
 			
 			
 			// Begin here
-			int[] I = new int[m];
+			int[] I;
 			double[][] e = new double[m][iterBreak];
-			double[] Y;		// vector of arg maxes
-			double[] Y2;	// vector of maxes post neg inf
+			final double[] columnSums = new double[m];
+			final double[] mask = new double[m];
 			double[] sum_e;
 			
 			
@@ -569,25 +686,21 @@ final public class AffinityPropagation extends AbstractAutonomousClusterer imple
 				iterStart = iterTimer.now();
 				
 				/*
-				 * First piece in place
+				 * Responsibilities in place
 				 */
-				Y = new double[m];
-				Y2 = new double[m]; // Second max for each row
-				affinityPiece1(A, sim_mat, tmp, I, Y, Y2);
+				updateResponsibilities(A, sim_mat, R, damping, parallel);
 				
 				
 				/*
-				 * Second piece in place
+				 * Column sums of the responsibilities
 				 */
-				final double[] columnSums = new double[m];
-				affinityPiece2(columnSums, tmp, I, sim_mat, R, Y, Y2, damping);
+				availabilityColumnSums(R, columnSums, parallel);
 				
 				
 				/*
-				 * Third piece in place
+				 * Availabilities in place
 				 */
-				final double[] mask = new double[m];
-				affinityPiece3(tmp, columnSums, A, R, mask, damping);
+				updateAvailabilities(A, R, columnSums, mask, damping, parallel);
 					
 					
 				// Set the mask in `e`
@@ -61,7 +61,8 @@ public class AffinityPropagationParameters
 			.setMetric(metric)
 			.setVerbose(verbose)
 			.useGaussianSmoothing(addNoise)
-			.setForceParallel(parallel);
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 	
 	public AffinityPropagationParameters setDampingFactor(final double damp) {
@@ -95,6 +96,12 @@ public class AffinityPropagationParameters
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public AffinityPropagationParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 
 	@Override
 	public AffinityPropagationParameters setVerbose(boolean b) {
@@ -18,7 +18,6 @@ package com.clust4j.algo;
 import java.util.HashSet;
 
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
 import com.clust4j.log.Loggable;
@@ -105,6 +104,16 @@ public class BallTree extends NearestNeighborHeapSearch {
 		super(X, leaf_size, dist, logger);
 	}
 	
+	BallTree(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger, 
+			boolean flatLayout, boolean parallel) {
+		super(X, leaf_size, dist, logger, flatLayout, parallel);
+	}
+	
+	BallTree(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger, 
+			boolean flatLayout, boolean parallel, int minParallelBuildPoints) {
+		super(X, leaf_size, dist, logger, flatLayout, parallel, minParallelBuildPoints);
+	}
+	
 	
 	
 	@Override
@@ -148,11 +157,18 @@ public class BallTree extends NearestNeighborHeapSearch {
 
 	@Override
 	final BallTree newInstance(double[][] arr, int leaf, DistanceMetric dist, Loggable logger) {
-		return new BallTree(new Array2DRowRealMatrix(arr, false), leaf, dist, logger);
+		return new BallTree(arr, leaf, dist, logger, DEF_FLAT_LAYOUT, parallel, minParallelBuildPoints);
 	}
 
 	@Override
 	double minDist(NearestNeighborHeapSearch tree, int i_node, double[] pt) {
+		if(tree.flat) { // the centroid is the node's only bound
+			tree.n_calls++;
+			final double dist_pt = tree.rDistToDist(
+				tree.flatRDist(pt, tree.flat_bounds, i_node * tree.N_FEATURES));
+			return FastMath.max(0, dist_pt - tree.node_radius[i_node]);
+		}
+		
 		double dist_pt = tree.dist(pt, tree.node_bounds[0][i_node]);
 		return FastMath.max(0, dist_pt - tree.node_data[i_node].radius);
 	}
@@ -167,6 +183,22 @@ public class BallTree extends NearestNeighborHeapSearch {
 		return tree.dist_metric.distanceToPartialDistance(minDist(tree, i_node, pt));
 	}
 
+	@Override
+	double minRDist(NearestNeighborHeapSearch tree, int i_node, double[] pt, QueryContext ctx) {
+		ctx.calls++;
+		
+		final double dist_pt, rad;
+		if(tree.flat) {
+			dist_pt = tree.rDistToDist(tree.flatRDist(pt, tree.flat_bounds, i_node * tree.N_FEATURES));
+			rad = tree.node_radius[i_node];
+		} else {
+			dist_pt = tree.dist_metric.getDistance(pt, tree.node_bounds[0][i_node]);
+			rad = tree.node_data[i_node].radius;
+		}
+		
+		return tree.dist_metric.distanceToPartialDistance(FastMath.max(0, dist_pt - rad));
+	}
+
 	/*
 	@Override
 	double maxDist(NearestNeighborHeapSearch tree, int i_node, double[] pt) {
@@ -203,8 +235,16 @@ public class BallTree extends NearestNeighborHeapSearch {
 
 	@Override
 	void minMaxDist(NearestNeighborHeapSearch tree, int i_node, double[] pt, MutableDouble minDist, MutableDouble maxDist) {
-		double dist_pt = tree.dist(pt, tree.node_bounds[0][i_node]);
-		double rad = tree.node_data[i_node].radius;
+		double dist_pt, rad;
+		if(tree.flat) {
+			tree.n_calls++;
+			dist_pt = tree.rDistToDist(tree.flatRDist(pt, tree.flat_bounds, i_node * tree.N_FEATURES));
+			rad = tree.node_radius[i_node];
+		} else {
+			dist_pt = tree.dist(pt, tree.node_bounds[0][i_node]);
+			rad = tree.node_data[i_node].radius;
+		}
+		
 		minDist.value = FastMath.max(0, dist_pt - rad);
 		maxDist.value = dist_pt + rad;
 	}
@@ -39,15 +39,24 @@ abstract public class BaseClustererParameters
 		verbose = AbstractClusterer.DEF_VERBOSE;
 	protected Random seed = AbstractClusterer.DEF_SEED;
 	protected GeometricallySeparable metric = AbstractClusterer.DEF_DIST;
+	/** 
+	 * Whether the model should copy and validate its input. If false and the
+	 * input is an {@link org.apache.commons.math3.linear.Array2DRowRealMatrix}, 
+	 * the model references the caller's array as-is, and the caller guarantees 
+	 * it contains no NaNs and is not modified for the life of the model.
+	 */
+	protected boolean copyData = AbstractClusterer.DEF_COPY_DATA;
 	
 	@Override abstract public BaseClustererParameters copy();
 	abstract public BaseClustererParameters setSeed(final Random rand);
 	abstract public BaseClustererParameters setVerbose(final boolean b);
 	abstract public BaseClustererParameters setMetric(final GeometricallySeparable dist);
 	abstract public BaseClustererParameters setForceParallel(final boolean b);
+	abstract public BaseClustererParameters setCopyData(final boolean b);
 
 	final public GeometricallySeparable getMetric() { return metric; }
 	final public boolean getParallel() 				{ return parallel; }
 	final public Random getSeed() 					{ return seed; }
 	final public boolean getVerbose() 				{ return verbose; }
+	final public boolean getCopyData() 				{ return copyData; }
 }
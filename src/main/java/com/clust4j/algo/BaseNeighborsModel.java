@@ -19,6 +19,7 @@ import org.apache.commons.math3.linear.RealMatrix;
 
 import com.clust4j.GlobalState;
 import com.clust4j.algo.Neighborhood;
+import com.clust4j.algo.ParallelChunkingTask.FixedChunkingStrategy;
 import com.clust4j.except.ModelNotFitException;
 import com.clust4j.metrics.pairwise.DistanceMetric;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
@@ -73,7 +74,8 @@ abstract public class BaseNeighborsModel extends AbstractClusterer {
 			public NearestNeighborHeapSearch buildTree(RealMatrix data,
 					int leafSize, BaseNeighborsModel logger) {
 				logger.alg = this;
-				return new KDTree(data, leafSize, handleMetric(this, logger), logger);
+				return new KDTree(data.getData(), leafSize, handleMetric(this, logger), 
+					logger, KDTree.DEF_FLAT_LAYOUT, logger.parallel);
 			}
 			
 			@Override
@@ -88,7 +90,8 @@ abstract public class BaseNeighborsModel extends AbstractClusterer {
 			public NearestNeighborHeapSearch buildTree(RealMatrix data,
 					int leafSize, BaseNeighborsModel logger) {
 				logger.alg = this;
-				return new BallTree(data, leafSize, handleMetric(this, logger), logger);
+				return new BallTree(data.getData(), leafSize, handleMetric(this, logger), 
+					logger, BallTree.DEF_FLAT_LAYOUT, logger.parallel);
 			}
 			
 			@Override
@@ -200,11 +203,12 @@ abstract public class BaseNeighborsModel extends AbstractClusterer {
 		final int hi;
 
 		public ParallelNeighborhoodSearch(double[][] X, BaseNeighborsModel model) {
-			super(X); // this auto-chunks the data
+			// the chunks must cover every row, regardless of the number of cores
+			super(X, new FixedChunkingStrategy(X.length));
 			
 			this.model = model;
 			this.lo = 0;
-			this.hi = strategy.getNumChunks(X);
+			this.hi = chunks.size();
 			
 			/*
 			 * First get the length...
@@ -15,7 +15,6 @@
  *******************************************************************************/
 package com.clust4j.algo;
 
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
 import com.clust4j.algo.Neighborhood;
@@ -321,9 +320,8 @@ class BoruvkaAlgorithm implements java.io.Serializable {
 	
 	protected class KDTreeBoruvAlg extends Boruvka {
 		KDTreeBoruvAlg() {
-			super(true, new KDTree(
-				new Array2DRowRealMatrix(outer_tree.getDataRef(), false), 
-				leafSize, metric, logger));
+			super(true, new KDTree(outer_tree.getDataRef(), leafSize, metric, 
+				logger, KDTree.DEF_FLAT_LAYOUT, outer_tree.parallel));
 		}
 		
 		@Override
@@ -537,12 +535,11 @@ class BoruvkaAlgorithm implements java.io.Serializable {
 		final double[][] centroidDistances;
 		
 		BallTreeBoruvAlg() {
-			super(false, new BallTree(
-				new Array2DRowRealMatrix(outer_tree.getDataRef(), false), 
-				leafSize, metric, logger));
+			super(false, new BallTree(outer_tree.getDataRef(), leafSize, metric, 
+				logger, BallTree.DEF_FLAT_LAYOUT, outer_tree.parallel));
 			
 			// Compute pairwise dist matrix for node_bounds
-			centroidDistances = Pairwise.getDistance(node_bounds[0], metric, false, false);
+			centroidDistances = Pairwise.getDistance(node_bounds[0], metric, false, false, outer_tree.parallel);
 		}
 
 		@Override
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.algo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.clust4j.GlobalState;
+import com.clust4j.algo.HDBSCAN.CompQuadTup;
+
+/**
+ * The {@link HDBSCAN} condensed tree, held as parallel primitive arrays of
+ * <tt>[parent, child, lambda, child size]</tt> rows. The points are numbered
+ * <tt>[0, root)</tt> and the cluster nodes <tt>[root, root + numNodes)</tt>,
+ * where every child cluster is numbered after its parent. Per-node results
+ * (such as the stability) are indexed by <tt>node - root</tt>.
+ * <p>
+ * Condensing, the stability, cluster selection and labeling all operate on
+ * these arrays and on the cluster nodes' child lists, so none of them box
+ * or sort the rows.
+ *
+ * @author Taylor G Smith
+ */
+final class CondensedTree implements java.io.Serializable {
+	private static final long serialVersionUID = 3510482365016278815L;
+	
+	final int[] parent;
+	final int[] child;
+	final double[] lambda;
+	final int[] size;
+	
+	/** The root cluster id, which is also the number of points */
+	final int root;
+	/** The number of cluster nodes, including the root */
+	final int numNodes;
+	
+	/** The child clusters of each node are <tt>clusterChildren[childStart[node], childStart[node + 1])</tt> */
+	final int[] childStart;
+	final int[] clusterChildren;
+	
+	CondensedTree(int[] parent, int[] child, double[] lambda, int[] size) {
+		this.parent = parent;
+		this.child = child;
+		this.lambda = lambda;
+		this.size = size;
+		
+		int minParent = Integer.MAX_VALUE, maxParent = Integer.MIN_VALUE;
+		for(int p: parent) {
+			if(p < minParent)
+				minParent = p;
+			if(p > maxParent)
+				maxParent = p;
+		}
+		
+		this.root = parent.length == 0 ? 0 : minParent;
+		this.numNodes = parent.length == 0 ? 0 : maxParent - minParent + 1;
+		
+		// the child lists of the clusters, in row order
+		childStart = new int[numNodes + 1];
+		for(int i = 0; i < parent.length; i++)
+			if(size[i] > 1)
+				childStart[parent[i] - root + 1]++;
+		for(int node = 0; node < numNodes; node++)
+			childStart[node + 1] += childStart[node];
+		
+		clusterChildren = new int[childStart[numNodes]];
+		final int[] fill = Arrays.copyOf(childStart, numNodes);
+		for(int i = 0; i < parent.length; i++)
+			if(size[i] > 1)
+				clusterChildren[fill[parent[i] - root]++] = child[i];
+	}
+	
+	/**
+	 * A growable set of condensed tree rows
+	 */
+	private static class Builder {
+		int[] parent, child, size;
+		double[] lambda;
+		int n = 0;
+		
+		Builder(int capacity) {
+			parent = new int[capacity];
+			child = new int[capacity];
+			size = new int[capacity];
+			lambda = new double[capacity];
+		}
+		
+		void add(int p, int c, double l, int s) {
+			if(n == parent.length) {
+				final int cap = 2 * n + 1;
+				parent = Arrays.copyOf(parent, cap);
+				child = Arrays.copyOf(child, cap);
+				size = Arrays.copyOf(size, cap);
+				lambda = Arrays.copyOf(lambda, cap);
+			}
+			
+			parent[n] = p;
+			child[n] = c;
+			lambda[n] = l;
+			size[n] = s;
+			n++;
+		}
+		
+		CondensedTree build() {
+			return new CondensedTree(Arrays.copyOf(parent, n), Arrays.copyOf(child, n),
+				Arrays.copyOf(lambda, n), Arrays.copyOf(size, n));
+		}
+	}
+	
+	/**
+	 * Write the nodes of the single linkage tree below (and including) the root
+	 * to the buffer in breadth first order
+	 * @param hierarchy - the single linkage tree
+	 * @param root
+	 * @param out - the buffer, which must hold <tt>2 * hierarchy.length + 1</tt> nodes
+	 * @return the number of nodes written
+	 */
+	static int breadthFirstSearch(final double[][] hierarchy, final int root, final int[] out) {
+		final int numPoints = hierarchy.length + 1;
+		
+		// the output is its own fifo queue
+		int head = 0, tail = 0, node;
+		double[] row;
+		out[tail++] = root;
+		while(head < tail) {
+			node = out[head++];
+			if(node >= numPoints) {
+				row = hierarchy[node - numPoints];
+				out[tail++] = (int)row[0];
+				out[tail++] = (int)row[1];
+			}
+		}
+		
+		return tail;
+	}
+	
+	/**
+	 * Condense the single linkage tree into the tree of clusters of at
+	 * least <tt>minSize</tt> points, in the manner of the Python hdbscan library
+	 * @param hierarchy - the single linkage tree
+	 * @param minSize - the min cluster size
+	 * @return the condensed tree
+	 */
+	static CondensedTree condense(final double[][] hierarchy, final int minSize) {
+		final int m = hierarchy.length;
+		final int root = 2 * m, numPoints = m + 1;
+		int nextLabel = numPoints + 1;
+		
+		final int[] nodeList = new int[root + 1], subtree = new int[root + 1];
+		final int numNodes = breadthFirstSearch(hierarchy, root, nodeList);
+		final Builder result = new Builder(numPoints + 16);
+		
+		final int[] relabel = new int[root + 1];
+		final boolean[] ignore = new boolean[root + 1];
+		relabel[root] = numPoints;
+		
+		double[] children;
+		double lambda;
+		int node, left, right, leftCount, rightCount;
+		for(int i = 0; i < numNodes; i++) {
+			node = nodeList[i];
+			if(ignore[node] || node < numPoints)
+				continue;
+			
+			children = hierarchy[node - numPoints];
+			left = (int)children[0];
+			right = (int)children[1];
+			lambda = children[2] > 0 ? 1.0 / children[2] : Double.POSITIVE_INFINITY;
+			
+			leftCount = left >= numPoints ? (int)hierarchy[left - numPoints][3] : 1;
+			rightCount = right >= numPoints ? (int)hierarchy[right - numPoints][3] : 1;
+			
+			if(leftCount >= minSize && rightCount >= minSize) {
+				relabel[left] = nextLabel++;
+				result.add(relabel[node], relabel[left], lambda, leftCount);
+				
+				relabel[right] = nextLabel++;
+				result.add(relabel[node], relabel[right], lambda, rightCount);
+			} else if(leftCount < minSize && rightCount < minSize) {
+				fallOut(hierarchy, left, relabel[node], lambda, subtree, ignore, result);
+				fallOut(hierarchy, right, relabel[node], lambda, subtree, ignore, result);
+			} else if(leftCount < minSize) {
+				relabel[right] = relabel[node];
+				fallOut(hierarchy, left, relabel[node], lambda, subtree, ignore, result);
+			} else {
+				relabel[left] = relabel[node];
+				fallOut(hierarchy, right, relabel[node], lambda, subtree, ignore, result);
+			}
+		}
+		
+		return result.build();
+	}
+	
+	/**
+	 * The points below the node fall out of the cluster at lambda
+	 */
+	private static void fallOut(double[][] hierarchy, int node, int cluster, double lambda,
+			int[] buffer, boolean[] ignore, Builder result) {
+		final int numPoints = hierarchy.length + 1;
+		final int n = breadthFirstSearch(hierarchy, node, buffer);
+		
+		int sub;
+		for(int i = 0; i < n; i++) {
+			sub = buffer[i];
+			if(sub < numPoints)
+				result.add(cluster, sub, lambda, 1);
+			ignore[sub] = true;
+		}
+	}
+	
+	/**
+	 * The stability of each cluster node. A node's birth is the min lambda of
+	 * its rows as a child, except that the births of the root and of the largest 
+	 * child are never recorded and are left NaN. Parents beyond the largest child 
+	 * are treated as born at {@link GlobalState.Mathematics#TINY}.
+	 * @return the stability of each node, indexed by <tt>node - root</tt>
+	 */
+	double[] stability() {
+		if(0 == child.length)
+			return new double[numNodes];
+		
+		int largestChild = Integer.MIN_VALUE;
+		for(int c: child)
+			if(c > largestChild)
+				largestChild = c;
+		
+		final double[] births = new double[largestChild + 1];
+		Arrays.fill(births, Double.NaN);
+		
+		for(int i = 0; i < child.length; i++)
+			if(Double.isNaN(births[child[i]]) || lambda[i] < births[child[i]])
+				births[child[i]] = lambda[i];
+		births[largestChild] = Double.NaN;
+		
+		final double[] result = new double[numNodes];
+		double birthParent;
+		for(int i = 0; i < parent.length; i++) {
+			birthParent = parent[i] >= births.length ? GlobalState.Mathematics.TINY : births[parent[i]];
+			result[parent[i] - root] += (lambda[i] - birthParent) * size[i];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Select the clusters that maximize the total stability. Working from the
+	 * leaves up, a node is kept if it is more stable than its child clusters
+	 * combined, in which case its descendants are dropped; otherwise it takes
+	 * on their combined stability. The root is never selected.
+	 * @param stability - the stability of each node, which is updated in place
+	 * @return the selected cluster ids, ascending
+	 */
+	int[] selectClusters(final double[] stability) {
+		final boolean[] isCluster = new boolean[numNodes];
+		Arrays.fill(isCluster, true);
+		isCluster[0] = false;
+		
+		final int[] stack = new int[numNodes];
+		double subTreeStability;
+		int top, sub;
+		for(int node = numNodes - 1; node > 0; node--) {
+			subTreeStability = 0;
+			for(int j = childStart[node]; j < childStart[node + 1]; j++)
+				subTreeStability += stability[clusterChildren[j] - root];
+			
+			if(subTreeStability > stability[node]) {
+				isCluster[node] = false;
+				stability[node] = subTreeStability;
+			} else {
+				// drop every descendant
+				top = 0;
+				for(int j = childStart[node]; j < childStart[node + 1]; j++)
+					stack[top++] = clusterChildren[j] - root;
+				
+				while(top > 0) {
+					sub = stack[--top];
+					isCluster[sub] = false;
+					for(int j = childStart[sub]; j < childStart[sub + 1]; j++)
+						stack[top++] = clusterChildren[j] - root;
+				}
+			}
+		}
+		
+		int count = 0;
+		for(boolean b: isCluster)
+			if(b)
+				count++;
+		
+		final int[] clusters = new int[count];
+		count = 0;
+		for(int node = 0; node < numNodes; node++)
+			if(isCluster[node])
+				clusters[count++] = node + root;
+		
+		return clusters;
+	}
+	
+	/**
+	 * The selected cluster that owns each node, or -1 for nodes
+	 * outside of any selected cluster
+	 * @param selected - the selected cluster ids
+	 * @return the owning cluster id of each node, indexed by <tt>node - root</tt>
+	 */
+	int[] owners(final int[] selected) {
+		final int[] nodeParent = new int[numNodes];
+		Arrays.fill(nodeParent, -1);
+		for(int i = 0; i < child.length; i++)
+			if(child[i] >= root && child[i] - root < numNodes)
+				nodeParent[child[i] - root] = parent[i] - root;
+		
+		final int UNKNOWN = -2;
+		final int[] owner = new int[numNodes];
+		Arrays.fill(owner, UNKNOWN);
+		for(int c: selected)
+			owner[c - root] = c;
+		
+		// walk up from each node to the first with a known owner, then pass it back down
+		final int[] path = new int[numNodes];
+		int len, node, o;
+		for(int start = 0; start < numNodes; start++) {
+			len = 0;
+			node = start;
+			while(-1 != node && UNKNOWN == owner[node]) {
+				path[len++] = node;
+				node = nodeParent[node];
+			}
+			
+			o = -1 == node ? -1 : owner[node];
+			while(len > 0)
+				owner[path[--len]] = o;
+		}
+		
+		return owner;
+	}
+	
+	/**
+	 * Label each point by the index of the selected cluster that owns it,
+	 * with the clusters numbered in ascending order of their ids
+	 * @param selected - the selected cluster ids, ascending
+	 * @return the labels, or {@link NoiseyClusterer#NOISE_CLASS} for noise
+	 */
+	int[] labels(final int[] selected) {
+		final int[] owner = owners(selected);
+		final int[] clusterLabel = new int[numNodes];
+		for(int i = 0; i < selected.length; i++)
+			clusterLabel[selected[i] - root] = i;
+		
+		final int[] labels = new int[root];
+		Arrays.fill(labels, NoiseyClusterer.NOISE_CLASS);
+		
+		int o;
+		for(int i = 0; i < child.length; i++) {
+			if(child[i] < root) {
+				o = owner[parent[i] - root];
+				if(-1 != o)
+					labels[child[i]] = clusterLabel[o - root];
+			}
+		}
+		
+		return labels;
+	}
+	
+	/**
+	 * @return the rows as boxed tuples
+	 */
+	ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> toList() {
+		final ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> out = new ArrayList<>(parent.length);
+		for(int i = 0; i < parent.length; i++)
+			out.add(new CompQuadTup<Integer, Integer, Double, Integer>(parent[i], child[i], lambda[i], size[i]));
+		
+		return out;
+	}
+	
+	/**
+	 * @param rows - boxed <tt>[parent, child, lambda, child size]</tt> tuples
+	 * @return the condensed tree of the rows
+	 */
+	static CondensedTree fromList(ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> rows) {
+		final Builder b = new Builder(rows.size());
+		for(CompQuadTup<Integer, Integer, Double, Integer> q: rows)
+			b.add(q.getFirst(), q.getSecond(), q.getThird(), q.getFourth());
+		
+		return b.build();
+	}
+}
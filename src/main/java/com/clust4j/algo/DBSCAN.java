@@ -15,16 +15,19 @@
  *******************************************************************************/
 package com.clust4j.algo;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.RealMatrix;
 
+import com.clust4j.NamedEntity;
 import com.clust4j.algo.RadiusNeighborsParameters;
 import com.clust4j.log.LogTimer;
 import com.clust4j.log.Log.Tag.Algo;
+import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 import com.clust4j.metrics.pairwise.SimilarityMetric;
 import com.clust4j.utils.MatUtils;
@@ -65,12 +68,54 @@ final public class DBSCAN extends AbstractDBSCAN {
 		return !UNSUPPORTED_METRICS.contains(geo.getClass()) && !(geo instanceof SimilarityMetric);
 	}
 	
+	final public static DBSCANAlgorithm DEF_ALGO = DBSCANAlgorithm.AUTO;
+	
+	
+	/**
+	 * The algorithm used to find the neighborhoods in a {@link DBSCAN} fit.
+	 * Every algorithm yields the same labels.
+	 * @author Taylor G Smith
+	 */
+	public static enum DBSCANAlgorithm implements java.io.Serializable, NamedEntity {
+		/**
+		 * Use {@link #GRID} whenever it applies, and {@link #TREE} otherwise
+		 */
+		AUTO {
+			@Override public String getName() {
+				return "auto";
+			}
+		},
+		
+		/**
+		 * Find the neighborhoods via a dual-tree radius search
+		 * over a {@link KDTree} or {@link BallTree}
+		 */
+		TREE {
+			@Override public String getName() {
+				return "tree";
+			}
+		},
+		
+		/**
+		 * Index the points in a grid of cells with a diagonal of <tt>eps</tt>, 
+		 * which runs in near-linear time for low-dimensional data. Only valid for 
+		 * {@link Distance#EUCLIDEAN} with at most {@link DBSCANGrid#MAX_DIMS} features.
+		 */
+		GRID {
+			@Override public String getName() {
+				return "grid";
+			}
+		}
+	}
+	
+	
 	// Race conditions exist in retrieving either one of these...
 	private volatile int[] labels = null;
 	private volatile double[] sampleWeights = null;
 	private volatile boolean[] coreSamples = null;
 	private volatile int numClusters;
 	private volatile int numNoisey;
+	final private DBSCANAlgorithm algo;
 	
 	
 	
@@ -113,16 +158,28 @@ final public class DBSCAN extends AbstractDBSCAN {
 			setSeparabilityMetric(DEF_DIST);
 		}
 		
+		final boolean gridApplies = DBSCANGrid.isApplicable(getSeparabilityMetric(), data.getColumnDimension());
+		DBSCANAlgorithm algorithm = planner.getAlgorithm();
+		if(DBSCANAlgorithm.GRID == algorithm && !gridApplies) {
+			warn(algorithm.getName() + " algorithm is only valid for " + Distance.EUCLIDEAN.getName() 
+				+ " distance with at most " + DBSCANGrid.MAX_DIMS + " features; falling back to " 
+				+ DBSCANAlgorithm.TREE.getName());
+			algorithm = DBSCANAlgorithm.TREE;
+		} else if(DBSCANAlgorithm.AUTO == algorithm) {
+			algorithm = gridApplies ? DBSCANAlgorithm.GRID : DBSCANAlgorithm.TREE;
+		}
+		
+		this.algo = algorithm;
 		logModelSummary();
 	}
 	
 	@Override
 	final protected ModelSummary modelSummary() {
 		return new ModelSummary(new Object[]{
-				"Num Rows","Num Cols","Metric","Epsilon","Min Pts.","Allow Par."
+				"Num Rows","Num Cols","Metric","Algorithm","Epsilon","Min Pts.","Allow Par."
 			}, new Object[]{
 				m,data.getColumnDimension(),getSeparabilityMetric(),
-				eps, minPts,
+				algo.getName(), eps, minPts,
 				parallel
 			});
 	}
@@ -156,6 +213,10 @@ final public class DBSCAN extends AbstractDBSCAN {
 		return eps;
 	}
 	
+	public DBSCANAlgorithm getAlgorithm() {
+		return algo;
+	}
+	
 	@Override
 	public int[] getLabels() {
 		return super.handleLabelCopy(labels);
@@ -180,41 +241,48 @@ final public class DBSCAN extends AbstractDBSCAN {
 			// Do the neighborhood assignments, get sample weights, find core samples..
 			final LogTimer neighbTimer = new LogTimer();
 			labels = new int[m]; // Initialize labels...
-			sampleWeights = new double[m]; // Init sample weights...
-			coreSamples = new boolean[m];
-			
-			
-			// Fit the nearest neighbor model...
-			final LogTimer rnTimer = new LogTimer();
-			final RadiusNeighbors rnModel = new RadiusNeighbors(data,
-				new RadiusNeighborsParameters(eps)
-					.setSeed(getSeed())
-					.setMetric(getSeparabilityMetric())
-					.setVerbose(false))
-				.fit();
-			
-			info("fit RadiusNeighbors model in " + rnTimer.toString());
-			int[][] nearest = rnModel.getNeighbors().getIndices();
 			
+			final DBSCANGrid grid;
+			int[][] neighborhoods = null;
 			
-			int[] ptNeighbs;
-			ArrayList<int[]> neighborhoods = new ArrayList<>();
-			int numCorePts = 0;
-			for(int i = 0; i < m; i++) {
-				// Each label inits to -1 as noise
-				labels[i] = NOISE_CLASS;
-				ptNeighbs = nearest[i];
+			if(DBSCANAlgorithm.GRID == algo) {
+				// Every pair in a cell are neighbors, so neighborhoods are never stored
+				grid = new DBSCANGrid(data.getDataRef(), eps, minPts);
+				info("indexed points into " + grid.getNumCells() + " grid cells");
+				coreSamples = grid.findCoreSamples();
 				
-				// Add neighborhood...
-				int pts;
-				neighborhoods.add(ptNeighbs);
-				sampleWeights[i] = pts = ptNeighbs.length;
-				coreSamples[i] = pts >= minPts;
+			} else {
+				grid = null;
+				sampleWeights = new double[m]; // Init sample weights...
+				coreSamples = new boolean[m];
 				
-				if(coreSamples[i]) 
-					numCorePts++;
+				// Build the tree, but don't fit the model: the self-join below
+				// never materializes the neighborhoods of non-core points
+				final LogTimer rnTimer = new LogTimer();
+				final RadiusNeighbors rnModel = new RadiusNeighbors(this,
+					new RadiusNeighborsParameters(eps)
+						.setSeed(getSeed())
+						.setMetric(getSeparabilityMetric())
+						.setVerbose(false));
+				
+				info("built neighborhood tree in " + rnTimer.toString());
+				final int[] counts = rnModel.tree.countRadiusSelf(eps);
+				
+				for(int i = 0; i < m; i++) {
+					// the counts include the point itself; its neighborhood does not
+					sampleWeights[i] = counts[i] - 1;
+					coreSamples[i] = sampleWeights[i] >= minPts;
+				}
+				
+				// Only core points expand their neighborhoods
+				neighborhoods = rnModel.tree.queryRadiusSelf(eps, coreSamples, false);
 			}
 			
+			int numCorePts = 0;
+			for(boolean core: coreSamples)
+				if(core)
+					numCorePts++;
+			
 			
 			// Log checkpoint
 			info("completed density neighborhood calculations in " + neighbTimer.toString());
@@ -222,54 +290,16 @@ final public class DBSCAN extends AbstractDBSCAN {
 			
 			
 			// Label the points...
-			int nextLabel = 0, v;
-			final Stack<Integer> stack = new Stack<>();
-			int[] neighb;
+			final LogTimer labelTimer = new LogTimer();
+			final int nextLabel = null != grid ? grid.label(coreSamples, labels) :
+				new UnionFindLabeler(neighborhoods, coreSamples).label(labels, parallel);
 			
-			
-			LogTimer stackTimer = new LogTimer();
-			for(int i = 0; i < m; i++) {
-				stackTimer = new LogTimer();
-				
-				// Want to look at unlabeled OR core points...
-				if(labels[i] != NOISE_CLASS || !coreSamples[i])
-					continue;
-				
-		        // Depth-first search starting from i, ending at the non-core points.
-		        // This is very similar to the classic algorithm for computing connected
-		        // components, the difference being that we label non-core points as
-		        // part of a cluster (component), but don't expand their neighborhoods.
-				int labelCt = 0;
-				while(true) {
-					if(labels[i] == NOISE_CLASS) {
-						labels[i] = nextLabel;
-						labelCt++;
-						
-						if(coreSamples[i]) {
-							neighb = neighborhoods.get(i);
-							
-							for(i = 0; i < neighb.length; i++) {
-								v = neighb[i];
-								if(labels[v] == NOISE_CLASS)
-									stack.push(v);
-							}
-						}
-					}
-					
-
-					if(stack.size() == 0) {
-						fitSummary.add(new Object[]{
-							nextLabel, labelCt, stackTimer.formatTime(), stackTimer.wallTime()
-						});
-						
-						break;
-					}
-					
-					i = stack.pop();
-				}
-				
-				nextLabel++;
-			}
+			final int[] clusterSizes = new int[nextLabel];
+			for(int lab: labels) if(lab != NOISE_CLASS) clusterSizes[lab]++;
+			for(int c = 0; c < nextLabel; c++)
+				fitSummary.add(new Object[]{
+					c, clusterSizes[c], labelTimer.formatTime(), labelTimer.wallTime()
+				});
 			
 			
 			// Count missing
@@ -280,7 +310,7 @@ final public class DBSCAN extends AbstractDBSCAN {
 			// corner case: numNoisey == m (never gets a fit summary)
 			if(numNoisey == m)
 				fitSummary.add(new Object[]{
-					Double.NaN, 0, stackTimer.formatTime(), stackTimer.wallTime()
+					Double.NaN, 0, labelTimer.formatTime(), labelTimer.wallTime()
 				});
 			
 			
@@ -306,7 +336,7 @@ final public class DBSCAN extends AbstractDBSCAN {
 	@Override
 	final protected Object[] getModelFitSummaryHeaders() {
 		return new Object[]{
-			"Cluster #","Num. Core Pts.","Iter. Time","Wall"
+			"Cluster #","Num. Pts.","Iter. Time","Wall"
 		};
 	}
 	
@@ -376,4 +406,202 @@ final public class DBSCAN extends AbstractDBSCAN {
 		
 		return newLabels;
 	}
+	
+	/**
+	 * Labels the points from their neighborhoods via a lock-free union-find.
+	 * Each core point is unioned with its core neighbors, always linking
+	 * the larger root beneath the smaller, so every cluster is rooted at its
+	 * smallest core index no matter the order in which the unions land. Each
+	 * border point then joins the cluster with the smallest root among its core
+	 * neighbors, which is the cluster a serial depth-first expansion seeded in
+	 * index order would reach first. The labels are thus identical whether or
+	 * not the unions run in parallel.
+	 * @author Taylor G Smith
+	 */
+	static class UnionFindLabeler {
+		/** The default min number of points in a chunk of the parallel passes */
+		static final int MIN_PARALLEL_CHUNK_SIZE = 4096;
+		
+		final int[][] neighborhoods;
+		final boolean[] core;
+		final int m, chunkSize;
+		
+		/** 
+		 * The parent of each core point, or the root of the cluster
+		 * each border point joins ({@link Integer#MAX_VALUE} for noise)
+		 */
+		final AtomicIntegerArray parent;
+		
+		UnionFindLabeler(final int[][] neighborhoods, final boolean[] core) {
+			this(neighborhoods, core, MIN_PARALLEL_CHUNK_SIZE);
+		}
+		
+		/**
+		 * @param neighborhoods
+		 * @param core
+		 * @param chunkSize - the min number of points in a chunk of the parallel passes
+		 */
+		UnionFindLabeler(final int[][] neighborhoods, final boolean[] core, final int chunkSize) {
+			this.neighborhoods = neighborhoods;
+			this.core = core;
+			this.m = core.length;
+			this.chunkSize = chunkSize;
+			this.parent = new AtomicIntegerArray(m);
+			
+			for(int i = 0; i < m; i++)
+				parent.set(i, core[i] ? i : Integer.MAX_VALUE);
+		}
+		
+		/**
+		 * Find the root of a core point, halving the path as we go
+		 * @param x
+		 * @return the root
+		 */
+		int find(int x) {
+			int p, gp;
+			while((p = parent.get(x)) != x) {
+				gp = parent.get(p);
+				
+				// parents only ever decrease, so a failed CAS is harmless
+				if(p != gp)
+					parent.compareAndSet(x, p, gp);
+				x = gp;
+			}
+			
+			return x;
+		}
+		
+		void union(int a, int b) {
+			int tmp;
+			while(true) {
+				a = find(a);
+				b = find(b);
+				
+				if(a == b)
+					return;
+				if(a < b) {
+					tmp = a;
+					a = b;
+					b = tmp;
+				}
+				
+				// only succeeds if a is still a root
+				if(parent.compareAndSet(a, a, b))
+					return;
+			}
+		}
+		
+		/**
+		 * Offer a cluster root to a border point, keeping the smallest
+		 * @param border
+		 * @param root
+		 */
+		void offer(final int border, final int root) {
+			int current;
+			while(root < (current = parent.get(border)))
+				if(parent.compareAndSet(border, current, root))
+					return;
+		}
+		
+		void unionChunk(final int lo, final int hi) {
+			for(int i = lo; i < hi; i++) {
+				if(!core[i])
+					continue;
+				
+				for(int v: neighborhoods[i])
+					if(v > i && core[v]) // each core pair is seen from both sides
+						union(i, v);
+			}
+		}
+		
+		void borderChunk(final int lo, final int hi) {
+			int root;
+			for(int i = lo; i < hi; i++) {
+				if(!core[i])
+					continue;
+				
+				root = find(i);
+				for(int v: neighborhoods[i])
+					if(!core[v])
+						offer(v, root);
+			}
+		}
+		
+		/**
+		 * Label the points
+		 * @param labels - the output labels, numbered in order of each
+		 * cluster's smallest core index, or {@link AbstractDBSCAN#NOISE_CLASS}
+		 * @param parallel - whether to run the union and border passes in parallel
+		 * @return the number of clusters
+		 */
+		int label(final int[] labels, final boolean parallel) {
+			run(new LabelTask(this, true, parallel, 0, m), parallel);
+			run(new LabelTask(this, false, parallel, 0, m), parallel);
+			
+			// roots precede the rest of their clusters
+			int nextLabel = 0, root;
+			for(int i = 0; i < m; i++) {
+				if(core[i]) {
+					root = find(i);
+					labels[i] = root == i ? nextLabel++ : labels[root];
+				}
+			}
+			
+			for(int i = 0; i < m; i++) {
+				if(!core[i]) {
+					root = parent.get(i);
+					labels[i] = root == Integer.MAX_VALUE ? NOISE_CLASS : labels[root];
+				}
+			}
+			
+			return nextLabel;
+		}
+		
+		private static void run(final LabelTask task, final boolean parallel) {
+			if(!parallel)
+				task.compute();
+			else if(ForkJoinTask.inForkJoinPool()) // run in the caller's pool
+				task.invoke();
+			else
+				ParallelChunkingTask.getThreadPool().invoke(task);
+		}
+	}
+	
+	/**
+	 * Runs one pass of the {@link UnionFindLabeler} over a range of points
+	 * @author Taylor G Smith
+	 */
+	static class LabelTask extends RecursiveAction {
+		private static final long serialVersionUID = -5467930419372310522L;
+		
+		final UnionFindLabeler labeler;
+		final boolean unionPass, parallel;
+		final int lo, hi;
+		
+		LabelTask(UnionFindLabeler labeler, boolean unionPass, boolean parallel, int lo, int hi) {
+			this.labeler = labeler;
+			this.unionPass = unionPass;
+			this.parallel = parallel;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= labeler.chunkSize) {
+				if(unionPass)
+					labeler.unionChunk(lo, hi);
+				else
+					labeler.borderChunk(lo, hi);
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				LabelTask left  = new LabelTask(labeler, unionPass, parallel, this.lo, mid);
+				LabelTask right = new LabelTask(labeler, unionPass, parallel, mid, this.hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+	}
 }
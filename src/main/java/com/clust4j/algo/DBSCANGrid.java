@@ -0,0 +1,570 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.algo;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.metrics.pairwise.Distance;
+import com.clust4j.metrics.pairwise.GeometricallySeparable;
+
+/**
+ * Exact grid-based DBSCAN for low-dimensional Euclidean data, after
+ * <a href="http://www.win.tue.nl/~gunawan/papers/msc-thesis.pdf">Gunawan (2013)</a>.
+ * The space is cut into cells with a diagonal of <tt>eps</tt>, so every
+ * pair of points sharing a cell are neighbors. A cell holding more than
+ * <tt>minPts</tt> points is therefore all core points, and only the points
+ * of sparser cells need their neighbors counted. Cells are kept in an open
+ * addressing hash table keyed by their integer coordinates, and the points
+ * of each cell occupy a contiguous range of a single index array.
+ * <p>
+ * The core points of a cell always share a cluster, so clusters are formed by
+ * merging neighboring core cells whose closest pair of core points is within
+ * <tt>eps</tt>. As in {@link DBSCAN.UnionFindLabeler}, the clusters are numbered in
+ * order of their smallest core index and each border point joins the lowest
+ * numbered cluster among its core neighbors, so the labels are identical.
+ *
+ * @author Taylor G Smith
+ */
+final class DBSCANGrid {
+	/** The max dimensionality for which the grid is used */
+	final static int MAX_DIMS = 4;
+	
+	/**
+	 * The cell side is shrunk by this factor so that rounding in the cell
+	 * assignment can never place two points further than <tt>eps</tt>
+	 * apart in the same cell
+	 */
+	final static double CELL_SHRINK = 1.0 - 1e-6;
+	final static int EMPTY = -1;
+	/** Partitions this small are insertion sorted */
+	final static int SORT_THRESHOLD = 16;
+	
+	final int m, d, minPts;
+	/** The squared radius, which is compared against squared distances */
+	final double eps2;
+	final double side;
+	
+	/** The cell of each point */
+	final int[] cellOf;
+	/** The point indices, sorted by cell and then by index */
+	final int[] order;
+	/** The points of cell <tt>c</tt> are at positions <tt>cellStart[c]..cellStart[c + 1] - 1</tt> of {@link #order} */
+	final int[] cellStart;
+	/** The coordinates of the points in {@link #order}, <tt>d</tt> per point */
+	final double[] points;
+	/** The offsets of all the cells that may hold points within <tt>eps</tt> of a cell */
+	final int[][] offsets;
+	
+	/** 
+	 * The integer coordinates of each cell, <tt>d</tt> per cell. The cells 
+	 * are numbered in lexicographic order of their coordinates, so neighboring
+	 * cells tend to lie close together in memory.
+	 */
+	private long[] cellKeys;
+	/** The hash table of cell indices */
+	private int[] table;
+	private int nCells;
+	
+	
+	static boolean isApplicable(final GeometricallySeparable metric, final int dims) {
+		return Distance.EUCLIDEAN.equals(metric) && dims <= MAX_DIMS;
+	}
+	
+	DBSCANGrid(final double[][] X, final double eps, final int minPts) {
+		this.m = X.length;
+		this.d = X[0].length;
+		this.minPts = minPts;
+		this.eps2 = eps * eps;
+		this.side = CELL_SHRINK * eps / FastMath.sqrt(d);
+		this.offsets = neighborOffsets(d);
+		
+		this.cellKeys = new long[16 * d];
+		this.table = new int[32];
+		Arrays.fill(table, EMPTY);
+		
+		// hash each point into its cell
+		this.cellOf = new int[m];
+		final long[] key = new long[d];
+		for(int i = 0; i < m; i++) {
+			for(int k = 0; k < d; k++)
+				key[k] = (long)FastMath.floor(X[i][k] / side);
+			cellOf[i] = findOrInsert(key);
+		}
+		
+		renumberCells();
+		
+		// counting sort of the points by cell, which keeps them in index order
+		this.cellStart = new int[nCells + 1];
+		for(int i = 0; i < m; i++)
+			cellStart[cellOf[i] + 1]++;
+		for(int c = 0; c < nCells; c++)
+			cellStart[c + 1] += cellStart[c];
+		
+		this.order = new int[m];
+		final int[] next = new int[nCells];
+		System.arraycopy(cellStart, 0, next, 0, nCells);
+		for(int i = 0; i < m; i++)
+			order[next[cellOf[i]]++] = i;
+		
+		this.points = new double[m * d];
+		for(int j = 0; j < m; j++)
+			System.arraycopy(X[order[j]], 0, points, j * d, d);
+	}
+	
+	/**
+	 * The offsets of the cells whose closest corners are within the
+	 * diagonal of a cell, excluding the cell itself
+	 * @param d
+	 * @return the offsets
+	 */
+	static int[][] neighborOffsets(final int d) {
+		final int reach = 1 + (int)FastMath.floor(FastMath.sqrt(d));
+		final int width = 2 * reach + 1;
+		
+		int total = 1;
+		for(int k = 0; k < d; k++)
+			total *= width;
+		
+		final int[][] all = new int[total][];
+		int n = 0, gap, sum;
+		for(int code = 0; code < total; code++) {
+			final int[] offset = new int[d];
+			boolean zero = true;
+			sum = 0;
+			
+			for(int k = 0, rem = code; k < d; k++, rem /= width) {
+				offset[k] = rem % width - reach;
+				zero &= offset[k] == 0;
+				gap = FastMath.max(FastMath.abs(offset[k]) - 1, 0);
+				sum += gap * gap;
+			}
+			
+			if(!zero && sum <= d)
+				all[n++] = offset;
+		}
+		
+		return Arrays.copyOf(all, n);
+	}
+	
+	int getNumCells() {
+		return nCells;
+	}
+	
+	private static int hash(final long[] key, final int off, final int d) {
+		long h = 0x9E3779B97F4A7C15L;
+		for(int k = 0; k < d; k++) {
+			h ^= key[off + k];
+			h *= 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 31;
+		}
+		
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	private boolean keyEquals(final int cell, final long[] key) {
+		final int off = cell * d;
+		for(int k = 0; k < d; k++)
+			if(cellKeys[off + k] != key[k])
+				return false;
+		return true;
+	}
+	
+	private int findOrInsert(final long[] key) {
+		final int mask = table.length - 1;
+		int slot = hash(key, 0, d) & mask, cell;
+		
+		while((cell = table[slot]) != EMPTY) {
+			if(keyEquals(cell, key))
+				return cell;
+			slot = (slot + 1) & mask;
+		}
+		
+		// new cell
+		cell = nCells++;
+		if(cellKeys.length < nCells * d)
+			cellKeys = Arrays.copyOf(cellKeys, 2 * cellKeys.length);
+		System.arraycopy(key, 0, cellKeys, cell * d, d);
+		table[slot] = cell;
+		
+		// keep the load factor at or below one half
+		if(2 * nCells > table.length)
+			rehash(2 * table.length);
+		
+		return cell;
+	}
+	
+	private void rehash(final int size) {
+		table = new int[size];
+		Arrays.fill(table, EMPTY);
+		
+		final int mask = size - 1;
+		int slot;
+		for(int c = 0; c < nCells; c++) {
+			slot = hash(cellKeys, c * d, d) & mask;
+			while(table[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			table[slot] = c;
+		}
+	}
+	
+	/**
+	 * Renumber the cells in lexicographic order of their coordinates
+	 */
+	private void renumberCells() {
+		final int[] perm = new int[nCells];
+		for(int c = 0; c < nCells; c++)
+			perm[c] = c;
+		sortCells(perm, 0, nCells - 1);
+		
+		final int[] rank = new int[nCells];
+		final long[] keys = new long[nCells * d];
+		for(int c = 0; c < nCells; c++) {
+			rank[perm[c]] = c;
+			System.arraycopy(cellKeys, perm[c] * d, keys, c * d, d);
+		}
+		
+		cellKeys = keys;
+		for(int i = 0; i < m; i++)
+			cellOf[i] = rank[cellOf[i]];
+		for(int slot = 0; slot < table.length; slot++)
+			if(table[slot] != EMPTY)
+				table[slot] = rank[table[slot]];
+	}
+	
+	private int compareCells(final int a, final int b) {
+		final int offA = a * d, offB = b * d;
+		for(int k = 0; k < d; k++)
+			if(cellKeys[offA + k] != cellKeys[offB + k])
+				return cellKeys[offA + k] < cellKeys[offB + k] ? -1 : 1;
+		return 0;
+	}
+	
+	/**
+	 * Quicksort the cells in <tt>perm[lo..hi]</tt> by their coordinates,
+	 * recursing into the smaller partition
+	 */
+	private void sortCells(final int[] perm, int lo, int hi) {
+		int i, j, pivot, tmp;
+		
+		while(hi - lo > SORT_THRESHOLD) {
+			pivot = perm[(lo + hi) >>> 1];
+			i = lo;
+			j = hi;
+			
+			while(i <= j) {
+				while(compareCells(perm[i], pivot) < 0) i++;
+				while(compareCells(perm[j], pivot) > 0) j--;
+				
+				if(i <= j) {
+					tmp = perm[i];
+					perm[i++] = perm[j];
+					perm[j--] = tmp;
+				}
+			}
+			
+			if(j - lo < hi - i) {
+				sortCells(perm, lo, j);
+				lo = i;
+			} else {
+				sortCells(perm, i, hi);
+				hi = j;
+			}
+		}
+		
+		// insertion sort the rest
+		for(i = lo + 1; i <= hi; i++) {
+			tmp = perm[i];
+			for(j = i - 1; j >= lo && compareCells(perm[j], tmp) > 0; j--)
+				perm[j + 1] = perm[j];
+			perm[j + 1] = tmp;
+		}
+	}
+	
+	/**
+	 * Enumerates the neighboring cells of each cell, for cells visited in increasing
+	 * order. The neighbors sharing all but the last coordinate form a row, which is a
+	 * contiguous run of the lexicographically numbered cells, so rather than probing
+	 * the hash table once per offset, one cursor per row only ever advances.
+	 * @author Taylor G Smith
+	 */
+	final class NeighborSweep {
+		/** The first <tt>d - 1</tt> coordinates of each row's offset */
+		final int[][] rows;
+		/** The max distance in the last coordinate of each row's cells */
+		final int[] reach;
+		final int[] cursor;
+		final long[] target = new long[d];
+		
+		NeighborSweep() {
+			final int[][] prefixes = new int[offsets.length][];
+			final int[] reaches = new int[offsets.length];
+			int n = 0, r;
+			
+			search:
+			for(int[] offset: offsets) {
+				final int[] prefix = Arrays.copyOf(offset, d - 1);
+				final int last = FastMath.abs(offset[d - 1]);
+				
+				for(r = 0; r < n; r++) {
+					if(Arrays.equals(prefixes[r], prefix)) {
+						reaches[r] = FastMath.max(reaches[r], last);
+						continue search;
+					}
+				}
+				
+				prefixes[n] = prefix;
+				reaches[n++] = last;
+			}
+			
+			this.rows = Arrays.copyOf(prefixes, n);
+			this.reach = Arrays.copyOf(reaches, n);
+			this.cursor = new int[n];
+		}
+		
+		private int compareTarget(final int cell) {
+			final int off = cell * d;
+			for(int k = 0; k < d; k++)
+				if(cellKeys[off + k] != target[k])
+					return cellKeys[off + k] < target[k] ? -1 : 1;
+			return 0;
+		}
+		
+		private boolean inRow(final int cell, final long maxLast) {
+			final int off = cell * d;
+			for(int k = 0; k < d - 1; k++)
+				if(cellKeys[off + k] != target[k])
+					return false;
+			return cellKeys[off + d - 1] <= maxLast;
+		}
+		
+		/**
+		 * Collect the non-empty cells that may hold points within <tt>eps</tt>
+		 * of any point in a cell. Successive calls must not decrease the cell.
+		 * @param cell
+		 * @param buf - the output buffer, at least as long as {@link DBSCANGrid#offsets}
+		 * @return the number of cells in <tt>buf</tt>
+		 */
+		int neighbors(final int cell, final int[] buf) {
+			final int off = cell * d, last = off + d - 1;
+			int n = 0, p;
+			
+			for(int r = 0; r < rows.length; r++) {
+				for(int k = 0; k < d - 1; k++)
+					target[k] = cellKeys[off + k] + rows[r][k];
+				target[d - 1] = cellKeys[last] - reach[r];
+				
+				p = cursor[r];
+				while(p < nCells && compareTarget(p) < 0)
+					p++;
+				cursor[r] = p;
+				
+				for(final long maxLast = cellKeys[last] + reach[r]; p < nCells && inRow(p, maxLast); p++)
+					if(p != cell)
+						buf[n++] = p;
+			}
+			
+			return n;
+		}
+	}
+	
+	/**
+	 * The squared distance between the points at two positions of {@link #order}
+	 */
+	private double rdist(final int a, final int b) {
+		final int offA = a * d, offB = b * d;
+		double sum = 0, diff;
+		for(int k = 0; k < d; k++) {
+			diff = points[offA + k] - points[offB + k];
+			sum += diff * diff;
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Find the core points, which have at least <tt>minPts</tt>
+	 * neighbors within <tt>eps</tt>, not counting themselves
+	 * @return the core mask
+	 */
+	boolean[] findCoreSamples() {
+		final boolean[] core = new boolean[m];
+		final NeighborSweep sweep = new NeighborSweep();
+		final int[] nbrs = new int[offsets.length];
+		
+		int size, n, count, total;
+		for(int c = 0; c < nCells; c++) {
+			size = cellStart[c + 1] - cellStart[c];
+			
+			// every pair in a cell are neighbors
+			if(size > minPts) {
+				for(int j = cellStart[c]; j < cellStart[c + 1]; j++)
+					core[order[j]] = true;
+				continue;
+			}
+			
+			// skip the distances if even the whole neighborhood is too sparse
+			n = sweep.neighbors(c, nbrs);
+			total = size - 1;
+			for(int b = 0; b < n; b++)
+				total += cellStart[nbrs[b] + 1] - cellStart[nbrs[b]];
+			if(total < minPts)
+				continue;
+			
+			for(int j = cellStart[c]; j < cellStart[c + 1]; j++) {
+				count = size - 1;
+				
+				search:
+				for(int b = 0; b < n && count < minPts; b++) {
+					for(int q = cellStart[nbrs[b]]; q < cellStart[nbrs[b] + 1]; q++) {
+						if(rdist(j, q) <= eps2 && ++count >= minPts)
+							break search;
+					}
+				}
+				
+				core[order[j]] = count >= minPts;
+			}
+		}
+		
+		return core;
+	}
+	
+	/**
+	 * Whether any core point in one cell is within <tt>eps</tt> of a point
+	 * @param j - the position of the point in {@link #order}
+	 * @param cell
+	 * @param core
+	 * @return whether the point neighbors a core point of the cell
+	 */
+	private boolean nearCore(final int j, final int cell, final boolean[] core) {
+		for(int q = cellStart[cell]; q < cellStart[cell + 1]; q++)
+			if(core[order[q]] && rdist(j, q) <= eps2)
+				return true;
+		
+		return false;
+	}
+	
+	/**
+	 * Whether the closest pair of core points across two cells is within <tt>eps</tt>
+	 * @param a
+	 * @param b
+	 * @param core
+	 * @return whether the cells' core points belong to the same cluster
+	 */
+	private boolean coreCellsTouch(final int a, final int b, final boolean[] core) {
+		for(int j = cellStart[a]; j < cellStart[a + 1]; j++)
+			if(core[order[j]] && nearCore(j, b, core))
+				return true;
+		
+		return false;
+	}
+	
+	private static int findRoot(final int[] parent, int x) {
+		while(parent[x] != x) {
+			parent[x] = parent[parent[x]];
+			x = parent[x];
+		}
+		
+		return x;
+	}
+	
+	/**
+	 * Label the points
+	 * @param core - the core mask from {@link #findCoreSamples()}
+	 * @param labels - the output labels, numbered in order of each
+	 * cluster's smallest core index, or {@link AbstractDBSCAN#NOISE_CLASS}
+	 * @return the number of clusters
+	 */
+	int label(final boolean[] core, final int[] labels) {
+		final boolean[] coreCell = new boolean[nCells];
+		final boolean[] borderCell = new boolean[nCells];
+		for(int i = 0; i < m; i++) {
+			if(core[i])
+				coreCell[cellOf[i]] = true;
+			else
+				borderCell[cellOf[i]] = true;
+		}
+		
+		// merge the neighboring core cells
+		final int[] parent = new int[nCells];
+		for(int c = 0; c < nCells; c++)
+			parent[c] = c;
+		
+		NeighborSweep sweep = new NeighborSweep();
+		final int[] nbrs = new int[offsets.length];
+		int n, a, b;
+		for(int c = 0; c < nCells; c++) {
+			if(!coreCell[c])
+				continue;
+			
+			n = sweep.neighbors(c, nbrs);
+			for(int j = 0; j < n; j++) {
+				if(nbrs[j] < c || !coreCell[nbrs[j]]) // each pair is seen from both sides
+					continue;
+				
+				a = findRoot(parent, c);
+				b = findRoot(parent, nbrs[j]);
+				if(a != b && coreCellsTouch(c, nbrs[j], core))
+					parent[FastMath.max(a, b)] = FastMath.min(a, b);
+			}
+		}
+		
+		// number the clusters in order of their smallest core index
+		final int[] clusterOf = new int[nCells];
+		Arrays.fill(clusterOf, EMPTY);
+		
+		int nextLabel = 0, root;
+		for(int i = 0; i < m; i++) {
+			if(core[i]) {
+				root = findRoot(parent, cellOf[i]);
+				if(clusterOf[root] == EMPTY)
+					clusterOf[root] = nextLabel++;
+				labels[i] = clusterOf[root];
+			}
+		}
+		
+		// border points join the lowest numbered neighboring cluster
+		int best, own, cluster;
+		sweep = new NeighborSweep();
+		for(int c = 0; c < nCells; c++) {
+			if(!borderCell[c])
+				continue;
+			
+			own = coreCell[c] ? clusterOf[findRoot(parent, c)] : Integer.MAX_VALUE;
+			n = sweep.neighbors(c, nbrs);
+			
+			for(int j = cellStart[c]; j < cellStart[c + 1]; j++) {
+				if(core[order[j]])
+					continue;
+				
+				best = own;
+				for(int q = 0; q < n; q++) {
+					if(!coreCell[nbrs[q]])
+						continue;
+					
+					cluster = clusterOf[findRoot(parent, nbrs[q])];
+					if(cluster < best && nearCore(j, nbrs[q], core))
+						best = cluster;
+				}
+				
+				labels[order[j]] = best == Integer.MAX_VALUE ? AbstractDBSCAN.NOISE_CLASS : best;
+			}
+		}
+		
+		return nextLabel;
+	}
+}
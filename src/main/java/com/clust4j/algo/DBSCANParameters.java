@@ -21,6 +21,7 @@ import java.util.Random;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import com.clust4j.algo.AbstractDBSCAN.AbstractDBSCANParameters;
+import com.clust4j.algo.DBSCAN.DBSCANAlgorithm;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 
 /**
@@ -32,6 +33,7 @@ final public class DBSCANParameters extends AbstractDBSCANParameters<DBSCAN> {
 	private static final long serialVersionUID = -5285244186285768512L;
 	
 	private double eps = DBSCAN.DEF_EPS;
+	private DBSCANAlgorithm algo = DBSCAN.DEF_ALGO;
 	
 	
 	public DBSCANParameters() { }
@@ -52,13 +54,24 @@ final public class DBSCANParameters extends AbstractDBSCANParameters<DBSCAN> {
 			.setMetric(metric)
 			.setSeed(seed)
 			.setVerbose(verbose)
-			.setForceParallel(parallel);
+			.setForceParallel(parallel)
+			.setCopyData(copyData)
+			.setAlgorithm(algo);
+	}
+	
+	public DBSCANAlgorithm getAlgorithm() {
+		return algo;
 	}
 	
 	public double getEps() {
 		return eps;
 	}
 	
+	public DBSCANParameters setAlgorithm(final DBSCANAlgorithm algo) {
+		this.algo = algo;
+		return this;
+	}
+	
 	public DBSCANParameters setEps(final double eps) {
 		this.eps = eps;
 		return this;
@@ -92,4 +105,10 @@ final public class DBSCANParameters extends AbstractDBSCANParameters<DBSCAN> {
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public DBSCANParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,440 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.algo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.metrics.pairwise.DistanceStorage;
+import com.clust4j.metrics.pairwise.GeometricallySeparable;
+
+/**
+ * The swap phase of PAM (partitioning around medoids), after the FastPAM2
+ * algorithm of Schubert and Rousseeuw (<a href="https://arxiv.org/abs/1810.05691">2019</a>).
+ * Each record keeps the slot of its nearest medoid and its distances to the nearest
+ * and second nearest medoids, so the change in cost of swapping a candidate in for
+ * <i>every</i> medoid is found in a single pass over the records. Each iteration
+ * evaluates every candidate, then applies the best swap found for each medoid
+ * that still improves the cost once the swaps before it are made.
+ * <p>
+ * Memory is linear in the number of records; distances are read from a
+ * {@link Dissimilarity}, which may compute them on demand. The candidates are
+ * spread across the pool in fixed ranges, and ties go to the lowest candidate,
+ * so parallel and serial swaps are identical.
+ *
+ * @author Taylor G Smith
+ */
+final class FastPAM {
+	/** The default min number of records in a parallel chunk */
+	static final int MIN_PARALLEL_CHUNK_SIZE = 256;
+	
+	final Dissimilarity dist;
+	final int m, k;
+	final boolean parallel;
+	/** The min number of records in a parallel chunk */
+	final int chunkSize;
+	
+	/** The record index of the medoid in each slot */
+	final int[] medoids;
+	/** The slot of each record's nearest medoid */
+	final int[] nearest;
+	/** Each record's distance to its nearest and second nearest medoid */
+	final double[] dNearest, dSecond;
+	/** The cost of removing the medoid in each slot */
+	final double[] removalLoss;
+	
+	/** Whether the last iteration found no improving swap */
+	boolean converged = false;
+	
+	
+	/**
+	 * The distance between two records
+	 * @author Taylor G Smith
+	 */
+	static abstract class Dissimilarity {
+		final int m;
+		
+		Dissimilarity(int m) {
+			this.m = m;
+		}
+		
+		abstract double get(int i, int j);
+		
+		/**
+		 * @param X
+		 * @param metric
+		 * @return distances computed on demand by the metric
+		 */
+		static Dissimilarity of(final double[][] X, final GeometricallySeparable metric) {
+			return new Dissimilarity(X.length) {
+				@Override
+				double get(int i, int j) {
+					return metric.getDistance(X[i], X[j]);
+				}
+			};
+		}
+		
+		/**
+		 * @param condensed - the condensed distance matrix of m records
+		 * @param m
+		 * @return distances read from the matrix
+		 */
+		static Dissimilarity of(final double[] condensed, final int m) {
+			return new Dissimilarity(m) {
+				@Override
+				double get(int i, int j) {
+					return condensed[(int)DistanceStorage.condensedIndex(m,
+						FastMath.min(i, j), FastMath.max(i, j))];
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Assign each record to its nearest of the medoids
+	 * @param dist
+	 * @param medoids - the distinct record indices of the initial medoids
+	 * @param parallel
+	 */
+	FastPAM(Dissimilarity dist, int[] medoids, boolean parallel) {
+		this(dist, medoids, parallel, MIN_PARALLEL_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Assign each record to its nearest of the medoids
+	 * @param dist
+	 * @param medoids - the distinct record indices of the initial medoids
+	 * @param parallel
+	 * @param chunkSize - the min number of records in a parallel chunk
+	 */
+	FastPAM(Dissimilarity dist, int[] medoids, boolean parallel, int chunkSize) {
+		this.dist = dist;
+		this.m = dist.m;
+		this.k = medoids.length;
+		this.parallel = parallel;
+		this.chunkSize = chunkSize;
+		this.medoids = medoids.clone();
+		this.nearest = new int[m];
+		this.dNearest = new double[m];
+		this.dSecond = new double[m];
+		this.removalLoss = new double[k];
+		
+		assign();
+	}
+	
+	/**
+	 * @return the sum of each record's distance to its nearest medoid
+	 */
+	double cost() {
+		double cost = 0;
+		for(double d: dNearest)
+			cost += d;
+		return cost;
+	}
+	
+	/**
+	 * @return the cost of each medoid's cluster, by slot
+	 */
+	double[] clusterCosts() {
+		final double[] costs = new double[k];
+		for(int i = 0; i < m; i++)
+			costs[nearest[i]] += dNearest[i];
+		return costs;
+	}
+	
+	/**
+	 * Whether the metric cannot partition the records, i.e., each record is
+	 * as far from its nearest medoid as its second, and the records are all
+	 * equally far from their second nearest medoid
+	 */
+	boolean isDegenerate() {
+		for(int i = 0; i < m; i++) {
+			if(dSecond[i] != dSecond[0])
+				return false;
+			if(dNearest[i] != dSecond[i] && !contains(i))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private boolean contains(int record) {
+		for(int medoid: medoids)
+			if(medoid == record)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Run one iteration of the swap phase
+	 * @param tolerance - the min decrease in cost for a swap to be made
+	 * @return whether any swap was made
+	 */
+	boolean swap(final double tolerance) {
+		final SwapTask task = new SwapTask(this);
+		final Swaps best;
+		if(!parallel)
+			best = task.compute();
+		else if(ForkJoinTask.inForkJoinPool())
+			best = task.invoke();
+		else
+			best = ParallelChunkingTask.getThreadPool().invoke(task);
+		
+		// apply the best swaps in order of their improvement
+		final Integer[] order = new Integer[k];
+		for(int s = 0; s < k; s++)
+			order[s] = s;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(best.delta[a], best.delta[b]);
+			}
+		});
+		
+		int swaps = 0;
+		for(int s: order) {
+			final int candidate = best.candidate[s];
+			if(-1 == candidate || !(best.delta[s] < -tolerance))
+				break;
+			
+			// the first swap is exact; later ones must be rechecked
+			if(swaps > 0 && (contains(candidate) || !(swapDelta(s, candidate) < -tolerance)))
+				continue;
+			
+			medoids[s] = candidate;
+			assign();
+			swaps++;
+		}
+		
+		converged = 0 == swaps;
+		return !converged;
+	}
+	
+	/**
+	 * The exact change in cost of swapping the candidate in for the medoid in the slot
+	 */
+	double swapDelta(final int slot, final int candidate) {
+		double delta = 0, d;
+		for(int o = 0; o < m; o++) {
+			d = o == candidate ? 0.0 : dist.get(o, candidate);
+			
+			if(nearest[o] == slot)
+				delta += FastMath.min(d, dSecond[o]) - dNearest[o];
+			else if(d < dNearest[o])
+				delta += d - dNearest[o];
+		}
+		
+		return delta;
+	}
+	
+	/**
+	 * Recompute each record's nearest and second nearest medoids
+	 */
+	private void assign() {
+		final AssignTask task = new AssignTask(this, 0, m);
+		if(!parallel)
+			task.compute();
+		else if(ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			ParallelChunkingTask.getThreadPool().invoke(task);
+		
+		Arrays.fill(removalLoss, 0.0);
+		for(int i = 0; i < m; i++)
+			removalLoss[nearest[i]] += dSecond[i] - dNearest[i];
+	}
+	
+	
+	/**
+	 * Assigns a range of the records to their nearest medoids. A medoid
+	 * is always nearest to itself, even if another medoid duplicates it.
+	 * @author Taylor G Smith
+	 */
+	static class AssignTask extends RecursiveAction {
+		private static final long serialVersionUID = -1376584127092584738L;
+		
+		final FastPAM pam;
+		final int lo, hi;
+		
+		AssignTask(FastPAM pam, int lo, int hi) {
+			this.pam = pam;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!pam.parallel || hi - lo <= pam.chunkSize) {
+				assignChunk();
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				AssignTask left  = new AssignTask(pam, this.lo, mid);
+				AssignTask right = new AssignTask(pam, mid, this.hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+		
+		private void assignChunk() {
+			final int[] medoids = pam.medoids;
+			double d, d1, d2;
+			int n1;
+			
+			for(int i = lo; i < hi; i++) {
+				d1 = d2 = Double.POSITIVE_INFINITY;
+				n1 = 0;
+				
+				for(int s = 0; s < medoids.length; s++) {
+					if(i == medoids[s]) {
+						d2 = d1;
+						d1 = 0.0;
+						n1 = s;
+						continue;
+					}
+					
+					// a medoid keeps itself even if another is as near
+					d = pam.dist.get(i, medoids[s]);
+					if(d < d1 && i != medoids[n1]) {
+						d2 = d1;
+						d1 = d;
+						n1 = s;
+					} else if(d < d2) {
+						d2 = d;
+					}
+				}
+				
+				pam.nearest[i] = n1;
+				pam.dNearest[i] = d1;
+				pam.dSecond[i] = d2;
+			}
+		}
+	}
+	
+	
+	/**
+	 * The best candidate found for each medoid slot, and the change in cost
+	 * of swapping it in; -1 if there is no candidate
+	 */
+	static class Swaps {
+		final double[] delta;
+		final int[] candidate;
+		
+		Swaps(int k) {
+			delta = new double[k];
+			candidate = new int[k];
+			Arrays.fill(delta, Double.POSITIVE_INFINITY);
+			Arrays.fill(candidate, -1);
+		}
+		
+		/**
+		 * Merge the swaps of a later range of candidates into these
+		 */
+		Swaps merge(Swaps later) {
+			for(int s = 0; s < delta.length; s++) {
+				if(later.delta[s] < delta[s]) {
+					delta[s] = later.delta[s];
+					candidate[s] = later.candidate[s];
+				}
+			}
+			
+			return this;
+		}
+	}
+	
+	/**
+	 * Finds the best swap for each medoid over a range of candidates,
+	 * recursively splitting the range across the pool
+	 * @author Taylor G Smith
+	 */
+	static class SwapTask extends RecursiveTask<Swaps> {
+		private static final long serialVersionUID = 5307142217783467611L;
+		
+		final FastPAM pam;
+		final int lo, hi;
+		
+		SwapTask(FastPAM pam) {
+			this(pam, 0, pam.m);
+		}
+		
+		SwapTask(FastPAM pam, int lo, int hi) {
+			this.pam = pam;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected Swaps compute() {
+			if(!pam.parallel || hi - lo <= pam.chunkSize)
+				return swapChunk();
+			
+			int mid = this.lo + (this.hi - this.lo) / 2;
+			SwapTask left  = new SwapTask(pam, this.lo, mid);
+			SwapTask right = new SwapTask(pam, mid, this.hi);
+			
+			left.fork();
+			final Swaps r = right.compute();
+			return left.join().merge(r);
+		}
+		
+		private Swaps swapChunk() {
+			final int m = pam.m, k = pam.k;
+			final int[] nearest = pam.nearest;
+			final double[] dNearest = pam.dNearest, dSecond = pam.dSecond;
+			final Swaps best = new Swaps(k);
+			final double[] delta = new double[k];
+			
+			double acc, d, total;
+			int s;
+			for(int c = lo; c < hi; c++) {
+				if(pam.contains(c))
+					continue;
+				
+				// removing each medoid, then adding the candidate
+				System.arraycopy(pam.removalLoss, 0, delta, 0, k);
+				acc = 0;
+				
+				for(int o = 0; o < m; o++) {
+					d = o == c ? 0.0 : pam.dist.get(o, c);
+					s = nearest[o];
+					
+					if(d < dNearest[o]) {
+						acc += d - dNearest[o];
+						delta[s] += dNearest[o] - dSecond[o];
+					} else if(d < dSecond[o]) {
+						delta[s] += d - dSecond[o];
+					}
+				}
+				
+				for(s = 0; s < k; s++) {
+					total = delta[s] + acc;
+					if(total < best.delta[s]) {
+						best.delta[s] = total;
+						best.candidate[s] = c;
+					}
+				}
+			}
+			
+			return best;
+		}
+	}
+}
@@ -17,11 +17,7 @@ package com.clust4j.algo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -30,7 +26,6 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.Precision;
 
-import com.clust4j.GlobalState;
 import com.clust4j.utils.QuadTup;
 import com.clust4j.algo.Neighborhood;
 import com.clust4j.log.LogTimer;
@@ -39,6 +34,7 @@ import com.clust4j.log.Log.Tag.Algo;
 import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.pairwise.DistanceMetric;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.Pairwise;
 import com.clust4j.utils.EntryPair;
 import com.clust4j.utils.Series.Inequality;
@@ -66,6 +62,7 @@ final public class HDBSCAN extends AbstractDBSCAN {
 	public static final boolean DEF_APPROX_MIN_SPAN = true;
 	public static final int DEF_LEAF_SIZE = 40;
 	public static final int DEF_MIN_CLUST_SIZE = 5;
+	public static final DistanceStorage.Type DEF_STORAGE = DistanceStorage.Type.HEAP;
 	/** The number of features that should trigger a boruvka implementation */
 	static final int boruvka_n_features_ = 60;
 	static final Set<Class<? extends GeometricallySeparable>> fast_metrics_;
@@ -76,9 +73,12 @@ final public class HDBSCAN extends AbstractDBSCAN {
 	private final boolean approxMinSpanTree;
 	private final int min_cluster_size;
 	private final int leafSize;
-
+	/** Where the {@link HDBSCAN_Algorithm#GENERIC} algorithm stores its distance matrix */
+	private final DistanceStorage.Type storage;
+	
 	private volatile HDBSCANLinkageTree tree = null;
-	private volatile double[][] dist_mat = null;
+	/** The state kept after fitting to {@link #approximatePredict(RealMatrix) predict} new points */
+	private volatile HDBSCANPredictor predictor = null;
 	private volatile int[] labels = null;
 	private volatile int numClusters = -1;
 	private volatile int numNoisey = -1;
@@ -306,7 +306,9 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		this.approxMinSpanTree = planner.getApprox();
 		this.min_cluster_size = planner.getMinClusterSize();
 		this.leafSize = planner.getLeafSize();
+		this.storage = planner.getDistanceStorage();
 		
+		if(null == storage) throw new IllegalArgumentException("distance storage cannot be null");
 		if(alpha <= 0.0) throw new IllegalArgumentException("alpha must be greater than 0");
 		if(leafSize < 1) throw new IllegalArgumentException("leafsize must be greater than 0");
 		
@@ -389,41 +391,6 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		}
 	}
 	
-	/**
-	 * A simple extension of {@link HashSet} that takes
-	 * an array or varargs as a constructor arg
-	 * @author Taylor G Smith
-	 * @param <T>
-	 */
-	protected final static class HSet<T> extends HashSet<T> {
-		private static final long serialVersionUID = 5185550036712184095L;
-		
-		HSet(int size) {
-			super(size);
-		}
-		
-		HSet(Collection<? extends T> coll) {
-			super(coll);
-		}
-	}
-	
-	/**
-	 * Constructs an {@link HSet} from the labels
-	 * @author Taylor G Smith
-	 */
-	protected final static class LabelHSetFactory {
-		static HSet<Integer> build(int[] labs) {
-			HSet<Integer> res = new HSet<Integer>(labs.length);
-			for(int i: labs)
-				res.add(i);
-			
-			return res;
-		}
-	}
-	
-	
-	
-	
 	/** Classes that will explicitly need to define 
 	 *  reachability will have to implement this interface */
 	interface ExplicitMutualReachability { double[][] mutualReachability(); }
@@ -441,6 +408,14 @@ final public class HDBSCAN extends AbstractDBSCAN {
 	interface Prim {}
 	
 	
+	/**
+	 * Random access to the (i, j) distance for the linkage methods
+	 * @author Taylor G Smith
+	 */
+	abstract static class DistanceLookup {
+		abstract double get(int i, int j);
+	}
+	
 	/**
 	 * Util mst linkage methods
 	 * @author Taylor G Smith
@@ -455,254 +430,33 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		 */
 		// Tested: passing
 		static ArrayList<Integer> breadthFirstSearch(final double[][] hierarchy, final int root) {
-			ArrayList<Integer> toProcess = new ArrayList<>(), tmp;
-			int dim = hierarchy.length, maxNode = 2*dim, numPoints = maxNode - dim+1;
+			final int[] nodes = new int[2 * hierarchy.length + 1];
+			final int n = CondensedTree.breadthFirstSearch(hierarchy, root, nodes);
 			
-			toProcess.add(root);
-			ArrayList<Integer> result = new ArrayList<>();
-			while(!toProcess.isEmpty()) {
-				result.addAll(toProcess);
-				
-				tmp = new ArrayList<>();
-				for(Integer x: toProcess)
-					if(x >= numPoints)
-						tmp.add(x - numPoints);
-				toProcess = tmp;
-				
-				tmp = new ArrayList<>();
-				if(!toProcess.isEmpty()) {
-					for(Integer row: toProcess)
-						for(int i = 0; i < 2; i++)
-							tmp.add((int) hierarchy[row][wraparoundIdxGet(hierarchy[row].length, i)]);
-					
-					toProcess = tmp;
-				}
-			}
+			ArrayList<Integer> result = new ArrayList<>(n);
+			for(int i = 0; i < n; i++)
+				result.add(nodes[i]);
 			
 			return result;
 		}
 		
 		// Tested: passing
 		static TreeMap<Integer, Double> computeStability(ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> condensed) {
-			double[] resultArr, births, lambdas = new double[condensed.size()];
-			int[] sizes = new int[condensed.size()], parents = new int[condensed.size()];
-			int child, parent, childSize, resultIdx, currentChild = -1, idx = 0, row = 0;
-			double lambda, minLambda = 0;
-			
-			
-			/* Populate parents, sizes and lambdas pre-sort and get min/max parent info
-			 * ['parent', 'child', 'lambda', 'childSize']
-			 */
-			int largestChild = Integer.MIN_VALUE,
-				minParent = Integer.MAX_VALUE,
-				maxParent = Integer.MIN_VALUE;
-			for(CompQuadTup<Integer, Integer, Double, Integer> q: condensed) {
-				parent= q.getFirst();
-				child = q.getSecond();
-				lambda= q.getThird();
-				childSize= q.getFourth();
-				
-				if(child > largestChild)
-					largestChild = child;
-				if(parent < minParent)
-					minParent = parent;
-				if(parent > maxParent)
-					maxParent = parent;
-				
-				parents[idx] = parent;
-				sizes  [idx] = childSize;
-				lambdas[idx] = lambda;
-				idx++;
-			}
-
-			int numClusters = maxParent - minParent + 1;
-			births = VecUtils.rep(Double.NaN, largestChild + 1);
-			
-			/*
-			 * Perform sort, then get sorted lambdas and children
-			 */
-			Collections.sort(condensed, new Comparator<QuadTup<Integer, Integer, Double, Integer>>(){
-				@Override
-				public int compare(QuadTup<Integer, Integer, Double, Integer> q1, 
-						QuadTup<Integer, Integer, Double, Integer> q2) {
-					int cmp = q1.getSecond().compareTo(q2.getSecond());
-					
-					if(cmp == 0) {
-						cmp = q1.getThird().compareTo(q2.getThird());
-						return cmp;
-					}
-					
-					return cmp;
-				}
-			});
-			
-			
-			/*
-			 * Go through sorted list...
-			 */
-			for(row = 0; row < condensed.size(); row++) {
-				CompQuadTup<Integer, Integer, Double, Integer> q = condensed.get(row);
-				child = q.getSecond();
-				lambda= q.getThird();
-				
-				if(child == currentChild)
-					minLambda = FastMath.min(minLambda, lambda);
-				else if(currentChild != -1) {
-					// Already been initialized
-					births[currentChild] = minLambda;
-					currentChild = child;
-					minLambda = lambda;
-				} else {
-					// Initialize
-					currentChild = child;
-					minLambda = lambda;
-				}
-			}
-
-			resultArr = new double[numClusters];
-			
-			
-			// Second loop
-			double birthParent;
-			for(idx = 0; idx < condensed.size(); idx++) {
-				parent = parents[idx];
-				lambda = lambdas[idx];
-				childSize= sizes[idx];
-				resultIdx = parent - minParent;
-				
-				// the Cython exploits the C contiguous pointer array's
-				// out of bounds allowance (2.12325E-314), but we have to
-				// do a check for that...
-				birthParent = parent >= births.length ? GlobalState.Mathematics.TINY : births[parent];
-				resultArr[resultIdx] += (lambda - birthParent) * childSize;
-			}
-			
-			
-			double[] top = VecUtils.asDouble(VecUtils.arange(minParent, maxParent + 1));
-			double[][] mat = MatUtils.transpose(VecUtils.vstack(top, resultArr));
-			
+			final CondensedTree tree = CondensedTree.fromList(condensed);
+			return stabilityMap(tree, tree.stability());
+		}
+		
+		static TreeMap<Integer, Double> stabilityMap(CondensedTree tree, double[] stability) {
 			TreeMap<Integer, Double> result = new TreeMap<>();
-			for(idx = 0; idx < mat.length; idx++)
-				result.put( (int)mat[idx][0], mat[idx][1]);
+			for(int node = 0; node < stability.length; node++)
+				result.put(tree.root + node, stability[node]);
 			
 			return result;
 		}
 		
 		// Tested: passing
 		static ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> condenseTree(final double[][] hierarchy, final int minSize) {
-			final int m = hierarchy.length;
-			int root = 2 * m, 
-					numPoints = root/2 + 1 /*Integer division*/, 
-					nextLabel = numPoints+1;
-			
-			// Get node list from BFS
-			ArrayList<Integer> nodeList = breadthFirstSearch(hierarchy, root), tmpList;
-			ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> resultList = new ArrayList<>();
-			
-			// Indices needing relabeling -- cython code assigns this to nodeList.size()
-			// but often times this is way too small and causes out of bounds exceptions...
-			// Changed to root + 1 on 02/01/2016; this should be the max node ever in the resultList
-			int[] relabel = new int[root + 1]; //nodeList.size()
-			boolean[] ignore = new boolean[root + 1];
-			double[] children;
-			
-			double lambda;
-			int left, right, leftCount, rightCount;
-			
-			// Sanity check
-			// System.out.println("Root: " + root + ", Relabel length: " + relabel.length + ", m: " + m + ", Relabel array: " + Arrays.toString(relabel));
-			
-			// The cython code doesn't check for bounds and sloppily 
-			// assigns this even if root > relabel.length. 
-			relabel[root] = numPoints;
-			
-			
-			
-			for(Integer node: nodeList) {
-				
-				if(ignore[node] || node < numPoints)
-					continue;
-				
-				children = hierarchy[wraparoundIdxGet(hierarchy.length, node-numPoints)];
-				left = (int) children[0];
-				right= (int) children[1];
-				
-				if(children[2] > 0)
-					lambda = 1.0 / children[2];
-				else lambda = Double.POSITIVE_INFINITY;
-				
-				if(left >= numPoints)
-					leftCount = (int) (hierarchy[wraparoundIdxGet(hierarchy.length, left-numPoints)][3]);
-				else leftCount = 1;
-				
-				if(right >= numPoints)
-					rightCount = (int)(hierarchy[wraparoundIdxGet(hierarchy.length,right-numPoints)][3]);
-				else rightCount = 1;
-				
-				
-				
-				if(leftCount >= minSize && rightCount >= minSize) {
-					relabel[left] = nextLabel++;
-					resultList.add(new CompQuadTup<Integer, Integer, Double, Integer>(
-						relabel[wraparoundIdxGet(relabel.length, node)],
-						relabel[wraparoundIdxGet(relabel.length, left)],
-						lambda, leftCount ));
-					
-					relabel[wraparoundIdxGet(relabel.length, right)] = nextLabel++;
-					resultList.add(new CompQuadTup<Integer, Integer, Double, Integer>(
-						relabel[wraparoundIdxGet(relabel.length, node)],
-						relabel[wraparoundIdxGet(relabel.length,right)],
-						lambda, rightCount ));
-					
-					
-				} else if(leftCount < minSize && rightCount < minSize) {
-					tmpList = breadthFirstSearch(hierarchy, left);
-					for(Integer subnode: tmpList) {
-						if(subnode < numPoints)
-							resultList.add(new CompQuadTup<Integer, Integer, Double, Integer>(
-								relabel[wraparoundIdxGet(relabel.length, node)], subnode,
-								lambda, 1));
-						ignore[subnode] = true;
-					}
-					
-					tmpList = breadthFirstSearch(hierarchy, right);
-					for(Integer subnode: tmpList) {
-						if(subnode < numPoints)
-							resultList.add(new CompQuadTup<Integer, Integer, Double, Integer>(
-								relabel[wraparoundIdxGet(relabel.length, node)], subnode,
-								lambda, 1));
-						ignore[subnode] = true;
-					}
-					
-					
- 				} else if(leftCount < minSize) {
- 					relabel[right] = relabel[node];
- 					tmpList = breadthFirstSearch(hierarchy, left);
- 					
- 					for(Integer subnode: tmpList) {
-						if(subnode < numPoints)
-							resultList.add(new CompQuadTup<Integer, Integer, Double, Integer>(
-								relabel[wraparoundIdxGet(relabel.length, node)], subnode,
-								lambda, 1));
-						ignore[subnode] = true;
-					}
- 				}
-				
-				
- 				else {
- 					relabel[left] = relabel[node];
- 					tmpList = breadthFirstSearch(hierarchy, right);
- 					for(Integer subnode: tmpList) {
-						if(subnode < numPoints)
-							resultList.add(new CompQuadTup<Integer, Integer, Double, Integer>(
-								relabel[wraparoundIdxGet(relabel.length, node)], subnode,
-								lambda, 1));
-						ignore[subnode] = true;
-					}
- 				}
-			}
-			
-			return resultList;
+			return CondensedTree.condense(hierarchy, minSize).toList();
 		}
 		
 		/**
@@ -712,6 +466,22 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		 * @return
 		 */
 		static double[][] minSpanTreeLinkageCore(final double[][] X, final int m) { // Tested: passing
+			return minSpanTreeLinkageCore(new DistanceLookup() {
+				@Override
+				double get(int i, int j) {
+					return X[i][j];
+				}
+			}, m);
+		}
+		
+		/**
+		 * Generic linkage core method over distances that need not be
+		 * materialized in a matrix
+		 * @param X
+		 * @param m
+		 * @return
+		 */
+		static double[][] minSpanTreeLinkageCore(final DistanceLookup X, final int m) {
 			int[] node_labels, current_labels, tmp_labels; 
 			double[] current_distances, left, right;
 			boolean[] label_filter;
@@ -757,7 +527,7 @@ final public class HDBSCAN extends AbstractDBSCAN {
 				current_labels = tmp_labels;
 				right = new double[current_labels.length];
 				for(j = 0; j < right.length; j++)
-					right[j] = X[current_node][current_labels[j]];
+					right[j] = X.get(current_node, current_labels[j]);
 				
 				// Build the current_distances vector
 				series = new DoubleSeries(left, Inequality.LESS_THAN, right);
@@ -871,6 +641,19 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			return array_len - abs;
 		}
 		
+		/**
+		 * The mutual reachability between records i and j given their core
+		 * distances and the (unscaled) distance between them. Equivalent to the
+		 * elements of {@link #mutualReachability(double[][], int, double)}
+		 */
+		static double mutualReachability(final double coreI, final double coreJ, double dist, final double alpha) {
+			if(alpha != 1.0)
+				dist = dist / alpha;
+			
+			final double stage1 = coreJ > dist ? coreJ : dist;
+			return coreI > stage1 ? coreI : stage1;
+		}
+		
 		static double[][] mutualReachability(double[][] dist_mat, int minPts, double alpha) {
 			final int size = dist_mat.length;
 			minPts = FastMath.min(size - 1, minPts);
@@ -903,6 +686,13 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		final GeometricallySeparable metric;
 		final int m, n;
 		
+		/** The neighbor search tree built while linking, if any */
+		NearestNeighborHeapSearch searchTree = null;
+		/** The core distances computed while linking, if kept */
+		double[] coreDistances = null;
+		/** The number of neighbors (counting itself) that defines each core distance */
+		int coreK;
+		
 		HDBSCANLinkageTree() {
 			model = HDBSCAN.this;
 			metric = model.getSeparabilityMetric();
@@ -950,6 +740,10 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			double[][] dists = query.getDistances();
 			double[] coreDistances = MatUtils.getColumn(dists, dists[0].length - 1);
 			
+			this.searchTree = tree;
+			this.coreDistances = coreDistances;
+			this.coreK = min_points;
+			
 			double[][] minSpanningTree = LinkageTreeUtils
 				.minSpanTreeLinkageCore_cdist(dt, 
 					coreDistances, metric, alpha);
@@ -973,6 +767,10 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			NearestNeighborHeapSearch tree = getTree(dt);
 			model.info("completed NearestNeighborHeapSearch construction in " + timer.toString());
 			
+			// the core distances are recomputed from the tree if needed for prediction
+			this.searchTree = tree;
+			this.coreK = min_points;
+			
 			// We can safely cast the metric to DistanceMetric at this point
 			final BoruvkaAlgorithm alg = new BoruvkaAlgorithm(tree, min_points, 
 					(DistanceMetric)metric, ls / 3, approxMinSpanTree, 
@@ -998,7 +796,7 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			// We can safely cast the sep metric as DistanceMetric
 			// after the check in the constructor
 			return new KDTree(X, this.leafSize, 
-				(DistanceMetric)metric, model);
+				(DistanceMetric)metric, model, KDTree.DEF_FLAT_LAYOUT, model.parallel);
 		}
 	}
 	
@@ -1017,31 +815,98 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			// We can safely cast the sep metric as DistanceMetric
 			// after the check in the constructor
 			return new BallTree(X, this.leafSize, 
-				(DistanceMetric)metric, model);
+				(DistanceMetric)metric, model, BallTree.DEF_FLAT_LAYOUT, model.parallel);
 		}
 	}
 	
 	/**
-	 * Generic single linkage tree that uses an 
+	 * Generic single linkage tree that uses a condensed 
 	 * upper triangular distance matrix to compute
-	 * mutual reachability
+	 * mutual reachability. The mutual reachability is computed
+	 * on the fly from the core distances, so the matrix is never
+	 * materialized in full. Depending on the {@link HDBSCAN#storage},
+	 * the distances live on the heap or in a memory-mapped file.
 	 * @author Taylor G Smith
 	 */
 	class GenericTree extends HDBSCANLinkageTree implements ExplicitMutualReachability {
+		/** The condensed distance matrix */
+		final DistanceStorage dists;
+		/** The distance from each record to itself */
+		final double[] diag;
+		
 		GenericTree() {
 			super();
 			
 			// The generic implementation requires the computation of an UT dist mat
 			final LogTimer s = new LogTimer();
-			dist_mat = Pairwise.getDistance(data, getSeparabilityMetric(), false, false);
-			info("completed distance matrix computation in " + s.toString());
+			final double[][] X = data.getData();
+			dists = Pairwise.getCondensedDistance(X, metric, false, storage, parallel);
+			
+			diag = new double[m];
+			for(int i = 0; i < m; i++)
+				diag[i] = metric.getDistance(X[i], X[i]);
+			
+			info("completed distance matrix (" + storage.getName() + ") computation in " + s.toString());
+		}
+		
+		double dist(final int i, final int j) {
+			return i == j ? diag[i] : dists.get(DistanceStorage.condensedIndex(m, i, j));
+		}
+		
+		/**
+		 * The distance from each record to its minPts-th nearest neighbor
+		 * (counting itself), as in {@link LinkageTreeUtils#mutualReachability(double[][], int, double)}
+		 */
+		double[] coreDistances() {
+			final int k = FastMath.min(m - 1, minPts) + 1;
+			final double[] core = new double[m];
+			final double[] smallest = new double[k]; // sorted ascending
+			
+			double d;
+			int size, pos;
+			for(int i = 0; i < m; i++) {
+				size = 0;
+				
+				for(int j = 0; j < m; j++) {
+					d = dist(i, j);
+					
+					// same total order as a sort, so NaNs are largest
+					if(size == k && Double.compare(d, smallest[k - 1]) >= 0)
+						continue;
+					
+					pos = size < k ? size++ : k - 1;
+					while(pos > 0 && Double.compare(smallest[pos - 1], d) > 0) {
+						smallest[pos] = smallest[pos - 1];
+						pos--;
+					}
+					
+					smallest[pos] = d;
+				}
+				
+				core[i] = smallest[k - 1];
+			}
+			
+			return core;
 		}
 		
 		@Override
 		double[][] link() {
-			final double[][] mutual_reachability = mutualReachability();
-			double[][] min_spanning_tree = LinkageTreeUtils
-					.minSpanTreeLinkageCore(mutual_reachability, m);
+			final double[] core = coreDistances();
+			this.coreDistances = core;
+			this.coreK = FastMath.min(m - 1, minPts) + 1;
+			
+			double[][] min_spanning_tree;
+			try {
+				min_spanning_tree = LinkageTreeUtils
+					.minSpanTreeLinkageCore(new DistanceLookup() {
+						@Override
+						double get(int i, int j) {
+							return LinkageTreeUtils.mutualReachability(core[i], core[j], dist(i, j), alpha);
+						}
+					}, m);
+			} finally {
+				dists.close();
+			}
 			
 			// Sort edges of the min_spanning_tree by weight
 			min_spanning_tree = MatUtils.sortAscByCol(min_spanning_tree, 2);
@@ -1050,13 +915,10 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		
 		@Override
 		public double[][] mutualReachability() {
-			/*// this shouldn't be able to happen...
-			if(null == dist_mat)
-				throw new IllegalClusterStateException("dist matrix is null; "
-					+ "this only can happen when the model attempts to invoke "
-					+ "mutualReachability on a tree without proper initialization "
-					+ "or after the model has already been fit.");
-			*/
+			final double[][] dist_mat = new double[m][m];
+			for(int i = 0; i < m; i++)
+				for(int j = 0; j < m; j++)
+					dist_mat[i][j] = dist(i, j);
 			
 			return LinkageTreeUtils.mutualReachability(dist_mat, minPts, alpha);
 		}
@@ -1282,53 +1144,9 @@ final public class HDBSCAN extends AbstractDBSCAN {
 	}
 	
 	
-
 	
-
-
-	protected static int[] doLabeling(ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> tree,
-			ArrayList<Integer> clusters, TreeMap<Integer, Integer> clusterMap) {
-		
-		CompQuadTup<Integer, Integer, Double, Integer> quad;
-		int rootCluster, parent, child, n = tree.size(), cluster, i;
-		int[] resultArr, parentArr = new int[n], childArr = new int[n];
-		UnifiedFinder unionFind;
-		
-		// [parent, child, lambda, size]
-		int maxParent = Integer.MIN_VALUE;
-		int minParent = Integer.MAX_VALUE;
-		for(i = 0; i < n; i++) {
-			quad = tree.get(i);
-			parentArr[i]= quad.getFirst();
-			childArr[i] = quad.getSecond();
-			
-			if(quad.getFirst() < minParent)
-				minParent = quad.getFirst();
-			if(quad.getFirst() > maxParent)
-				maxParent = quad.getFirst();
-		}
-		
-		rootCluster = minParent;
-		resultArr = new int[rootCluster];
-		unionFind = new TreeUnionFind(maxParent + 1);
-		
-		for(i = 0; i < n; i++) {
-			child = childArr[i];
-			parent= parentArr[i];
-			if(!clusters.contains(child))
-				unionFind.union(parent, child);
-		}
-		
-		for(i = 0; i < rootCluster; i++) {
-			cluster = unionFind.find(i);
-			if(cluster <= rootCluster)
-				resultArr[i] = NOISE_CLASS;
-			else
-				resultArr[i] = clusterMap.get(cluster);
-		}
-		
-		return resultArr;
-	}
+	
+	
 	
 	@Override
 	protected HDBSCAN fit() {
@@ -1353,28 +1171,24 @@ final public class HDBSCAN extends AbstractDBSCAN {
 
 			info("converting tree to labels ("+lab_tree.length+" x "+lab_tree[0].length+")");
 			LogTimer labTimer = new LogTimer();
-			labels = treeToLabels(dataData, lab_tree, min_cluster_size, this);
-			
+			final CondensedTree condensed = CondensedTree.condense(lab_tree, min_cluster_size);
+			final int[] clusters = condensed.selectClusters(condensed.stability());
+			labels = condensed.labels(clusters);
 			
-			// Wrap up...
-			info("completed cluster labeling in " + labTimer.toString());
 			
-			
-			// Count missing
-			numNoisey = 0;
-			for(int lab: labels) if(lab==NOISE_CLASS) numNoisey++;
+			// Need to encode labels to maintain order
+			final int[] counts = encodeLabels(labels, clusters.length);
+			numClusters = counts.length;
+			numNoisey = labels.length;
+			for(int count: counts) numNoisey -= count;
 			
 			
-			int nextLabel = LabelHSetFactory.build(labels).size() - (numNoisey > 0 ? 1 : 0);
-			info((numClusters=nextLabel)+" cluster"+(nextLabel!=1?"s":"")+
+			// Wrap up...
+			info("completed cluster labeling in " + labTimer.toString());
+			info(numClusters+" cluster"+(numClusters!=1?"s":"")+
 				" identified, "+numNoisey+" record"+(numNoisey!=1?"s":"")+
 					" classified noise");
 			
-			// Need to encode labels to maintain order
-			final NoiseyLabelEncoder encoder = new NoiseyLabelEncoder(labels).fit();
-			labels = encoder.getEncodedLabels();
-			
-			
 			
 			/*
 			 * In this portion, we build the fit summary... HDBSCAN is hard
@@ -1383,17 +1197,13 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			 * it wouldn't make since to track any metrics such as WSS, so we'll
 			 * leave it at simple counts and pcts.
 			 */
-			String label_rep;
-			int[] ordered_label_classes = VecUtils.reorder(encoder.getClasses(), VecUtils.argSort(encoder.getClasses()));
-			for(int label: ordered_label_classes) {
-				label_rep = label + (NOISE_CLASS == label ? " (noise)" : "");
-				
-				int count = VecUtils.sum(new VecUtils.IntSeries(labels, Inequality.EQUAL_TO, label).get());
+			for(int label = numNoisey > 0 ? NOISE_CLASS : 0; label < numClusters; label++) {
+				int count = NOISE_CLASS == label ? numNoisey : counts[label];
 				double pct = (double)count / (double)labels.length;
 				
 				// log the summary
 				fitSummary.add(new Object[]{
-					label_rep,
+					label + (NOISE_CLASS == label ? " (noise)" : ""),
 					count,
 					pct,
 					timer.wallTime()
@@ -1401,13 +1211,19 @@ final public class HDBSCAN extends AbstractDBSCAN {
 			}
 			
 			
+			// Keep what's needed to label new points without a refit
+			LogTimer predTimer = new LogTimer();
+			predictor = new HDBSCANPredictor(dataData, getPredictionTree(), getSeparabilityMetric(), 
+				alpha, tree.coreDistances, tree.coreK, condensed, clusters, labels);
+			info("completed prediction data in " + predTimer.toString());
+			
+			
 			// Close this model out
 			sayBye(timer);
 			
 			
 			// Clean anything with big overhead..
 			dataData = null;
-			dist_mat = null;
 			tree = null;
 			
 			return this;
@@ -1440,156 +1256,18 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		return numNoisey;
 	}
 	
-	/**
-	 * Break up the getLabels method 
-	 * into numerous smaller ones.
-	 * @author Taylor G Smith
-	 */
-	abstract static class GetLabelUtils {
-		/**
-		 * Descendingly sort the keys of the map and return
-		 * them in order, but eliminate the very smallest key
-		 * @param stability
-		 * @return
-		 */
-		protected static <T,P> ArrayList<T> descSortedKeySet(TreeMap<T,P> stability) {
-			int ct = 0;
-			ArrayList<T> nodeList = new ArrayList<>();
-			for(T d: stability.descendingKeySet())
-				if(++ct < stability.size()) // exclude the root...
-					nodeList.add(d);
-			
-			return nodeList;
-		}
-		
-		/**
-		 * Get tuples where child size is over one
-		 * @param tree
-		 * @return
-		 */
-		protected static EntryPair<ArrayList<double[]>, Integer> childSizeGtOneAndMaxChild(ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> tree) {
-			ArrayList<double[]> out = new ArrayList<>();
-			int max = Integer.MIN_VALUE;
-			
-			// [parent, child, lambda, size]
-			for(CompQuadTup<Integer, Integer, Double, Integer> tup: tree) {
-				if(tup.getFourth() > 1)
-					out.add(new double[]{
-						tup.getFirst(),
-						tup.getSecond(),
-						tup.getThird(),
-						tup.getFourth()
-					});
-				else if(tup.getFourth() == 1)
-					max = FastMath.max(max, tup.getSecond());
-			}
-			
-			return new EntryPair<>(out, max + 1);
-		}
-		
-		protected static TreeMap<Integer, Boolean> initNodeMap(ArrayList<Integer> nodes) {
-			TreeMap<Integer, Boolean> out = new TreeMap<>();
-			for(Integer i: nodes)
-				out.put(i, true);
-			return out;
-		}
-		
-		protected static double subTreeStability(ArrayList<double[]> clusterTree, 
-				int node, TreeMap<Integer, Double> stability) {
-			double sum = 0;
-			
-			// [parent, child, lambda, size]
-			for(double[] d: clusterTree)
-				if((int)d[0] == node)
-					sum += stability.get((int)d[1]);
-			
-			return sum;
-		}
-		
-		protected static ArrayList<Integer> breadthFirstSearchFromClusterTree(ArrayList<double[]> tree, Integer bfsRoot) {
-			int child, parent;
-			ArrayList<Integer> result = new ArrayList<>();
-			ArrayList<Integer> toProcess = new ArrayList<Integer>();
-			ArrayList<Integer> tmp;
-			
-			toProcess.add(bfsRoot);
-			
-			// [parent, child, lambda, size]
-			while(toProcess.size() > 0) {
-				result.addAll(toProcess);
-				
-				// python code: 
-				// to_process = tree['child'][np.in1d(tree['parent'], to_process)]
-				// For all tuples, if the parent is in toProcess, then
-				// add the child to the new list
-				tmp = new ArrayList<Integer>();
-				for(double[] d: tree) {
-					parent	= (int)d[0];
-					child	= (int)d[1];
-					
-					if(toProcess.contains(parent))
-						tmp.add(child);
-				}
-				
-				toProcess = tmp;
-			}
-			
-			return result;
-		}
-	}
-	
 	protected static int[] getLabels(ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> condensed,
 									TreeMap<Integer, Double> stability) {
+		final CondensedTree tree = CondensedTree.fromList(condensed);
+		final double[] stab = new double[tree.numNodes];
+		for(int node = 0; node < stab.length; node++)
+			stab[node] = stability.get(tree.root + node);
 		
-		double subTreeStability;
-		ArrayList<Integer> clusters = new ArrayList<Integer>();
-		HSet<Integer> clusterSet;
-		TreeMap<Integer, Integer> clusterMap = new TreeMap<>(), 
-				reverseClusterMap = new TreeMap<>();
-		
-		// Get descending sorted key set
-		ArrayList<Integer> nodeList = GetLabelUtils.descSortedKeySet(stability);
-		
-		// Get tuples where child size > 1
-		EntryPair<ArrayList<double[]>, Integer> entry = GetLabelUtils.childSizeGtOneAndMaxChild(condensed);
-		ArrayList<double[]> clusterTree = entry.getKey();
-		
-		// Map of nodes to whether it's a cluster
-		TreeMap<Integer, Boolean> isCluster = GetLabelUtils.initNodeMap(nodeList);
-		
-		// Get num points
-		//int numPoints = entry.getValue();
+		final int[] clusters = tree.selectClusters(stab);
+		for(int node = 0; node < stab.length; node++)
+			stability.put(tree.root + node, stab[node]);
 		
-		// Iter over nodes
-		for(Integer node: nodeList) {
-			subTreeStability = GetLabelUtils.subTreeStability(clusterTree, node, stability);
-			
-			if(subTreeStability > stability.get(node)) {
-				isCluster.put(node, false);
-				stability.put(node, subTreeStability);
-			} else {
-				for(Integer subNode: GetLabelUtils.breadthFirstSearchFromClusterTree(clusterTree, node))
-					if(subNode.intValue() != node)
-						isCluster.put(subNode, false);
-			}
-			
-		}
-		
-		// Now add to clusters
-		for(Map.Entry<Integer, Boolean> c: isCluster.entrySet())
-			if(c.getValue())
-				clusters.add(c.getKey());
-		clusterSet = new HSet<Integer>(clusters);
-		
-		// Build cluster map
-		int n = 0;
-		for(Integer clust: clusterSet) {
-			clusterMap.put(clust, n);
-			reverseClusterMap.put(n, clust);
-			n++;
-		}
-
-		return doLabeling(condensed, clusters, clusterMap);
+		return tree.labels(clusters);
 	}
 	
 	// Tested: passing
@@ -1637,10 +1315,8 @@ final public class HDBSCAN extends AbstractDBSCAN {
 	protected static int[] treeToLabels(final double[][] X, 
 			final double[][] single_linkage_tree, final int min_size, Loggable logger) {
 		
-		final ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> condensed = 
-				LinkageTreeUtils.condenseTree(single_linkage_tree, min_size);
-		final TreeMap<Integer, Double> stability = LinkageTreeUtils.computeStability(condensed);
-		return getLabels(condensed, stability);
+		final CondensedTree condensed = CondensedTree.condense(single_linkage_tree, min_size);
+		return condensed.labels(condensed.selectClusters(condensed.stability()));
 	}
 	
 	@Override
@@ -1650,16 +1326,81 @@ final public class HDBSCAN extends AbstractDBSCAN {
 		};
 	}
 	
+	/**
+	 * Encode the labels in place in order of first appearance, leaving noise as is
+	 * @param labels
+	 * @param numClusters - the number of distinct non-noise labels
+	 * @return the number of points in each encoded cluster
+	 */
+	static int[] encodeLabels(final int[] labels, final int numClusters) {
+		final int[] remap = VecUtils.repInt(NOISE_CLASS, numClusters);
+		final int[] counts = new int[numClusters];
+		
+		int next = 0, lab;
+		for(int i = 0; i < labels.length; i++) {
+			lab = labels[i];
+			if(NOISE_CLASS == lab)
+				continue;
+			
+			if(NOISE_CLASS == remap[lab])
+				remap[lab] = next++;
+			
+			labels[i] = remap[lab];
+			counts[labels[i]]++;
+		}
+		
+		return next == numClusters ? counts : Arrays.copyOf(counts, next);
+	}
+	
+	/**
+	 * The neighbor search tree the linkage built, or a new one over the
+	 * training data if the linkage had none and the metric permits one
+	 * @return the tree, or null if the metric permits none
+	 */
+	private NearestNeighborHeapSearch getPredictionTree() {
+		if(null != tree.searchTree)
+			return tree.searchTree;
+		
+		final Class<? extends GeometricallySeparable> clz = tree.metric.getClass();
+		if(KDTree.VALID_METRICS.contains(clz))
+			return new KDTree(dataData, leafSize, (DistanceMetric)tree.metric, this, KDTree.DEF_FLAT_LAYOUT, parallel);
+		if(BallTree.VALID_METRICS.contains(clz))
+			return new BallTree(dataData, leafSize, (DistanceMetric)tree.metric, this, BallTree.DEF_FLAT_LAYOUT, parallel);
+		return null;
+	}
+	
+	/**
+	 * For testing
+	 * @return the prediction data, or null if not fit
+	 */
+	HDBSCANPredictor getPredictor() {
+		return predictor;
+	}
+	
 	@Override
 	public int[] predict(RealMatrix newData) {
+		return approximatePredict(newData).getKey();
+	}
+	
+	/**
+	 * Label new points without refitting the model, after the <tt>approximate_predict</tt>
+	 * function of the Python hdbscan library. Each point joins the condensed tree beside
+	 * its nearest training neighbor under mutual reachability, and is labeled by the 
+	 * selected cluster it falls in (or as noise). The points are predicted in parallel
+	 * if the model permits parallelism.
+	 * @param newData
+	 * @throws ModelNotFitException if the model is not yet fit
+	 * @throws DimensionMismatchException if the number of columns does not match the training data
+	 * @return the labels, and the probability of each point's membership in its cluster
+	 */
+	public EntryPair<int[], double[]> approximatePredict(RealMatrix newData) {
 		@SuppressWarnings("unused")
 		final int[] fit_labels = getLabels(); // throws the exception if not fit
 		final int n = newData.getColumnDimension();
 		
 		if(n != this.data.getColumnDimension())
-			throw new DimensionMismatchException(n, newData.getColumnDimension());
+			throw new DimensionMismatchException(n, this.data.getColumnDimension());
 		
-		// TODO: how to predict these???
-		throw new UnsupportedOperationException("HDBSCAN does not currently support predictions");
+		return predictor.predict(newData.getData(), parallel);
 	}
 }
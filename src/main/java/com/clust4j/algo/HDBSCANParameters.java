@@ -22,6 +22,7 @@ import org.apache.commons.math3.linear.RealMatrix;
 
 import com.clust4j.algo.AbstractDBSCAN.AbstractDBSCANParameters;
 import com.clust4j.algo.HDBSCAN.HDBSCAN_Algorithm;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 
 /**
@@ -37,6 +38,7 @@ final public class HDBSCANParameters extends AbstractDBSCANParameters<HDBSCAN> {
 	private boolean approxMinSpanTree = HDBSCAN.DEF_APPROX_MIN_SPAN;
 	private int min_cluster_size = HDBSCAN.DEF_MIN_CLUST_SIZE;
 	private int leafSize = HDBSCAN.DEF_LEAF_SIZE;
+	private DistanceStorage.Type storage = HDBSCAN.DEF_STORAGE;
 	
 	
 	public HDBSCANParameters() { this(HDBSCAN.DEF_MIN_PTS); }
@@ -57,12 +59,14 @@ final public class HDBSCANParameters extends AbstractDBSCANParameters<HDBSCAN> {
 			.setAlpha(alpha)
 			.setApprox(approxMinSpanTree)
 			.setLeafSize(leafSize)
+			.setDistanceStorage(storage)
 			.setMinClustSize(min_cluster_size)
 			.setMinPts(minPts)
 			.setMetric(metric)
 			.setSeed(seed)
 			.setVerbose(verbose)
-			.setForceParallel(parallel);
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 	
 	public HDBSCAN_Algorithm getAlgo() {
@@ -116,12 +120,33 @@ final public class HDBSCANParameters extends AbstractDBSCANParameters<HDBSCAN> {
 		return this;
 	}
 	
+	public DistanceStorage.Type getDistanceStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Set where the distance matrix is stored. Memory-mapped storage 
+	 * allows fitting far larger matrices than fit on the heap.
+	 * @param storage
+	 * @return this
+	 */
+	public HDBSCANParameters setDistanceStorage(final DistanceStorage.Type storage) {
+		this.storage = storage;
+		return this;
+	}
+	
 	@Override
 	public HDBSCANParameters setForceParallel(boolean b) {
 		this.parallel = b;
 		return this;
 	}
 	
+	@Override
+	public HDBSCANParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
+	
 	@Override
 	public HDBSCANParameters setSeed(final Random seed) {
 		this.seed = seed;
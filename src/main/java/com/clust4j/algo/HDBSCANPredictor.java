@@ -0,0 +1,346 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.algo;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.algo.NearestNeighborHeapSearch.QueryContext;
+import com.clust4j.metrics.pairwise.GeometricallySeparable;
+import com.clust4j.utils.EntryPair;
+
+/**
+ * The state an {@link HDBSCAN} model keeps after fitting in order to label new
+ * points without a refit, after the <tt>approximate_predict</tt> function of the
+ * <a href="https://github.com/scikit-learn-contrib/hdbscan">Python hdbscan</a> library.
+ * A new point joins the condensed tree beside its nearest training neighbor under
+ * mutual reachability, at the lambda of that mutual reachability distance. If that
+ * lambda precedes the birth of the neighbor's cluster, the point is instead placed
+ * in the nearest ancestor born early enough. The point takes the label of the selected
+ * cluster (if any) containing that node, with a membership probability of its lambda
+ * relative to the max lambda of the selected cluster.
+ * <p>
+ * The condensed tree is kept as flat arrays indexed by node, offset by the root.
+ * The training neighbors are searched with the {@link NearestNeighborHeapSearch}
+ * used in fitting when there is one, or by brute force otherwise.
+ *
+ * @author Taylor G Smith
+ */
+final class HDBSCANPredictor implements java.io.Serializable {
+	private static final long serialVersionUID = -2961358120454717342L;
+	
+	/** The min number of points in a parallel prediction chunk */
+	static final int MIN_PARALLEL_CHUNK_SIZE = 1024;
+	
+	final double[][] X;
+	/** The training neighbor index, or null for a brute force search */
+	final NearestNeighborHeapSearch tree;
+	final GeometricallySeparable metric;
+	final double alpha;
+	/** The number of neighbors (counting itself) that defines each core distance */
+	final int coreK;
+	/** The number of neighbors queried for each new point */
+	final int k;
+	final double[] coreDistances;
+	
+	/** The condensed tree node each training point falls out of, and at what lambda */
+	final int[] pointParent;
+	final double[] pointLambda;
+	
+	/** The id of the root node, which is the number of training points */
+	final int root;
+	/** The parent of each cluster node, its birth lambda, label and max lambda */
+	final int[] nodeParent;
+	final double[] nodeBirth;
+	final int[] nodeLabel;
+	final double[] nodeMaxLambda;
+	
+	/**
+	 * @param X - the training data
+	 * @param tree - the training neighbor index, or null for a brute force search
+	 * @param metric
+	 * @param alpha
+	 * @param coreDistances - the training core distances, or null to compute them
+	 * @param coreK - the number of neighbors (counting itself) that defines each core distance
+	 * @param condensed - the condensed tree
+	 * @param selected - the selected cluster ids
+	 * @param labels - the final training labels
+	 */
+	HDBSCANPredictor(double[][] X, NearestNeighborHeapSearch tree, GeometricallySeparable metric,
+			double alpha, double[] coreDistances, int coreK,
+			CondensedTree condensed, int[] selected, int[] labels) {
+		
+		final int m = X.length;
+		this.X = X;
+		this.tree = tree;
+		this.metric = metric;
+		this.alpha = alpha;
+		this.coreK = FastMath.max(1, FastMath.min(m, coreK));
+		this.k = FastMath.min(m, 2 * this.coreK);
+		this.root = m;
+		
+		this.coreDistances = null != coreDistances ? coreDistances : computeCoreDistances();
+		
+		
+		final int numNodes = condensed.numNodes;
+		nodeParent = new int[numNodes];
+		nodeBirth = new double[numNodes];
+		nodeLabel = new int[numNodes];
+		nodeMaxLambda = new double[numNodes];
+		pointParent = new int[m];
+		pointLambda = new double[m];
+		
+		final double[] directMaxLambda = new double[numNodes];
+		nodeParent[0] = -1;
+		
+		int parent, child;
+		double lambda;
+		for(int i = 0; i < condensed.parent.length; i++) {
+			parent = condensed.parent[i] - root;
+			child = condensed.child[i];
+			lambda = condensed.lambda[i];
+			
+			if(child < root) {
+				pointParent[child] = parent;
+				pointLambda[child] = lambda;
+			} else {
+				nodeParent[child - root] = parent;
+				nodeBirth[child - root] = lambda;
+			}
+			
+			directMaxLambda[parent] = FastMath.max(directMaxLambda[parent], lambda);
+		}
+		
+		
+		// each node is owned by the selected cluster above it (if any)
+		final int[] owner = condensed.owners(selected);
+		for(int node = 0; node < numNodes; node++)
+			if(-1 != owner[node])
+				owner[node] -= root;
+		
+		// the selected clusters take the label of the points they own
+		final int[] ownerLabel = new int[numNodes];
+		for(int i = 0; i < numNodes; i++)
+			ownerLabel[i] = NoiseyClusterer.NOISE_CLASS;
+		for(int i = 0; i < m; i++)
+			if(-1 != owner[pointParent[i]])
+				ownerLabel[owner[pointParent[i]]] = labels[i];
+		
+		for(int node = 0; node < numNodes; node++) {
+			if(-1 == owner[node]) {
+				nodeLabel[node] = NoiseyClusterer.NOISE_CLASS;
+			} else {
+				nodeLabel[node] = ownerLabel[owner[node]];
+				nodeMaxLambda[node] = directMaxLambda[owner[node]];
+			}
+		}
+	}
+	
+	/**
+	 * A copy of the predictor that searches the training data with
+	 * another tree, or by brute force if the tree is null
+	 * @param predictor
+	 * @param tree
+	 */
+	HDBSCANPredictor(HDBSCANPredictor predictor, NearestNeighborHeapSearch tree) {
+		this.X = predictor.X;
+		this.tree = tree;
+		this.metric = predictor.metric;
+		this.alpha = predictor.alpha;
+		this.coreK = predictor.coreK;
+		this.k = predictor.k;
+		this.coreDistances = predictor.coreDistances;
+		this.pointParent = predictor.pointParent;
+		this.pointLambda = predictor.pointLambda;
+		this.root = predictor.root;
+		this.nodeParent = predictor.nodeParent;
+		this.nodeBirth = predictor.nodeBirth;
+		this.nodeLabel = predictor.nodeLabel;
+		this.nodeMaxLambda = predictor.nodeMaxLambda;
+	}
+	
+	private double[] computeCoreDistances() {
+		final double[] core = new double[X.length];
+		final QueryContext ctx = null == tree ? null : tree.newQueryContext();
+		final double[] dists = new double[coreK];
+		final int[] idcs = new int[coreK];
+		
+		for(int i = 0; i < X.length; i++) {
+			neighbors(X[i], coreK, ctx, dists, idcs);
+			core[i] = dists[coreK - 1];
+		}
+		
+		return core;
+	}
+	
+	/**
+	 * Get the sorted k nearest training neighbors of a point
+	 */
+	private void neighbors(double[] pt, int k, QueryContext ctx, double[] dists, int[] idcs) {
+		if(null != tree) {
+			tree.query(pt, k, ctx, dists, idcs, 0);
+			return;
+		}
+		
+		// insertion into a sorted buffer; ties keep the lower index
+		double d;
+		int size = 0, pos;
+		for(int j = 0; j < X.length; j++) {
+			d = metric.getDistance(pt, X[j]);
+			if(size == k && !(d < dists[k - 1]))
+				continue;
+			
+			pos = size < k ? size++ : k - 1;
+			while(pos > 0 && dists[pos - 1] > d) {
+				dists[pos] = dists[pos - 1];
+				idcs[pos] = idcs[pos - 1];
+				pos--;
+			}
+			
+			dists[pos] = d;
+			idcs[pos] = j;
+		}
+	}
+	
+	/**
+	 * Label a range of new points, writing their labels and probabilities
+	 */
+	void predictChunk(double[][] newData, int[] labels, double[] probabilities, int lo, int hi) {
+		final QueryContext ctx = null == tree ? null : tree.newQueryContext();
+		final double[] dists = new double[k];
+		final int[] idcs = new int[k];
+		
+		double pointCore, mr, best, lambda, maxLambda;
+		int nearest, node, label;
+		for(int i = lo; i < hi; i++) {
+			neighbors(newData[i], k, ctx, dists, idcs);
+			
+			// the nearest neighbor under mutual reachability
+			pointCore = dists[coreK - 1];
+			best = Double.POSITIVE_INFINITY;
+			nearest = idcs[0];
+			for(int j = 0; j < k; j++) {
+				mr = HDBSCAN.LinkageTreeUtils.mutualReachability(
+					pointCore, coreDistances[idcs[j]], dists[j], alpha);
+				
+				if(mr < best) {
+					best = mr;
+					nearest = idcs[j];
+				}
+			}
+			
+			lambda = best > 0.0 ? 1.0 / best : Double.MAX_VALUE;
+			node = pointParent[nearest];
+			
+			if(pointLambda[nearest] <= lambda) {
+				lambda = pointLambda[nearest];
+			} else {
+				// climb to the first ancestor born at or before the point's lambda
+				while(node > 0 && nodeBirth[node] >= lambda)
+					node = nodeParent[node];
+			}
+			
+			label = nodeLabel[node];
+			labels[i] = label;
+			
+			if(NoiseyClusterer.NOISE_CLASS == label) {
+				probabilities[i] = 0.0;
+			} else {
+				maxLambda = nodeMaxLambda[node];
+				probabilities[i] = maxLambda > 0.0 ? FastMath.min(maxLambda, lambda) / maxLambda : 1.0;
+			}
+		}
+	}
+	
+	/**
+	 * Predict the labels and membership probabilities of new points
+	 * @param newData
+	 * @param parallel - whether to split the points across the pool
+	 * @return the labels and probabilities
+	 */
+	EntryPair<int[], double[]> predict(double[][] newData, boolean parallel) {
+		return predict(newData, parallel, MIN_PARALLEL_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Predict the labels and membership probabilities of new points
+	 * @param newData
+	 * @param parallel - whether to split the points across the pool
+	 * @param chunkSize - the max number of points a task predicts without splitting
+	 * @return the labels and probabilities
+	 */
+	EntryPair<int[], double[]> predict(double[][] newData, boolean parallel, int chunkSize) {
+		final int[] labels = new int[newData.length];
+		final double[] probabilities = new double[newData.length];
+		final PredictTask task = new PredictTask(this, newData, labels, probabilities, 
+			parallel, chunkSize, 0, newData.length);
+		
+		if(!parallel)
+			task.compute();
+		else if(ForkJoinTask.inForkJoinPool()) // run in the caller's pool
+			task.invoke();
+		else
+			ParallelChunkingTask.getThreadPool().invoke(task);
+		
+		return new EntryPair<>(labels, probabilities);
+	}
+	
+	/**
+	 * Predicts a range of new points, recursively splitting the range across the pool
+	 * @author Taylor G Smith
+	 */
+	static class PredictTask extends RecursiveAction {
+		private static final long serialVersionUID = 4571290316813525476L;
+		
+		final HDBSCANPredictor predictor;
+		final double[][] newData;
+		final int[] labels;
+		final double[] probabilities;
+		final boolean parallel;
+		final int chunkSize, lo, hi;
+		
+		PredictTask(HDBSCANPredictor predictor, double[][] newData, int[] labels,
+				double[] probabilities, boolean parallel, int chunkSize, int lo, int hi) {
+			this.predictor = predictor;
+			this.newData = newData;
+			this.labels = labels;
+			this.probabilities = probabilities;
+			this.parallel = parallel;
+			this.chunkSize = chunkSize;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= chunkSize) {
+				predictor.predictChunk(newData, labels, probabilities, lo, hi);
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				PredictTask left  = new PredictTask(predictor, newData, labels, probabilities, 
+					parallel, chunkSize, this.lo, mid);
+				PredictTask right = new PredictTask(predictor, newData, labels, probabilities, 
+					parallel, chunkSize, mid, this.hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+	}
+}
@@ -22,13 +22,16 @@ import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
+import com.clust4j.GlobalState;
 import com.clust4j.NamedEntity;
 import com.clust4j.kernel.CircularKernel;
 import com.clust4j.kernel.LogKernel;
 import com.clust4j.log.LogTimer;
 import com.clust4j.log.Log.Tag.Algo;
 import com.clust4j.metrics.pairwise.Distance;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
+import com.clust4j.metrics.pairwise.Pairwise;
 import com.clust4j.metrics.scoring.SupervisedMetric;
 import com.clust4j.utils.SimpleHeap;
 import com.clust4j.utils.MatUtils;
@@ -58,6 +61,7 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 	 */
 	private static final long serialVersionUID = 7563413590708853735L;
 	public static final Linkage DEF_LINKAGE = Linkage.WARD;
+	public static final DistanceStorage.Type DEF_STORAGE = DistanceStorage.Type.HEAP;
 	final static HashSet<Class<? extends GeometricallySeparable>> comp_avg_unsupported;
 	static {
 		comp_avg_unsupported = new HashSet<>();
@@ -70,6 +74,11 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 	 */
 	final Linkage linkage;
 	
+	/**
+	 * Where to store the condensed distance matrix
+	 */
+	final DistanceStorage.Type storage;
+	
 	interface LinkageTreeBuilder extends MetricValidator {
 		public HierarchicalDendrogram buildTree(HierarchicalAgglomerative h);
 	}
@@ -158,6 +167,10 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 			HierarchicalAgglomerativeParameters planner) {
 		super(data, planner, planner.getNumClusters());
 		this.linkage = planner.getLinkage();
+		this.storage = planner.getDistanceStorage();
+		
+		if(null == storage)
+			error(new IllegalArgumentException("distance storage cannot be null"));
 		
 		if(!isValidMetric(this.dist_metric)) {
 			warn(this.dist_metric.getName() + " is invalid for " + this.linkage + 
@@ -174,10 +187,10 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 	@Override
 	final protected ModelSummary modelSummary() {
 		return new ModelSummary(new Object[]{
-				"Num Rows","Num Cols","Metric","Linkage","Allow Par.","Num. Clusters"
+				"Num Rows","Num Cols","Metric","Linkage","Dist. Storage","Allow Par.","Num. Clusters"
 			}, new Object[]{
 				data.getRowDimension(),data.getColumnDimension(),
-				getSeparabilityMetric(),linkage,
+				getSeparabilityMetric(),linkage,storage.getName(),
 				parallel,
 				num_clusters
 			});
@@ -194,12 +207,17 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 	 * however traversing it requires intermittent calculations using {@link #navigate(int, int, int)}
 	 * @author Taylor G Smith
 	 */
-	protected static class EfficientDistanceMatrix implements java.io.Serializable {
+	protected static class EfficientDistanceMatrix implements java.io.Serializable, java.io.Closeable {
 		private static final long serialVersionUID = -7329893729526766664L;
-		final protected double[] dists;
+		final transient protected DistanceStorage dists;
 		
 		EfficientDistanceMatrix(final RealMatrix data, GeometricallySeparable dist, boolean partial) {
-			this.dists = build(data.getData(), dist, partial);
+			this(data, dist, partial, DEF_STORAGE, GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+		}
+		
+		EfficientDistanceMatrix(final RealMatrix data, GeometricallySeparable dist, 
+				boolean partial, DistanceStorage.Type storage, boolean parallel) {
+			this.dists = build(data.getData(), dist, partial, storage, parallel);
 		}
 		
 		/**
@@ -217,18 +235,21 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 		 * @param data
 		 * @param dist
 		 * @param partial -- use the partial distance?
+		 * @param storage -- where to store the vector
+		 * @param parallel -- whether to compute it in parallel
 		 * @return a flattened distance vector
 		 */
-		static double[] build(final double[][] data, GeometricallySeparable dist, boolean partial) {
-			final int m = data.length;
-			final int s = m*(m-1)/2; // The shape of the flattened upper triangular matrix (m choose 2)
-			final double[] vec = new double[s];
-			for(int i = 0, r = 0; i < m - 1; i++)
-				for(int j = i + 1; j < m; j++, r++)
-					vec[r] = partial ? dist.getPartialDistance(data[i], data[j]) : 
-						dist.getDistance(data[i], data[j]);
-			
-			return vec;
+		static DistanceStorage build(final double[][] data, GeometricallySeparable dist, 
+				boolean partial, DistanceStorage.Type storage, boolean parallel) {
+			return Pairwise.getCondensedDistance(data, dist, partial, storage, parallel);
+		}
+		
+		/**
+		 * Release the underlying storage
+		 */
+		@Override
+		public void close() {
+			dists.close();
 		}
 		
 		/**
@@ -261,12 +282,8 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 		 * @param j
 		 * @return the corresponding vector index
 		 */
-		static int getIndexFromFlattenedVec(final int m, final int i, final int j) {
-			if(i < j)
-				return m * i - (i * (i + 1) / 2) + (j - i - 1);
-			else if(i > j)
-				return m * j - (j * (j + 1) / 2) + (i - j - 1);
-			throw new IllegalArgumentException(i+", "+j+"; i should not equal j");
+		static long getIndexFromFlattenedVec(final int m, final int i, final int j) {
+			return DistanceStorage.condensedIndex(m, i, j);
 		}
 		
 		/**
@@ -299,7 +316,7 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 		 * @return the corresponding vector index
 		 */
 		double navigate(final int m, final int i, final int j) {
-			return dists[getIndexFromFlattenedVec(m,i,j)];
+			return dists.get(getIndexFromFlattenedVec(m,i,j));
 		}
 	}
 	
@@ -313,7 +330,7 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 			dist = ref.getSeparabilityMetric();
 			
 			if(null == dist_vec) // why would this happen?
-				dist_vec = new EfficientDistanceMatrix(data, dist, true);
+				dist_vec = new EfficientDistanceMatrix(data, dist, true, storage, parallel);
 		}
 		
 		double[][] linkage() {
@@ -327,12 +344,26 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 			return MatUtils.getColumns(Z, new int[]{0,1});
 		}
 		
-		private void link(final EfficientDistanceMatrix dists, final double[][] Z, final int n) {
-			int i, j, k, x = -1, y = -1, i_start, nx, ny, ni, id_x, id_y, id_i, c_idx;
-			double current_min;
+		/**
+		 * Merge the closest pair of clusters n - 1 times, recording each merge in Z.
+		 * Rather than rescanning the entire condensed matrix for the global minimum
+		 * on every merge, the minimum (and its column) of each row of the upper
+		 * triangle is cached. Only the merged row and the rows whose cached minimum
+		 * pointed at a merged cluster and grew need to be rescanned, which for
+		 * the (reducible) Ward, complete and average linkages keeps the whole
+		 * linkage at O(n<sup>2</sup>). Ties resolve to the first pair in row-major 
+		 * order, exactly as a full scan of the matrix would, so Z is unchanged.
+		 * @param dists - the condensed distance matrix, mutated in place
+		 * @param Z - the n - 1 by 4 linkage matrix to fill
+		 * @param n - the number of records
+		 */
+		void link(final EfficientDistanceMatrix dists, final double[][] Z, final int n) {
+			int i, k, x = -1, y = -1, nx, ny, ni, id_x, id_y, id_i, row_x;
+			long c_idx;
+			double current_min, d;
 			
 			// Inter cluster dists
-			EfficientDistanceMatrix D = dists; //VecUtils.copy(dists);
+			final DistanceStorage D = dists.dists;
 			
 			// Map the indices to node ids
 			ref.info("initializing node mappings ("+getClass().getName().split("\\$")[1]+")");
@@ -340,6 +371,12 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 			for(i = 0; i < n; i++) 
 				id_map[i] = i;
 			
+			// The min dist in each row of the upper triangle, and its column
+			final double[] row_min = new double[n];
+			final int[] row_arg = new int[n];
+			for(i = 0; i < n; i++)
+				scanRow(D, n, i, row_min, row_arg);
+			
 			LogTimer link_timer = new LogTimer(), iterTimer;
 			int incrementor = n/10, pct = 1;
 			for(k = 0; k < n - 1; k++) {
@@ -355,14 +392,10 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 					if(id_map[i] == -1)
 						continue;
 					
-					
-					i_start = EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, i + 1);
-					for(j = 0; j < n - i - 1; j++) {
-						if(D.dists[i_start + j] < current_min) {
-							current_min = D.dists[i_start + j];
-							x = i;
-							y = i + j + 1;
-						}
+					if(row_min[i] < current_min) {
+						current_min = row_min[i];
+						x = i;
+						y = row_arg[i];
 					}
 				}
 				
@@ -380,6 +413,7 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 				Z[k][3] = nx + ny;
 				id_map[x] = -1; // cluster x to be dropped
 				id_map[y] = n + k; // cluster y replaced
+				row_min[x] = Double.POSITIVE_INFINITY;
 				
 				// update dist mat
 				int cont = 0;
@@ -392,12 +426,26 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 					
 					ni = id_i < n ? 1 : (int)Z[id_i - n][3];
 					c_idx = EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, y);
-					D.dists[c_idx] = getDist(D.navigate(n, i, x), D.dists[c_idx], current_min, nx, ny, ni);
+					d = getDist(D.get(EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, x)), D.get(c_idx), current_min, nx, ny, ni);
+					D.set(c_idx, d);
 					
 					if(i < x)
-						D.dists[EfficientDistanceMatrix.getIndexFromFlattenedVec(n,i,x)] = Double.POSITIVE_INFINITY;
+						D.set(EfficientDistanceMatrix.getIndexFromFlattenedVec(n,i,x), Double.POSITIVE_INFINITY);
+					
+					// (i, y) only lives in row i when i < y; row y is rescanned below
+					if(i < y) {
+						row_x = row_arg[i];
+						if(row_x == x || (row_x == y && !(d <= row_min[i]))) // the cached min was dropped or grew
+							scanRow(D, n, i, row_min, row_arg);
+						else if(d < row_min[i] || (d == row_min[i] && y < row_x)) {
+							row_min[i] = d;
+							row_arg[i] = y;
+						}
+					}
 				}
 				
+				scanRow(D, n, y, row_min, row_arg);
+				
 				fitSummary.add(new Object[]{
 					k,current_min,cont,iterTimer.formatTime(),
 					link_timer.formatTime(),link_timer.wallMsg()
@@ -405,6 +453,29 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 			}
 		}
 		
+		/**
+		 * Find the first min of row i in the upper triangle of the condensed matrix
+		 */
+		private void scanRow(final DistanceStorage D, final int n, final int i, 
+				final double[] row_min, final int[] row_arg) {
+			double min = Double.POSITIVE_INFINITY, d;
+			int arg = -1;
+			
+			if(i < n - 1) {
+				final long i_start = EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, i + 1);
+				for(int j = 0; j < n - i - 1; j++) {
+					d = D.get(i_start + j);
+					if(d < min) {
+						min = d;
+						arg = i + j + 1;
+					}
+				}
+			}
+			
+			row_min[i] = min;
+			row_arg[i] = arg;
+		}
+		
 		abstract protected double getDist(final double dx, final double dy, 
 			final double current_min, final int nx, final int ny, final int ni);
 	}
@@ -503,19 +574,24 @@ final public class HierarchicalAgglomerative extends AbstractPartitionalClustere
 				return this;
 			}
 			
-			dist_vec = new EfficientDistanceMatrix(data, getSeparabilityMetric(), true);
+			dist_vec = new EfficientDistanceMatrix(data, getSeparabilityMetric(), true, storage, parallel);
 			
 			// Log info...
-			info("computed distance matrix in " + timer.toString());
-			
+			info("computed distance matrix (" + storage.getName() + ") in " + timer.toString());
 			
-			// Get the tree class for logging...
-			LogTimer treeTimer = new LogTimer();
-			this.tree = this.linkage.buildTree(this);
 			
-			// Tree build
-			info("constructed " + tree.getName() + " HierarchicalDendrogram in " + treeTimer.toString());
-			double[][] children = tree.linkage();
+			double[][] children;
+			try {
+				// Get the tree class for logging...
+				LogTimer treeTimer = new LogTimer();
+				this.tree = this.linkage.buildTree(this);
+				
+				// Tree build
+				info("constructed " + tree.getName() + " HierarchicalDendrogram in " + treeTimer.toString());
+				children = tree.linkage();
+			} finally {
+				dist_vec.close();
+			}
 			
 			
 			
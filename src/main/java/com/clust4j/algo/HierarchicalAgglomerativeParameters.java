@@ -21,6 +21,7 @@ import java.util.Random;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import com.clust4j.algo.HierarchicalAgglomerative.Linkage;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 
 final public class HierarchicalAgglomerativeParameters 
@@ -31,6 +32,7 @@ final public class HierarchicalAgglomerativeParameters
 	private static int DEF_K = 2;
 	private Linkage linkage = HierarchicalAgglomerative.DEF_LINKAGE;
 	private int num_clusters = DEF_K;
+	private DistanceStorage.Type storage = HierarchicalAgglomerative.DEF_STORAGE;
 
 	public HierarchicalAgglomerativeParameters() { this(DEF_K); }
 	public HierarchicalAgglomerativeParameters(int k) { this.num_clusters = k; }
@@ -51,7 +53,9 @@ final public class HierarchicalAgglomerativeParameters
 			.setSeed(seed)
 			.setVerbose(verbose)
 			.setNumClusters(num_clusters)
-			.setForceParallel(parallel);
+			.setDistanceStorage(storage)
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 
 	public Linkage getLinkage() {
@@ -72,11 +76,32 @@ final public class HierarchicalAgglomerativeParameters
 		return this;
 	}
 
+	public DistanceStorage.Type getDistanceStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Set where the distance matrix is stored. Memory-mapped storage 
+	 * allows fitting far larger matrices than fit on the heap.
+	 * @param storage
+	 * @return this
+	 */
+	public HierarchicalAgglomerativeParameters setDistanceStorage(final DistanceStorage.Type storage) {
+		this.storage = storage;
+		return this;
+	}
+	
 	@Override
 	public HierarchicalAgglomerativeParameters setForceParallel(boolean b) {
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public HierarchicalAgglomerativeParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 
 	@Override
 	public HierarchicalAgglomerativeParameters setSeed(final Random seed) {
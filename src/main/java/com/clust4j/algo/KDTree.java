@@ -18,7 +18,6 @@ package com.clust4j.algo;
 import java.util.HashSet;
 
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
 import com.clust4j.log.Loggable;
@@ -83,6 +82,16 @@ public class KDTree extends NearestNeighborHeapSearch {
 		super(X, leaf_size, dist, logger);
 	}
 	
+	KDTree(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger, 
+			boolean flatLayout, boolean parallel) {
+		super(X, leaf_size, dist, logger, flatLayout, parallel);
+	}
+	
+	KDTree(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger, 
+			boolean flatLayout, boolean parallel, int minParallelBuildPoints) {
+		super(X, leaf_size, dist, logger, flatLayout, parallel, minParallelBuildPoints);
+	}
+	
 	/**
 	 * Constructor with logger and distance metric
 	 * @param X
@@ -145,9 +154,30 @@ public class KDTree extends NearestNeighborHeapSearch {
 		tree.node_data[i_node].radius = Math.pow(rad, 1.0 / tree.dist_metric.getP());
 	}
 
+	/**
+	 * The node bounds already hold the range of each dimension, so
+	 * this need not make another pass over the node's points
+	 */
+	@Override
+	int findSplitDim(int i_node, int idx_start, int idx_end) {
+		final double[] lower = node_bounds[0][i_node], upper = node_bounds[1][i_node];
+		double diff, maxDiff = Double.NEGATIVE_INFINITY;
+		int argMax = -1;
+		
+		for(int j = 0; j < N_FEATURES; j++) {
+			diff = upper[j] - lower[j];
+			if(diff > maxDiff) {
+				maxDiff = diff;
+				argMax = j;
+			}
+		}
+		
+		return argMax;
+	}
+
 	@Override
 	final KDTree newInstance(double[][] arr, int leaf, DistanceMetric dist, Loggable logger) {
-		return new KDTree(new Array2DRowRealMatrix(arr, false), leaf, dist, logger);
+		return new KDTree(arr, leaf, dist, logger, DEF_FLAT_LAYOUT, parallel, minParallelBuildPoints);
 	}
 	
 	@Override
@@ -163,6 +193,9 @@ public class KDTree extends NearestNeighborHeapSearch {
 
 	@Override
 	double minRDist(NearestNeighborHeapSearch tree, int i_node, double[] pt) {
+		if(tree.flat)
+			return minRDistFlat(tree, i_node, pt);
+		
 		double d_lo, d_hi, d, rdist = 0.0, p = tree.dist_metric.getP();
 		final boolean inf = tree.infinity_dist;
 		
@@ -177,6 +210,34 @@ public class KDTree extends NearestNeighborHeapSearch {
 		
 		return rdist;
 	}
+	
+	@Override
+	double minRDist(NearestNeighborHeapSearch tree, int i_node, double[] pt, QueryContext ctx) {
+		return minRDist(tree, i_node, pt); // the bounds make no distance calls
+	}
+	
+	/**
+	 * The same bound as {@link #minRDist(NearestNeighborHeapSearch, int, double[])},
+	 * read from the flat bounds where the lower and upper bounds are adjacent
+	 */
+	static double minRDistFlat(NearestNeighborHeapSearch tree, int i_node, double[] pt) {
+		final int n = tree.N_FEATURES, lo = 2 * i_node * n, hi = lo + n;
+		final double[] bounds = tree.flat_bounds;
+		final double p = tree.dist_metric.getP();
+		final boolean inf = tree.infinity_dist;
+		double d_lo, d_hi, d, rdist = 0.0;
+		
+		for(int j = 0; j < n; j++) {
+			d_lo = bounds[lo + j] - pt[j];
+			d_hi = pt[j] - bounds[hi + j];
+			d = (d_lo + FastMath.abs(d_lo)) + (d_hi	+ FastMath.abs(d_hi));
+			
+			rdist = inf ? FastMath.max(rdist, 0.5 * d) :
+				rdist + FastMath.pow(0.5 * d, p);
+		}
+		
+		return rdist;
+	}
 
 	@Override
 	double minRDistDual(NearestNeighborHeapSearch tree1, int i_node1, NearestNeighborHeapSearch tree2, int i_node2) {
@@ -265,20 +326,33 @@ public class KDTree extends NearestNeighborHeapSearch {
 		int j, n_features = tree.N_FEATURES;
 		boolean inf = tree.infinity_dist;
 		
+		// the lower and upper bounds, from the flat or nested layout
+		final double[] lower, upper;
+		final int lo, hi;
+		if(tree.flat) {
+			lower = upper = tree.flat_bounds;
+			lo = 2 * i_node * n_features;
+			hi = lo + n_features;
+		} else {
+			lower = tree.node_bounds[0][i_node];
+			upper = tree.node_bounds[1][i_node];
+			lo = hi = 0;
+		}
+		
 		minDist.value = 0.0;
 		maxDist.value = 0.0;
 		
 		for(j = 0; j < n_features; j++) {
-			d_lo = tree.node_bounds[0][i_node][j] - pt[j];
-			d_hi = pt[j] - tree.node_bounds[1][i_node][j];
+			d_lo = lower[lo + j] - pt[j];
+			d_hi = pt[j] - upper[hi + j];
 			d = (d_lo + FastMath.abs(d_lo)) + (d_hi + FastMath.abs(d_hi));
 			
 			if( inf ) {
 				minDist.value = FastMath.max(minDist.value, 0.5 * d);
 				maxDist.value = FastMath.max(maxDist.value, 
-											FastMath.abs(pt[j] - tree.node_bounds[0][i_node][j]));
+											FastMath.abs(pt[j] - lower[lo + j]));
 				maxDist.value = FastMath.max(maxDist.value, 
-											FastMath.abs(pt[j] - tree.node_bounds[1][i_node][j]));
+											FastMath.abs(pt[j] - upper[hi + j]));
 			} else {
 				minDist.value += FastMath.pow(0.5 * d, p);
 				maxDist.value += FastMath.pow(
@@ -16,18 +16,18 @@
 package com.clust4j.algo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.TreeMap;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
-import com.clust4j.algo.NearestCentroidParameters;
-import com.clust4j.except.NaNException;
+import com.clust4j.NamedEntity;
 import com.clust4j.log.Log.Tag.Algo;
 import com.clust4j.log.LogTimer;
 import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
-import com.clust4j.utils.EntryPair;
 import com.clust4j.utils.VecUtils;
 
 /**
@@ -44,6 +44,75 @@ final public class KMeans extends AbstractCentroidClusterer {
 	private static final long serialVersionUID = 1102324012006818767L;
 	final public static GeometricallySeparable DEF_DIST = Distance.EUCLIDEAN;
 	final public static int DEF_MAX_ITER = 100;
+	final public static KMeansAlgorithm DEF_ALGO = KMeansAlgorithm.LLOYD;
+	final public static int DEF_BATCH_SIZE = 100;
+	final public static double DEF_REASSIGNMENT_RATIO = 0.01;
+	final public static int DEF_MAX_NO_IMPROVEMENT = 10;
+	
+	
+	/**
+	 * The algorithm used to fit the {@link KMeans} model
+	 * @author Taylor G Smith
+	 */
+	public static enum KMeansAlgorithm implements java.io.Serializable, NamedEntity {
+		/**
+		 * The classic <a href="https://en.wikipedia.org/wiki/Lloyd%27s_algorithm">Lloyd's algorithm</a>,
+		 * which assigns every record to its nearest centroid and recomputes
+		 * each centroid as the mean of its members on every iteration.
+		 */
+		LLOYD {
+			@Override public String getName() {
+				return "Lloyd";
+			}
+		},
+		
+		/**
+		 * <a href="https://www.eecs.tufts.edu/~dsculley/papers/fastkmeans.pdf">Mini-batch KMeans</a>
+		 * (D. Sculley, 2010) updates the centroids from small random samples of the
+		 * data using a per-centroid learning rate, so each step touches only a small
+		 * fraction of the rows. A single pass over all rows assigns the final labels.
+		 * Here, the max iterations is interpreted as the max number of passes (epochs) 
+		 * over the data.
+		 */
+		MINI_BATCH {
+			@Override public String getName() {
+				return "mini-batch";
+			}
+		},
+		
+		/**
+		 * <a href="http://www.aaai.org/Papers/ICML/2003/ICML03-022.pdf">Elkan's algorithm</a>
+		 * (C. Elkan, 2003) produces the same labels and centroids as {@link #LLOYD}, but
+		 * keeps an upper bound and <i>k</i> lower bounds per record along with the
+		 * inter-centroid distances, so most distance evaluations can be skipped once
+		 * the centroids begin to settle. Requires <i>m</i> &times; <i>k</i> doubles 
+		 * of additional memory. Only valid for {@link Distance#EUCLIDEAN}.
+		 */
+		ELKAN {
+			@Override public String getName() {
+				return "Elkan";
+			}
+		},
+		
+		/**
+		 * <a href="http://cs.baylor.edu/~hamerly/papers/sdm_2010.pdf">Hamerly's algorithm</a>
+		 * (G. Hamerly, 2010) produces the same labels and centroids as {@link #LLOYD}, but
+		 * keeps a single upper and lower bound per record. It prunes less than
+		 * {@link #ELKAN} but uses far less memory for large <i>k</i>. 
+		 * Only valid for {@link Distance#EUCLIDEAN}.
+		 */
+		HAMERLY {
+			@Override public String getName() {
+				return "Hamerly";
+			}
+		}
+	}
+	
+	
+	final protected KMeansAlgorithm algo;
+	final private int batchSize;
+	final private double reassignmentRatio;
+	final private int maxNoImprovement;
 	
 	
 	
@@ -57,6 +126,30 @@ final public class KMeans extends AbstractCentroidClusterer {
 	
 	protected KMeans(final RealMatrix data, final KMeansParameters planner) {
 		super(data, planner);
+		
+		KMeansAlgorithm algorithm = planner.getAlgorithm();
+		if((KMeansAlgorithm.ELKAN == algorithm || KMeansAlgorithm.HAMERLY == algorithm) 
+				&& !Distance.EUCLIDEAN.equals(this.dist_metric)) {
+			warn(algorithm.getName() + " algorithm is only valid for " + Distance.EUCLIDEAN.getName() 
+				+ " distance; falling back to " + KMeansAlgorithm.LLOYD.getName());
+			algorithm = KMeansAlgorithm.LLOYD;
+		}
+		
+		this.algo = algorithm;
+		this.batchSize = planner.getBatchSize();
+		this.reassignmentRatio = planner.getReassignmentRatio();
+		this.maxNoImprovement = planner.getMaxNoImprovement();
+		
+		if(null == algo)
+			error(new IllegalArgumentException("algorithm cannot be null"));
+		if(batchSize < 1)
+			error(new IllegalArgumentException("batchSize must exceed 0"));
+		if(reassignmentRatio < 0)
+			error(new IllegalArgumentException("reassignmentRatio cannot be negative"));
+		if(maxNoImprovement < 1)
+			error(new IllegalArgumentException("maxNoImprovement must exceed 0"));
+		
+		info("fitting with " + algo.getName() + " algorithm");
 	}
 	
 	
@@ -90,26 +183,48 @@ final public class KMeans extends AbstractCentroidClusterer {
 			}
 			
 			
+			// Mini-batch mode has its own update loop and final labeling pass
+			if(KMeansAlgorithm.MINI_BATCH == algo) {
+				fitMiniBatch(X);
+				
+				// could have collapsed to a single cluster
+				if(k > 1)
+					reorderLabelsAndCentroids();
+				
+				if(!converged)
+					warn("algorithm did not converge");
+				
+				sayBye(timer);
+				return this;
+			}
+			
+			
+			
+			// Triangle inequality bounds for the accelerated algorithms
+			final BoundedAssignment bounds = 
+				KMeansAlgorithm.ELKAN == algo ? new ElkanAssignment(X, k) :
+				KMeansAlgorithm.HAMERLY == algo ? new HamerlyAssignment(X, k) : null;
+			
+			// One reusable task for the assignment and accumulation passes
+			final int[] assignments = null != bounds ? bounds.assignments : new int[m];
+			final ParallelAssignmentTask step = new ParallelAssignmentTask(
+				X, k, assignments, assignmentMetric(), bounds, parallel);
 			
-			// Nearest centroid model to predict labels
-			NearestCentroid model = null;
-			EntryPair<int[], double[]> label_dist;
+			// Double-buffer the centroids so no iteration allocates new ones
+			final double[][] current = new double[k][], next = new double[k][n];
+			for(int i = 0; i < k; i++)
+				current[i] = centroids.get(i).clone();
+			wss = new double[k];
 			
 			
 			// Keep track of TSS (sum of barycentric distances)
 			double last_wss_sum = Double.POSITIVE_INFINITY, wss_sum = 0;
-			ArrayList<double[]> new_centroids;
+			CentroidAccumulator totals;
+			double[] tmp;
 			
 			for(iter = 0; iter < maxIter; iter++) {
 				
-				// Get labels for nearest centroids
-				try {
-					model = new NearestCentroid(CentroidUtils.centroidsToMatrix(centroids, false), 
-						VecUtils.arange(k), new NearestCentroidParameters()
-							.setSeed(getSeed())
-							.setMetric(getSeparabilityMetric())
-							.setVerbose(false)).fit();
-				} catch(NaNException NaN) {
+				if(containsNaN(current)) {
 					/*
 					 * If they metric used produces lots of infs or -infs, it 
 					 * makes it hard if not impossible to effectively segment the
@@ -131,46 +246,23 @@ final public class KMeans extends AbstractCentroidClusterer {
 					return this;
 				}
 				
-				label_dist = model.predict(X);
 				
-				// unpack the EntryPair
-				labels = label_dist.getKey();
-				new_centroids = new ArrayList<>(k);
+				// Get labels for nearest centroids and accumulate the WSS and centroid sums
+				if(null != bounds)
+					bounds.prepare(current);
 				
+				totals = step.run(current);
+				labels = assignments;
 				
-				int label;
-				wss = new double[k];
-				int[] centroid_counts = new int[k];
-				double[] centroid;
-				double[][] new_centroid_arrays = new double[k][n];
-				for(int i = 0; i < m; i++) {
-					label = labels[i];
-					centroid = centroids.get(label);
-					
-					// increment count for this centroid
-					double this_cost = 0;
-					centroid_counts[label]++;
-					for(int j = 0; j < centroid.length; j++) {
-						double diff = X[i][j] - centroid[j];
-						this_cost += (diff * diff);
-						
-						// Add the the centroid sums
-						new_centroid_arrays[label][j] += X[i][j];
-					}
-					
-					// add this cost to the WSS
-					wss[label] += this_cost;
-				}
 				
 				// one pass of K for some consolidation
 				wss_sum = 0;
 				for(int i = 0; i < k; i++) {
+					wss[i] = totals.wss[i];
 					wss_sum += wss[i];
 					
 					for(int j = 0; j < n; j++) // meanify
-						new_centroid_arrays[i][j] /= (double)centroid_counts[i];
-					
-					new_centroids.add(new_centroid_arrays[i]);
+						next[i][j] = totals.sums[i][j] / (double)totals.counts[i];
 				}
 				
 				// update the BSS
@@ -194,8 +286,14 @@ final public class KMeans extends AbstractCentroidClusterer {
 				if(converged) {
 					break;
 				} else {
-					// otherwise, reassign centroids
-					centroids = new_centroids;
+					// otherwise, reassign centroids by swapping the buffers
+					for(int i = 0; i < k; i++) {
+						tmp = current[i];
+						current[i] = next[i];
+						next[i] = tmp;
+						
+						centroids.set(i, current[i]);
+					}
 				}
 				
 			} // end iterations
@@ -219,6 +317,718 @@ final public class KMeans extends AbstractCentroidClusterer {
 	}
 	
 
+	/**
+	 * Fits the centroids from random mini-batches of {@link #batchSize} rows.
+	 * Each centroid moves toward the mean of its batch members with a learning 
+	 * rate equal to the inverse of the number of rows it has absorbed so far. Centroids 
+	 * absorbing fewer than {@link #reassignmentRatio} times the rows of the heaviest 
+	 * centroid are periodically reassigned to random batch members. Fitting stops when 
+	 * the squared centroid shift drops below the tolerance (scaled by the mean 
+	 * feature variance) or when the smoothed batch inertia, i.e., the mean reduced
+	 * distance of the batch members to their centroids under the model's metric,
+	 * fails to improve for {@link #maxNoImprovement} consecutive steps. The fit summary
+	 * reports the smoothed (Euclidean) batch WSS. A final pass labels every row.
+	 * @param X
+	 */
+	private void fitMiniBatch(final double[][] X) {
+		final LogTimer timer = new LogTimer();
+		final int n = X[0].length;
+		final int b = FastMath.min(batchSize, m);
+		final Random rand = getSeed();
+		final GeometricallySeparable metric = assignmentMetric();
+		
+		// maxIter is the max number of epochs over the data
+		final long stepsPerEpoch = FastMath.max(1, m / b);
+		final long maxSteps = stepsPerEpoch * maxIter;
+		
+		// scale the tolerance by the mean variance of the features
+		final double tol = tolerance * tss / ((double)m * (double)n);
+		
+		// weight for the exponentially weighted average of the batch inertia
+		final double alpha = FastMath.min(1.0, (b * 2.0) / (m + 1.0));
+		
+		
+		final double[][] centers = new double[k][];
+		for(int c = 0; c < k; c++)
+			centers[c] = VecUtils.copy(centroids.get(c));
+		
+		final double[] weights = new double[k]; // num rows absorbed by each centroid
+		final double[][] sums = new double[k][n];
+		final int[] counts = new int[k];
+		final int[] batch = new int[b];
+		final int[] shuffle = new int[b];
+		
+		double ewaInertia = Double.NaN, ewaInertiaMin = Double.POSITIVE_INFINITY, ewaWss = Double.NaN;
+		int noImprovement = 0;
+		long sinceReassign = 0, step;
+		
+		for(step = 0; step < maxSteps; ) {
+			
+			// Draw the batch and accumulate the members of each centroid
+			double inertia = 0, batchWss = 0;
+			int label;
+			double[] row;
+			for(int i = 0; i < b; i++) {
+				batch[i] = rand.nextInt(m);
+				row = X[batch[i]];
+				
+				label = nearestCentroid(row, centers, metric);
+				inertia += metric.getPartialDistance(centers[label], row);
+				batchWss += squaredDistance(row, centers[label]);
+				
+				counts[label]++;
+				for(int j = 0; j < n; j++)
+					sums[label][j] += row[j];
+			}
+			
+			inertia /= (double)b;
+			batchWss /= (double)b;
+			
+			
+			// Move each touched centroid toward its batch mean
+			double shift = 0, old, updated, diff;
+			for(int c = 0; c < k; c++) {
+				if(0 == counts[c])
+					continue;
+				
+				old = weights[c];
+				weights[c] += counts[c];
+				
+				for(int j = 0; j < n; j++) {
+					updated = (centers[c][j] * old + sums[c][j]) / weights[c];
+					diff = updated - centers[c][j];
+					shift += diff * diff;
+					
+					centers[c][j] = updated;
+					sums[c][j] = 0.0;
+				}
+				
+				counts[c] = 0;
+			}
+			
+			
+			// Periodically reassign the centroids that are starving
+			sinceReassign += b;
+			if(reassignmentRatio > 0 && sinceReassign > 10L * k) {
+				sinceReassign = 0;
+				reassignSmallCentroids(X, centers, weights, batch, shuffle, rand);
+			}
+			
+			step++;
+			
+			
+			// Early stopping on the smoothed inertia
+			ewaInertia = 1 == step ? inertia : ewaInertia * (1.0 - alpha) + inertia * alpha;
+			ewaWss = 1 == step ? batchWss : ewaWss * (1.0 - alpha) + batchWss * alpha;
+			if(ewaInertia < ewaInertiaMin) {
+				noImprovement = 0;
+				ewaInertiaMin = ewaInertia;
+			} else {
+				noImprovement++;
+			}
+			
+			converged = (tol > 0 && shift <= tol) || noImprovement >= maxNoImprovement;
+			if(converged || 0 == step % stepsPerEpoch) {
+				final double est_wss = ewaWss * m;
+				fitSummary.add(new Object[]{ 
+					step, converged, 
+					tss, est_wss, tss - est_wss, 
+					timer.wallTime() });
+			}
+			
+			if(converged)
+				break;
+		}
+		
+		iter = (int)FastMath.min(step, Integer.MAX_VALUE);
+		
+		
+		// One pass over all rows for the final labels and WSS
+		labels = new int[m];
+		final CentroidAccumulator totals = new ParallelAssignmentTask(
+			X, k, labels, metric, null, parallel).run(centers);
+		wss = totals.wss;
+		final int[] sizes = totals.counts;
+		
+		
+		// Drop any centroids which did not capture a single row
+		int kept = 0;
+		final int[] remap = new int[k];
+		final ArrayList<double[]> new_centroids = new ArrayList<>(k);
+		for(int c = 0; c < k; c++) {
+			if(0 == sizes[c]) {
+				remap[c] = -1;
+			} else {
+				wss[kept] = wss[c];
+				remap[c] = kept++;
+				new_centroids.add(centers[c]);
+			}
+		}
+		
+		centroids = new_centroids;
+		if(kept < k) {
+			warn((k - kept) + " centroid(s) captured no records; reducing k to " + kept);
+			
+			k = kept;
+			wss = VecUtils.slice(wss, 0, k);
+			for(int i = 0; i < m; i++)
+				labels[i] = remap[labels[i]];
+			
+			if(1 == k) {
+				labelFromSingularK(X);
+				fitSummary.add(new Object[]{ iter, converged, tss, tss, Double.NaN, timer.wallTime() });
+				return;
+			}
+		}
+		
+		final double wss_sum = VecUtils.sum(wss);
+		bss = tss - wss_sum;
+		fitSummary.add(new Object[]{ iter, converged, tss, wss_sum, bss, timer.wallTime() });
+	}
+	
+	/**
+	 * Reassign centroids that have absorbed fewer than {@link #reassignmentRatio} times
+	 * the rows of the heaviest centroid to randomly selected, distinct batch members.
+	 * At most half the batch size may be reassigned in a single step.
+	 */
+	private void reassignSmallCentroids(final double[][] X, final double[][] centers, 
+			final double[] weights, final int[] batch, final int[] shuffle, final Random rand) {
+		
+		final double thresh = reassignmentRatio * VecUtils.max(weights);
+		final int b = batch.length, limit = b / 2;
+		
+		double minKept = Double.POSITIVE_INFINITY;
+		int numSmall = 0;
+		for(int c = 0; c < k; c++) {
+			if(weights[c] < thresh)
+				numSmall++;
+			else
+				minKept = FastMath.min(minKept, weights[c]);
+		}
+		
+		if(0 == numSmall || 0 == limit)
+			return;
+		if(Double.isInfinite(minKept))
+			minKept = thresh / reassignmentRatio;
+		
+		// partial Fisher-Yates shuffle to pick distinct batch positions
+		for(int i = 0; i < b; i++)
+			shuffle[i] = i;
+		
+		int next = 0, pick, tmp;
+		for(int c = 0; c < k && next < limit; c++) {
+			if(weights[c] < thresh) {
+				pick = next + rand.nextInt(b - next);
+				tmp = shuffle[next];
+				shuffle[next] = shuffle[pick];
+				shuffle[pick] = tmp;
+				
+				centers[c] = VecUtils.copy(X[batch[shuffle[next++]]]);
+				weights[c] = minKept;
+			}
+		}
+		
+		trace("reassigned " + next + " small centroid(s)");
+	}
+	
+	/**
+	 * Index of the nearest centroid to the row under the metric. Ties 
+	 * go to the lowest index, as in {@link NearestCentroid#predict(double[][])}
+	 */
+	private static int nearestCentroid(final double[] row, final double[][] centers, final GeometricallySeparable metric) {
+		double minDist = Double.POSITIVE_INFINITY, dist;
+		int nearest = 0;
+		
+		for(int c = 0; c < centers.length; c++) {
+			dist = metric.getPartialDistance(centers[c], row);
+			if(dist < minDist) {
+				minDist = dist;
+				nearest = c;
+			}
+		}
+		
+		return nearest;
+	}
+	
+	private static double squaredDistance(final double[] a, final double[] b) {
+		double sum = 0, diff;
+		for(int j = 0; j < a.length; j++) {
+			diff = a[j] - b[j];
+			sum += diff * diff;
+		}
+		
+		return sum;
+	}
+	
+
+	/**
+	 * The metric used to assign records to centroids. Metrics unsupported
+	 * by {@link NearestCentroid} fall back to {@link #DEF_DIST}, as they would there.
+	 */
+	private GeometricallySeparable assignmentMetric() {
+		final GeometricallySeparable metric = getSeparabilityMetric();
+		return NearestCentroid.UNSUPPORTED_METRICS.contains(metric.getClass()) ? DEF_DIST : metric;
+	}
+	
+	private static boolean containsNaN(final double[][] centroids) {
+		for(double[] c: centroids) {
+			for(double d: c) {
+				if(Double.isNaN(d))
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Per-chunk sums, counts and WSS of the records assigned to each centroid.
+	 * Allocated once per chunk and reset on every pass.
+	 * @author Taylor G Smith
+	 */
+	static class CentroidAccumulator {
+		final double[][] sums;
+		final int[] counts;
+		final double[] wss;
+		
+		CentroidAccumulator(final int k, final int n) {
+			this.sums = new double[k][n];
+			this.counts = new int[k];
+			this.wss = new double[k];
+		}
+		
+		void reset() {
+			for(int c = 0; c < counts.length; c++) {
+				Arrays.fill(sums[c], 0.0);
+				counts[c] = 0;
+				wss[c] = 0.0;
+			}
+		}
+		
+		/** Add the other's totals into this one */
+		CentroidAccumulator merge(final CentroidAccumulator other) {
+			double[] a, b;
+			for(int c = 0; c < counts.length; c++) {
+				a = sums[c];
+				b = other.sums[c];
+				for(int j = 0; j < a.length; j++)
+					a[j] += b[j];
+				
+				counts[c] += other.counts[c];
+				wss[c] += other.wss[c];
+			}
+			
+			return this;
+		}
+	}
+	
+	/**
+	 * Assigns each record to its nearest centroid and accumulates the centroid
+	 * sums, counts and WSS in one pass. Each chunk accumulates into its own
+	 * {@link CentroidAccumulator}, and chunks are merged along the same fixed 
+	 * binary tree whether or not the pass runs in parallel. Since the
+	 * {@link FixedChunkingStrategy} never depends on the number of cores, the 
+	 * results are bit-for-bit identical between serial and parallel fits.
+	 * @author Taylor G Smith
+	 */
+	static class ParallelAssignmentTask extends ParallelChunkingTask<CentroidAccumulator> {
+		private static final long serialVersionUID = 2539271958532474081L;
+		
+		final double[][] X;
+		final int[] labels;
+		final GeometricallySeparable metric;
+		final BoundedAssignment bounds;
+		final boolean parallel;
+		final CentroidAccumulator[] accumulators;
+		final int lo;
+		final int hi;
+		double[][] centers;
+		
+		ParallelAssignmentTask(final double[][] X, final int k, final int[] labels, 
+				final GeometricallySeparable metric, final BoundedAssignment bounds, final boolean parallel) {
+			super(X, new FixedChunkingStrategy(X.length));
+			
+			this.X = X;
+			this.labels = labels;
+			this.metric = metric;
+			this.bounds = bounds;
+			this.parallel = parallel;
+			this.lo = 0;
+			this.hi = chunks.size();
+			
+			this.accumulators = new CentroidAccumulator[hi];
+			for(int i = 0; i < hi; i++)
+				accumulators[i] = new CentroidAccumulator(k, X[0].length);
+		}
+		
+		ParallelAssignmentTask(final ParallelAssignmentTask task, final int lo, final int hi) {
+			super(task);
+			
+			this.X = task.X;
+			this.labels = task.labels;
+			this.metric = task.metric;
+			this.bounds = task.bounds;
+			this.parallel = task.parallel;
+			this.accumulators = task.accumulators;
+			this.centers = task.centers;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		/**
+		 * Run one pass over the data
+		 * @param centers - the current centroids. If {@link #bounds} is not null,
+		 * it must already be prepared with the same centroids.
+		 * @return the merged totals, which are overwritten on the next pass
+		 */
+		CentroidAccumulator run(final double[][] centers) {
+			this.centers = centers;
+			
+			final ParallelAssignmentTask task = new ParallelAssignmentTask(this, lo, hi);
+			return parallel ? getThreadPool().invoke(task) : task.compute();
+		}
+
+		@Override
+		public CentroidAccumulator reduce(Chunk chunk) {
+			final CentroidAccumulator acc = accumulators[lo];
+			acc.reset();
+			
+			final int start = chunk.start, end = start + chunk.size();
+			
+			if(null != bounds) {
+				bounds.assignRows(start, end);
+			} else {
+				double minDist, dist;
+				int nearest;
+				
+				// ties go to the lowest index, as in NearestCentroid
+				for(int i = start; i < end; i++) {
+					minDist = Double.POSITIVE_INFINITY;
+					nearest = 0;
+					
+					for(int c = 0; c < centers.length; c++) {
+						dist = metric.getPartialDistance(centers[c], X[i]);
+						if(dist < minDist) {
+							minDist = dist;
+							nearest = c;
+						}
+					}
+					
+					labels[i] = nearest;
+				}
+			}
+			
+			int label;
+			double[] row, sum;
+			for(int i = start; i < end; i++) {
+				label = labels[i];
+				row = X[i];
+				sum = acc.sums[label];
+				
+				acc.counts[label]++;
+				acc.wss[label] += squaredDistance(row, centers[label]);
+				for(int j = 0; j < row.length; j++)
+					sum[j] += row[j];
+			}
+			
+			return acc;
+		}
+
+		@Override
+		protected CentroidAccumulator compute() {
+			if(hi - lo <= 1) {
+				return reduce(chunks.get(lo));
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				ParallelAssignmentTask left  = new ParallelAssignmentTask(this, this.lo, mid);
+				ParallelAssignmentTask right = new ParallelAssignmentTask(this, mid, this.hi);
+				
+				final CentroidAccumulator l, r;
+				if(parallel) {
+					left.fork();
+					r = right.compute();
+					l = left.join();
+				} else {
+					l = left.compute();
+					r = right.compute();
+				}
+				
+				return l.merge(r);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Assigns each record to its nearest centroid while keeping distance bounds
+	 * across iterations, so centroids that the triangle inequality proves cannot
+	 * be closer than the current assignment are skipped. Ties resolve to the
+	 * lowest centroid index, exactly as in {@link NearestCentroid#predict(double[][])},
+	 * so the labels are identical to those of the {@link KMeansAlgorithm#LLOYD} path.
+	 * Only valid for {@link Distance#EUCLIDEAN}.
+	 * @author Taylor G Smith
+	 */
+	abstract static class BoundedAssignment {
+		final double[][] X;
+		final int m, k;
+		
+		/** The current label of each record */
+		final int[] assignments;
+		/** Upper bound on the distance from each record to its assigned centroid */
+		final double[] upper;
+		
+		/** The centroids as of the last call to {@link #prepare(double[][])} */
+		final double[][] centers;
+		/** The distance each centroid moved since the last call */
+		final double[] shift;
+		/** Half the distance between each pair of centroids */
+		final double[][] halfDist;
+		/** Half the distance from each centroid to its closest other centroid */
+		final double[] s;
+		/** Whether the bounds have yet to be initialized by a full scan */
+		boolean first = true, prepared = false;
+		
+		BoundedAssignment(final double[][] X, final int k) {
+			this.X = X;
+			this.m = X.length;
+			this.k = k;
+			
+			final int n = X[0].length;
+			this.assignments = new int[m];
+			this.upper = new double[m];
+			this.centers = new double[k][n];
+			this.shift = new double[k];
+			this.halfDist = new double[k][k];
+			this.s = new double[k];
+		}
+		
+		/**
+		 * Record the new centroids, how far each one moved and the distances
+		 * between them. Must be called before each round of {@link #assignRows(int, int)}.
+		 * @param centroids - must not contain NaNs
+		 */
+		void prepare(final double[][] centroids) {
+			first = !prepared;
+			
+			double[] c;
+			for(int i = 0; i < k; i++) {
+				c = centroids[i];
+				shift[i] = first ? 0.0 : FastMath.sqrt(squaredDistance(centers[i], c));
+				System.arraycopy(c, 0, centers[i], 0, c.length);
+			}
+			
+			updateCentroidDistances();
+			prepared = true;
+		}
+		
+		final void updateCentroidDistances() {
+			for(int i = 0; i < k; i++)
+				s[i] = Double.POSITIVE_INFINITY;
+			
+			double half;
+			for(int i = 0; i < k - 1; i++) {
+				for(int j = i + 1; j < k; j++) {
+					half = 0.5 * FastMath.sqrt(squaredDistance(centers[i], centers[j]));
+					halfDist[i][j] = half;
+					halfDist[j][i] = half;
+					
+					s[i] = FastMath.min(s[i], half);
+					s[j] = FastMath.min(s[j], half);
+				}
+			}
+		}
+		
+		/**
+		 * Assign the records in [from, to) given the current centers. Calls
+		 * over disjoint ranges only touch the state of their own records,
+		 * so they may safely run concurrently.
+		 * @param from
+		 * @param to
+		 */
+		abstract void assignRows(int from, int to);
+	}
+	
+	/**
+	 * Elkan's bounds: one upper bound and <i>k</i> lower bounds per record
+	 * @author Taylor G Smith
+	 */
+	static class ElkanAssignment extends BoundedAssignment {
+		/** Lower bound on the distance from each record to each centroid */
+		final double[][] lower;
+		
+		ElkanAssignment(final double[][] X, final int k) {
+			super(X, k);
+			this.lower = new double[m][k];
+		}
+		
+		@Override
+		void assignRows(final int from, final int to) {
+			double[] row, l;
+			double u, usq, d, dsq;
+			int a;
+			boolean tight;
+			
+			for(int i = from; i < to; i++) {
+				row = X[i];
+				l = lower[i];
+				
+				if(first) {
+					a = 0;
+					usq = Double.POSITIVE_INFINITY;
+					for(int c = 0; c < k; c++) {
+						dsq = squaredDistance(row, centers[c]);
+						l[c] = FastMath.sqrt(dsq);
+						
+						if(dsq < usq) {
+							usq = dsq;
+							a = c;
+						}
+					}
+					
+					assignments[i] = a;
+					upper[i] = l[a];
+					continue;
+				}
+				
+				
+				// Loosen the bounds by how far the centroids moved
+				a = assignments[i];
+				u = upper[i] + shift[a];
+				for(int c = 0; c < k; c++)
+					l[c] = FastMath.max(0.0, l[c] - shift[c]);
+				
+				// Strict inequalities so ties with a lower index are always examined
+				if(u < s[a]) {
+					upper[i] = u;
+					continue;
+				}
+				
+				tight = false;
+				usq = Double.NaN;
+				for(int c = 0; c < k; c++) {
+					if(c == a || u < l[c] || u < halfDist[a][c])
+						continue;
+					
+					if(!tight) {
+						usq = squaredDistance(row, centers[a]);
+						u = FastMath.sqrt(usq);
+						l[a] = u;
+						tight = true;
+						
+						if(u < l[c] || u < halfDist[a][c])
+							continue;
+					}
+					
+					dsq = squaredDistance(row, centers[c]);
+					d = FastMath.sqrt(dsq);
+					l[c] = d;
+					
+					if(dsq < usq || (dsq == usq && c < a)) {
+						a = c;
+						u = d;
+						usq = dsq;
+					}
+				}
+				
+				assignments[i] = a;
+				upper[i] = u;
+			}
+		}
+	}
+	
+	/**
+	 * Hamerly's bounds: one upper and one lower bound per record, where the 
+	 * lower bound applies to every centroid but the assigned one
+	 * @author Taylor G Smith
+	 */
+	static class HamerlyAssignment extends BoundedAssignment {
+		/** Lower bound on the distance from each record to its second closest centroid */
+		final double[] lower;
+		double maxShift, secondMaxShift;
+		int maxShiftIdx;
+		
+		HamerlyAssignment(final double[][] X, final int k) {
+			super(X, k);
+			this.lower = new double[m];
+		}
+		
+		@Override
+		void prepare(final double[][] centroids) {
+			super.prepare(centroids);
+			
+			// Identify the two largest centroid shifts
+			maxShift = secondMaxShift = 0.0;
+			maxShiftIdx = -1;
+			for(int c = 0; c < k; c++) {
+				if(shift[c] > maxShift) {
+					secondMaxShift = maxShift;
+					maxShift = shift[c];
+					maxShiftIdx = c;
+				} else if(shift[c] > secondMaxShift) {
+					secondMaxShift = shift[c];
+				}
+			}
+		}
+		
+		@Override
+		void assignRows(final int from, final int to) {
+			double[] row;
+			double u, usq, l, bound;
+			int a;
+			
+			for(int i = from; i < to; i++) {
+				row = X[i];
+				
+				if(!first) {
+					a = assignments[i];
+					u = upper[i] + shift[a];
+					l = lower[i] - (a == maxShiftIdx ? secondMaxShift : maxShift);
+					
+					// Strict inequalities so ties with a lower index are always examined
+					bound = FastMath.max(s[a], l);
+					if(u < bound) {
+						upper[i] = u;
+						lower[i] = l;
+						continue;
+					}
+					
+					usq = squaredDistance(row, centers[a]);
+					u = FastMath.sqrt(usq);
+					if(u < bound) {
+						upper[i] = u;
+						lower[i] = l;
+						continue;
+					}
+				}
+				
+				scan(i, row);
+			}
+		}
+		
+		/** Full scan of all centroids, tracking the closest and second closest */
+		private void scan(final int i, final double[] row) {
+			double best = Double.POSITIVE_INFINITY, second = Double.POSITIVE_INFINITY, dsq;
+			int a = 0;
+			
+			for(int c = 0; c < k; c++) {
+				dsq = squaredDistance(row, centers[c]);
+				if(dsq < best) {
+					second = best;
+					best = dsq;
+					a = c;
+				} else if(dsq < second) {
+					second = dsq;
+				}
+			}
+			
+			assignments[i] = a;
+			upper[i] = FastMath.sqrt(best);
+			lower[i] = FastMath.sqrt(second);
+		}
+	}
+	
+
 	@Override
 	public Algo getLoggerTag() {
 		return com.clust4j.log.Log.Tag.Algo.KMEANS;
@@ -21,6 +21,7 @@ import java.util.Random;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import com.clust4j.algo.AbstractCentroidClusterer.InitializationStrategy;
+import com.clust4j.algo.KMeans.KMeansAlgorithm;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 
 final public class KMeansParameters extends CentroidClustererParameters<KMeans> {
@@ -28,6 +29,10 @@ final public class KMeansParameters extends CentroidClustererParameters<KMeans>
 	
 	private InitializationStrategy strat = KMeans.DEF_INIT;
 	private int maxIter = KMeans.DEF_MAX_ITER;
+	private KMeansAlgorithm algo = KMeans.DEF_ALGO;
+	private int batchSize = KMeans.DEF_BATCH_SIZE;
+	private double reassignmentRatio = KMeans.DEF_REASSIGNMENT_RATIO;
+	private int maxNoImprovement = KMeans.DEF_MAX_NO_IMPROVEMENT;
 	
 	public KMeansParameters() { }
 	public KMeansParameters(int k) {
@@ -48,7 +53,28 @@ final public class KMeansParameters extends CentroidClustererParameters<KMeans>
 			.setVerbose(verbose)
 			.setSeed(seed)
 			.setInitializationStrategy(strat)
-			.setForceParallel(parallel);
+			.setAlgorithm(algo)
+			.setBatchSize(batchSize)
+			.setReassignmentRatio(reassignmentRatio)
+			.setMaxNoImprovement(maxNoImprovement)
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
+	}
+	
+	public KMeansAlgorithm getAlgorithm() {
+		return algo;
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	public double getReassignmentRatio() {
+		return reassignmentRatio;
+	}
+	
+	public int getMaxNoImprovement() {
+		return maxNoImprovement;
 	}
 	
 	@Override
@@ -67,12 +93,56 @@ final public class KMeansParameters extends CentroidClustererParameters<KMeans>
 		return this;
 	}
 	
+	@Override
+	public KMeansParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
+	
 	@Override
 	public KMeansParameters setMetric(final GeometricallySeparable dist) {
 		this.metric = dist;
 		return this;
 	}
 	
+	public KMeansParameters setAlgorithm(final KMeansAlgorithm algo) {
+		this.algo = algo;
+		return this;
+	}
+	
+	/**
+	 * Set the number of rows sampled per step
+	 * in {@link KMeansAlgorithm#MINI_BATCH} mode
+	 * @param size
+	 * @return self
+	 */
+	public KMeansParameters setBatchSize(final int size) {
+		this.batchSize = size;
+		return this;
+	}
+	
+	/**
+	 * Set the fraction of the heaviest centroid's absorbed row count below
+	 * which a centroid is reassigned in {@link KMeansAlgorithm#MINI_BATCH} mode
+	 * @param ratio
+	 * @return self
+	 */
+	public KMeansParameters setReassignmentRatio(final double ratio) {
+		this.reassignmentRatio = ratio;
+		return this;
+	}
+	
+	/**
+	 * Set the number of consecutive steps without improvement in the smoothed
+	 * inertia that triggers early stopping in {@link KMeansAlgorithm#MINI_BATCH} mode
+	 * @param max
+	 * @return self
+	 */
+	public KMeansParameters setMaxNoImprovement(final int max) {
+		this.maxNoImprovement = max;
+		return this;
+	}
+	
 	public KMeansParameters setMaxIter(final int max) {
 		this.maxIter = max;
 		return this;
@@ -17,15 +17,18 @@ package com.clust4j.algo;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
+import com.clust4j.NamedEntity;
 import com.clust4j.except.IllegalClusterStateException;
 import com.clust4j.log.Log.Tag.Algo;
 import com.clust4j.log.LogTimer;
 import com.clust4j.metrics.pairwise.Distance;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 import com.clust4j.metrics.pairwise.Pairwise;
 import com.clust4j.utils.VecUtils;
@@ -43,11 +46,14 @@ import com.clust4j.utils.VecUtils;
  * 1987 for the work with Manhattan distance (l1 norm) and other distances.
  * 
  * <p>
- * clust4j utilizes the <a href="https://en.wikipedia.org/wiki/Lloyd%27s_algorithm">
+ * By default, clust4j utilizes the <a href="https://en.wikipedia.org/wiki/Lloyd%27s_algorithm">
  * Voronoi iteration</a> technique to identify clusters. Alternative greedy searches, 
  * including PAM (partitioning around medoids), are faster yet may not find the optimal
  * solution. For this reason, clust4j's implementation of KMedoids almost always surpasses
  * the performance of {@link KMeans}, however it can typically take longer  as well.
+ * The Voronoi iteration requires the full distance matrix; for larger datasets, see
+ * the {@link KMedoidsAlgorithm#FAST_PAM} and {@link KMedoidsAlgorithm#CLARA} algorithms,
+ * which compute distances on demand.
  * 
  * @see {@link AbstractPartitionalClusterer}
  * @author Taylor G Smith &lt;tgsmith61591@gmail.com&gt;
@@ -60,6 +66,58 @@ final public class KMedoids extends AbstractCentroidClusterer {
 	private static final long serialVersionUID = -4468316488158880820L;
 	final public static GeometricallySeparable DEF_DIST = Distance.MANHATTAN;
 	final public static int DEF_MAX_ITER = 10;
+	final public static DistanceStorage.Type DEF_STORAGE = DistanceStorage.Type.HEAP;
+	final public static KMedoidsAlgorithm DEF_ALGO = KMedoidsAlgorithm.VORONOI;
+	/** The default CLARA sample size, which selects 80 + 4k records */
+	final public static int DEF_SAMPLE_SIZE = 0;
+	final public static int DEF_NUM_SAMPLES = 5;
+	
+	
+	/**
+	 * The algorithm used to search for the medoids
+	 * @author Taylor G Smith
+	 */
+	public static enum KMedoidsAlgorithm implements java.io.Serializable, NamedEntity {
+		/**
+		 * The <a href="https://en.wikipedia.org/wiki/Lloyd%27s_algorithm">Voronoi iteration</a>,
+		 * which alternately assigns each record to its nearest medoid and makes
+		 * the member that minimizes the cost of each cluster its medoid. Requires
+		 * the full distance matrix, which is stored according to the {@link DistanceStorage.Type}.
+		 */
+		VORONOI {
+			@Override public String getName() {
+				return "Voronoi iteration";
+			}
+		},
+		
+		/**
+		 * The swap phase of PAM, after the <a href="https://arxiv.org/abs/1810.05691">FastPAM2</a>
+		 * algorithm (E. Schubert and P. J. Rousseeuw, 2019). Each iteration evaluates
+		 * swapping every record in for every medoid in <tt>O(m<sup>2</sup>)</tt> distance 
+		 * computations and applies up to <i>k</i> improving swaps. Distances are computed
+		 * on demand, so memory is linear in the number of records. Here, the max iterations 
+		 * is interpreted as the max number of swap passes.
+		 */
+		FAST_PAM {
+			@Override public String getName() {
+				return "FastPAM";
+			}
+		},
+		
+		/**
+		 * <a href="https://en.wikipedia.org/wiki/K-medoids#CLARA">CLARA</a> (clustering large
+		 * applications; L. Kaufman and P. J. Rousseeuw, 1990) runs {@link #FAST_PAM} on several 
+		 * random samples of the records, each including the best medoids so far, and keeps the 
+		 * medoids that minimize the cost over all of the records. Each sample costs a single
+		 * <tt>O(mk)</tt> pass over the records, so it scales to datasets far too large for 
+		 * the other algorithms, yet it only searches for medoids within the samples.
+		 */
+		CLARA {
+			@Override public String getName() {
+				return "CLARA";
+			}
+		},
+	}
 	
 	/**
 	 * Stores the indices of the current medoids. Each index,
@@ -68,13 +126,21 @@ final public class KMedoids extends AbstractCentroidClusterer {
 	volatile private int[] medoid_indices = new int[k];
 	
 	/**
-	 * Upper triangular, M x M matrix denoting distances between records.
-	 * Is only populated during training phase and then set to null for 
-	 * garbage collection, as a large-M matrix has a high space footprint: O(N^2).
-	 * This is only needed during training and then can safely be collected
-	 * to free up heap space.
+	 * Condensed upper triangular matrix denoting distances between records.
+	 * Is only populated during training phase and then closed and set to null, 
+	 * as a large-M matrix has a high space footprint: O(N^2). Depending on
+	 * the {@link #storage}, it may live on the heap or in a memory-mapped file.
+	 */
+	volatile private DistanceStorage dist_mat = null;
+	
+	/**
+	 * Where to store the distance matrix
 	 */
-	volatile private double[][] dist_mat = null;
+	final private DistanceStorage.Type storage;
+	
+	final private KMedoidsAlgorithm algo;
+	final private int sampleSize;
+	final private int numSamples;
 	
 	/**
 	 * Map the index to the WSS
@@ -93,12 +159,29 @@ final public class KMedoids extends AbstractCentroidClusterer {
 	
 	protected KMedoids(final RealMatrix data, final KMedoidsParameters planner) {
 		super(data, planner);
+		this.storage = planner.getDistanceStorage();
+		this.algo = planner.getAlgorithm();
+		this.sampleSize = planner.getSampleSize();
+		this.numSamples = planner.getNumSamples();
+		
+		if(null == storage)
+			error(new IllegalArgumentException("distance storage cannot be null"));
+		if(null == algo)
+			error(new IllegalArgumentException("algorithm cannot be null"));
+		if(sampleSize < 0)
+			error(new IllegalArgumentException("sampleSize cannot be negative"));
+		if(sampleSize > 0 && sampleSize <= k)
+			error(new IllegalArgumentException("sampleSize must exceed k"));
+		if(numSamples < 1)
+			error(new IllegalArgumentException("numSamples must exceed 0"));
 		
 		// Check if is Manhattan
 		if(!this.dist_metric.equals(Distance.MANHATTAN)) {
 			warn("KMedoids is intented to run with Manhattan distance, WSS/BSS computations will be inaccurate");
 			//this.dist_metric = Distance.MANHATTAN; // idk that we want to enforce this...
 		}
+		
+		info("fitting with " + algo.getName() + " algorithm");
 	}
 	
 	
@@ -135,146 +218,365 @@ final public class KMedoids extends AbstractCentroidClusterer {
 			}
 			
 			
+			if(KMedoidsAlgorithm.FAST_PAM == algo)
+				return fitFastPAM(X, timer);
+			else if(KMedoidsAlgorithm.CLARA == algo)
+				return fitCLARA(X, timer);
+			
+			
 			// We do this in KMedoids and not KMeans, because KMedoids uses
 			// real points as medoids and not means for centroids, thus
 			// the recomputation of distances is unnecessary with the dist mat
-			dist_mat = Pairwise.getDistance(X, getSeparabilityMetric(), true, false);
-			info("distance matrix computed in " + timer.toString());
-			
-			// Initialize labels
-			medoid_indices = init_centroid_indices;
+			dist_mat = Pairwise.getCondensedDistance(X, getSeparabilityMetric(), false, storage, parallel);
+			info("distance matrix (" + storage.getName() + ") computed in " + timer.toString());
 			
+			try {
+				return fitMedoids(X, timer);
+			} finally {
+				dist_mat.close();
+				dist_mat = null;
+			}
+		}
+		
+	} // End train
+	
+	/**
+	 * Run the Voronoi iterations once the distance matrix is computed
+	 */
+	private KMedoids fitMedoids(final double[][] X, final LogTimer timer) {
+		final double nan = Double.NaN;
+		
+		// Initialize labels
+		medoid_indices = init_centroid_indices;
+		
+		
+		ClusterAssignments clusterAssignments;
+		MedoidReassignmentHandler rassn;
+		int[] newMedoids = medoid_indices;
+		
+		// Cost vars
+		double bestCost = Double.POSITIVE_INFINITY, 
+			   maxCost = Double.NEGATIVE_INFINITY,
+			   avgCost = Double.NaN, wss_sum = nan;
+		
+		
+		// Iterate while the cost decreases:
+		boolean convergedFromCost = false; // from cost or system changes?
+		boolean configurationChanged = true;
+		while( configurationChanged
+			&& iter < maxIter ) {
 			
-			ClusterAssignments clusterAssignments;
-			MedoidReassignmentHandler rassn;
-			int[] newMedoids = medoid_indices;
+			/*
+			 * 1. In each cluster, make the point that minimizes 
+			 *    the sum of distances within the cluster the medoid
+			 */
+			try {
+				clusterAssignments = assignClosestMedoid(newMedoids);
+			} catch(IllegalClusterStateException ouch) {
+				exitOnBadDistanceMetric(X, timer);
+				return this;
+			}
 			
-			// Cost vars
-			double bestCost = Double.POSITIVE_INFINITY, 
-				   maxCost = Double.NEGATIVE_INFINITY,
-				   avgCost = Double.NaN, wss_sum = nan;
 			
+			/*
+			 * 1.5 The entries are not 100% equal, so we can (re)assign medoids...
+			 */
+			try {
+				rassn = new MedoidReassignmentHandler(clusterAssignments);
+			} catch(IllegalClusterStateException ouch) {
+				exitOnBadDistanceMetric(X, timer);
+				return this;
+			}
 			
-			// Iterate while the cost decreases:
-			boolean convergedFromCost = false; // from cost or system changes?
-			boolean configurationChanged = true;
-			while( configurationChanged
-				&& iter < maxIter ) {
-				
-				/*
-				 * 1. In each cluster, make the point that minimizes 
-				 *    the sum of distances within the cluster the medoid
-				 */
-				try {
-					clusterAssignments = assignClosestMedoid(newMedoids);
-				} catch(IllegalClusterStateException ouch) {
-					exitOnBadDistanceMetric(X, timer);
-					return this;
-				}
-				
-				
-				/*
-				 * 1.5 The entries are not 100% equal, so we can (re)assign medoids...
-				 */
-				try {
-					rassn = new MedoidReassignmentHandler(clusterAssignments);
-				} catch(IllegalClusterStateException ouch) {
-					exitOnBadDistanceMetric(X, timer);
-					return this;
-				}
-				
-				/*
-				 * 1.75 This happens in the case of bad kernels that cause
-				 * infinities to propagate... we can't segment the input
-				 * space and need to just return a single cluster.
-				 */
-				if(rassn.new_clusters.size() == 1) {
-					this.k = 1;
-					warn("(dis)similarity metric cannot partition space without propagating Infs. Returning one cluster");
-					
-					labelFromSingularK(X);
-					fitSummary.add(new Object[]{ iter, converged, 
-							tss, // tss
-							tss, // avg per cluster
-							tss, // wss
-							nan, // bss (none) 
-							timer.wallTime() });
-					sayBye(timer);
-					return this;
-				}
-
+			/*
+			 * 1.75 This happens in the case of bad kernels that cause
+			 * infinities to propagate... we can't segment the input
+			 * space and need to just return a single cluster.
+			 */
+			if(rassn.new_clusters.size() == 1) {
+				this.k = 1;
+				warn("(dis)similarity metric cannot partition space without propagating Infs. Returning one cluster");
 				
-				/*
-				 * 2. Reassign each point to the cluster defined by the 
-				 *    closest medoid determined in the previous step.
-				 */
-				newMedoids = rassn.reassignedMedoidIdcs;
+				labelFromSingularK(X);
+				fitSummary.add(new Object[]{ iter, converged, 
+						tss, // tss
+						tss, // avg per cluster
+						tss, // wss
+						nan, // bss (none) 
+						timer.wallTime() });
+				sayBye(timer);
+				return this;
+			}
 
-				
-				/*
-				 * 2.5 Determine whether configuration changed
-				 */
-				boolean lastIteration = VecUtils.equalsExactly(newMedoids, medoid_indices);
-				
-				
-				/*
-				 * 3. Update the costs
-				 */
-				converged = lastIteration || (convergedFromCost = FastMath.abs(wss_sum - bestCost) < tolerance);
-				double tmp_wss_sum = rassn.new_clusters.total_cst;
-				double tmp_bss = tss - tmp_wss_sum;
+			
+			/*
+			 * 2. Reassign each point to the cluster defined by the 
+			 *    closest medoid determined in the previous step.
+			 */
+			newMedoids = rassn.reassignedMedoidIdcs;
 
-				// Check whether greater than max
-				if(tmp_wss_sum > maxCost)
-					maxCost = tmp_wss_sum;
+			
+			/*
+			 * 2.5 Determine whether configuration changed
+			 */
+			boolean lastIteration = VecUtils.equalsExactly(newMedoids, medoid_indices);
+			
+			
+			/*
+			 * 3. Update the costs
+			 */
+			converged = lastIteration || (convergedFromCost = FastMath.abs(wss_sum - bestCost) < tolerance);
+			double tmp_wss_sum = rassn.new_clusters.total_cst;
+			double tmp_bss = tss - tmp_wss_sum;
 
-				if(tmp_wss_sum < bestCost) {
-					bestCost = wss_sum = tmp_wss_sum;
-					labels = rassn.new_clusters.assn; // will be medoid idcs until encoded at end
-					med_to_wss = rassn.new_clusters.costs;
-					centroids = rassn.centers;
-					medoid_indices = newMedoids;
-					bss = tmp_bss;
-					
-					// get avg cost
-					avgCost = wss_sum / (double)k;
-				}
+			// Check whether greater than max
+			if(tmp_wss_sum > maxCost)
+				maxCost = tmp_wss_sum;
 
-				if(converged) {
-					reorderLabelsAndCentroids();
-				}
-				
-				/*
-				 * 3.5 If this is the last one, it'll show the wss and bss
-				 */
-				fitSummary.add(new Object[]{ iter, 
-					converged,
-					tss, 
-					avgCost, 
-					wss_sum, 
-					bss, 
-					timer.wallTime()
-				});
+			if(tmp_wss_sum < bestCost) {
+				bestCost = wss_sum = tmp_wss_sum;
+				labels = rassn.new_clusters.assn; // will be medoid idcs until encoded at end
+				med_to_wss = rassn.new_clusters.costs;
+				centroids = rassn.centers;
+				medoid_indices = newMedoids;
+				bss = tmp_bss;
 				
+				// get avg cost
+				avgCost = wss_sum / (double)k;
+			}
 
-				iter++;
-				configurationChanged = !converged;
+			if(converged) {
+				reorderLabelsAndCentroids();
 			}
 			
-			if(!converged)
-				warn("algorithm did not converge");
-			else 
-				info("algorithm converged due to " + 
-				(convergedFromCost ? "cost minimization" : "harmonious state"));
+			/*
+			 * 3.5 If this is the last one, it'll show the wss and bss
+			 */
+			fitSummary.add(new Object[]{ iter, 
+				converged,
+				tss, 
+				avgCost, 
+				wss_sum, 
+				bss, 
+				timer.wallTime()
+			});
 			
-				
-			// wrap things up, create summary..
-			sayBye(timer);
+
+			iter++;
+			configurationChanged = !converged;
+		}
+		
+		if(!converged)
+			warn("algorithm did not converge");
+		else 
+			info("algorithm converged due to " + 
+			(convergedFromCost ? "cost minimization" : "harmonious state"));
+		
 			
+		// wrap things up, create summary..
+		sayBye(timer);
+		
+		return this;
+	}
+	
+	/**
+	 * Run the FastPAM swap phase over all of the records from the initial medoids
+	 */
+	private KMedoids fitFastPAM(final double[][] X, final LogTimer timer) {
+		final FastPAM pam = new FastPAM(FastPAM.Dissimilarity.of(X, getSeparabilityMetric()),
+			init_centroid_indices, parallel);
+		
+		if(pam.isDegenerate()) {
+			exitOnBadDistanceMetric(X, timer);
 			return this;
 		}
 		
-	} // End train
+		double cost;
+		while(iter < maxIter) {
+			converged = !pam.swap(tolerance);
+			cost = pam.cost();
+			
+			fitSummary.add(new Object[]{ iter, 
+				converged,
+				tss, 
+				cost / (double)k, 
+				cost, 
+				tss - cost, 
+				timer.wallTime()
+			});
+			
+			iter++;
+			if(converged)
+				break;
+		}
+		
+		labelFromMedoids(pam.medoids, pam.nearest, pam.clusterCosts());
+		return finishSwaps(timer);
+	}
+	
+	/**
+	 * Run the FastPAM swap phase over random samples of the records, and keep
+	 * the medoids that minimize the cost over all of the records
+	 */
+	private KMedoids fitCLARA(final double[][] X, final LogTimer timer) {
+		final int size = FastMath.min(m, sampleSize > 0 ? sampleSize : 80 + 4 * k);
+		if(size == m) {
+			info("sample size is at least the number of records; running " 
+				+ KMedoidsAlgorithm.FAST_PAM.getName() + " over all records");
+			return fitFastPAM(X, timer);
+		}
+		
+		final GeometricallySeparable metric = getSeparabilityMetric();
+		final FastPAM.Dissimilarity full = FastPAM.Dissimilarity.of(X, metric);
+		final int[] perm = VecUtils.arange(m), sample = new int[size];
+		final double[][] sampleX = new double[size][];
+		
+		FastPAM best = null;
+		double cost, bestCost = Double.POSITIVE_INFINITY;
+		boolean allConverged = true;
+		
+		for(int draw = 0; draw < numSamples; draw++) {
+			
+			/*
+			 * 1. Draw a sample, leading with the best medoids so far
+			 */
+			drawSample(perm, sample, null == best ? null : best.medoids);
+			for(int i = 0; i < size; i++)
+				sampleX[i] = X[sample[i]];
+			
+			final int[] init = null == best ?
+				this.init.getInitialCentroidSeeds(this, sampleX, k, getSeed()) :
+				VecUtils.arange(k);
+			
+			
+			/*
+			 * 2. Run the swap phase over the sample
+			 */
+			final FastPAM pam = new FastPAM(FastPAM.Dissimilarity.of(
+				Pairwise.getCondensedDistance(sampleX, metric, false, parallel), size), init, parallel);
+			
+			if(pam.isDegenerate()) // try the next sample
+				continue;
+			
+			int it = 0;
+			boolean sampleConverged = false;
+			while(it < maxIter) {
+				sampleConverged = !pam.swap(tolerance);
+				it++;
+				if(sampleConverged)
+					break;
+			}
+			
+			allConverged &= sampleConverged;
+			
+			
+			/*
+			 * 3. Assign all of the records to the sample's medoids
+			 */
+			final int[] medoids = new int[k];
+			for(int i = 0; i < k; i++)
+				medoids[i] = sample[pam.medoids[i]];
+			
+			final FastPAM assignment = new FastPAM(full, medoids, parallel);
+			if((cost = assignment.cost()) < bestCost) {
+				bestCost = cost;
+				best = assignment;
+			}
+			
+			converged = allConverged;
+			fitSummary.add(new Object[]{ iter, 
+				converged,
+				tss, 
+				bestCost / (double)k, 
+				bestCost, 
+				tss - bestCost, 
+				timer.wallTime()
+			});
+			
+			iter++;
+		}
+		
+		if(null == best) {
+			exitOnBadDistanceMetric(X, timer);
+			return this;
+		}
+		
+		labelFromMedoids(best.medoids, best.nearest, best.clusterCosts());
+		return finishSwaps(timer);
+	}
+	
+	/**
+	 * Draw a random sample of the records, without replacement
+	 * @param perm - a permutation of the record indices, shuffled in place
+	 * @param sample - the sample to fill
+	 * @param lead - records to lead the sample with, or null
+	 */
+	private void drawSample(final int[] perm, final int[] sample, final int[] lead) {
+		final Random rand = getSeed();
+		int size = 0;
+		
+		if(null != lead)
+			for(int record: lead)
+				sample[size++] = record;
+		
+		// partial Fisher-Yates shuffle, skipping the leading records
+		outer:
+		for(int i = 0, j, tmp; size < sample.length; i++) {
+			j = i + rand.nextInt(m - i);
+			tmp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = tmp;
+			
+			if(null != lead)
+				for(int record: lead)
+					if(record == perm[i])
+						continue outer;
+			
+			sample[size++] = perm[i];
+		}
+	}
+	
+	/**
+	 * Label each record by its medoid's index, as the Voronoi iteration does
+	 * before the labels are encoded
+	 * @param medoids - the record index of each medoid
+	 * @param nearest - the slot of each record's medoid
+	 * @param costs - the cost of each medoid's cluster
+	 */
+	private void labelFromMedoids(final int[] medoids, final int[] nearest, final double[] costs) {
+		labels = new int[m];
+		for(int i = 0; i < m; i++)
+			labels[i] = medoids[nearest[i]];
+		
+		med_to_wss = new TreeMap<>();
+		double wss_sum = 0;
+		for(int i = 0; i < k; i++) {
+			med_to_wss.put(medoids[i], costs[i]);
+			wss_sum += costs[i];
+		}
+		
+		medoid_indices = medoids.clone();
+		bss = tss - wss_sum;
+		reorderLabelsAndCentroids();
+	}
+	
+	private KMedoids finishSwaps(final LogTimer timer) {
+		if(!converged)
+			warn("algorithm did not converge");
+		else 
+			info("algorithm converged");
+		
+		sayBye(timer);
+		return this;
+	}
+	
+	/**
+	 * The distance between records i and j from the condensed matrix
+	 */
+	private double dist(final int i, final int j) {
+		return i == j ? 0.0 : dist_mat.get(DistanceStorage.condensedIndex(m, i, j));
+	}
+	
 	
 	
 	/**
@@ -309,7 +611,7 @@ final public class KMedoids extends AbstractCentroidClusterer {
 				// Corner case: i is a medoid
 				if(i == medoid) {
 					nearest = medoid;
-					minDist = dist_mat[i][i];
+					minDist = dist(i, i);
 					is_a_medoid = true;
 					break;
 				}
@@ -317,8 +619,8 @@ final public class KMedoids extends AbstractCentroidClusterer {
 				rowIdx = FastMath.min(i, medoid);
 				colIdx = FastMath.max(i, medoid);
 				
-				if(dist_mat[rowIdx][colIdx] < minDist) {
-					minDist = dist_mat[rowIdx][colIdx];
+				if(dist(rowIdx, colIdx) < minDist) {
+					minDist = dist(rowIdx, colIdx);
 					nearest = medoid;
 				}
 			}
@@ -398,7 +700,7 @@ final public class KMedoids extends AbstractCentroidClusterer {
 						rowIdx = FastMath.min(a, b);
 						colIdx = FastMath.max(a, b);
 						
-						medoidCost += dist_mat[rowIdx][colIdx];
+						medoidCost += dist(rowIdx, colIdx);
 					}
 
 					if(medoidCost < minCost) {
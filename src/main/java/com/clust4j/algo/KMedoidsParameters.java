@@ -21,6 +21,8 @@ import java.util.Random;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import com.clust4j.algo.AbstractCentroidClusterer.InitializationStrategy;
+import com.clust4j.algo.KMedoids.KMedoidsAlgorithm;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 
 public class KMedoidsParameters extends CentroidClustererParameters<KMedoids> {
@@ -28,6 +30,10 @@ public class KMedoidsParameters extends CentroidClustererParameters<KMedoids> {
 	
 	private InitializationStrategy strat = KMedoids.DEF_INIT;
 	private int maxIter = KMedoids.DEF_MAX_ITER;
+	private DistanceStorage.Type storage = KMedoids.DEF_STORAGE;
+	private KMedoidsAlgorithm algo = KMedoids.DEF_ALGO;
+	private int sampleSize = KMedoids.DEF_SAMPLE_SIZE;
+	private int numSamples = KMedoids.DEF_NUM_SAMPLES;
 	
 	public KMedoidsParameters() {
 		this.metric = KMedoids.DEF_DIST;
@@ -52,7 +58,12 @@ public class KMedoidsParameters extends CentroidClustererParameters<KMedoids> {
 			.setVerbose(verbose)
 			.setSeed(seed)
 			.setInitializationStrategy(strat)
-			.setForceParallel(parallel);
+			.setDistanceStorage(storage)
+			.setAlgorithm(algo)
+			.setSampleSize(sampleSize)
+			.setNumSamples(numSamples)
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 	
 	@Override
@@ -71,12 +82,77 @@ public class KMedoidsParameters extends CentroidClustererParameters<KMedoids> {
 		return this;
 	}
 	
+	@Override
+	public KMedoidsParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
+	
 	@Override
 	public KMedoidsParameters setMetric(final GeometricallySeparable dist) {
 		this.metric = dist; // bad idea in kmedoids
 		return this;
 	}
 	
+	public DistanceStorage.Type getDistanceStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Set where the distance matrix is stored. Memory-mapped storage 
+	 * allows fitting far larger matrices than fit on the heap.
+	 * @param storage
+	 * @return this
+	 */
+	public KMedoidsParameters setDistanceStorage(final DistanceStorage.Type storage) {
+		this.storage = storage;
+		return this;
+	}
+	
+	public KMedoidsAlgorithm getAlgorithm() {
+		return algo;
+	}
+	
+	public int getSampleSize() {
+		return sampleSize;
+	}
+	
+	public int getNumSamples() {
+		return numSamples;
+	}
+	
+	/**
+	 * Set the algorithm used to search for the medoids
+	 * @param algo
+	 * @return this
+	 */
+	public KMedoidsParameters setAlgorithm(final KMedoidsAlgorithm algo) {
+		this.algo = algo;
+		return this;
+	}
+	
+	/**
+	 * Set the number of records in each sample drawn
+	 * in {@link KMedoidsAlgorithm#CLARA} mode. If 0, 80 + 4k
+	 * records are sampled.
+	 * @param size
+	 * @return this
+	 */
+	public KMedoidsParameters setSampleSize(final int size) {
+		this.sampleSize = size;
+		return this;
+	}
+	
+	/**
+	 * Set the number of samples drawn in {@link KMedoidsAlgorithm#CLARA} mode
+	 * @param num
+	 * @return this
+	 */
+	public KMedoidsParameters setNumSamples(final int num) {
+		this.numSamples = num;
+		return this;
+	}
+	
 	public KMedoidsParameters setMaxIter(final int max) {
 		this.maxIter = max;
 		return this;
@@ -16,12 +16,17 @@
 package com.clust4j.algo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
@@ -29,6 +34,7 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
+import com.clust4j.algo.NearestNeighborHeapSearch.QueryContext;
 import com.clust4j.algo.NearestNeighborsParameters;
 import com.clust4j.algo.Neighborhood;
 import com.clust4j.algo.RadiusNeighborsParameters;
@@ -106,6 +112,12 @@ final public class MeanShift
 	
 	/** Whether bandwidth is auto-estimated */
 	private final boolean autoEstimate;
+	
+	/** Whether the kernels are seeded from the bins of a bandwidth-sized grid */
+	private final boolean binSeeding;
+	
+	/** The min number of points a bin must hold to seed a kernel */
+	private final int minBinFreq;
 
 	
 	/** Track convergence */
@@ -172,6 +184,9 @@ final public class MeanShift
 			
 			// Handle the copying in the planner
 			seeds = planner.getSeeds();
+		} else if(planner.getBinSeeding()) {
+			// Binned once the bandwidth is known
+			n = this.data.getColumnDimension();
 		} else { // Default = all*/
 			info("no seeds provided; defaulting to all datapoints");
 			seeds = this.data.getData(); // use THIS as it's already scaled...
@@ -190,6 +205,11 @@ final public class MeanShift
 		
 		this.maxIter = planner.getMaxIter();
 		this.tolerance = planner.getConvergenceTolerance();
+		this.binSeeding = null == seeds && planner.getBinSeeding();
+		this.minBinFreq = planner.getMinBinFreq();
+		
+		if(this.minBinFreq < 1)
+			error(new IllegalArgumentException("min bin freq must be at least 1"));
 		
 
 		this.autoEstimate = planner.getAutoEstimate();
@@ -214,17 +234,32 @@ final public class MeanShift
 			(parallel?"parallel in ":"") + aeTimer.toString());
 		
 		
+		/*
+		 * Bin the seeds now that the bandwidth is set
+		 */
+		if(binSeeding) {
+			seeds = getBinSeeds(this.data.getDataRef(), bandwidth, minBinFreq);
+			
+			if(seeds.length == 0)
+				error(new IllegalArgumentException("no bin of size " + bandwidth 
+					+ " holds " + minBinFreq + " points; try decreasing min bin freq"));
+			info("seeding kernels from " + seeds.length + " binned point" 
+				+ (seeds.length != 1 ? "s" : ""));
+		}
+		
+		
 		logModelSummary();
 	}
 	
 	@Override
 	final protected ModelSummary modelSummary() {
 		return new ModelSummary(new Object[]{
-				"Num Rows","Num Cols","Metric","Bandwidth","Allow Par.","Max Iter.","Tolerance"
+				"Num Rows","Num Cols","Metric","Bandwidth","Num Seeds","Allow Par.","Max Iter.","Tolerance"
 			}, new Object[]{
 				data.getRowDimension(),data.getColumnDimension(),
 				getSeparabilityMetric(),
 				(autoEstimate ? "(auto) " : "") + bandwidth,
+				(binSeeding ? "(binned) " : "") + seeds.length,
 				parallel,
 				maxIter, tolerance
 			});
@@ -386,6 +421,72 @@ final public class MeanShift
 	
 	
 
+	/**
+	 * Snap each point to the nearest node of a grid with the given bin size, 
+	 * and seed a kernel at each node that holds at least <tt>minBinFreq</tt>
+	 * points, as in scikit-learn's <tt>get_bin_seeds</tt>. The seeds are in 
+	 * order of each bin's first point.
+	 * @param X
+	 * @param binSize
+	 * @param minBinFreq
+	 * @return the seeds
+	 */
+	static double[][] getBinSeeds(final double[][] X, final double binSize, final int minBinFreq) {
+		final int n = X[0].length;
+		final LinkedHashMap<BinKey, int[]> bins = new LinkedHashMap<>();
+		
+		long[] coords;
+		int[] freq;
+		for(double[] row: X) {
+			coords = new long[n];
+			for(int j = 0; j < n; j++)
+				coords[j] = FastMath.round(row[j] / binSize);
+			
+			final BinKey key = new BinKey(coords);
+			if(null == (freq = bins.get(key)))
+				bins.put(key, freq = new int[1]);
+			freq[0]++;
+		}
+		
+		final ArrayList<double[]> seeds = new ArrayList<>();
+		for(Map.Entry<BinKey, int[]> bin: bins.entrySet()) {
+			if(bin.getValue()[0] < minBinFreq)
+				continue;
+			
+			coords = bin.getKey().coords;
+			final double[] seed = new double[n];
+			for(int j = 0; j < n; j++)
+				seed[j] = coords[j] * binSize;
+			seeds.add(seed);
+		}
+		
+		return seeds.toArray(new double[seeds.size()][]);
+	}
+	
+	/**
+	 * The integer coordinates of a bin
+	 * @author Taylor G Smith
+	 */
+	static class BinKey {
+		final long[] coords;
+		final int hash;
+		
+		BinKey(final long[] coords) {
+			this.coords = coords;
+			this.hash = Arrays.hashCode(coords);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof BinKey && Arrays.equals(coords, ((BinKey)o).coords);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
 	/**
 	 * Handles the output for the {@link #singleSeed(double[], RadiusNeighbors, double[][], int)}
 	 * method. Implements comparable to be sorted by the value in the entry pair.
@@ -576,22 +677,25 @@ final public class MeanShift
 		
 		final int maxIter;
 		final RadiusNeighbors nbrs;
+		/** The training data (the seeds are chunked as {@link #X}) */
+		final double[][] data;
 		
 		final ConcurrentSkipListSet<MeanShiftSeed> computedSeeds;
 		final int high, low;
 		
 		
 		ParallelSeedExecutor(
-				int maxIter, double[][] X, RadiusNeighbors nbrs,
+				int maxIter, double[][] seeds, double[][] data, RadiusNeighbors nbrs,
 				ConcurrentLinkedDeque<SummaryLite> summaries) {
 			
 			/**
 			 * Pass summaries reference to super
 			 */
-			super(X, summaries);
+			super(seeds, summaries);
 			
 			this.maxIter = maxIter;
 			this.nbrs = nbrs;
+			this.data = data;
 			this.computedSeeds = new ConcurrentSkipListSet<>();
 			this.low = 0;
 			this.high = strategy.getNumChunks(X);
@@ -602,6 +706,7 @@ final public class MeanShift
 			
 			this.maxIter = task.maxIter;
 			this.nbrs = task.nbrs;
+			this.data = task.data;
 			this.computedSeeds = task.computedSeeds;
 			this.high = high;
 			this.low = low;
@@ -627,8 +732,11 @@ final public class MeanShift
 		
 		@Override
 		public ConcurrentSkipListSet<MeanShiftSeed> reduce(Chunk chunk) {
+			final NearestNeighborHeapSearch tree = nbrs.tree;
+			final QueryContext ctx = tree.newQueryContext();
+			
 			for(double[] seed: chunk.get()) {
-				MeanShiftSeed ms = singleSeed(seed, nbrs, X, maxIter);
+				MeanShiftSeed ms = singleSeed(seed, tree, ctx, nbrs.getRadius(), data, maxIter);
 				if(null == ms)
 					continue;
 				
@@ -646,16 +754,100 @@ final public class MeanShift
 		}
 		
 		static ConcurrentSkipListSet<MeanShiftSeed> doAll(
-				int maxIter, double[][] X, RadiusNeighbors nbrs,
+				int maxIter, double[][] seeds, double[][] data, RadiusNeighbors nbrs,
 				ConcurrentLinkedDeque<SummaryLite> summaries) {
 			
 			return getThreadPool().invoke(
 				new ParallelSeedExecutor(
-					maxIter, X, nbrs,
+					maxIter, seeds, data, nbrs,
 					summaries));
 		}
 	}
 	
+	/**
+	 * Assigns each record the index of its nearest centroid, splitting the
+	 * records across the pool when parallel. Each chunk queries the shared
+	 * centroid tree with its own {@link QueryContext} and writes into the
+	 * label array, so no neighborhood is ever materialized.
+	 * @author Taylor G Smith
+	 */
+	static class CentroidAssigner extends RecursiveAction {
+		private static final long serialVersionUID = 2468104975016425316L;
+		static final int MIN_PARALLEL_CHUNK_SIZE = 4096;
+		
+		final NearestNeighborHeapSearch tree;
+		final double[][] X;
+		final int[] labels;
+		final boolean parallel;
+		final int chunkSize, lo, hi;
+		
+		CentroidAssigner(NearestNeighborHeapSearch tree, double[][] X, int[] labels, 
+				boolean parallel, int chunkSize, int lo, int hi) {
+			this.tree = tree;
+			this.X = X;
+			this.labels = labels;
+			this.parallel = parallel;
+			this.chunkSize = chunkSize;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= chunkSize) {
+				final QueryContext ctx = tree.newQueryContext();
+				final double[] dist = new double[1];
+				final int[] nearest = new int[1];
+				
+				for(int i = lo; i < hi; i++) {
+					tree.query(X[i], 1, ctx, dist, nearest, 0);
+					labels[i] = nearest[0];
+				}
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				CentroidAssigner left  = new CentroidAssigner(tree, X, labels, parallel, chunkSize, this.lo, mid);
+				CentroidAssigner right = new CentroidAssigner(tree, X, labels, parallel, chunkSize, mid, this.hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+		
+		/**
+		 * Get the index of the nearest point in the tree for each row in X
+		 * @param tree - the centroid tree
+		 * @param X - the records to label
+		 * @param parallel - whether to split the records across the pool
+		 * @return the nearest centroid indices
+		 */
+		static int[] assign(NearestNeighborHeapSearch tree, double[][] X, boolean parallel) {
+			return assign(tree, X, parallel, MIN_PARALLEL_CHUNK_SIZE);
+		}
+		
+		/**
+		 * Get the index of the nearest point in the tree for each row in X
+		 * @param tree - the centroid tree
+		 * @param X - the records to label
+		 * @param parallel - whether to split the records across the pool
+		 * @param chunkSize - the max number of records a task labels without splitting
+		 * @return the nearest centroid indices
+		 */
+		static int[] assign(NearestNeighborHeapSearch tree, double[][] X, boolean parallel, int chunkSize) {
+			final int[] labels = new int[X.length];
+			final CentroidAssigner task = new CentroidAssigner(tree, X, labels, parallel, chunkSize, 0, X.length);
+			
+			if(!parallel)
+				task.compute();
+			else if(ForkJoinTask.inForkJoinPool()) // run in the caller's pool
+				task.invoke();
+			else
+				ParallelChunkingTask.getThreadPool().invoke(task);
+			
+			return labels;
+		}
+	}
+	
 	class ParallelCenterIntensity extends CenterIntensity {
 		private static final long serialVersionUID = 4392163493242956320L;
 
@@ -674,7 +866,7 @@ final public class MeanShift
 			this.timer = new LogTimer();
 			
 			// Execute forkjoinpool
-			this.computedSeeds = ParallelSeedExecutor.doAll(maxIter, seeds, nbrs, summaries);
+			this.computedSeeds = ParallelSeedExecutor.doAll(maxIter, seeds, data.getDataRef(), nbrs, summaries);
 			for(MeanShiftSeed sd: computedSeeds)
 				itrz.add(sd.iterations);
 		}
@@ -724,13 +916,14 @@ final public class MeanShift
 			// Now get single seed members
 			MeanShiftSeed sd;
 			this.computedSeeds = new TreeSet<>();
-			final double[][] X = data.getData();
+			final double[][] X = data.getDataRef();
+			final QueryContext ctx = nbrs.tree.newQueryContext();
 			
 			int idx = 0;
 			for(double[] seed: seeds) {
 				idx++;
 				timer = new LogTimer();
-				sd = singleSeed(seed, nbrs, X, maxIter);
+				sd = singleSeed(seed, nbrs.tree, ctx, nbrs.getRadius(), X, maxIter);
 				
 				if(null == sd)
 					continue;
@@ -844,7 +1037,7 @@ final public class MeanShift
 			 * iteration, will increase bandwidth.
 			 */
 			RadiusNeighbors nbrs = new RadiusNeighbors(
-				this, bandwidth).fit();
+				this, bandwidth); // only its tree is needed
 			
 			
 			// Compute the seeds and center intensity
@@ -884,12 +1077,12 @@ final public class MeanShift
 			for(MeanShiftSeed entry: intensity)
 				sorted_centers.setRow(idx++, entry.getPair().getKey());
 			
-			// Fit the new neighbors model
+			// Build the new neighbors tree (no need to fit its neighborhoods)
 			nbrs = new RadiusNeighbors(sorted_centers,
 				new RadiusNeighborsParameters(bandwidth)
 					.setSeed(this.random_state)
 					.setMetric(this.dist_metric)
-					.setForceParallel(parallel), true).fit();
+					.setForceParallel(parallel), true);
 			
 			
 
@@ -905,22 +1098,13 @@ final public class MeanShift
 			ArrayList<SummaryLite> allSummary = intensity.getSummaries();
 			
 			
-			// Iterate over sorted centers and query radii
+			// Query every center's radius at once, then walk them in sorted order
 			int redundant_ct = 0;
-			int[] indcs;
-			double[] center;
+			final int[][] center_nbrs = nbrs.tree.queryRadiusSelf(bandwidth, null, false);
 			for(int i = 0; i < m_prime; i++) {
 				if(unique[i]) {
-					center = sorted_centers.getRow(i);
-					indcs = nbrs.getNeighbors(
-						new double[][]{center}, 
-						bandwidth, false)
-							.getIndices()[0];
-					
-					for(int id: indcs)
+					for(int id: center_nbrs[i])
 						unique[id] = false;
-					
-					unique[i] = true; // Keep this as true
 				}
 			}
 			
@@ -951,12 +1135,12 @@ final public class MeanShift
 				centers.setRow(i, centroids.get(i));
 			
 			
-			// Build yet another neighbors model...
+			// Build yet another neighbors tree...
 			NearestNeighbors nn = new NearestNeighbors(centers,
 				new NearestNeighborsParameters(1)
 					.setSeed(this.random_state)
 					.setMetric(this.dist_metric)
-					.setForceParallel(false), true).fit();
+					.setForceParallel(false), true);
 			
 			
 			
@@ -966,28 +1150,40 @@ final public class MeanShift
 			
 			// Get the nearest...
 			final LogTimer clustTimer = new LogTimer();
-			Neighborhood knrst = nn.getNeighbors(data.getDataRef());
-			labels = MatUtils.flatten(knrst.getIndices());
+			labels = CentroidAssigner.assign(nn.tree, data.getDataRef(), parallel);
 			
 			
 			
 			
 			// order the labels..
 			/* 
-			 * Reduce labels to a sorted, gapless, list
+			 * Reduce labels to a sorted, gapless, list in order of first appearance
 			 * sklearn line: cluster_centers_indices = np.unique(labels)
 			 */
-			ArrayList<Integer> centroidIndices = new ArrayList<Integer>(numClusters);
-			for(Integer i: labels) // force autobox
-				if(!centroidIndices.contains(i)) // Not race condition because synchronized
-					centroidIndices.add(i);
+			final int[] remap = new int[numClusters];
+			for(int i = 0; i < numClusters; i++) remap[i] = NOISE_CLASS;
 			
-			/*
-			 * final label assignment...
-			 * sklearn line: labels = np.searchsorted(cluster_centers_indices, labels)
-			 */
-			for(int i = 0; i < labels.length; i++)
-				labels[i] = centroidIndices.indexOf(labels[i]);
+			int nextLabel = 0;
+			for(int i = 0; i < labels.length; i++) {
+				if(NOISE_CLASS == remap[labels[i]])
+					remap[labels[i]] = nextLabel++;
+				
+				/*
+				 * final label assignment...
+				 * sklearn line: labels = np.searchsorted(cluster_centers_indices, labels)
+				 */
+				labels[i] = remap[labels[i]];
+			}
+			
+			// keep the centroids indexed by label, with any unused trailing
+			final ArrayList<double[]> ordered = new ArrayList<double[]>(centroids);
+			for(int c = 0; c < numClusters; c++) {
+				if(NOISE_CLASS == remap[c])
+					remap[c] = nextLabel++;
+				ordered.set(remap[c], centroids.get(c));
+			}
+			
+			centroids = ordered;
 			
 			
 			
@@ -1029,19 +1225,35 @@ final public class MeanShift
 	}
 	
 	static MeanShiftSeed singleSeed(double[] seed, RadiusNeighbors rn, double[][] X, int maxIter) {
-		final double bandwidth = rn.getRadius(), tolerance = 1e-3;
+		return singleSeed(seed, rn.tree, rn.tree.newQueryContext(), rn.getRadius(), X, maxIter);
+	}
+	
+	/**
+	 * Shift a kernel from the seed until it converges. Every radius query
+	 * reuses the context's buffer, so the context must belong to the caller's thread.
+	 * @param seed
+	 * @param tree - the tree over X
+	 * @param ctx
+	 * @param bandwidth
+	 * @param X
+	 * @param maxIter
+	 * @return the converged kernel, or null if the seed has no points within the bandwidth
+	 */
+	static MeanShiftSeed singleSeed(double[] seed, NearestNeighborHeapSearch tree, 
+			QueryContext ctx, double bandwidth, double[][] X, int maxIter) {
+		final double tolerance = 1e-3;
 		final int n = X[0].length; // we know X is uniform
-		int completed_iterations = 0;
+		int completed_iterations = 0, count;
 		
 		double norm, diff;
 		
 		while(true) {
 
-			Neighborhood nbrs = rn.getNeighbors(new double[][]{seed}, bandwidth, false);
-			int[] i_nbrs = nbrs.getIndices()[0];
+			count = tree.queryRadius(seed, bandwidth, ctx);
+			final int[] i_nbrs = ctx.getRadiusIndicesRef();
 			
 			// Check if exit
-			if(i_nbrs.length == 0) 
+			if(count == 0) 
 				break;
 			
 			// Save the old seed
@@ -1050,15 +1262,15 @@ final public class MeanShift
 			// Get the points inside and simultaneously calc new seed
 			final double[] newSeed = new double[n];
 			norm = 0; diff = 0;
-			for(int i = 0; i < i_nbrs.length; i++) {
+			for(int i = 0; i < count; i++) {
 				final double[] record = X[i_nbrs[i]];
 				
 				for(int j = 0; j < n; j++) {
 					newSeed[j] += record[j];
 				
 					// Last iter hack, go ahead and compute means simultaneously
-					if(i == i_nbrs.length - 1) {
-						newSeed[j] /= (double) i_nbrs.length;
+					if(i == count - 1) {
+						newSeed[j] /= (double) count;
 						diff = newSeed[j] - oldSeed[j];
 						norm += diff * diff;
 					}
@@ -1071,7 +1283,7 @@ final public class MeanShift
 			
 			// Check stopping criteria
 			if( completed_iterations++ == maxIter || norm < tolerance )
-				return new MeanShiftSeed(seed, i_nbrs.length, completed_iterations);
+				return new MeanShiftSeed(seed, count, completed_iterations);
 		}
 		
 		// Default... shouldn't get here though
@@ -39,6 +39,8 @@ final public class MeanShiftParameters
 	private int maxIter = MeanShift.DEF_MAX_ITER;
 	private double minChange = MeanShift.DEF_TOL;
 	private double[][] seeds = null;
+	private boolean binSeeding = false;
+	private int minBinFreq = MeanShift.DEF_MIN_BIN_FREQ;
 	
 	
 	public MeanShiftParameters() {
@@ -67,6 +69,14 @@ final public class MeanShiftParameters
 		return seeds;
 	}
 	
+	public boolean getBinSeeding() {
+		return binSeeding;
+	}
+	
+	public int getMinBinFreq() {
+		return minBinFreq;
+	}
+	
 	public int getMaxIter() {
 		return maxIter;
 	}
@@ -89,9 +99,12 @@ final public class MeanShiftParameters
 			.setMinChange(minChange)
 			.setSeed(seed)
 			.setSeeds(seeds)
+			.setBinSeeding(binSeeding)
+			.setMinBinFreq(minBinFreq)
 			.setMetric(metric)
 			.setVerbose(verbose)
-			.setForceParallel(parallel);
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 	
 	public MeanShiftParameters setAutoBandwidthEstimation(boolean b) {
@@ -126,6 +139,29 @@ final public class MeanShiftParameters
 		return this;
 	}
 	
+	/**
+	 * Whether to seed the kernels at the nodes of a grid with a bin
+	 * size of the bandwidth, rather than at every point. Only applies
+	 * when no seeds are given.
+	 * @param b
+	 * @return this
+	 */
+	public MeanShiftParameters setBinSeeding(final boolean b) {
+		this.binSeeding = b;
+		return this;
+	}
+	
+	/**
+	 * The min number of points a bin must hold to seed a kernel under
+	 * {@link #setBinSeeding(boolean) bin seeding}
+	 * @param freq
+	 * @return this
+	 */
+	public MeanShiftParameters setMinBinFreq(final int freq) {
+		this.minBinFreq = freq;
+		return this;
+	}
+	
 	@Override
 	public MeanShiftParameters setMetric(final GeometricallySeparable dist) {
 		this.metric = dist;
@@ -143,4 +179,10 @@ final public class MeanShiftParameters
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public MeanShiftParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 }
@@ -44,7 +44,8 @@ public class NearestCentroidParameters
 				.setMetric(metric)
 				.setShrinkage(shrinkage)
 				.setVerbose(verbose)
-				.setForceParallel(parallel);
+				.setForceParallel(parallel)
+				.setCopyData(copyData);
 	}
 	
 	public Double getShrinkage() {
@@ -56,6 +57,12 @@ public class NearestCentroidParameters
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public NearestCentroidParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 
 	@Override
 	public NearestCentroidParameters setSeed(Random rand) {
@@ -21,10 +21,12 @@ import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
+import com.clust4j.GlobalState;
 import com.clust4j.log.Loggable;
 import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.pairwise.DistanceMetric;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
+import com.clust4j.metrics.pairwise.MinkowskiDistance;
 import com.clust4j.utils.DeepCloneable;
 import com.clust4j.utils.MatUtils;
 import com.clust4j.utils.QuadTup;
@@ -33,6 +35,8 @@ import com.clust4j.utils.VecUtils;
 import static com.clust4j.GlobalState.Mathematics.*;
 
 import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 
 /**
@@ -48,6 +52,21 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	final static public DistanceMetric DEF_DIST = Distance.EUCLIDEAN;
 	final static String MEM_ERR = "Internal: memory layout is flawed: " +
 		"not enough nodes allocated";
+	/**
+	 * Whether new trees also store their points and node bounds in the flat layout.
+	 * Trees whose metric has no flat kernel (or that are too large to index with 
+	 * an int) always use the nested arrays.
+	 */
+	public static final boolean DEF_FLAT_LAYOUT = true;
+	/**
+	 * When parallelism is allowed, nodes of at least this many points build
+	 * their two subtrees concurrently in the {@link GlobalState.ParallelismConf#FJ_THREADPOOL}
+	 */
+	static final int MIN_PARALLEL_BUILD_POINTS = 1 << 15;
+	
+	/** The metrics with an inlined flat kernel */
+	final static int FLAT_NONE = -1, FLAT_EUCLIDEAN = 0, FLAT_MANHATTAN = 1, 
+		FLAT_CHEBYSHEV = 2, FLAT_MINKOWSKI = 3;
 	
 	
 	
@@ -56,12 +75,35 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	NodeData[] node_data;
 	double[][][] node_bounds;
 	
+	/*
+	 * The flat layout: the points copied row-major in idx_array order, such that
+	 * a leaf is one sequential block, and the node bounds at 
+	 * <tt>((i_node * node_bounds.length) + b) * N_FEATURES</tt>. The node
+	 * metadata is always mirrored into the struct-of-arrays below.
+	 */
+	boolean flat;
+	int flat_kernel = FLAT_NONE;
+	double flat_p;
+	double[] flat_data;
+	double[] flat_bounds;
+	int[] node_start, node_end;
+	boolean[] node_leaf;
+	double[] node_radius;
+	
 	/** If there's a logger, for warnings will issue warn message */
 	final Loggable logger;
 	/** Constrained to Dist, not Sim due to nearest neighbor requirements */
 	final DistanceMetric dist_metric;
 	int n_trims, n_leaves, n_splits, n_calls, leaf_size, n_levels, n_nodes;
 	final int N_SAMPLES, N_FEATURES;
+	/** Whether the tree, and any tree it builds over query points, may build on the pool */
+	final boolean parallel;
+	/** The smallest node whose subtrees are built concurrently, {@link #MIN_PARALLEL_BUILD_POINTS} by default */
+	final int minParallelBuildPoints;
+	/** The trims, leaves, splits and calls of flushed concurrent queries */
+	final AtomicLongArray stats = new AtomicLongArray(4);
+	/** Lazily created per-thread contexts for the concurrent batch query */
+	private transient volatile ThreadLocal<QueryContext> localContext;
 	/** Whether or not the algorithm uses the Inf distance, {@link Distance#CHEBYSHEV} */
 	final boolean infinity_dist;
 	
@@ -131,9 +173,40 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	 * @param logger
 	 */
 	protected NearestNeighborHeapSearch(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger) {
+		this(X, leaf_size, dist, logger, DEF_FLAT_LAYOUT, GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+	}
+	
+	/**
+	 * Constructor with logger object, layout and parallelism
+	 * @param X
+	 * @param leaf_size
+	 * @param dist
+	 * @param logger
+	 * @param flatLayout - whether to also store the points and node bounds in the flat layout
+	 * @param parallel - whether the build may use the pool, typically the owning model's setting
+	 */
+	NearestNeighborHeapSearch(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger, 
+			boolean flatLayout, boolean parallel) {
+		this(X, leaf_size, dist, logger, flatLayout, parallel, MIN_PARALLEL_BUILD_POINTS);
+	}
+	
+	/**
+	 * Constructor with logger object, layout, parallelism and parallel build threshold
+	 * @param X
+	 * @param leaf_size
+	 * @param dist
+	 * @param logger
+	 * @param flatLayout - whether to also store the points and node bounds in the flat layout
+	 * @param parallel - whether the build may use the pool, typically the owning model's setting
+	 * @param minParallelBuildPoints - the smallest node whose subtrees are built concurrently
+	 */
+	NearestNeighborHeapSearch(final double[][] X, int leaf_size, DistanceMetric dist, Loggable logger, 
+			boolean flatLayout, boolean parallel, int minParallelBuildPoints) {
 		this.data_arr = MatUtils.copy(X);
 		this.leaf_size = leaf_size;
 		this.logger = logger;
+		this.parallel = parallel && GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		this.minParallelBuildPoints = minParallelBuildPoints;
 		
 		if(leaf_size < 1)
 			throw new IllegalArgumentException("illegal leaf size: " + leaf_size);
@@ -179,7 +252,57 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		
 		// allocate tree specific data
 		allocateData(this, n_nodes, N_FEATURES);
-		recursiveBuild(0, 0, N_SAMPLES);
+		if(parallel && N_SAMPLES >= minParallelBuildPoints)
+			GlobalState.ParallelismConf.FJ_THREADPOOL.invoke(new ParallelBuildTask(this, 0, 0, N_SAMPLES));
+		else
+			recursiveBuild(0, 0, N_SAMPLES);
+		buildLayout(flatLayout);
+	}
+	
+	/**
+	 * Mirror the node data into the struct-of-arrays, and if requested (and
+	 * the metric allows), copy the points and bounds into the flat layout
+	 * @param useFlat
+	 */
+	void buildLayout(final boolean useFlat) {
+		node_start = new int[n_nodes];
+		node_end = new int[n_nodes];
+		node_leaf = new boolean[n_nodes];
+		node_radius = new double[n_nodes];
+		
+		for(int i = 0; i < n_nodes; i++) {
+			node_start[i] = node_data[i].idx_start;
+			node_end[i] = node_data[i].idx_end;
+			node_leaf[i] = node_data[i].is_leaf;
+			node_radius[i] = node_data[i].radius;
+		}
+		
+		if(Distance.EUCLIDEAN == dist_metric)
+			flat_kernel = FLAT_EUCLIDEAN;
+		else if(Distance.MANHATTAN == dist_metric)
+			flat_kernel = FLAT_MANHATTAN;
+		else if(Distance.CHEBYSHEV == dist_metric)
+			flat_kernel = FLAT_CHEBYSHEV;
+		else if(MinkowskiDistance.class == dist_metric.getClass()) {
+			flat_kernel = FLAT_MINKOWSKI;
+			flat_p = dist_metric.getP();
+		}
+		
+		final int nb = node_bounds.length;
+		flat = useFlat && FLAT_NONE != flat_kernel
+			&& (long)FastMath.max(N_SAMPLES, n_nodes * nb) * N_FEATURES <= Integer.MAX_VALUE - 8;
+		
+		if(!flat)
+			return;
+		
+		flat_data = new double[N_SAMPLES * N_FEATURES];
+		for(int i = 0; i < N_SAMPLES; i++)
+			System.arraycopy(data_arr[idx_array[i]], 0, flat_data, i * N_FEATURES, N_FEATURES);
+		
+		flat_bounds = new double[n_nodes * nb * N_FEATURES];
+		for(int i = 0; i < n_nodes; i++)
+			for(int b = 0; b < nb; b++)
+				System.arraycopy(node_bounds[b][i], 0, flat_bounds, (i * nb + b) * N_FEATURES, N_FEATURES);
 	}
 	
 	
@@ -368,6 +491,94 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		}
 	}
 	
+	/**
+	 * The per-thread state of a concurrent k-neighbors query: a single-row
+	 * max-heap of the nearest neighbors found so far, and the search statistics. 
+	 * A context is reused across queries (and trees) without reallocating 
+	 * unless k grows, but must never be shared between threads. It also holds
+	 * the neighbors found by the last concurrent radius query, in a buffer
+	 * that only grows when a query finds more neighbors than ever before.
+	 * @author Taylor G Smith
+	 */
+	public static class QueryContext {
+		double[] dists = new double[0];
+		int[] idcs = new int[0];
+		int[] radiusIdcs = new int[16];
+		int k;
+		long trims, leaves, splits, calls;
+		
+		QueryContext() { }
+		
+		void reset(final int k) {
+			if(dists.length < k) {
+				dists = new double[k];
+				idcs = new int[k];
+			}
+			
+			this.k = k;
+			Arrays.fill(dists, 0, k, Double.POSITIVE_INFINITY);
+		}
+		
+		double largest() {
+			return dists[0];
+		}
+		
+		/**
+		 * The same sift-down as {@link NeighborsHeap#push(int, double, int)}
+		 */
+		void push(final double val, final int i_val) {
+			int i = 0, ic1, ic2, i_swap;
+			
+			while(true) {
+				ic1 = 2 * i + 1;
+				ic2 = ic1 + 1;
+				
+				if(ic1 >= k)
+					break;
+				else if(ic2 >= k) {
+					if(dists[ic1] > val)
+						i_swap = ic1;
+					else
+						break;
+				} else if(dists[ic1] >= dists[ic2]) {
+					if(val < dists[ic1])
+						i_swap = ic1;
+					else
+						break;
+				} else {
+					if(val < dists[ic2])
+						i_swap = ic2;
+					else
+						break;
+				}
+				
+				dists[i] = dists[i_swap];
+				idcs[i] = idcs[i_swap];
+				i = i_swap;
+			}
+			
+			dists[i] = val;
+			idcs[i] = i_val;
+		}
+		
+		void appendRadius(final int count, final int i_val) {
+			if(count == radiusIdcs.length)
+				radiusIdcs = Arrays.copyOf(radiusIdcs, 2 * count);
+			radiusIdcs[count] = i_val;
+		}
+		
+		/**
+		 * The indices found by the last call to {@link NearestNeighborHeapSearch#queryRadius(double[], double, QueryContext)},
+		 * whose count it returned. The buffer is overwritten by the next radius query.
+		 * @return the buffer
+		 */
+		public int[] getRadiusIndicesRef() { return radiusIdcs; }
+		public long getNumTrims() { return trims; }
+		public long getNumLeaves() { return leaves; }
+		public long getNumSplits() { return splits; }
+		public long getNumCalls() { return calls; }
+	}
+	
 	/**
 	 * Abstract super class for NodeHeap and
 	 * NeighborHeap classes
@@ -821,6 +1032,14 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		return node_data;
 	}
 	
+	/**
+	 * Whether the tree queries its points and node bounds in the flat layout
+	 * @return true if the flat layout is in use
+	 */
+	public boolean isFlatLayout() {
+		return flat;
+	}
+	
 	
 	// ========================== Instance methods ==========================
 	double dist(final double[] a, final double[] b) {
@@ -841,6 +1060,51 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		return dist_metric.partialDistanceToDistance(d);
 	}
 	
+	/**
+	 * The reduced distance between the point and the flat row beginning at
+	 * <tt>offset</tt>, computed exactly as the metric's own
+	 * {@link DistanceMetric#getPartialDistance(double[], double[])}. Does not
+	 * increment the call count.
+	 * @param pt
+	 * @param src - the flat array
+	 * @param offset
+	 * @return the reduced distance
+	 */
+	final double flatRDist(final double[] pt, final double[] src, final int offset) {
+		final int n = N_FEATURES;
+		double sum = 0, diff;
+		
+		switch(flat_kernel) {
+			case FLAT_EUCLIDEAN:
+				for(int j = 0; j < n; j++) {
+					diff = pt[j] - src[offset + j];
+					sum += diff * diff;
+				}
+				return sum;
+				
+			case FLAT_MANHATTAN:
+				for(int j = 0; j < n; j++)
+					sum += FastMath.abs(pt[j] - src[offset + j]);
+				return sum;
+				
+			case FLAT_CHEBYSHEV:
+				for(int j = 0; j < n; j++) {
+					diff = FastMath.abs(pt[j] - src[offset + j]);
+					if(diff > sum)
+						sum = diff;
+				}
+				return sum;
+				
+			case FLAT_MINKOWSKI:
+				for(int j = 0; j < n; j++)
+					sum += FastMath.pow(FastMath.abs(pt[j] - src[offset + j]), flat_p);
+				return sum;
+				
+			default:
+				throw new IllegalStateException("no flat kernel for " + dist_metric.getName());
+		}
+	}
+	
 	private void rDistToDistInPlace(final double[][] d) {
 		final int m = d.length, n = d[0].length;
 		for(int i = 0; i < m; i++)
@@ -933,37 +1197,48 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	
 	// Tested: passing
 	public static int findNodeSplitDim(double[][] data, int[] idcs) {
+		return findNodeSplitDim(data, idcs, 0, idcs.length);
+	}
+	
+	/**
+	 * Find the dimension of greatest spread among the points
+	 * indexed by <tt>idcs[start, end)</tt>
+	 * @param data
+	 * @param idcs
+	 * @param start
+	 * @param end
+	 * @return the split dimension
+	 */
+	static int findNodeSplitDim(double[][] data, int[] idcs, int start, int end) {
 		// Gets the difference between the vector of column
 		// maxes and the vector of column mins, then finds the
 		// arg max.
 		
 		// computes equivalent of (sklearn): 
 		// j_max = np.argmax(np.max(data, 0) - np.min(data, 0))
-		int n = data[0].length, idx, argMax = -1;
+		int n = data[0].length, argMax = -1;
 		double[] maxVec= VecUtils.rep(Double.NEGATIVE_INFINITY, n), 
 				minVec = VecUtils.rep(Double.POSITIVE_INFINITY, n),
 				current;
 		double diff, maxDiff = Double.NEGATIVE_INFINITY;
 		
 		// Optimized to one KxN pass
-		for(int i = 0; i < idcs.length; i++) {
-			idx = idcs[i];
-			current = data[idx];
+		for(int i = start; i < end; i++) {
+			current = data[idcs[i]];
 			
 			for(int j = 0; j < n; j++) {
 				if(current[j] > maxVec[j])
 					maxVec[j] = current[j];
 				if(current[j] < minVec[j])
 					minVec[j] = current[j];
-				
-				// If the last iter, we can calc difference right now
-				if(i == idcs.length-1) {
-					diff = maxVec[j] - minVec[j];
-					if(diff > maxDiff) {
-						maxDiff = diff;
-						argMax = j;
-					}
-				}
+			}
+		}
+		
+		for(int j = 0; j < n; j++) {
+			diff = maxVec[j] - minVec[j];
+			if(diff > maxDiff) {
+				maxDiff = diff;
+				argMax = j;
 			}
 		}
 		
@@ -1056,25 +1331,55 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	public static void partitionNodeIndices(double[][] data,
 			int[] nodeIndices, int splitDim, int splitIndex,
 			int nFeatures, int nPoints) {
-			 
+		partitionNodeIndicesAt(data, nodeIndices, 0, splitDim, splitIndex, nPoints);
+	}
+	
+	/**
+	 * Partially sort <tt>nodeIndices[start, start + nPoints)</tt> such that the
+	 * point at <tt>start + splitIndex</tt> is in its sorted position along the
+	 * split dimension, with no greater points before it and no lesser points after
+	 * @param data
+	 * @param nodeIndices
+	 * @param start - the offset of the node's first index
+	 * @param splitDim
+	 * @param splitIndex - relative to the start
+	 * @param nPoints
+	 */
+	static void partitionNodeIndicesAt(double[][] data, int[] nodeIndices, 
+			int start, int splitDim, int splitIndex, int nPoints) {
+		
+		// Gather the keys once, so the selection scans contiguous memory
+		// rather than chasing a row pointer for every comparison
+		final double[] keys = new double[nPoints];
+		for(int i = 0; i < nPoints; i++)
+			keys[i] = data[nodeIndices[start + i]][splitDim];
+		
 		int left = 0;
 		int right = nPoints - 1;
-		double d1, d2;
+		double d2;
+		
+		// Sorted input or long runs of ties make the last-element pivot
+		// quadratic, so past a logarithmic number of rounds, finish the 
+		// selection with a scheme that is linear on both (introselect)
+		int rounds = 3 * (32 - Integer.numberOfLeadingZeros(nPoints));
 		
 		while(true) {
+			if(--rounds < 0) {
+				selectMiddlePivot(keys, nodeIndices, start, left, right, splitIndex);
+				break;
+			}
+			
 			int midindex = left;
+			d2 = keys[right];
 			
 			for(int i = left; i < right; i++) {
-				d1 = data[nodeIndices[i]][splitDim];
-				d2 = data[nodeIndices[right]][splitDim];
-				            
-				if(d1 < d2) {
-					swap(nodeIndices, i, midindex);
+				if(keys[i] < d2) {
+					swap(keys, nodeIndices, start, i, midindex);
 					midindex++;
 				}
 			}
 			
-			swap(nodeIndices, midindex, right);
+			swap(keys, nodeIndices, start, midindex, right);
 			if(midindex == splitIndex) {
 				break;
 			} else if(midindex < splitIndex) {
@@ -1084,6 +1389,48 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 			}
 		}
 	}
+	
+	/**
+	 * Wirth's selection over <tt>keys[left, right]</tt>, mirroring each swap in
+	 * <tt>nodeIndices</tt> at the given offset. The middle pivot and two-sided 
+	 * scans keep it linear on sorted data and on ties.
+	 */
+	static void selectMiddlePivot(double[] keys, int[] nodeIndices, 
+			int offset, int left, int right, final int split) {
+		int i, j;
+		double pivot;
+		
+		while(left < right) {
+			pivot = keys[split];
+			i = left;
+			j = right;
+			
+			do {
+				while(keys[i] < pivot)
+					i++;
+				while(pivot < keys[j])
+					j--;
+				
+				if(i <= j)
+					swap(keys, nodeIndices, offset, i++, j--);
+			} while(i <= j);
+			
+			if(j < split)
+				left = i;
+			if(split < i)
+				right = j;
+		}
+	}
+	
+	/**
+	 * Swap two keys and the corresponding (offset) indices in place
+	 */
+	private static void swap(double[] keys, int[] idcs, int offset, int i1, int i2) {
+		final double tmp = keys[i1];
+		keys[i1] = keys[i2];
+		keys[i2] = tmp;
+		swap(idcs, offset + i1, offset + i2);
+	}
 
 
 	
@@ -1092,6 +1439,24 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	}
 	
 	void recursiveBuild(int i_node, int idx_start, int idx_end) {
+		if(initAndSplitNode(i_node, idx_start, idx_end)) {
+			final int idx_mid = idx_start + (idx_end - idx_start) / 2;
+			recursiveBuild(2 * i_node + 1, idx_start, idx_mid);
+			recursiveBuild(2 * i_node + 2, idx_mid, idx_end);
+		}
+	}
+	
+	/**
+	 * Initialize the node and, unless it is a leaf, partition its indices
+	 * about the median of its widest dimension. Only touches the node itself
+	 * and <tt>idx_array[idx_start, idx_end)</tt>, so disjoint subtrees
+	 * may be built concurrently.
+	 * @param i_node
+	 * @param idx_start
+	 * @param idx_end
+	 * @return whether the child nodes must be built
+	 */
+	boolean initAndSplitNode(int i_node, int idx_start, int idx_end) {
 		int i_max,
 			n_points = idx_end - idx_start,
 			n_mid = n_points / 2;
@@ -1111,14 +1476,61 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 				logger.warn(MEM_ERR);
 			node_data[i_node].is_leaf = true;
 		} else {
-			// split node and recursively build child nodes
+			// split node so the child nodes can be built
 			node_data[i_node].is_leaf = false;
-			i_max = findNodeSplitDim(data_arr, idx_array);
-			partitionNodeIndices(data_arr, idx_array, 
-					i_max, n_mid, N_FEATURES, n_points);
+			i_max = findSplitDim(i_node, idx_start, idx_end);
+			partitionNodeIndicesAt(data_arr, idx_array, 
+					idx_start, i_max, n_mid, n_points);
 			
-			recursiveBuild(2 * i_node + 1, idx_start, idx_start + n_mid);
-			recursiveBuild(2 * i_node + 2, idx_start + n_mid, idx_end);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * The dimension of greatest spread of an initialized node
+	 * @param i_node
+	 * @param idx_start
+	 * @param idx_end
+	 * @return the split dimension
+	 */
+	int findSplitDim(int i_node, int idx_start, int idx_end) {
+		return findNodeSplitDim(data_arr, idx_array, idx_start, idx_end);
+	}
+	
+	/**
+	 * Builds the subtree rooted at a node, forking the build of the
+	 * left subtree while the node has at least the tree's
+	 * {@link #minParallelBuildPoints} points. The resulting tree is identical to the serial build, save for 
+	 * the distance call count, which is not synchronized.
+	 * @author Taylor G Smith
+	 */
+	static class ParallelBuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 2372624829306322931L;
+		final NearestNeighborHeapSearch tree;
+		final int i_node, idx_start, idx_end;
+		
+		ParallelBuildTask(NearestNeighborHeapSearch tree, int i_node, int idx_start, int idx_end) {
+			this.tree = tree;
+			this.i_node = i_node;
+			this.idx_start = idx_start;
+			this.idx_end = idx_end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(idx_end - idx_start < tree.minParallelBuildPoints) {
+				tree.recursiveBuild(i_node, idx_start, idx_end);
+			} else if(tree.initAndSplitNode(i_node, idx_start, idx_end)) {
+				final int idx_mid = idx_start + (idx_end - idx_start) / 2;
+				ParallelBuildTask left  = new ParallelBuildTask(tree, 2 * i_node + 1, idx_start, idx_mid);
+				ParallelBuildTask right = new ParallelBuildTask(tree, 2 * i_node + 2, idx_mid, idx_end);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
 		}
 	}
 	
@@ -1194,6 +1606,139 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		return new Neighborhood(distances, indices);
 	}
 	
+	/**
+	 * Create a context for {@link #query(double[], int, QueryContext, double[], int[], int)}
+	 * @return a new, empty context
+	 */
+	public QueryContext newQueryContext() {
+		return new QueryContext();
+	}
+	
+	/**
+	 * Query the k nearest neighbors of a single point without touching any 
+	 * mutable state of the tree, so any number of threads may query the same
+	 * tree at once as long as each uses its own {@link QueryContext}. The sorted
+	 * distances and indices are written to <tt>[offset, offset + k)</tt> of the
+	 * output buffers. The results are identical to those of
+	 * {@link #query(double[][], int, boolean, boolean)} with a single-tree, sorted
+	 * search. Search statistics accumulate in the context.
+	 * @param pt
+	 * @param k
+	 * @param ctx - the calling thread's context
+	 * @param distances - the output distance buffer
+	 * @param indices - the output index buffer
+	 * @param offset - the position in the buffers at which to write
+	 */
+	public void query(final double[] pt, final int k, final QueryContext ctx, 
+			final double[] distances, final int[] indices, final int offset) {
+		if(pt.length != N_FEATURES)
+			throw new DimensionMismatchException(pt.length, N_FEATURES);
+		if(this.N_SAMPLES < k) 
+			throw new IllegalArgumentException(k+" is greater than rows in data");
+		if(k < 1) throw new IllegalArgumentException(k+" must exceed 0");
+		
+		ctx.reset(k);
+		querySingleDepthFirst(0, pt, ctx, minRDist(this, 0, pt, ctx));
+		NeighborsHeap.simultaneous_sort(ctx.dists, ctx.idcs, k);
+		
+		for(int j = 0; j < k; j++) {
+			distances[offset + j] = rDistToDist(ctx.dists[j]);
+			indices[offset + j] = ctx.idcs[j];
+		}
+	}
+	
+	/**
+	 * Query the k nearest neighbors of each row in X into flat, row-major output
+	 * buffers of length <tt>X.length * k</tt>, such that the neighbors of row i 
+	 * are at <tt>[i * k, (i + 1) * k)</tt>. Safe to call from many threads at 
+	 * once; each uses its own thread-local {@link QueryContext}, whose statistics
+	 * are added to {@link #getConcurrentStats()} once the batch completes.
+	 * @param X
+	 * @param k
+	 * @param distances
+	 * @param indices
+	 */
+	public void query(final double[][] X, final int k, final double[] distances, final int[] indices) {
+		final long size = (long)X.length * (long)k;
+		if(distances.length < size || indices.length < size)
+			throw new IllegalArgumentException("output buffers must be of length " + size);
+		
+		final QueryContext ctx = getLocalContext();
+		for(int i = 0; i < X.length; i++)
+			query(X[i], k, ctx, distances, indices, i * k);
+		
+		flushStats(ctx);
+	}
+	
+	private QueryContext getLocalContext() {
+		ThreadLocal<QueryContext> local = localContext;
+		if(null == local) // lazily, since it is not serialized
+			localContext = local = new ThreadLocal<QueryContext>() {
+				@Override protected QueryContext initialValue() {
+					return new QueryContext();
+				}
+			};
+		
+		return local.get();
+	}
+	
+	/**
+	 * Add the statistics accumulated in the context to the tree's
+	 * concurrent totals, and reset the context's
+	 * @param ctx
+	 */
+	public void flushStats(final QueryContext ctx) {
+		stats.addAndGet(0, ctx.trims);
+		stats.addAndGet(1, ctx.leaves);
+		stats.addAndGet(2, ctx.splits);
+		stats.addAndGet(3, ctx.calls);
+		ctx.trims = ctx.leaves = ctx.splits = ctx.calls = 0;
+	}
+	
+	/**
+	 * The number of trims, leaves, splits and distance calls of every concurrent
+	 * query whose context has been {@link #flushStats(QueryContext) flushed}
+	 * @return the totals
+	 */
+	public long[] getConcurrentStats() {
+		return new long[]{stats.get(0), stats.get(1), stats.get(2), stats.get(3)};
+	}
+	
+	/**
+	 * The same search as {@link #querySingleDepthFirst(int, double[], int, NeighborsHeap, double)},
+	 * keeping all of its state in the context
+	 */
+	private void querySingleDepthFirst(int i_node, double[] pt, QueryContext ctx, double reduced_dist_LB) {
+		if(reduced_dist_LB > ctx.largest()) {
+			ctx.trims++;
+		} else if(node_leaf[i_node]) {
+			final int start = node_start[i_node], end = node_end[i_node];
+			ctx.leaves++;
+			ctx.calls += end - start;
+			
+			double dist_pt;
+			for(int i = start; i < end; i++) {
+				dist_pt = flat ? flatRDist(pt, flat_data, i * N_FEATURES) :
+					dist_metric.getPartialDistance(pt, this.data_arr[idx_array[i]]);
+				if(dist_pt < ctx.largest())
+					ctx.push(dist_pt, idx_array[i]);
+			}
+		} else {
+			ctx.splits++;
+			final int i1 = 2 * i_node + 1, i2 = i1 + 1;
+			final double reduced_dist_LB_1 = minRDist(this, i1, pt, ctx);
+			final double reduced_dist_LB_2 = minRDist(this, i2, pt, ctx);
+			
+			if(reduced_dist_LB_1 <= reduced_dist_LB_2) {
+				querySingleDepthFirst(i1, pt, ctx, reduced_dist_LB_1);
+				querySingleDepthFirst(i2, pt, ctx, reduced_dist_LB_2);
+			} else {
+				querySingleDepthFirst(i2, pt, ctx, reduced_dist_LB_2);
+				querySingleDepthFirst(i1, pt, ctx, reduced_dist_LB_1);
+			}
+		}
+	}
+	
 	private void queryDualDepthFirst(int i_node1, NearestNeighborHeapSearch other,
 									 int i_node2, double[] bounds, NeighborsHeap heap,
 									 double reduced_dist_LB) {
@@ -1348,6 +1893,243 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		return queryRadius(X, VecUtils.rep(radius, X.length), sort);
 	}
 	
+	/**
+	 * Query the points within radius <tt>r</tt> of a single point without touching
+	 * any mutable state of the tree, so any number of threads may query the same tree
+	 * at once as long as each uses its own {@link QueryContext}. The indices are 
+	 * written to {@link QueryContext#getRadiusIndicesRef()}, in the same order as an
+	 * unsorted {@link #queryRadius(double[][], double, boolean)}, and nothing is
+	 * allocated unless the context's buffer must grow.
+	 * @param pt
+	 * @param r
+	 * @param ctx - the calling thread's context
+	 * @return the number of neighbors
+	 */
+	public int queryRadius(final double[] pt, final double r, final QueryContext ctx) {
+		if(pt.length != N_FEATURES)
+			throw new DimensionMismatchException(pt.length, N_FEATURES);
+		ensurePositiveRadius(r);
+		
+		return queryRadiusSingle(0, pt, dist_metric.distanceToPartialDistance(r), ctx, 0);
+	}
+	
+	private int queryRadiusSingle(final int i_node, final double[] pt, 
+			final double reduced_r, final QueryContext ctx, int count) {
+		
+		if(minRDist(this, i_node, pt, ctx) > reduced_r) {
+			ctx.trims++;
+		} else if(node_leaf[i_node]) {
+			final int start = node_start[i_node], end = node_end[i_node];
+			ctx.leaves++;
+			ctx.calls += end - start;
+			
+			double dist_pt;
+			for(int i = start; i < end; i++) {
+				dist_pt = flat ? flatRDist(pt, flat_data, i * N_FEATURES) :
+					dist_metric.getPartialDistance(pt, this.data_arr[idx_array[i]]);
+				if(dist_pt <= reduced_r)
+					ctx.appendRadius(count++, idx_array[i]);
+			}
+		} else {
+			ctx.splits++;
+			count = queryRadiusSingle(2 * i_node + 1, pt, reduced_r, ctx, count);
+			count = queryRadiusSingle(2 * i_node + 2, pt, reduced_r, ctx, count);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Count the points within radius <tt>r</tt> of every point in the tree
+	 * (each point counts itself) with a dual-tree self-join. Each unordered
+	 * pair of nodes is visited once, and a pair wholly within the radius
+	 * adds its sizes to the nodes in bulk rather than point by point. No
+	 * neighborhood is stored.
+	 * @param r
+	 * @return the neighbor counts, indexed as the training data
+	 */
+	public int[] countRadiusSelf(final double r) {
+		ensurePositiveRadius(r);
+		
+		final int[] counts = new int[N_SAMPLES];
+		final int[] node_counts = new int[n_nodes];
+		countSelfDual(0, 0, dist_metric.distanceToPartialDistance(r), counts, node_counts);
+		
+		// push the bulk counts down to the points
+		for(int i_node = 0; i_node < n_nodes; i_node++) {
+			if(i_node > 0)
+				node_counts[i_node] += node_counts[(i_node - 1) / 2];
+			if(node_leaf[i_node])
+				for(int i = node_start[i_node]; i < node_end[i_node]; i++)
+					counts[idx_array[i]] += node_counts[i_node];
+		}
+		
+		return counts;
+	}
+	
+	private void countSelfDual(final int i_node1, final int i_node2, final double reduced_r,
+			final int[] counts, final int[] node_counts) {
+		final int n1 = node_end[i_node1] - node_start[i_node1],
+			n2 = node_end[i_node2] - node_start[i_node2];
+		
+		if(i_node1 == i_node2) {
+			if(maxRDistDual(this, i_node1, this, i_node1) <= reduced_r) {
+				node_counts[i_node1] += n1;
+			} else if(node_leaf[i_node1]) {
+				int i, j, p1, p2;
+				for(i = node_start[i_node1]; i < node_end[i_node1]; i++) {
+					p1 = idx_array[i];
+					counts[p1]++; // itself
+					
+					for(j = i + 1; j < node_end[i_node1]; j++) {
+						p2 = idx_array[j];
+						if(pairRDist(i, j) <= reduced_r) {
+							counts[p1]++;
+							counts[p2]++;
+						}
+					}
+				}
+			} else {
+				final int left = 2 * i_node1 + 1, right = left + 1;
+				countSelfDual(left, left, reduced_r, counts, node_counts);
+				countSelfDual(left, right, reduced_r, counts, node_counts);
+				countSelfDual(right, right, reduced_r, counts, node_counts);
+			}
+			
+			return;
+		}
+		
+		// distinct nodes are disjoint subtrees, so each pair is seen once
+		if(minRDistDual(this, i_node1, this, i_node2) > reduced_r) {
+			return;
+		} else if(maxRDistDual(this, i_node1, this, i_node2) <= reduced_r) {
+			node_counts[i_node1] += n2;
+			node_counts[i_node2] += n1;
+		} else if(node_leaf[i_node1] && node_leaf[i_node2]) {
+			for(int i = node_start[i_node1]; i < node_end[i_node1]; i++) {
+				for(int j = node_start[i_node2]; j < node_end[i_node2]; j++) {
+					if(pairRDist(i, j) <= reduced_r) {
+						counts[idx_array[i]]++;
+						counts[idx_array[j]]++;
+					}
+				}
+			}
+		} else if(node_leaf[i_node1] || (!node_leaf[i_node2] 
+				&& node_radius[i_node2] > node_radius[i_node1])) {
+			countSelfDual(i_node1, 2 * i_node2 + 1, reduced_r, counts, node_counts);
+			countSelfDual(i_node1, 2 * i_node2 + 2, reduced_r, counts, node_counts);
+		} else {
+			countSelfDual(2 * i_node1 + 1, i_node2, reduced_r, counts, node_counts);
+			countSelfDual(2 * i_node1 + 2, i_node2, reduced_r, counts, node_counts);
+		}
+	}
+	
+	/**
+	 * The neighborhoods within radius <tt>r</tt> of the points in the tree
+	 * for which <tt>which</tt> is true, computed with a dual-tree self-join.
+	 * Each neighborhood is identical to that of a single-tree, unsorted 
+	 * {@link #queryRadius(double[][], double, boolean)} for the same point.
+	 * Other points are given an empty neighborhood, so for instance DBSCAN
+	 * need only store the neighborhoods of its core points.
+	 * @param r
+	 * @param which - the points whose neighborhoods are needed, or null for all
+	 * @param includeSelf - whether each point is in its own neighborhood
+	 * @return the neighbor indices, indexed as the training data
+	 */
+	public int[][] queryRadiusSelf(final double r, final boolean[] which, final boolean includeSelf) {
+		ensurePositiveRadius(r);
+		if(null != which && which.length != N_SAMPLES)
+			throw new DimensionMismatchException(which.length, N_SAMPLES);
+		
+		// whether each node holds any point we want the neighborhood of
+		final boolean[] wanted = new boolean[n_nodes];
+		for(int i_node = n_nodes - 1; i_node >= 0; i_node--) {
+			if(node_leaf[i_node]) {
+				for(int i = node_start[i_node]; i < node_end[i_node] && !wanted[i_node]; i++)
+					wanted[i_node] = null == which || which[idx_array[i]];
+			} else {
+				wanted[i_node] = wanted[2 * i_node + 1] || wanted[2 * i_node + 2];
+			}
+		}
+		
+		final int[][] nbrs = new int[N_SAMPLES][];
+		final int[] sizes = new int[N_SAMPLES];
+		queryRadiusSelfDual(0, 0, dist_metric.distanceToPartialDistance(r), 
+			which, wanted, includeSelf, nbrs, sizes);
+		
+		final int[] empty = new int[0];
+		for(int i = 0; i < N_SAMPLES; i++) {
+			if(null == nbrs[i])
+				nbrs[i] = empty;
+			else if(nbrs[i].length != sizes[i])
+				nbrs[i] = Arrays.copyOf(nbrs[i], sizes[i]);
+		}
+		
+		return nbrs;
+	}
+	
+	/*
+	 * The reference node's children are always visited left then right, so
+	 * each query point receives its neighbors in idx_array order, as in the
+	 * single-tree query
+	 */
+	private void queryRadiusSelfDual(final int i_node1, final int i_node2, final double reduced_r,
+			final boolean[] which, final boolean[] wanted, final boolean self, 
+			final int[][] nbrs, final int[] sizes) {
+		int i, j, p;
+		
+		if(!wanted[i_node1] || minRDistDual(this, i_node1, this, i_node2) > reduced_r) {
+			return;
+		} else if(maxRDistDual(this, i_node1, this, i_node2) <= reduced_r) {
+			for(i = node_start[i_node1]; i < node_end[i_node1]; i++) {
+				p = idx_array[i];
+				if(null != which && !which[p])
+					continue;
+				
+				for(j = node_start[i_node2]; j < node_end[i_node2]; j++)
+					if(self || i != j)
+						append(nbrs, sizes, p, idx_array[j]);
+			}
+		} else if(node_leaf[i_node1] && node_leaf[i_node2]) {
+			for(i = node_start[i_node1]; i < node_end[i_node1]; i++) {
+				p = idx_array[i];
+				if(null != which && !which[p])
+					continue;
+				
+				for(j = node_start[i_node2]; j < node_end[i_node2]; j++)
+					if((self || i != j) && pairRDist(i, j) <= reduced_r)
+						append(nbrs, sizes, p, idx_array[j]);
+			}
+		} else if(node_leaf[i_node1] || (!node_leaf[i_node2] 
+				&& node_radius[i_node2] > node_radius[i_node1])) {
+			queryRadiusSelfDual(i_node1, 2 * i_node2 + 1, reduced_r, which, wanted, self, nbrs, sizes);
+			queryRadiusSelfDual(i_node1, 2 * i_node2 + 2, reduced_r, which, wanted, self, nbrs, sizes);
+		} else {
+			queryRadiusSelfDual(2 * i_node1 + 1, i_node2, reduced_r, which, wanted, self, nbrs, sizes);
+			queryRadiusSelfDual(2 * i_node1 + 2, i_node2, reduced_r, which, wanted, self, nbrs, sizes);
+		}
+	}
+	
+	private static void append(final int[][] nbrs, final int[] sizes, final int p, final int nbr) {
+		int[] row = nbrs[p];
+		if(null == row)
+			row = nbrs[p] = new int[8];
+		else if(sizes[p] == row.length)
+			row = nbrs[p] = Arrays.copyOf(row, row.length * 2);
+		
+		row[sizes[p]++] = nbr;
+	}
+	
+	/**
+	 * The reduced distance from the point at position <tt>i</tt> of the
+	 * idx_array to the point at position <tt>j</tt>
+	 */
+	private double pairRDist(final int i, final int j) {
+		n_calls++;
+		return flat ? flatRDist(data_arr[idx_array[i]], flat_data, j * N_FEATURES) :
+			dist_metric.getPartialDistance(data_arr[idx_array[i]], data_arr[idx_array[j]]);
+	}
+	
 	private int queryRadiusSingle(
 			final int i_node, 
 			final double[] pt, 
@@ -1358,7 +2140,7 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 			final boolean returnDists) {
 		
 		double[][] data = this.data_arr;
-		NodeData nodeInfo = node_data[i_node];
+		final int start = node_start[i_node], end = node_end[i_node];
 		
 		int i;
 		double reduced_r, dist_pt;
@@ -1379,7 +2161,7 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 		
 		// All points within radius
 		else if(dist_UB.value <= r) {
-			for(i = nodeInfo.idx_start; i < nodeInfo.idx_end; i++) {
+			for(i = start; i < end; i++) {
 				/*// can't really happen?
 				if(count < 0 || count >= N_SAMPLES) {
 					String err = "count is too big; this should not happen";
@@ -1390,19 +2172,30 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 				*/
 				
 				indices[count] = idx_array[i];
-				if(returnDists)
-					distances[count] = this.dist(pt, data[idx_array[i]]);
+				if(returnDists) {
+					if(flat) {
+						n_calls++;
+						distances[count] = rDistToDist(flatRDist(pt, flat_data, i * N_FEATURES));
+					} else {
+						distances[count] = this.dist(pt, data[idx_array[i]]);
+					}
+				}
 				
 				count++;
 			}
 		}
 		
 		// this is a leaf node; check every point
-		else if(nodeInfo.is_leaf) {
+		else if(node_leaf[i_node]) {
 			reduced_r = this.dist_metric.distanceToPartialDistance(r);
 			
-			for(i = nodeInfo.idx_start; i < nodeInfo.idx_end; i++) {
-				dist_pt = this.rDist(pt, data[idx_array[i]]);
+			for(i = start; i < end; i++) {
+				if(flat) {
+					n_calls++;
+					dist_pt = flatRDist(pt, flat_data, i * N_FEATURES);
+				} else {
+					dist_pt = this.rDist(pt, data[idx_array[i]]);
+				}
 				
 				if(dist_pt <= reduced_r) {
 					/*// can't really happen?
@@ -1438,8 +2231,6 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	}
 
 	private void querySingleDepthFirst(int i_node, double[] pt, int i_pt, NeighborsHeap heap, double reduced_dist_LB) {
-		NodeData nodeInfo = this.node_data[i_node];
-		
 		double dist_pt, reduced_dist_LB_1, reduced_dist_LB_2;
 		int i, i1, i2;
 		
@@ -1448,10 +2239,15 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 			this.n_trims++;
 		
 		// This is a leaf node
-		else if(nodeInfo.is_leaf) {
+		else if(node_leaf[i_node]) {
 			this.n_leaves++;
-			for(i = nodeInfo.idx_start; i < nodeInfo.idx_end; i++) {
-				dist_pt = rDist(pt, this.data_arr[idx_array[i]]);
+			for(i = node_start[i_node]; i < node_end[i_node]; i++) {
+				if(flat) {
+					n_calls++;
+					dist_pt = flatRDist(pt, flat_data, i * N_FEATURES);
+				} else {
+					dist_pt = rDist(pt, this.data_arr[idx_array[i]]);
+				}
 				
 				if(dist_pt < heap.largest(i_pt)) { // in radius
 					heap.push(i_pt, dist_pt, idx_array[i]);
@@ -1636,6 +2432,8 @@ abstract class NearestNeighborHeapSearch implements java.io.Serializable {
 	abstract void minMaxDist	(NearestNeighborHeapSearch tree, int i_node, double[] pt, MutableDouble minDist, MutableDouble maxDist);
 	//abstract double maxRDist	(NearestNeighborHeapSearch tree, int i_node, double[] pt);
 	abstract double minRDist	(NearestNeighborHeapSearch tree, int i_node, double[] pt);
+	/** The same bound, counting any distance call into the context rather than the tree */
+	abstract double minRDist	(NearestNeighborHeapSearch tree, int i_node, double[] pt, QueryContext ctx);
 	abstract double maxRDistDual(NearestNeighborHeapSearch tree1, int iNode1, NearestNeighborHeapSearch tree2, int iNode2);
 	abstract double minRDistDual(NearestNeighborHeapSearch tree1, int iNode1, NearestNeighborHeapSearch tree2, int iNode2);
 	
@@ -302,7 +302,14 @@ final public class NearestNeighbors extends BaseNeighborsModel {
 
 		@Override
 		Neighborhood query(NearestNeighborHeapSearch tree, double[][] X) {
-			return tree.query(X, k, DUAL_TREE_SEARCH, SORT);
+			// the concurrent query keeps no shared state, so it's safe for the whole pool to share the tree
+			final double[] dists = new double[X.length * k];
+			final int[] indices = new int[X.length * k];
+			tree.query(X, k, dists, indices);
+			
+			return new Neighborhood(
+				MatUtils.reshape(dists, X.length, k), 
+				MatUtils.reshape(indices, X.length, k));
 		}
 	}
 	
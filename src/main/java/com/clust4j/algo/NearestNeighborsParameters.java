@@ -53,7 +53,8 @@ public class NearestNeighborsParameters extends BaseNeighborsPlanner<NearestNeig
 			.setMetric(metric)
 			.setVerbose(verbose)
 			.setLeafSize(leafSize)
-			.setForceParallel(parallel);
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 	
 	@Override
@@ -93,4 +94,10 @@ public class NearestNeighborsParameters extends BaseNeighborsPlanner<NearestNeig
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public NearestNeighborsParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 }
@@ -132,6 +132,43 @@ public abstract class ParallelChunkingTask<T> extends RecursiveTask<T> implement
 			return out;
 		}
 	}
+	
+	/**
+	 * Chunks the data into a number of chunks that depends only on the number 
+	 * of rows and never on the number of available cores. Reductions that merge 
+	 * their chunk results in a fixed order over this strategy are therefore
+	 * deterministic regardless of the number of threads.
+	 * @author Taylor G Smith
+	 */
+	static public class FixedChunkingStrategy extends ChunkingStrategy {
+		/** The max number of chunks to create */
+		public final static int MAX_CHUNKS = 128;
+		
+		public FixedChunkingStrategy(final int numRows) {
+			super(getFixedChunkSize(numRows));
+		}
+		
+		public static int getFixedChunkSize(final int numRows) {
+			return FastMath.max(DEF_CHUNK_SIZE, 
+				(int)FastMath.ceil(((double)numRows)/((double)MAX_CHUNKS)));
+		}
+		
+		@Override
+		public int getNumChunks(final double[][] X) {
+			return getNumChunks(chunkSize, X.length);
+		}
+		
+		@Override
+		protected ArrayList<Chunk> map(double[][] X) {
+			final int numChunks = getNumChunks(X);
+			final ArrayList<Chunk> out = new ArrayList<>(numChunks);
+			
+			for(int i = 0; i < numChunks; i++)
+				out.add(getChunk(X, chunkSize, i));
+			
+			return out;
+		}
+	}
  	
 	
 	/**
@@ -53,7 +53,8 @@ public class RadiusNeighborsParameters extends BaseNeighborsPlanner<RadiusNeighb
 			.setMetric(metric)
 			.setVerbose(verbose)
 			.setLeafSize(leafSize)
-			.setForceParallel(parallel);
+			.setForceParallel(parallel)
+			.setCopyData(copyData);
 	}
 	
 	@Override
@@ -94,4 +95,10 @@ public class RadiusNeighborsParameters extends BaseNeighborsPlanner<RadiusNeighb
 		this.parallel = b;
 		return this;
 	}
+	
+	@Override
+	public RadiusNeighborsParameters setCopyData(boolean b) {
+		this.copyData = b;
+		return this;
+	}
 }
@@ -16,11 +16,16 @@
 package com.clust4j.algo.preprocess.impute;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 
+import com.clust4j.GlobalState;
 import com.clust4j.algo.BaseNeighborsModel;
 import com.clust4j.algo.NearestNeighbors;
 import com.clust4j.algo.NearestNeighborsParameters;
@@ -42,6 +47,8 @@ public class NearestNeighborImputation extends MatrixImputation {
 	private int k = DEF_K;
 	private GeometricallySeparable sep = DEF_METRIC;
 	private CentralTendencyMethod cent = DEF_CENT;
+	private boolean parallel = false;
+	private boolean bruteForce = false;
 	
 	
 	
@@ -58,6 +65,8 @@ public class NearestNeighborImputation extends MatrixImputation {
 		super(planner);
 		this.k = planner.k;
 		this.cent = planner.cent;
+		this.parallel = planner.parallel;
+		this.bruteForce = planner.bruteForce;
 		
 		if(null == cent)
 			throw new IllegalArgumentException("null method of central tendency");
@@ -72,6 +81,8 @@ public class NearestNeighborImputation extends MatrixImputation {
 		private int k = DEF_K;
 		private Random seed = new Random();
 		private CentralTendencyMethod cent = DEF_CENT;
+		private boolean parallel = false;
+		private boolean bruteForce = false;
 		
 		public NNImputationPlanner() {}
 		public NNImputationPlanner(int k) {
@@ -98,6 +109,33 @@ public class NearestNeighborImputation extends MatrixImputation {
 			return this;
 		}
 		
+		/**
+		 * Whether to query the neighbors of each group of 
+		 * incomplete records in parallel
+		 * @param b
+		 * @return this
+		 */
+		public NNImputationPlanner setForceParallel(final boolean b) {
+			this.parallel = b;
+			return this;
+		}
+		
+		/**
+		 * Whether to find the neighbors of each incomplete record with a brute-force
+		 * scan of every complete record, over only the columns the incomplete record
+		 * is not missing, rather than fitting a new {@link NearestNeighbors} model (and 
+		 * its tree) to a copy of the complete records for each missing-value pattern.
+		 * Nothing is indexed, so each query costs a distance to every complete record,
+		 * but no tree is built; this is typically faster when most patterns are unique. 
+		 * The queries are scanned in parallel if {@link #setForceParallel(boolean)}.
+		 * @param b
+		 * @return this
+		 */
+		public NNImputationPlanner setBruteForce(final boolean b) {
+			this.bruteForce = b;
+			return this;
+		}
+		
 		@Override
 		public NNImputationPlanner setSeed(final Random seed) {
 			this.seed = seed;
@@ -112,14 +150,16 @@ public class NearestNeighborImputation extends MatrixImputation {
 		
 	}
 	
-
 	
-
+	
+	
 	@Override
 	public NearestNeighborImputation copy() {
 		return new NearestNeighborImputation(new NNImputationPlanner()
 			.setK(k)
 			.setMethodOfCentralTendency(cent)
+			.setForceParallel(parallel)
+			.setBruteForce(bruteForce)
 			.setSeed(getSeed())
 			.setVerbose(verbose));
 	}
@@ -169,62 +209,206 @@ public class NearestNeighborImputation extends MatrixImputation {
 		final boolean mn = cent.equals(CentralTendencyMethod.MEAN);
 		
 		
-		// Impute!
-		info("imputing k nearest; method="+cent);
-		int replacements;
-		int[] nearest;
-		NearestNeighbors nbrs;
-		ArrayList<Integer> impute_indices;
-		double[][] completeCols, nearestMat;
-		double[] incomplete, completeRecord, col;
+		// Group the incomplete records by the columns they're missing
+		final LinkedHashMap<BitSet, ArrayList<Integer>> patterns = new LinkedHashMap<>();
+		BitSet missing;
+		ArrayList<Integer> group;
 		for(Integer record: incompleteIndices) {
-			incomplete = copy[record];
-			impute_indices = new ArrayList<>(); // Hold the indices of columns which need to be imputed
-			
-			// Identify columns that need imputing
+			row = copy[record];
+			missing = new BitSet(n);
 			for(int j = 0; j < n; j++)
-				if(Double.isNaN(incomplete[j]))
-					impute_indices.add(j);
-			
+				if(Double.isNaN(row[j]))
+					missing.set(j);
 			
-			// Get complete cols
-			replacements = impute_indices.size();
-			if(replacements == n) {
+			if(missing.cardinality() == n) {
 				error = "record " + record + " is completely NaN";
 				throw new NaNException(error);
 			}
 			
-			completeRecord = exclude(incomplete, impute_indices);
-			completeCols = excludeCols(complete, impute_indices);
-			
-			nbrs = new NearestNeighborsParameters(k)
-					.setVerbose(false)
-					.setSeed(getSeed())
-					.setMetric(this.sep)
-					.fitNewModel(new Array2DRowRealMatrix(completeCols, false)); // fits
-			
-			nearest = nbrs.getNeighbors(
-				new Array2DRowRealMatrix(new double[][]{completeRecord}, 
-					false)).getIndices()[0];
+			if(null == (group = patterns.get(missing)))
+				patterns.put(missing, group = new ArrayList<>());
+			group.add(record);
+		}
+		
+		info(incompleteIndices.size() + " incomplete record" + (incompleteIndices.size()!=1?"s":"")
+			+ " in " + patterns.size() + " missing-value pattern" + (patterns.size()!=1?"s":""));
+		
+		
+		// Impute! Each pattern is queried as a group against its own tree, or
+		// by a scan of the complete records over only its present columns
+		info("imputing k nearest; method="+cent);
+		int[] nearest;
+		int[][] neighborhoods;
+		int[] impute_indices;
+		double[][] queries;
+		double[] incomplete, col = new double[k];
+		NearestNeighbors nbrs;
+		for(Map.Entry<BitSet, ArrayList<Integer>> pattern: patterns.entrySet()) {
+			missing = pattern.getKey();
+			group = pattern.getValue();
+			impute_indices = toIndices(missing);
 			
+			queries = new double[group.size()][];
+			for(int i = 0; i < queries.length; i++)
+				queries[i] = exclude(copy[group.get(i)], missing);
 			
-			nearestMat = MatUtils.getRows(complete, nearest);
+			if(bruteForce) {
+				neighborhoods = MaskedBruteForceSearch.doAll(complete, 
+					queries, toIndices(keep(missing, n)), k, sep, parallel);
+			} else {
+				nbrs = new NearestNeighborsParameters(k)
+						.setVerbose(false)
+						.setSeed(getSeed())
+						.setMetric(this.sep)
+						.setForceParallel(parallel)
+						.fitNewModel(new Array2DRowRealMatrix(excludeCols(complete, missing), false)); // fits
+				
+				neighborhoods = nbrs.getNeighbors(
+					new Array2DRowRealMatrix(queries, false)).getIndices();
+			}
 			
 			// Perform the imputation
-			for(Integer imputationIdx: impute_indices) {
-				col = MatUtils.getColumn(nearestMat, imputationIdx);
-				incomplete[imputationIdx] = mn ? VecUtils.mean(col) : VecUtils.median(col);
+			for(int i = 0; i < queries.length; i++) {
+				incomplete = copy[group.get(i)];
+				nearest = neighborhoods[i];
+				
+				for(int imputationIdx: impute_indices) {
+					for(int c = 0; c < k; c++)
+						col[c] = complete[nearest[c]][imputationIdx];
+					incomplete[imputationIdx] = mn ? VecUtils.mean(col) : VecUtils.median(col);
+				}
 			}
 			
-			info("record number "+record+" imputed in " + replacements + 
-				" position" + (replacements!=1?"s":""));
+			info(group.size() + " record" + (group.size()!=1?"s":"") + " imputed in " 
+				+ impute_indices.length + " position" + (impute_indices.length!=1?"s":""));
 		}
 		
 		sayBye(timer);
 		return copy;
 	}
 	
-	private static double[][] excludeCols(double[][] mat, ArrayList<Integer> exclude) {
+	/**
+	 * Finds the k nearest complete records to each query over only the columns 
+	 * the query is not missing, by a brute-force scan of every complete record 
+	 * rather than building a tree over a copy of its present columns. Ties resolve 
+	 * to the lowest index. Queries are split across the 
+	 * {@link GlobalState.ParallelismConf#FJ_THREADPOOL} if parallel.
+	 * @author Taylor G Smith
+	 */
+	static class MaskedBruteForceSearch extends RecursiveAction {
+		private static final long serialVersionUID = 4512908117294370841L;
+		/** The max number of queries searched by a single task */
+		static final int MAX_QUERIES = 64;
+		
+		final double[][] complete, queries;
+		final int[] present;
+		final int k;
+		final GeometricallySeparable sep;
+		final int[][] out;
+		final boolean parallel;
+		final int lo, hi;
+		
+		MaskedBruteForceSearch(double[][] complete, double[][] queries, int[] present, 
+				int k, GeometricallySeparable sep, int[][] out, boolean parallel, int lo, int hi) {
+			this.complete = complete;
+			this.queries = queries;
+			this.present = present;
+			this.k = k;
+			this.sep = sep;
+			this.out = out;
+			this.parallel = parallel;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		/**
+		 * Search the neighbors of each query
+		 * @param complete - the complete records
+		 * @param queries - the present columns of each incomplete record
+		 * @param present - the indices of the present columns
+		 * @param k
+		 * @param sep
+		 * @param parallel
+		 * @return the indices of the k nearest complete records to each query
+		 */
+		static int[][] doAll(double[][] complete, double[][] queries, int[] present, 
+				int k, GeometricallySeparable sep, boolean parallel) {
+			final int[][] out = new int[queries.length][];
+			final MaskedBruteForceSearch task = new MaskedBruteForceSearch(complete, queries, present, k, sep, 
+				out, parallel && GlobalState.ParallelismConf.PARALLELISM_ALLOWED, 0, queries.length);
+			
+			if(task.parallel)
+				GlobalState.ParallelismConf.FJ_THREADPOOL.invoke(task);
+			else
+				task.compute();
+			
+			return out;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= MAX_QUERIES) {
+				final double[] buf = new double[present.length];
+				final double[] dists = new double[k];
+				
+				for(int i = lo; i < hi; i++)
+					out[i] = nearest(queries[i], buf, dists);
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				MaskedBruteForceSearch left  = new MaskedBruteForceSearch(complete, queries, present, k, sep, out, parallel, lo, mid);
+				MaskedBruteForceSearch right = new MaskedBruteForceSearch(complete, queries, present, k, sep, out, parallel, mid, hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+		
+		private int[] nearest(final double[] query, final double[] buf, final double[] dists) {
+			final int[] idcs = new int[k];
+			int count = 0, pos;
+			double d;
+			
+			double[] record;
+			for(int r = 0; r < complete.length; r++) {
+				record = complete[r];
+				for(int j = 0; j < present.length; j++)
+					buf[j] = record[present[j]];
+				
+				d = sep.getPartialDistance(query, buf);
+				if(count == k && !(d < dists[k - 1]))
+					continue;
+				
+				// insertion into the sorted neighbors
+				pos = count < k ? count++ : k - 1;
+				for(; pos > 0 && d < dists[pos - 1]; pos--) {
+					dists[pos] = dists[pos - 1];
+					idcs[pos] = idcs[pos - 1];
+				}
+				
+				dists[pos] = d;
+				idcs[pos] = r;
+			}
+			
+			return idcs;
+		}
+	}
+	
+	private static BitSet keep(BitSet missing, int n) {
+		final BitSet keep = new BitSet(n);
+		keep.set(0, n);
+		keep.andNot(missing);
+		return keep;
+	}
+	
+	private static int[] toIndices(BitSet bits) {
+		final int[] idcs = new int[bits.cardinality()];
+		for(int i = bits.nextSetBit(0), j = 0; i >= 0; i = bits.nextSetBit(i + 1))
+			idcs[j++] = i;
+		return idcs;
+	}
+	
+	private static double[][] excludeCols(double[][] mat, BitSet exclude) {
 		final int m = mat.length;
 		final double[][] comp = new double[m][];
 		
@@ -234,13 +418,13 @@ public class NearestNeighborImputation extends MatrixImputation {
 		return comp;
 	}
 	
-	private static double[] exclude(double[] vec, ArrayList<Integer> exclude) {
-		final double[] comp = new double[vec.length - exclude.size()];
+	private static double[] exclude(double[] vec, BitSet exclude) {
+		final double[] comp = new double[vec.length - exclude.cardinality()];
 		final int n = vec.length;
 		
 		int j = 0;
 		for(int i = 0; i < n; i++) {
-			if(exclude.contains(i))
+			if(exclude.get(i))
 				continue;
 			comp[j++] = vec[i];
 		}
@@ -262,6 +446,14 @@ public class NearestNeighborImputation extends MatrixImputation {
 		return k;
 	}
 	
+	public boolean getParallel() {
+		return parallel;
+	}
+	
+	public boolean getBruteForce() {
+		return bruteForce;
+	}
+	
 	@Override
 	public String getName() {
 		return "NN imputation";
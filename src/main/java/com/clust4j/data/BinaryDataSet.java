@@ -0,0 +1,455 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.except.MatrixParseException;
+
+/**
+ * A compact, little-endian binary format for a {@link DataSet}, which
+ * can be loaded without any parsing. The layout is:
+ *
+ * <ul>
+ * <li>A fixed {@value #HEADER_BYTES}-byte header: the magic number, version,
+ * flags (see {@link #FLAG_FLOAT32} and {@link #FLAG_LABELS}), the number of rows
+ * and columns, and the byte offsets of the labels and the data</li>
+ * <li>The column names, each as an int length followed by its UTF-8 bytes</li>
+ * <li>The labels as <tt>int</tt>s, if present, aligned to 8 bytes</li>
+ * <li>The data in column-major order as <tt>double</tt>s or <tt>float</tt>s,
+ * aligned to 8 bytes</li>
+ * </ul>
+ *
+ * Files are written and read through a {@link FileChannel}. {@link #read(File)}
+ * materializes a {@link DataSet}, while {@link #open(File)} maps the file read-only
+ * so that individual columns or entries can be accessed without loading the rest.
+ *
+ * @author Taylor G Smith
+ */
+public class BinaryDataSet implements Closeable {
+	/** "C4JD" */
+	public static final int MAGIC = 0x444A3443;
+	public static final int VERSION = 1;
+	/** Set if the data is stored as 32 bit floats */
+	public static final int FLAG_FLOAT32 = 1;
+	/** Set if the file contains labels */
+	public static final int FLAG_LABELS = 1 << 1;
+	static final int HEADER_BYTES = 40;
+	/** The size of the buffer through which the data is read and written */
+	static final int BUFFER_SIZE = 1 << 20;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	
+	final File file;
+	final int flags;
+	final int numRows;
+	final int numCols;
+	final long labelsOffset;
+	final long dataOffset;
+	final String[] headers;
+	
+	private FileChannel channel;
+	private MappedByteBuffer labelBuffer = null;
+	private final MappedByteBuffer[] columns;
+	
+	private BinaryDataSet(File file, FileChannel channel) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		
+		final ByteBuffer head = readBuffer(channel, 0, HEADER_BYTES);
+		if(head.getInt() != MAGIC)
+			throw new MatrixParseException(file + " is not a clust4j binary dataset");
+		
+		final int version = head.getInt();
+		if(version != VERSION)
+			throw new MatrixParseException("unsupported binary dataset version: " + version);
+		
+		this.flags = head.getInt();
+		this.numRows = head.getInt();
+		this.numCols = head.getInt();
+		head.getInt(); // reserved
+		this.labelsOffset = head.getLong();
+		this.dataOffset = head.getLong();
+		
+		if(numRows < 0 || numCols < 0 || dataOffset + (long)numRows * numCols * valueBytes() > channel.size())
+			throw new MatrixParseException(file + " is truncated or corrupt");
+		
+		// read the column names
+		final long nameBytes = (hasLabels() ? labelsOffset : dataOffset) - HEADER_BYTES;
+		final ByteBuffer names = readBuffer(channel, HEADER_BYTES, (int)nameBytes);
+		
+		this.headers = new String[numCols];
+		for(int j = 0; j < numCols; j++) {
+			final byte[] name = new byte[names.getInt()];
+			names.get(name);
+			headers[j] = new String(name, UTF8);
+		}
+		
+		this.columns = new MappedByteBuffer[numCols];
+	}
+	
+	
+	
+	/**
+	 * Write the dataset as 64 bit doubles
+	 * @param data
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(final DataSet data, final File file) throws IOException {
+		write(data, file, false);
+	}
+	
+	/**
+	 * Write the dataset
+	 * @param data
+	 * @param file
+	 * @param float32 - whether to store the data as 32 bit floats, at half
+	 * the size and a loss of precision
+	 * @throws IOException
+	 */
+	public static void write(final DataSet data, final File file, final boolean float32) throws IOException {
+		final double[][] X = data.getDataRef().getDataRef();
+		final int[] labels = data.getLabelRef();
+		final String[] headers = data.getHeaderRef();
+		final int m = data.numRows(), n = data.numCols();
+		
+		// compute the layout
+		final byte[][] names = new byte[n][];
+		long pos = HEADER_BYTES;
+		for(int j = 0; j < n; j++) {
+			names[j] = headers[j].getBytes(UTF8);
+			pos += 4 + names[j].length;
+		}
+		
+		final long labelsOffset = align(pos);
+		final long dataOffset = null == labels ? labelsOffset : align(labelsOffset + 4L * m);
+		final int flags = (float32 ? FLAG_FLOAT32 : 0) | (null == labels ? 0 : FLAG_LABELS);
+		
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		
+		try {
+			final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(m).putInt(n).putInt(0)
+				.putLong(labelsOffset).putLong(dataOffset);
+			
+			pos = 0;
+			for(byte[] name: names) {
+				if(buf.remaining() < 4 + name.length)
+					pos = flush(channel, buf, pos);
+				if(buf.remaining() < 4 + name.length) // a giant name...
+					throw new IOException("column name exceeds " + BUFFER_SIZE + " bytes");
+				
+				buf.putInt(name.length).put(name);
+			}
+			
+			pos = pad(channel, buf, pos, labelsOffset);
+			if(null != labels) {
+				for(int label: labels) {
+					if(buf.remaining() < 4)
+						pos = flush(channel, buf, pos);
+					buf.putInt(label);
+				}
+				
+				pos = pad(channel, buf, pos, dataOffset);
+			}
+			
+			// Column-major data
+			for(int j = 0; j < n; j++) {
+				for(int i = 0; i < m; i++) {
+					if(buf.remaining() < 8)
+						pos = flush(channel, buf, pos);
+					
+					if(float32)
+						buf.putFloat((float)X[i][j]);
+					else
+						buf.putDouble(X[i][j]);
+				}
+			}
+			
+			flush(channel, buf, pos);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Read the file into a new {@link DataSet}
+	 * @param file
+	 * @throws IOException
+	 * @throws MatrixParseException if the file is not a valid binary dataset
+	 * @return the dataset
+	 */
+	public static DataSet read(final File file) throws IOException {
+		final BinaryDataSet bin = open(file);
+		try {
+			return bin.toDataSet();
+		} finally {
+			bin.close();
+		}
+	}
+	
+	/**
+	 * Open the file for read-only access. Only the header and column names
+	 * are read; the data and labels are memory-mapped as they are accessed.
+	 * @param file
+	 * @throws IOException
+	 * @throws MatrixParseException if the file is not a valid binary dataset
+	 * @return the open file, which should be closed when no longer needed
+	 */
+	public static BinaryDataSet open(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		
+		try {
+			return new BinaryDataSet(file, channel);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Read a CSV with a {@link BufferedMatrixReader} and write it in the binary format
+	 * @param csv
+	 * @param out
+	 * @param parallel - whether to parse the CSV in parallel
+	 * @param float32 - whether to store the data as 32 bit floats
+	 * @throws IOException
+	 * @return the dataset that was read from the CSV
+	 */
+	public static DataSet convertCSV(final File csv, final File out,
+			final boolean parallel, final boolean float32) throws IOException {
+		final DataSet data = new BufferedMatrixReader(csv).read(parallel);
+		write(data, out, float32);
+		return data;
+	}
+	
+	
+	
+	private static long align(final long pos) {
+		return (pos + 7) & ~7L;
+	}
+	
+	private static long flush(final FileChannel channel, final ByteBuffer buf, long pos) throws IOException {
+		buf.flip();
+		while(buf.hasRemaining())
+			pos += channel.write(buf, pos);
+		buf.clear();
+		return pos;
+	}
+	
+	/** Zero-fill up to the aligned offset */
+	private static long pad(final FileChannel channel, final ByteBuffer buf, long pos, final long to) throws IOException {
+		while(pos + buf.position() < to) {
+			if(!buf.hasRemaining())
+				pos = flush(channel, buf, pos);
+			buf.put((byte)0);
+		}
+		
+		return pos;
+	}
+	
+	private static ByteBuffer readBuffer(final FileChannel channel, long pos, final int len) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+		while(buf.hasRemaining()) {
+			final int n = channel.read(buf, pos);
+			if(n < 0)
+				throw new MatrixParseException(len + " bytes expected at offset " + pos);
+			pos += n;
+		}
+		
+		buf.flip();
+		return buf;
+	}
+	
+	private synchronized FileChannel channel() throws IOException {
+		if(null == channel)
+			throw new IOException("binary dataset has been closed");
+		return channel;
+	}
+	
+	private int valueBytes() {
+		return isFloat32() ? 4 : 8;
+	}
+	
+	private long columnOffset(final int col) {
+		if(col < 0 || col >= numCols)
+			throw new IndexOutOfBoundsException("column " + col + " out of range for " + numCols + " columns");
+		return dataOffset + (long)col * numRows * valueBytes();
+	}
+	
+	/**
+	 * Map the column on first access
+	 */
+	private synchronized MappedByteBuffer column(final int col) throws IOException {
+		final FileChannel channel = channel(); // ensure not closed
+		final long offset = columnOffset(col);
+		if(null == columns[col]) {
+			columns[col] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)numRows * valueBytes());
+			columns[col].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		
+		return columns[col];
+	}
+	
+	
+	
+	public int numRows() {
+		return numRows;
+	}
+	
+	public int numCols() {
+		return numCols;
+	}
+	
+	public boolean isFloat32() {
+		return (flags & FLAG_FLOAT32) != 0;
+	}
+	
+	public boolean hasLabels() {
+		return (flags & FLAG_LABELS) != 0;
+	}
+	
+	/**
+	 * @return a copy of the column names
+	 */
+	public String[] getHeaders() {
+		return headers.clone();
+	}
+	
+	/**
+	 * @return a copy of the labels, or null if there are none
+	 * @throws IOException
+	 */
+	public int[] getLabels() throws IOException {
+		if(!hasLabels())
+			return null;
+		
+		synchronized(this) {
+			final FileChannel channel = channel(); // ensure not closed
+			if(null == labelBuffer) {
+				labelBuffer = channel.map(FileChannel.MapMode.READ_ONLY, labelsOffset, 4L * numRows);
+				labelBuffer.order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+		
+		final int[] labels = new int[numRows];
+		labelBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(labels);
+		return labels;
+	}
+	
+	/**
+	 * Read a single entry from the mapped data
+	 * @param row
+	 * @param col
+	 * @throws IOException
+	 * @return the entry
+	 */
+	public double getEntry(final int row, final int col) throws IOException {
+		if(row < 0 || row >= numRows)
+			throw new IndexOutOfBoundsException("row " + row + " out of range for " + numRows + " rows");
+		
+		final MappedByteBuffer buf = column(col);
+		return isFloat32() ? buf.getFloat(row << 2) : buf.getDouble(row << 3);
+	}
+	
+	/**
+	 * Read a column from the mapped data
+	 * @param col
+	 * @throws IOException
+	 * @return a copy of the column
+	 */
+	public double[] getColumn(final int col) throws IOException {
+		final ByteBuffer buf = column(col).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		final double[] out = new double[numRows];
+		
+		if(isFloat32()) {
+			for(int i = 0; i < numRows; i++)
+				out[i] = buf.getFloat();
+		} else {
+			buf.asDoubleBuffer().get(out);
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Load the entire file into a new {@link DataSet}. The data is
+	 * streamed from the channel rather than mapped.
+	 * @throws IOException
+	 * @return the dataset
+	 */
+	public DataSet toDataSet() throws IOException {
+		final FileChannel channel = channel();
+		final double[][] X = new double[numRows][numCols];
+		final boolean float32 = isFloat32();
+		final int width = valueBytes();
+		final ByteBuffer buf = ByteBuffer.allocate((int)FastMath.min(BUFFER_SIZE,
+			FastMath.max(width, (long)numRows * width))).order(ByteOrder.LITTLE_ENDIAN);
+		
+		for(int j = 0; j < numCols; j++) {
+			long pos = columnOffset(j);
+			int i = 0;
+			
+			while(i < numRows) {
+				buf.clear();
+				buf.limit((int)FastMath.min(buf.capacity(), (long)(numRows - i) * width));
+				while(buf.hasRemaining()) {
+					final int n = channel.read(buf, pos);
+					if(n < 0)
+						throw new MatrixParseException(file + " is truncated");
+					pos += n;
+				}
+				
+				buf.flip();
+				if(float32) {
+					while(buf.hasRemaining())
+						X[i++][j] = buf.getFloat();
+				} else {
+					while(buf.hasRemaining())
+						X[i++][j] = buf.getDouble();
+				}
+			}
+		}
+		
+		return new DataSet(new Array2DRowRealMatrix(X, false), getLabels(),
+			headers, DataSet.DEF_FORMATTER, false);
+	}
+	
+	/**
+	 * Close the underlying channel. Mapped buffers are released
+	 * once they are garbage collected.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(null != channel) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
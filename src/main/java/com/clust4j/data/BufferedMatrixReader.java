@@ -15,20 +15,24 @@
  *******************************************************************************/
 package com.clust4j.data;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.FastMath;
 
 import com.clust4j.Clust4j;
 import com.clust4j.GlobalState;
-import com.clust4j.algo.ParallelChunkingTask;
 import com.clust4j.except.MatrixParseException;
 import com.clust4j.log.Log.Tag.Algo;
 import com.clust4j.log.Log;
@@ -47,6 +51,12 @@ import com.clust4j.utils.VecUtils;
  * numeric matrices. 
  * 
  * <p>
+ * Files are never read into memory in full. Instead, the bytes are streamed
+ * through a small buffer and each row is parsed directly into a <tt>double[]</tt>,
+ * without creating any intermediate {@link String}s. The parallel read splits
+ * the file into byte ranges at line breaks, which are parsed concurrently.
+ * 
+ * <p>
  * The following byte delimiters are supported for auto-estimation:
  * <ul>
  * <li><tt>0x1</tt> - the default Hive delimiter
@@ -105,6 +115,14 @@ public class BufferedMatrixReader implements Loggable {
 	
 	/* More statics */
 	static final long LARGEST_DIGIT_NUM = Long.MAX_VALUE/10;
+	/** The initial size of the buffer through which bytes are streamed */
+	static final int BUFFER_SIZE = 1 << 20;
+	/** The initial number of bytes read to guess the setup */
+	static final int HEAD_SIZE = 1 << 16;
+	/** The min number of bytes in each range of a parallel read */
+	static final long MIN_CHUNK_BYTES = 1 << 22;
+	/** The max number of ranges per core in a parallel read */
+	static final int CHUNKS_PER_CORE = 8;
 	
 	/* Separators to watch for... */
 	static final byte[] known_separators = new byte[]{
@@ -203,7 +221,7 @@ public class BufferedMatrixReader implements Loggable {
 	 * @throws IOException
 	 */
 	public BufferedMatrixReader(final File file) throws MatrixParseException, IOException {
-		this(fileToBytes(file));
+		this(new MatrixReaderSetup(new FileSource(file), false, GUESS_SEP));
 	}
 	
 	/**
@@ -214,7 +232,7 @@ public class BufferedMatrixReader implements Loggable {
 	 * @throws IOException
 	 */
 	public BufferedMatrixReader(final File file, boolean single_quotes) throws MatrixParseException, IOException {
-		this(fileToBytes(file), single_quotes);
+		this(new MatrixReaderSetup(new FileSource(file), single_quotes, GUESS_SEP));
 	}
 	
 	/**
@@ -225,7 +243,7 @@ public class BufferedMatrixReader implements Loggable {
 	 * @throws IOException
 	 */
 	public BufferedMatrixReader(final File file, byte sep) throws MatrixParseException, IOException {
-		this(fileToBytes(file), sep);
+		this(new MatrixReaderSetup(new FileSource(file), false, sep));
 	}
 	
 	/**
@@ -237,7 +255,7 @@ public class BufferedMatrixReader implements Loggable {
 	 * @throws IOException
 	 */
 	public BufferedMatrixReader(final File file, boolean single_quotes, byte sep) throws MatrixParseException, IOException {
-		this(fileToBytes(file), single_quotes, sep);
+		this(new MatrixReaderSetup(new FileSource(file), single_quotes, sep));
 	}
 	
 	/**
@@ -312,7 +330,7 @@ public class BufferedMatrixReader implements Loggable {
 		String[] headers = null;
 		String[][] data; // First few rows of parsed data
 		final byte separator;
-		final byte[] stream;
+		final ByteSource source;
 		private boolean hasWarnings;
 		final LogTimer timer;
 		
@@ -327,7 +345,7 @@ public class BufferedMatrixReader implements Loggable {
 			this.headers = VecUtils.copy(instance.headers); // if null, sets to null
 			this.data = MatUtils.copy(instance.data);
 			this.separator = instance.separator;
-			this.stream = Arrays.copyOf(instance.stream, instance.stream.length);
+			this.source = instance.source.copy();
 			this.hasWarnings = instance.hasWarnings;
 			this.timer = instance.timer;
 		}
@@ -345,6 +363,10 @@ public class BufferedMatrixReader implements Loggable {
 		}
 		
 		MatrixReaderSetup(byte[] bits, boolean single_quotes, byte sep) throws MatrixParseException {
+			this(new ArraySource(bits), single_quotes, sep);
+		}
+		
+		MatrixReaderSetup(ByteSource source, boolean single_quotes, byte sep) throws MatrixParseException {
 			this.single_quotes = single_quotes;
 			if(single_quotes)
 				info("using single quotes (\"'\")");
@@ -353,7 +375,14 @@ public class BufferedMatrixReader implements Loggable {
 			this.timer = new LogTimer();
 			
 			/* Given the bytes, we look at first few lines and guess the setup... */
-			String[] lines = getFirstLines(bits);
+			String[] lines = null;
+			try {
+				lines = getFirstLines(source);
+			} catch(IOException e) {
+				error(new MatrixParseException("unable to read data: " + e.getMessage(), e));
+			} finally {
+				closeQuietly(source); // reopened on read
+			}
 			
 			// If data is empty, fail
 			if(lines.length == 0)
@@ -498,7 +527,7 @@ public class BufferedMatrixReader implements Loggable {
 			info(num_cols + " feature"+(num_cols==1?"":"s")+" identified in dataset");
 			
 			
-			this.stream = bits;
+			this.source = source;
 			this.separator = sep;
 			sayBye(timer);
 		}
@@ -524,6 +553,41 @@ public class BufferedMatrixReader implements Loggable {
 			return getLines(bits, GUESS_LINES);
 		}
 		
+		/**
+		 * Read only as much of the source as is needed to get the first
+		 * few lines, growing the head of the file read until they're found
+		 * @param source
+		 * @return the first lines
+		 * @throws IOException
+		 */
+		static String[] getFirstLines(ByteSource source) throws IOException {
+			final long length = source.length();
+			long size = HEAD_SIZE;
+			
+			for(;;) {
+				final int n = (int)FastMath.min(size, length);
+				final byte[] head = new byte[n];
+				readFully(source, 0, head);
+				
+				if(n == length)
+					return getFirstLines(head);
+				
+				// Discard the trailing partial line
+				int last = n - 1;
+				while(last >= 0 && !isEOL(head[last]))
+					last--;
+				
+				final String[] lines = getFirstLines(Arrays.copyOf(head, last + 1));
+				if(lines.length == GUESS_LINES)
+					return lines;
+				
+				final long grown = FastMath.min(size * 4, GlobalState.MAX_ARRAY_SIZE * 8L);
+				if(grown == size) // a single line larger than we're willing to buffer
+					throw new IOException("no line break found in first " + n + " bytes");
+				size = grown;
+			}
+		}
+		
 		static int[] getSeparatorCounts(String l1, final byte single) {
 			// This is essentially a lightweight map... byte : int
 			int[] result = new int[known_separators.length];
@@ -659,10 +723,6 @@ public class BufferedMatrixReader implements Loggable {
 	
 	
 	
-	static String[] getLines(byte[] bits) {
-		return getLines(bits, GlobalState.MAX_ARRAY_SIZE);
-	}
-	
 	static String[] getLines(byte[] bits, int num) {
 		ArrayList<String> lines = new ArrayList<>();
 		
@@ -773,127 +833,540 @@ public class BufferedMatrixReader implements Loggable {
 	}
 	
 	/**
-	 * A class for parallel reading in of files
+	 * Random access to the bytes being parsed, so that they
+	 * never need to be held in memory all at once
 	 * @author Taylor G Smith
 	 */
-	static class ParallelChunkParser extends RecursiveTask<double[][]> {
-		private static final long serialVersionUID = 8556857221656513389L;
-		private ArrayList<InstanceChunk> chunks;
-		private double[][] result;
-		final MatrixReaderSetup setup;
-		final int n, hi, lo;
+	static abstract class ByteSource implements Closeable {
+		/** @return the number of bytes in the source */
+		abstract long length();
+		
+		/**
+		 * Read up to <tt>len</tt> bytes beginning at <tt>position</tt>. 
+		 * Implementations must be safe to call concurrently.
+		 * @param position
+		 * @param dst
+		 * @param off
+		 * @param len
+		 * @return the number of bytes read, or -1 if at the end of the source
+		 * @throws IOException
+		 */
+		abstract int read(long position, byte[] dst, int off, int len) throws IOException;
+		
+		/** @return a source which shares no mutable state with this one */
+		abstract ByteSource copy();
 		
 		/**
-		 * A chunk of instances to parse
-		 * @author Taylor G Smith
+		 * Release any resources held. The source may still be
+		 * read after it is closed.
 		 */
-		final static class InstanceChunk {
-			final String[] rows;
-			final int startIdx;
+		@Override
+		public void close() throws IOException {
+			/* nothing to release by default */
+		}
+	}
+	
+	/**
+	 * A source backed by an array of bytes
+	 * @author Taylor G Smith
+	 */
+	static class ArraySource extends ByteSource {
+		final byte[] bits;
+		
+		ArraySource(byte[] bits) {
+			this.bits = bits;
+		}
+		
+		@Override
+		long length() {
+			return bits.length;
+		}
+		
+		@Override
+		int read(long position, byte[] dst, int off, int len) {
+			if(position >= bits.length)
+				return -1;
 			
-			InstanceChunk(String[] rows, int startIdx) {
-				this.rows = rows;
-				this.startIdx = startIdx;
+			final int n = (int)FastMath.min(len, bits.length - position);
+			System.arraycopy(bits, (int)position, dst, off, n);
+			return n;
+		}
+		
+		@Override
+		ArraySource copy() {
+			return new ArraySource(Arrays.copyOf(bits, bits.length));
+		}
+	}
+	
+	/**
+	 * A source backed by a file, read through a {@link FileChannel}
+	 * using positional reads so that ranges may be read concurrently.
+	 * The channel is opened lazily and reopened if read after closing.
+	 * @author Taylor G Smith
+	 */
+	static class FileSource extends ByteSource {
+		final File file;
+		final long length;
+		private FileChannel channel = null;
+		
+		FileSource(File file) throws IOException {
+			this.file = file;
+			this.length = channel().size(); // fail fast if not readable
+		}
+		
+		private FileSource(FileSource instance) {
+			this.file = instance.file;
+			this.length = instance.length;
+		}
+		
+		synchronized FileChannel channel() throws IOException {
+			if(null == channel || !channel.isOpen())
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			return channel;
+		}
+		
+		@Override
+		long length() {
+			return length;
+		}
+		
+		@Override
+		int read(long position, byte[] dst, int off, int len) throws IOException {
+			if(position >= length)
+				return -1;
+			return channel().read(ByteBuffer.wrap(dst, off, len), position);
+		}
+		
+		@Override
+		FileSource copy() {
+			return new FileSource(this);
+		}
+		
+		@Override
+		public synchronized void close() throws IOException {
+			if(null != channel) {
+				channel.close();
+				channel = null;
 			}
 		}
+	}
+	
+	/**
+	 * Fill the array from the source beginning at the position
+	 * @param source
+	 * @param position
+	 * @param dst
+	 * @throws IOException if the source ends first
+	 */
+	static void readFully(ByteSource source, long position, byte[] dst) throws IOException {
+		int off = 0, n;
+		while(off < dst.length) {
+			if((n = source.read(position + off, dst, off, dst.length - off)) < 0)
+				throw new IOException("unexpected end of data");
+			off += n;
+		}
+	}
+	
+	static void closeQuietly(Closeable c) {
+		try {
+			c.close();
+		} catch(IOException e) {
+			// nothing we can do...
+		}
+	}
+	
+	/**
+	 * Streams the lines in a byte range of a {@link ByteSource} through a 
+	 * reusable buffer. As in {@link #getLines(byte[], int)}, comment lines 
+	 * and lines that are empty once trimmed are skipped. Each line is only 
+	 * valid in {@link #buf} until the next call to {@link #next()}.
+	 * @author Taylor G Smith
+	 */
+	static class LineReader {
+		final ByteSource source;
+		final long end;
+		/** The source position of buf[lim] */
+		long next;
+		byte[] buf;
+		int pos = 0, lim = 0;
+		/** The bounds of the current (trimmed) line in {@link #buf} */
+		int from, to;
 		
+		LineReader(ByteSource source, long start, long end, int bufferSize) {
+			this.source = source;
+			this.next = start;
+			this.end = end;
+			this.buf = new byte[bufferSize];
+		}
 		
-		public ParallelChunkParser(ParallelChunkParser instance, int lo, int hi) {
-			this.chunks = instance.chunks;
-			this.result = instance.result;
-			this.setup  = instance.setup;
-			this.n = instance.n;
-			this.lo = lo;
-			this.hi = hi;
+		/** @return the source position immediately after the current line */
+		long position() {
+			return next - (lim - pos);
 		}
 		
-		private ParallelChunkParser(String[] rows, MatrixReaderSetup setup) {
-			this.setup = setup;
-			this.n = setup.num_cols;
-			this.result = new double[rows.length][n];
-			this.chunks = map(rows);
-			this.lo = setup.header_offset;
-			this.hi = this.chunks.size();
+		/** @return the current line as a string, for error messages */
+		String line() {
+			return DoubleParser.toString(buf, from, to);
 		}
-
+		
+		/**
+		 * Advance to the next line
+		 * @return false if the range has no more lines
+		 * @throws IOException
+		 */
+		boolean next() throws IOException {
+			for(;;) {
+				// skip line breaks
+				for(;;) {
+					while(pos < lim && isEOL(buf[pos]))
+						pos++;
+					if(pos < lim || !fill())
+						break;
+				}
+				
+				if(pos == lim)
+					return false;
+				
+				// find the end of the line, which may be beyond the buffer
+				int len = 0;
+				for(;;) {
+					while(pos + len < lim && !isEOL(buf[pos + len]))
+						len++;
+					if(pos + len < lim || !fill())
+						break;
+				}
+				
+				int s = pos, e = pos + len;
+				pos = e;
+				
+				// Check for comments
+				if(isComment(buf[s]))
+					continue;
+				
+				// Trim as String.trim would
+				while(s < e && (buf[s] & 0xff) <= SPACE)
+					s++;
+				while(e > s && (buf[e - 1] & 0xff) <= SPACE)
+					e--;
+				
+				if(s < e) {
+					from = s;
+					to = e;
+					return true;
+				}
+			}
+		}
+		
+		/**
+		 * Read more of the range into the buffer, discarding the consumed
+		 * bytes or growing the buffer if a single line doesn't fit
+		 * @return false if the range is exhausted
+		 * @throws IOException
+		 */
+		private boolean fill() throws IOException {
+			if(next >= end)
+				return false;
+			
+			if(pos > 0) {
+				System.arraycopy(buf, pos, buf, 0, lim - pos);
+				lim -= pos;
+				pos = 0;
+			} else if(lim == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2);
+			}
+			
+			final int n = source.read(next, buf, lim, (int)FastMath.min(buf.length - lim, end - next));
+			if(n < 0) { // source was truncated
+				next = end;
+				return false;
+			}
+			
+			lim += n;
+			next += n;
+			return true;
+		}
+	}
+	
+	/**
+	 * Tokenizes lines directly into rows of doubles. This is a byte-level port
+	 * of {@link #getTokens(String, byte, byte)} followed by {@link #tokenize(String[])},
+	 * which only allocates for tokens that aren't plain decimals.
+	 * Not thread safe; each thread should use its own instance.
+	 * @author Taylor G Smith
+	 */
+	static class RowParser {
+		final byte sep, single;
+		private byte[] token = new byte[64];
+		private int len;
+		
+		RowParser(MatrixReaderSetup setup) {
+			this.sep = setup.separator;
+			this.single = setup.single_quotes ? SQUOTE : -1;
+		}
+		
 		/**
-		 * Given a chunk number, read the chunk
-		 * @param chunk
-		 * @param startIdx
+		 * Parse the line into the row
+		 * @param bits
+		 * @param from
+		 * @param to
+		 * @param row - the row to fill. Tokens beyond its length are counted but not stored.
+		 * @return the number of tokens in the line
+		 * @throws NumberFormatException if any token is non-numeric
 		 */
-		void doChunk(int chunk) {
-			final InstanceChunk c = chunks.get(chunk);
+		int parse(final byte[] bits, final int from, final int to, final double[] row) {
+			int offset = from;
+			int quotes = 0;
+			int count = 0;
 			
-			int idx = c.startIdx;
-			double[] next;
-			for(String instance: c.rows) {
-				String[] a = getTokens(instance, setup.separator, setup.single_quotes);
+			while(offset < to) {
+				while(offset < to && bits[offset] == SPACE) // skip leading ws
+					++offset;
+				
+				if(offset == to)
+					break; // reached end of line
 				
+				len = 0;
+				byte c = bits[offset];
+				
+				if(DQUOTE == c || single == c) {
+					quotes = c;
+					++offset;
+				}
+				
+				while(offset < to) {
+					c = bits[offset];
+					
+					if(quotes == c) {
+						++offset;
+						
+						if(offset < to && bits[offset] == c) {
+							append(c);
+							++offset;
+							continue;
+						}
+						
+						quotes = 0;
+					} else if(0 == quotes && sep == c || isEOL(c)) {
+						break; // break inner only
+					} else if(sep != COMMA && c == COMMA) {
+						// thousands separators
+						++offset;
+						continue;
+					} else {
+						append(c);
+						++offset;
+					}
+				}
+				
+				c = (offset == to) ? LINE_FEED : bits[offset];
+				store(row, count++);
+				
+				if(isEOL(c) || offset == to)
+					break;
+				if(c != sep)
+					return 0; // error!
+				++offset;
+			}
+			
+			// Catch case where last char is a separator, indicating empty last col
+			if(to > from && bits[to - 1] == sep && bits[to - 1] != SPACE) {
+				len = 0;
+				store(row, count++);
+			}
+			
+			return count;
+		}
+		
+		private void append(final byte b) {
+			if(len == token.length)
+				token = Arrays.copyOf(token, len * 2);
+			token[len++] = b;
+		}
+		
+		private void store(final double[] row, final int idx) {
+			final double val;
+			
+			if(0 == len) {
+				val = Double.NaN;
+			} else {
+				double v;
 				try {
-					next = tokenize(a);
+					v = DoubleParser.parse(token, 0, len);
+				} catch(NumberFormatException e) {
+					String lower = DoubleParser.toString(token, 0, len).toLowerCase();
+					
+					// Check if it's a nan...
+					if(isNaN(lower))
+						v = Double.NaN;
+					else if(isPosInf(lower))
+						v = Double.POSITIVE_INFINITY;
+					else if(isNegInf(lower))
+						v = Double.NEGATIVE_INFINITY;
+					else
+						throw e;
+				}
+				
+				val = v;
+			}
+			
+			if(idx < row.length)
+				row[idx] = val;
+		}
+	}
+	
+	/**
+	 * A class for parallel reading in of files. Each task 
+	 * parses a range of bytes that begins and ends on a line break.
+	 * @author Taylor G Smith
+	 */
+	static class ParallelRangeParser extends RecursiveAction {
+		private static final long serialVersionUID = 8556857221656513389L;
+		final MatrixReaderSetup setup;
+		/** The byte offsets of the ranges */
+		final long[] bounds;
+		/** The rows parsed from each range */
+		final double[][][] parsed;
+		final int lo, hi;
+		
+		ParallelRangeParser(MatrixReaderSetup setup, long[] bounds) {
+			this.setup = setup;
+			this.bounds = bounds;
+			this.parsed = new double[bounds.length - 1][][];
+			this.lo = 0;
+			this.hi = bounds.length - 1;
+		}
+		
+		private ParallelRangeParser(ParallelRangeParser instance, int lo, int hi) {
+			this.setup = instance.setup;
+			this.bounds = instance.bounds;
+			this.parsed = instance.parsed;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		/**
+		 * Given a range number, read the range
+		 * @param range
+		 */
+		void doRange(int range) {
+			final ArrayList<double[]> rows = new ArrayList<>();
+			final LineReader lines = new LineReader(setup.source, bounds[range], 
+				bounds[range + 1], (int)FastMath.min(BUFFER_SIZE, 
+					FastMath.max(1, bounds[range + 1] - bounds[range])));
+			final RowParser parser = new RowParser(setup);
+			
+			try {
+				double[] next;
+				int count;
+				
+				while(lines.next()) {
+					next = new double[setup.num_cols];
+					
+					try {
+						count = parser.parse(lines.buf, lines.from, lines.to, next);
+					} catch(NumberFormatException e) {
+						throw new NumberFormatException(lines.line());
+					}
 					
 					// Ensure not jagged
-					if(next.length != setup.num_cols)
-						throw new DimensionMismatchException(next.length, setup.num_cols);
+					if(count != setup.num_cols)
+						throw new DimensionMismatchException(count, setup.num_cols);
 					
-					result[idx++] = next;
-				} catch(NumberFormatException e) {
-					throw new NumberFormatException(ArrayFormatter.arrayToString(a));
-				} catch(DimensionMismatchException d) {
-					throw d; // propagate it
-				} catch(Exception e) {
-					throw new RuntimeException("unexpected exception in parallel processing",e);
+					rows.add(next);
 				}
+			} catch(IOException e) {
+				throw new MatrixParseException("unable to read data: " + e.getMessage(), e);
 			}
+			
+			parsed[range] = rows.toArray(new double[rows.size()][]);
 		}
 
 		@Override
-		protected double[][] compute() {
-			if(hi - lo <= 1) { // generally should equal one...
-				doChunk(lo);
-				return result;
+		protected void compute() {
+			if(hi - lo <= 1) {
+				for(int range = lo; range < hi; range++)
+					doRange(range);
 			} else {
 				int mid = this.lo + (this.hi - this.lo) / 2;
-				ParallelChunkParser left = new ParallelChunkParser(this, lo, mid);
-				ParallelChunkParser right= new ParallelChunkParser(this, mid,hi );
+				ParallelRangeParser left = new ParallelRangeParser(this, lo, mid);
+				ParallelRangeParser right= new ParallelRangeParser(this, mid,hi );
 				
 				left.fork();
 				right.compute();
 				left.join();
-				
-				return result;
 			}
 		}
 		
-		protected static InstanceChunk getChunk(String[] X, int chunkSize, int chunkNum, int header_offset) {
-			String[] chunk;
-			
-			int idx = 0;
-			int startingPt = chunkNum * chunkSize + (chunkNum == 0 ? header_offset : 0);
-			int endingPt = FastMath.min(X.length, startingPt + chunkSize);
+		/**
+		 * Split <tt>[start, length)</tt> into ranges of roughly equal size,
+		 * each beginning immediately after a line break
+		 * @param setup
+		 * @param start
+		 * @param numRanges
+		 * @return the <tt>numRanges + 1</tt> bounds of the ranges
+		 * @throws IOException
+		 */
+		static long[] getBounds(MatrixReaderSetup setup, long start, int numRanges) throws IOException {
+			final ByteSource source = setup.source;
+			final long end = source.length(), span = end - start;
+			final long[] bounds = new long[numRanges + 1];
+			final byte[] buf = new byte[4096];
 			
-			chunk = new String[endingPt - startingPt];
-			for(int j = startingPt; j < endingPt; j++) {
-				chunk[idx++] = X[j];
+			bounds[0] = start;
+			bounds[numRanges] = end;
+			for(int k = 1; k < numRanges; k++) {
+				long p = FastMath.max(bounds[k - 1], start + span * k / numRanges);
+				
+				// advance past the next line break
+				search: while(p < end) {
+					final int n = source.read(p, buf, 0, (int)FastMath.min(buf.length, end - p));
+					if(n < 0) {
+						p = end;
+						break;
+					}
+					
+					for(int i = 0; i < n; i++) {
+						if(isEOL(buf[i])) {
+							p += i + 1;
+							break search;
+						}
+					}
+					
+					p += n;
+				}
+				
+				bounds[k] = p;
 			}
 			
-			return new InstanceChunk(chunk, startingPt);
+			return bounds;
 		}
 		
-		private ArrayList<InstanceChunk> map(String[] rows) {
-			final ArrayList<InstanceChunk> out = new ArrayList<>();
-			final int chunkSize = ParallelChunkingTask.ChunkingStrategy.getChunkSize(rows.length);
-			final int numChunks = ParallelChunkingTask.ChunkingStrategy.getNumChunks(chunkSize, rows.length);
-			
-			for(int i = 0; i < numChunks; i++)
-				out.add(getChunk(rows, chunkSize, i, this.setup.header_offset));
-			
-			return out;
+		/**
+		 * The number of ranges to split a number of bytes into
+		 * @param bytes
+		 * @return the number of ranges
+		 */
+		static int getNumRanges(long bytes) {
+			return (int)FastMath.max(1, FastMath.min(bytes / MIN_CHUNK_BYTES, 
+				(long)CHUNKS_PER_CORE * GlobalState.ParallelismConf.NUM_CORES));
 		}
 		
-		public static double[][] doAll(String[] rows, MatrixReaderSetup setup) {
-			return GlobalState.ParallelismConf.FJ_THREADPOOL
-				.invoke(new ParallelChunkParser(rows, setup));
+		public static double[][] doAll(MatrixReaderSetup setup, long start, int numRanges) throws IOException {
+			final ParallelRangeParser task = new ParallelRangeParser(setup, getBounds(setup, start, numRanges));
+			GlobalState.ParallelismConf.FJ_THREADPOOL.invoke(task);
+			
+			int total = 0;
+			for(double[][] rows: task.parsed)
+				total += rows.length;
+			
+			final double[][] res = new double[total][];
+			int idx = 0;
+			for(double[][] rows: task.parsed) {
+				System.arraycopy(rows, 0, res, idx, rows.length);
+				idx += rows.length;
+			}
+			
+			return res;
 		}
 	}
 	
@@ -917,99 +1390,117 @@ public class BufferedMatrixReader implements Loggable {
 		LogTimer timer = new LogTimer();
 		String msg;
 		
+		final ByteSource source = setup.source;
+		double[][] res = null;
 		
-		/*
-		 * Get lines...
-		 */
-		String[] lines = getLines(setup.stream);
+		try {
+			final long start = getDataStart();
+			
+			/*
+			 * Do double parsing...
+			 */
+			if(!parallel) {
+				// Let any exceptions propagate
+				res = parseSerial(start);
+			} else {
+				
+				boolean throwing_exception = true;
+				try {
+					res = ParallelRangeParser.doAll(setup, start, 
+						ParallelRangeParser.getNumRanges(source.length() - start));
+				} catch(NumberFormatException n) {
+					error(new MatrixParseException("caught NumberFormatException: " + n.getLocalizedMessage()));
+				} catch(DimensionMismatchException d) {
+					error(new MatrixParseException("caught row of unexpected dimensions: " + d.getMessage()));
+				} catch(RejectedExecutionException r) {
+					throwing_exception = false;
+					warn("unable to schedule parallel job; falling back to serial parse");
+					res = parseSerial(start);
+				} catch(MatrixParseException | IOException e) {
+					throw e;
+				} catch(Exception e) {
+					msg = "encountered Exception in thread" + e.getMessage();
+					error(msg);
+					throw e;
+				} finally {
+					if(null == res && !throwing_exception)
+						throw new RuntimeException("unable to parse data");
+				}
+			}
+		} catch(IOException e) {
+			error(new MatrixParseException("unable to read data: " + e.getMessage(), e));
+		} finally {
+			closeQuietly(source);
+		}
 		
 		
 		// Potential for truncation here...
-		if(lines.length == GlobalState.MAX_ARRAY_SIZE)
-			warn("only " + lines.length + " rows read from data, "
+		final int cap = GlobalState.MAX_ARRAY_SIZE - setup.header_offset;
+		if(res.length > cap) {
+			res = Arrays.copyOf(res, cap);
+			warn("only " + GlobalState.MAX_ARRAY_SIZE + " rows read from data, "
 				+ "as this is the max clust4j allows");
-		else
-			info((lines.length-setup.header_offset) + " record"
-				+ (lines.length==1?"":"s") + " (" + setup.stream.length
-				+ " byte"+(setup.stream.length==1?"":"s")+") read from file");
-		
-		
-		/*
-		 * Do double parsing...
-		 */
-		double[][] res = null;
-		if(!parallel) {
-			// Let any exceptions propagate
-			res = parseSerial(lines);
 		} else {
-			
-			boolean throwing_exception = true;
-			try {
-				res = ParallelChunkParser.doAll(lines, setup);
-			} catch(NumberFormatException n) {
-				error(new MatrixParseException("caught NumberFormatException: " + n.getLocalizedMessage()));
-			} catch(DimensionMismatchException d) {
-				error(new MatrixParseException("caught row of unexpected dimensions: " + d.getMessage()));
-			} catch(RejectedExecutionException r) {
-				throwing_exception = false;
-				warn("unable to schedule parallel job; falling back to serial parse");
-				res = parseSerial(lines);
-			} catch(Exception e) {
-				msg = "encountered Exception in thread" + e.getMessage();
-				error(msg);
-				throw e;
-			} finally {
-				if(null == res && !throwing_exception)
-					throw new RuntimeException("unable to parse data");
-			}
+			info(res.length + " record" + (res.length==1?"":"s") + " (" 
+				+ source.length() + " byte"+(source.length()==1?"":"s")+") read from file");
 		}
 		
 		
 		sayBye(timer);
-		return new DataSet(res, setup.headers);
+		
+		// The rows are already owned by us, so don't copy them
+		return new DataSet(new Array2DRowRealMatrix(res, false), 
+			null, setup.headers, DataSet.DEF_FORMATTER, false);
+	}
+	
+	/**
+	 * @return the position of the first byte following the header, if any
+	 * @throws IOException
+	 */
+	private long getDataStart() throws IOException {
+		if(0 == setup.header_offset)
+			return 0;
+		
+		final LineReader lines = new LineReader(setup.source, 0, setup.source.length(), HEAD_SIZE);
+		lines.next(); // the header
+		return lines.position();
 	}
 	
-	private double[][] parseSerial(String[] lines) {
-		int k = 0;
-		String msg, line;
+	private double[][] parseSerial(final long start) throws IOException {
+		String msg;
 		double[] next;
+		int count;
 		
-		double[][] res = new double[lines.length - setup.header_offset][setup.num_cols];
-		for( int idx = setup.header_offset; idx < lines.length; idx++ ) {
-			line = lines[idx];
+		// Stop reading at one beyond the cap so we can warn of truncation
+		final int cap = GlobalState.MAX_ARRAY_SIZE - setup.header_offset + 1;
+		final ArrayList<double[]> rows = new ArrayList<>();
+		final LineReader lines = new LineReader(setup.source, start, setup.source.length(), BUFFER_SIZE);
+		final RowParser parser = new RowParser(setup);
+		
+		while(rows.size() < cap && lines.next()) {
+			next = new double[setup.num_cols];
 			
 			try {
-				next = tokenize(line);
-				
-				// Ensure not jagged
-				if(next.length != setup.num_cols) {
-					msg = "expected row of length " + setup.num_cols + 
-						"; got row of length " + next.length + " at line " +
-						idx;
-					error(msg);
-					throw new MatrixParseException(msg);
-				}
-				
-				res[k++] = next;
+				count = parser.parse(lines.buf, lines.from, lines.to, next);
 			} catch(NumberFormatException e) {
-				msg = "non-numeric row found: " + line;
+				msg = "non-numeric row found: " + lines.line();
+				error(msg);
+				throw new MatrixParseException(msg);
+			}
+			
+			// Ensure not jagged
+			if(count != setup.num_cols) {
+				msg = "expected row of length " + setup.num_cols + 
+					"; got row of length " + count + " at line " +
+					(rows.size() + setup.header_offset);
 				error(msg);
 				throw new MatrixParseException(msg);
 			}
+			
+			rows.add(next);
 		}
 		
-		return res;
-	}
-	
-	/**
-	 * Handle the tokenizing logic for this instance
-	 * @param row
-	 * @return
-	 * @throws NumberFormatException
-	 */
-	private double[] tokenize(String row) throws NumberFormatException {
-		final String[] tokens = getTokens(row, setup.separator, setup.single_quotes);
-		return tokenize(tokens);
+		return rows.toArray(new double[rows.size()][]);
 	}
 	
 	/**
@@ -637,6 +637,27 @@ public class DataSet extends Clust4j implements DeepCloneable, java.io.Serializa
 		}
 	}
 	
+	/**
+	 * Write the dataset to a {@link BinaryDataSet} file of 64 bit doubles
+	 * @param file
+	 * @throws IOException
+	 */
+	public void toBinaryFile(final File file) throws IOException {
+		toBinaryFile(file, false);
+	}
+	
+	/**
+	 * Write the dataset to a {@link BinaryDataSet} file
+	 * @param file
+	 * @param float32 - whether to store the data as 32 bit floats
+	 * @throws IOException
+	 */
+	public void toBinaryFile(final File file, boolean float32) throws IOException {
+		synchronized(this) {
+			BinaryDataSet.write(this, file, float32);
+		}
+	}
+	
 	private static String toString(Object[] obj, char sep) {
 		StringBuilder sb = new StringBuilder();
 		for(int i = 0; i < obj.length; i++) {
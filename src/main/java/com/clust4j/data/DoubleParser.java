@@ -0,0 +1,261 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.data;
+
+import java.math.BigInteger;
+
+/**
+ * Parses doubles directly from ASCII bytes without allocating a {@link String}.
+ * The result is always identical to {@link Double#parseDouble(String)}: plain
+ * decimal tokens of up to 19 significant digits are converted with the Clinger
+ * fast path where exact, or otherwise with the Eisel-Lemire algorithm. Anything
+ * else (hex floats, type suffixes, subnormals, ambiguous halfway cases...)
+ * falls back to {@link Double#parseDouble(String)}.
+ *
+ * @see <a href="https://nigeltao.github.io/blog/2020/eisel-lemire.html">Eisel-Lemire</a>
+ * @author Taylor G Smith
+ */
+final class DoubleParser {
+	/** The max number of significant digits that fit in a long */
+	static final int MAX_DIGITS = 19;
+	/** Integers up to this magnitude are exactly representable */
+	static final long MAX_EXACT_INT = 1L << 53;
+	static final int MAX_EXACT_POW10 = 22;
+	static final double[] EXACT_POW10 = new double[MAX_EXACT_POW10 + 1];
+	
+	/** The range of the 128 bit powers of ten */
+	static final int MIN_EXP10 = -348;
+	static final int MAX_EXP10 = 347;
+	/** The high and low 64 bits of 10^q, normalized and truncated to 128 bits */
+	static final long[] POW10_HI = new long[MAX_EXP10 - MIN_EXP10 + 1];
+	static final long[] POW10_LO = new long[MAX_EXP10 - MIN_EXP10 + 1];
+	
+	private static final long MASK_32 = 0xFFFFFFFFL;
+	private static final long MANTISSA_MASK = (1L << 52) - 1;
+	private static final int EXPONENT_BIAS = 1023;
+	
+	static {
+		double p = 1.0;
+		for(int i = 0; i <= MAX_EXACT_POW10; i++) {
+			EXACT_POW10[i] = p;
+			p *= 10.0;
+		}
+		
+		final BigInteger ten = BigInteger.TEN;
+		for(int q = MIN_EXP10; q <= MAX_EXP10; q++) {
+			BigInteger m;
+			if(q >= 0) {
+				m = ten.pow(q);
+			} else {
+				// floor(2^k / 10^-q) with at least 128 significant bits
+				final BigInteger div = ten.pow(-q);
+				m = BigInteger.ONE.shiftLeft(div.bitLength() + 128).divide(div);
+			}
+			
+			final int shift = m.bitLength() - 128;
+			m = shift > 0 ? m.shiftRight(shift) : m.shiftLeft(-shift);
+			
+			POW10_HI[q - MIN_EXP10] = m.shiftRight(64).longValue();
+			POW10_LO[q - MIN_EXP10] = m.longValue();
+		}
+	}
+	
+	private DoubleParser() {}
+	
+	
+	/**
+	 * Parse the bytes in <tt>[from, to)</tt> as a double
+	 * @param bits
+	 * @param from
+	 * @param to
+	 * @throws NumberFormatException if the bytes are not a valid double
+	 * @return the parsed value
+	 */
+	static double parse(final byte[] bits, final int from, final int to) {
+		int i = from;
+		boolean neg = false;
+		
+		if(i < to && (bits[i] == '-' || bits[i] == '+'))
+			neg = bits[i++] == '-';
+		
+		long man = 0;
+		int digits = 0, exp10 = 0;
+		boolean any = false;
+		
+		// integer part
+		for(; i < to && bits[i] >= '0' && bits[i] <= '9'; i++) {
+			any = true;
+			if(0 == digits && '0' == bits[i])
+				continue; // leading zero
+			if(++digits > MAX_DIGITS)
+				return slowPath(bits, from, to);
+			man = man * 10 + (bits[i] - '0');
+		}
+		
+		// fractional part
+		if(i < to && bits[i] == '.') {
+			for(i++; i < to && bits[i] >= '0' && bits[i] <= '9'; i++) {
+				any = true;
+				exp10--;
+				if(0 == digits && '0' == bits[i])
+					continue;
+				if(++digits > MAX_DIGITS)
+					return slowPath(bits, from, to);
+				man = man * 10 + (bits[i] - '0');
+			}
+		}
+		
+		if(!any)
+			return slowPath(bits, from, to);
+		
+		// exponent
+		if(i < to && (bits[i] == 'e' || bits[i] == 'E')) {
+			i++;
+			boolean negExp = false;
+			if(i < to && (bits[i] == '-' || bits[i] == '+'))
+				negExp = bits[i++] == '-';
+			
+			if(i == to)
+				return slowPath(bits, from, to);
+			
+			int e = 0;
+			for(; i < to && bits[i] >= '0' && bits[i] <= '9'; i++)
+				if(e < 100000) // beyond any representable exponent
+					e = e * 10 + (bits[i] - '0');
+			
+			exp10 += negExp ? -e : e;
+		}
+		
+		if(i != to) // suffixes, whitespace, garbage...
+			return slowPath(bits, from, to);
+		
+		if(0 == man)
+			return neg ? -0.0 : 0.0;
+		
+		// Clinger's fast path: one correctly-rounded operation on exact operands
+		if(man > 0 && man <= MAX_EXACT_INT && exp10 >= -MAX_EXACT_POW10 && exp10 <= MAX_EXACT_POW10) {
+			final double d = exp10 < 0 ? man / EXACT_POW10[-exp10] : man * EXACT_POW10[exp10];
+			return neg ? -d : d;
+		}
+		
+		final long bitsOut = eiselLemire(man, exp10);
+		if(-1L == bitsOut)
+			return slowPath(bits, from, to);
+		
+		final double d = Double.longBitsToDouble(bitsOut);
+		return neg ? -d : d;
+	}
+	
+	/**
+	 * Compute the bits of the positive double nearest to <tt>man * 10^exp10</tt>,
+	 * where <tt>man</tt> is a non-zero unsigned long
+	 * @param man
+	 * @param exp10
+	 * @return the double bits, or -1 if the result cannot be determined
+	 */
+	static long eiselLemire(long man, final int exp10) {
+		if(exp10 < MIN_EXP10 || exp10 > MAX_EXP10)
+			return -1L;
+		
+		final int idx = exp10 - MIN_EXP10;
+		
+		// normalize
+		final int clz = Long.numberOfLeadingZeros(man);
+		man <<= clz;
+		long retExp2 = ((217706 * exp10) >> 16) + 64 + EXPONENT_BIAS - clz;
+		
+		// multiply
+		long xHi = multiplyHigh(man, POW10_HI[idx]);
+		long xLo = man * POW10_HI[idx];
+		
+		// wider approximation
+		if((xHi & 0x1FF) == 0x1FF && lessThanUnsigned(xLo + man, man)) {
+			final long yHi = multiplyHigh(man, POW10_LO[idx]);
+			final long yLo = man * POW10_LO[idx];
+			
+			long mergedHi = xHi;
+			final long mergedLo = xLo + yHi;
+			if(lessThanUnsigned(mergedLo, xLo))
+				mergedHi++;
+			
+			if((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && lessThanUnsigned(yLo + man, man))
+				return -1L;
+			
+			xHi = mergedHi;
+			xLo = mergedLo;
+		}
+		
+		// shift to 54 bits
+		final long msb = xHi >>> 63;
+		long retMantissa = xHi >>> (msb + 9);
+		retExp2 -= 1 ^ msb;
+		
+		// halfway ambiguity
+		if(xLo == 0 && (xHi & 0x1FF) == 0 && (retMantissa & 3) == 1)
+			return -1L;
+		
+		// from 54 to 53 bits
+		retMantissa += retMantissa & 1;
+		retMantissa >>>= 1;
+		if((retMantissa >>> 53) > 0) {
+			retMantissa >>>= 1;
+			retExp2++;
+		}
+		
+		// subnormal, infinite or NaN
+		if(retExp2 <= 0 || retExp2 >= 0x7FF)
+			return -1L;
+		
+		return (retExp2 << 52) | (retMantissa & MANTISSA_MASK);
+	}
+	
+	/**
+	 * The high 64 bits of the unsigned 128 bit product of a and b
+	 */
+	static long multiplyHigh(final long a, final long b) {
+		final long aLo = a & MASK_32, aHi = a >>> 32;
+		final long bLo = b & MASK_32, bHi = b >>> 32;
+		
+		final long loLo = aLo * bLo;
+		final long hiLo = aHi * bLo;
+		final long loHi = aLo * bHi;
+		final long hiHi = aHi * bHi;
+		
+		final long cross = (loLo >>> 32) + (hiLo & MASK_32) + loHi;
+		return hiHi + (hiLo >>> 32) + (cross >>> 32);
+	}
+	
+	static boolean lessThanUnsigned(final long a, final long b) {
+		return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+	}
+	
+	/**
+	 * Defer to {@link Double#parseDouble(String)}
+	 */
+	static double slowPath(final byte[] bits, final int from, final int to) {
+		return Double.parseDouble(toString(bits, from, to));
+	}
+	
+	/**
+	 * Widen each byte to a char, as the tokenizer does when building tokens
+	 */
+	static String toString(final byte[] bits, final int from, final int to) {
+		final char[] chars = new char[to - from];
+		for(int i = from; i < to; i++)
+			chars[i - from] = (char)bits[i];
+		return new String(chars);
+	}
+}
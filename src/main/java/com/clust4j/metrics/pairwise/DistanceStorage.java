@@ -0,0 +1,335 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.metrics.pairwise;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.clust4j.NamedEntity;
+
+/**
+ * Long-indexed storage for a flattened (typically condensed) distance matrix.
+ * The {@link Type} determines whether the values live on the heap or in a
+ * memory-mapped temp file, and whether they are stored as 64 or 32 bit floats.
+ * Mapped storage is paged in and out by the OS, so the size of the matrix
+ * is limited by disk space rather than by the heap or the max Java array size.
+ * <p>
+ * Writes to disjoint indices may be made concurrently.
+ *
+ * @author Taylor G Smith
+ */
+public abstract class DistanceStorage implements Closeable {
+	
+	/**
+	 * The storage strategies
+	 * @author Taylor G Smith
+	 */
+	public static enum Type implements NamedEntity {
+		/** A <tt>double[]</tt> on the heap */
+		HEAP {
+			@Override
+			public DistanceStorage allocate(long size) {
+				return new HeapStorage(checkArraySize(size));
+			}
+			
+			@Override
+			public String getName() {
+				return "Heap";
+			}
+		},
+		
+		/** A <tt>float[]</tt> on the heap, at half the footprint of {@link #HEAP} */
+		HEAP_FLOAT {
+			@Override
+			public DistanceStorage allocate(long size) {
+				return new HeapFloatStorage(checkArraySize(size));
+			}
+			
+			@Override
+			public String getName() {
+				return "Heap (float32)";
+			}
+		},
+		
+		/** 64 bit values in a memory-mapped temp file */
+		MAPPED {
+			@Override
+			public DistanceStorage allocate(long size) {
+				return new MappedStorage(size, false);
+			}
+			
+			@Override
+			public String getName() {
+				return "Memory-mapped";
+			}
+		},
+		
+		/** 32 bit values in a memory-mapped temp file */
+		MAPPED_FLOAT {
+			@Override
+			public DistanceStorage allocate(long size) {
+				return new MappedStorage(size, true);
+			}
+			
+			@Override
+			public String getName() {
+				return "Memory-mapped (float32)";
+			}
+		};
+		
+		/**
+		 * Allocate zero-filled storage
+		 * @param size - the number of values
+		 * @throws IllegalArgumentException if the size is negative or too large for the strategy
+		 * @return the new storage
+		 */
+		public abstract DistanceStorage allocate(long size);
+	}
+	
+	
+	final protected long size;
+	
+	DistanceStorage(final long size) {
+		if(size < 0)
+			throw new IllegalArgumentException("size must not be negative");
+		this.size = size;
+	}
+	
+	private static int checkArraySize(final long size) {
+		// Some VMs reserve header words in an array
+		if(size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException(size + " values exceeds "
+				+ "the max array size; use memory-mapped storage");
+		return (int)size;
+	}
+	
+	/**
+	 * The number of elements in a condensed matrix of m rows, <tt>m choose 2</tt>
+	 * @param m
+	 * @return the condensed size
+	 */
+	public static long condensedSize(final long m) {
+		return m * (m - 1) / 2;
+	}
+	
+	/**
+	 * The index of the (i, j) element (where i != j) in a condensed matrix
+	 * of m rows. See {@link Pairwise#getCondensedDistance(double[][], GeometricallySeparable, boolean)}
+	 * @param m
+	 * @param i
+	 * @param j
+	 * @throws IllegalArgumentException if i == j
+	 * @return the index
+	 */
+	public static long condensedIndex(final long m, final long i, final long j) {
+		if(i < j)
+			return m * i - (i * (i + 1) / 2) + (j - i - 1);
+		else if(i > j)
+			return m * j - (j * (j + 1) / 2) + (i - j - 1);
+		throw new IllegalArgumentException(i+", "+j+"; i should not equal j");
+	}
+	
+	/** @return the number of values stored */
+	public long size() {
+		return size;
+	}
+	
+	public abstract double get(long idx);
+	public abstract void set(long idx, double value);
+	
+	/**
+	 * Fill every value with the same value
+	 * @param value
+	 */
+	public void fill(final double value) {
+		for(long i = 0; i < size; i++)
+			set(i, value);
+	}
+	
+	/**
+	 * Release any resources held by the storage. The default
+	 * implementation does nothing.
+	 */
+	@Override
+	public void close() {
+		/* heap storage is simply garbage collected */
+	}
+	
+	
+	/**
+	 * Heap storage backed by a <tt>double[]</tt>
+	 * @author Taylor G Smith
+	 */
+	public static class HeapStorage extends DistanceStorage {
+		final double[] values;
+		
+		public HeapStorage(final int size) {
+			this(new double[size]);
+		}
+		
+		/**
+		 * Wrap an existing array. No copy is made.
+		 * @param values
+		 */
+		public HeapStorage(final double[] values) {
+			super(values.length);
+			this.values = values;
+		}
+		
+		/** @return the backing array (not a copy) */
+		public double[] getDataRef() {
+			return values;
+		}
+		
+		@Override
+		public double get(long idx) {
+			return values[(int)idx];
+		}
+		
+		@Override
+		public void set(long idx, double value) {
+			values[(int)idx] = value;
+		}
+		
+		@Override
+		public void fill(final double value) {
+			Arrays.fill(values, value);
+		}
+	}
+	
+	/**
+	 * Heap storage backed by a <tt>float[]</tt>
+	 * @author Taylor G Smith
+	 */
+	public static class HeapFloatStorage extends DistanceStorage {
+		final float[] values;
+		
+		public HeapFloatStorage(final int size) {
+			super(size);
+			this.values = new float[size];
+		}
+		
+		@Override
+		public double get(long idx) {
+			return values[(int)idx];
+		}
+		
+		@Override
+		public void set(long idx, double value) {
+			values[(int)idx] = (float)value;
+		}
+	}
+	
+	/**
+	 * Storage in a temp file mapped into memory in segments of at most
+	 * {@value #SEGMENT_BYTES} bytes, since a single {@link MappedByteBuffer}
+	 * is int-indexed. The file is deleted as soon as it is mapped; where the
+	 * platform does not allow deleting a mapped file, it is deleted on {@link #close()}.
+	 * @author Taylor G Smith
+	 */
+	public static class MappedStorage extends DistanceStorage {
+		/** The number of bytes in each mapped segment */
+		public static final int SEGMENT_BYTES = 1 << 30;
+		private static final int SEGMENT_SHIFT = 30;
+		private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+		
+		final boolean float32;
+		final int shift; // log2 of the bytes per value
+		final File file;
+		final MappedByteBuffer[] segments;
+		
+		public MappedStorage(final long size, final boolean float32) {
+			super(size);
+			
+			this.float32 = float32;
+			this.shift = float32 ? 2 : 3;
+			final long bytes = size << shift;
+			
+			try {
+				file = File.createTempFile("clust4j-dist", ".bin");
+			} catch(IOException e) {
+				throw new IllegalStateException("could not map distance storage: " + e.getMessage(), e);
+			}
+			
+			try {
+				segments = map(file, bytes);
+			} catch(IOException e) {
+				throw new IllegalStateException("could not map distance storage: " + e.getMessage(), e);
+			} finally {
+				file.delete(); // the mapping outlives the file
+			}
+		}
+		
+		private static MappedByteBuffer[] map(final File file, final long bytes) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			
+			try {
+				raf.setLength(bytes);
+				
+				final FileChannel channel = raf.getChannel();
+				final int numSegments = (int)((bytes + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+				final MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+				
+				long pos = 0;
+				for(int i = 0; i < numSegments; i++) {
+					final long len = Math.min(SEGMENT_BYTES, bytes - pos);
+					segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, pos, len);
+					segments[i].order(ByteOrder.nativeOrder());
+					pos += len;
+				}
+				
+				return segments;
+			} finally {
+				raf.close();
+			}
+		}
+		
+		@Override
+		public double get(long idx) {
+			final long b = idx << shift;
+			final MappedByteBuffer seg = segments[(int)(b >>> SEGMENT_SHIFT)];
+			final int off = (int)(b & SEGMENT_MASK);
+			return float32 ? seg.getFloat(off) : seg.getDouble(off);
+		}
+		
+		@Override
+		public void set(long idx, double value) {
+			final long b = idx << shift;
+			final MappedByteBuffer seg = segments[(int)(b >>> SEGMENT_SHIFT)];
+			final int off = (int)(b & SEGMENT_MASK);
+			
+			if(float32)
+				seg.putFloat(off, (float)value);
+			else
+				seg.putDouble(off, value);
+		}
+		
+		/**
+		 * Delete the file, if it could not be deleted once mapped. The
+		 * mapped segments are released once they are garbage collected.
+		 */
+		@Override
+		public void close() {
+			file.delete();
+		}
+	}
+}
@@ -15,20 +15,61 @@
  *******************************************************************************/
 package com.clust4j.metrics.pairwise;
 
+import java.util.concurrent.RecursiveAction;
+
 import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.GlobalState;
 
+/**
+ * Computes pairwise distances (or similarities) between the rows of a matrix.
+ * Every element is computed directly by the metric. The matrix is walked in square
+ * tiles of rows sized to fit in the L1 cache, and if the caller allows parallelism,
+ * the tiles are spread across the {@link GlobalState.ParallelismConf#FJ_THREADPOOL}
+ * once the output exceeds {@link GlobalState.ParallelismConf#MIN_ELEMENTS}. The
+ * overloads without a <tt>parallel</tt> argument allow it whenever
+ * {@link GlobalState.ParallelismConf#PARALLELISM_ALLOWED} does. Each element is 
+ * computed independently, so parallel and serial results are identical.
+ *
+ * @author Taylor G Smith
+ */
 public abstract class Pairwise {
+	/** The number of doubles that fit in a conservative L1 data cache (32KB) */
+	final static int L1_DOUBLES = 4096;
+	/** The min number of rows in a tile */
+	final static int MIN_BLOCK_SIZE = 16;
+	/** The max number of rows in a tile */
+	final static int MAX_BLOCK_SIZE = 256;
+	
+	
 	public static double[][] getDistance(AbstractRealMatrix a,
 			GeometricallySeparable geo,
 			boolean upperTriang, boolean partial) {
 		return getDistance(a.getData(), geo, upperTriang, partial);
 	}
 	
-	public static double[][] getDistance(double[][] a, 
-			GeometricallySeparable geo, 
+	public static double[][] getDistance(double[][] a,
+			GeometricallySeparable geo,
 			boolean upperTriang, boolean partial) {
 		
-		return pairwise(a, geo, upperTriang, partial, 1.0);
+		return getDistance(a, geo, upperTriang, partial, 
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+	}
+	
+	/**
+	 * @param a
+	 * @param geo
+	 * @param upperTriang
+	 * @param partial
+	 * @param parallel - whether the rows may be split across the pool, typically the calling model's setting
+	 * @return the distance matrix
+	 */
+	public static double[][] getDistance(double[][] a,
+			GeometricallySeparable geo,
+			boolean upperTriang, boolean partial, boolean parallel) {
+		
+		return pairwise(a, geo, upperTriang, partial, 1.0, parallel);
 	}
 	
 	public static double[][] getSimilarity(AbstractRealMatrix a,
@@ -37,44 +78,113 @@ public abstract class Pairwise {
 		return getSimilarity(a.getData(), geo, upperTriang, partial);
 	}
 	
-	public static double[][] getSimilarity(double[][] a, 
-			GeometricallySeparable geo, 
+	public static double[][] getSimilarity(double[][] a,
+			GeometricallySeparable geo,
 			boolean upperTriang, boolean partial) {
 
-		return pairwise(a, geo, upperTriang, partial, -1.0);
+		return pairwise(a, geo, upperTriang, partial, -1.0, 
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+	}
+	
+	/**
+	 * Compute the upper triangle of the distance matrix (excluding the diagonal)
+	 * flattened row-major into a vector of length <tt>m choose 2</tt>, where
+	 * the distance between rows <tt>i &lt; j</tt> is at index
+	 * <tt>m * i - i * (i + 1) / 2 + (j - i - 1)</tt>
+	 * @param a
+	 * @param geo
+	 * @param partial
+	 * @return the condensed distance vector
+	 */
+	public static double[] getCondensedDistance(double[][] a,
+			GeometricallySeparable geo, boolean partial) {
+		return getCondensedDistance(a, geo, partial, GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+	}
+	
+	/**
+	 * Compute the condensed distance vector as in 
+	 * {@link #getCondensedDistance(double[][], GeometricallySeparable, boolean)}
+	 * @param a
+	 * @param geo
+	 * @param partial
+	 * @param parallel - whether the rows may be split across the pool, typically the calling model's setting
+	 * @return the condensed distance vector
+	 */
+	public static double[] getCondensedDistance(double[][] a,
+			GeometricallySeparable geo, boolean partial, boolean parallel) {
+		return condensed(a, geo, partial, 1.0, parallel);
+	}
+	
+	/**
+	 * Compute the upper triangle of the similarity matrix (excluding the diagonal)
+	 * flattened in the same manner as {@link #getCondensedDistance(double[][], GeometricallySeparable, boolean)}
+	 * @param a
+	 * @param geo
+	 * @param partial
+	 * @return the condensed similarity vector
+	 */
+	public static double[] getCondensedSimilarity(double[][] a,
+			GeometricallySeparable geo, boolean partial) {
+		return condensed(a, geo, partial, -1.0, GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+	}
+	
+	/**
+	 * Compute the condensed distance vector into newly allocated storage
+	 * of the given type, which supports more than <tt>Integer.MAX_VALUE</tt> pairs
+	 * @param a
+	 * @param geo
+	 * @param partial
+	 * @param type
+	 * @return the condensed distance storage. The caller is responsible for closing it.
+	 */
+	public static DistanceStorage getCondensedDistance(double[][] a,
+			GeometricallySeparable geo, boolean partial, DistanceStorage.Type type) {
+		return getCondensedDistance(a, geo, partial, type, GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
+	}
+	
+	/**
+	 * Compute the condensed distance vector into newly allocated storage
+	 * of the given type, as in {@link #getCondensedDistance(double[][], GeometricallySeparable, boolean, DistanceStorage.Type)}
+	 * @param a
+	 * @param geo
+	 * @param partial
+	 * @param type
+	 * @param parallel - whether the rows may be split across the pool, typically the calling model's setting
+	 * @return the condensed distance storage. The caller is responsible for closing it.
+	 */
+	public static DistanceStorage getCondensedDistance(double[][] a,
+			GeometricallySeparable geo, boolean partial, DistanceStorage.Type type, boolean parallel) {
+		return condensed(a, geo, partial, 1.0, type, parallel);
+	}
+	
+	/**
+	 * Compute the condensed similarity vector into newly allocated storage
+	 * of the given type, which supports more than <tt>Integer.MAX_VALUE</tt> pairs
+	 * @param a
+	 * @param geo
+	 * @param partial
+	 * @param type
+	 * @return the condensed similarity storage. The caller is responsible for closing it.
+	 */
+	public static DistanceStorage getCondensedSimilarity(double[][] a,
+			GeometricallySeparable geo, boolean partial, DistanceStorage.Type type) {
+		return condensed(a, geo, partial, -1.0, type, GlobalState.ParallelismConf.PARALLELISM_ALLOWED);
 	}
 	
 	private static double[][] pairwise(double[][] a,
 			GeometricallySeparable geo,
-			boolean upper, boolean partial, double scalar) {
+			boolean upper, boolean partial, double scalar, boolean parallel) {
 		
 		/*
 		 * Don't need to check dims, because that happens in each
-		 * getDistance call. Any non-uniformity should be handled 
+		 * getDistance call. Any non-uniformity should be handled
 		 * there.
 		 */
 		
 		final int m = a.length;
 		final double[][] out = new double[m][m];
-		double dist;
 		
-		/*
-		 * First loop: O(M choose 2). Do computations
-		 */
-		for(int i = 0; i < m - 1; i++) {
-			for(int j = i + 1; j < m; j++) {
-				
-				dist = scalar * (partial ? 
-					geo.getPartialDistance(a[i], a[j]) : 
-						geo.getDistance(a[i], a[j]));
-				out[i][j] = dist;
-				
-				// We want the full matrix
-				if(!upper) {
-					out[j][i] = dist;
-				}
-			}
-		}
+		run(new PairwiseTask(a, geo, partial, scalar, out, null, upper, parallel));
 		
 		/*
 		 *  If we want the full matrix, we need to compute the diagonal...
@@ -82,12 +192,151 @@ public abstract class Pairwise {
 		 */
 		if(!upper) {
 			for(int i = 0; i < m; i++) {
-				out[i][i] = scalar * (partial ? 
-					geo.getPartialDistance(a[i], a[i]) : 
+				out[i][i] = scalar * (partial ?
+					geo.getPartialDistance(a[i], a[i]) :
 						geo.getDistance(a[i], a[i]));
 			}
 		}
 		
 		return out;
 	}
+	
+	private static double[] condensed(double[][] a,
+			GeometricallySeparable geo, boolean partial, double scalar, boolean parallel) {
+		return ((DistanceStorage.HeapStorage)condensed(a, geo, 
+			partial, scalar, DistanceStorage.Type.HEAP, parallel)).getDataRef();
+	}
+	
+	private static DistanceStorage condensed(double[][] a,
+			GeometricallySeparable geo, boolean partial, double scalar, 
+			DistanceStorage.Type type, boolean parallel) {
+		
+		final DistanceStorage out = type.allocate(DistanceStorage.condensedSize(a.length));
+		run(new PairwiseTask(a, geo, partial, scalar, null, out, true, parallel));
+		
+		return out;
+	}
+	
+	private static void run(final PairwiseTask task) {
+		if(task.parallel)
+			GlobalState.ParallelismConf.FJ_THREADPOOL.invoke(task);
+		else
+			task.compute();
+	}
+	
+	/**
+	 * The number of rows in a tile, such that two tiles fit in the L1 cache
+	 * @param n - the number of columns
+	 * @return the tile size
+	 */
+	static int getBlockSize(final int n) {
+		return FastMath.max(MIN_BLOCK_SIZE,
+			FastMath.min(MAX_BLOCK_SIZE, L1_DOUBLES / (2 * FastMath.max(1, n))));
+	}
+	
+	
+	/**
+	 * Fills the upper triangle of a full or condensed matrix one row of tiles
+	 * at a time, recursively splitting the rows of tiles across the pool
+	 * @author Taylor G Smith
+	 */
+	static class PairwiseTask extends RecursiveAction {
+		private static final long serialVersionUID = -2586328462542453497L;
+		
+		final double[][] a;
+		final GeometricallySeparable geo;
+		final boolean partial;
+		final double scalar;
+		/** The full output matrix, or null if condensed */
+		final double[][] full;
+		/** The condensed output storage, or null if full */
+		final DistanceStorage condensed;
+		final boolean upper;
+		/** Whether to split the rows of tiles across the pool */
+		final boolean parallel;
+		
+		final int m, blockSize, lo, hi;
+		
+		PairwiseTask(double[][] a, GeometricallySeparable geo, boolean partial, double scalar,
+				double[][] full, DistanceStorage condensed, boolean upper, boolean parallel) {
+			this.a = a;
+			this.geo = geo;
+			this.partial = partial;
+			this.scalar = scalar;
+			this.full = full;
+			this.condensed = condensed;
+			this.upper = upper;
+			this.m = a.length;
+			this.parallel = parallel && GlobalState.ParallelismConf.PARALLELISM_ALLOWED 
+				&& (long)m * m > GlobalState.ParallelismConf.MIN_ELEMENTS;
+			this.blockSize = getBlockSize(0 == m ? 0 : a[0].length);
+			this.lo = 0;
+			this.hi = (m + blockSize - 1) / blockSize;
+		}
+		
+		PairwiseTask(PairwiseTask task, int lo, int hi) {
+			this.a = task.a;
+			this.geo = task.geo;
+			this.partial = task.partial;
+			this.scalar = task.scalar;
+			this.full = task.full;
+			this.condensed = task.condensed;
+			this.upper = task.upper;
+			this.parallel = task.parallel;
+			this.m = task.m;
+			this.blockSize = task.blockSize;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= 1) {
+				for(int block = lo; block < hi; block++)
+					computeBlockRow(block);
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				PairwiseTask left  = new PairwiseTask(this, this.lo, mid);
+				PairwiseTask right = new PairwiseTask(this, mid, this.hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+		
+		/**
+		 * Compute every tile to the right of (and including) the diagonal tile
+		 */
+		private void computeBlockRow(final int block) {
+			final int i0 = block * blockSize, i1 = FastMath.min(m, i0 + blockSize);
+			
+			for(int j0 = i0; j0 < m; j0 += blockSize) {
+				final int j1 = FastMath.min(m, j0 + blockSize);
+				
+				for(int i = i0; i < i1; i++) {
+					final int start = FastMath.max(j0, i + 1);
+					final long offset = (long)m * i - ((long)i * (i + 1) / 2) - i - 1;
+					
+					for(int j = start; j < j1; j++) {
+						final double dist = scalar * distance(i, j);
+						
+						if(null != condensed) {
+							condensed.set(offset + j, dist);
+						} else {
+							full[i][j] = dist;
+							if(!upper)
+								full[j][i] = dist;
+						}
+					}
+				}
+			}
+		}
+		
+		private double distance(final int i, final int j) {
+			return partial ?
+				geo.getPartialDistance(a[i], a[j]) :
+					geo.getDistance(a[i], a[j]);
+		}
+	}
 }
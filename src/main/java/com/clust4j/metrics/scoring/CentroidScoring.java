@@ -0,0 +1,348 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.metrics.scoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.GlobalState;
+import com.clust4j.algo.AbstractClusterer;
+import com.clust4j.algo.BaseClassifier;
+import com.clust4j.algo.CentroidLearner;
+import com.clust4j.algo.LabelEncoder;
+import com.clust4j.metrics.pairwise.Distance;
+
+/**
+ * The linear-time, centroid based internal validity metrics. Each metric measures
+ * the rows against the centers of their clusters, which are either the centroids of a
+ * fitted {@link CentroidLearner} or the cluster means, computed in one extra pass.
+ * <p>
+ * The passes over the rows are reduced in fixed chunks, which are spread across the
+ * {@link GlobalState.ParallelismConf#FJ_THREADPOOL} when the caller asks for parallelism. The
+ * chunks are merged in the same order regardless, so parallel and serial scores are
+ * identical.
+ *
+ * @author Taylor G Smith
+ */
+abstract class CentroidScoring {
+	/** The default number of rows in a reduction chunk */
+	static final int MIN_PARALLEL_CHUNK_SIZE = 2048;
+	
+	
+	/**
+	 * The rows, their labels encoded in <tt>[0, k)</tt>, and the center of each cluster
+	 */
+	static class Clustering {
+		final double[][] X;
+		final int[] encoded;
+		final double[][] centers;
+		final boolean parallel;
+		/** The number of rows in a reduction chunk */
+		final int chunkSize;
+		
+		Clustering(double[][] X, int[] encoded, double[][] centers, boolean parallel) {
+			this(X, encoded, centers, parallel, MIN_PARALLEL_CHUNK_SIZE);
+		}
+		
+		Clustering(double[][] X, int[] encoded, double[][] centers, boolean parallel, int chunkSize) {
+			this.X = X;
+			this.encoded = encoded;
+			this.centers = centers;
+			this.parallel = parallel;
+			this.chunkSize = chunkSize;
+		}
+		
+		int k() {
+			return centers.length;
+		}
+		
+		int n() {
+			return centers[0].length;
+		}
+	}
+	
+	/**
+	 * Cluster the rows by the labels, with the cluster means as centers
+	 * @param X
+	 * @param labels
+	 * @param parallel - whether to spread the passes over the rows across the pool
+	 * @return the clustering, or null if there are fewer than 2 or as many classes as rows
+	 */
+	static Clustering fromLabels(final double[][] X, final int[] labels, final boolean parallel) {
+		final LabelEncoder encoder;
+		try {
+			encoder = new LabelEncoder(labels).fit();
+		} catch(IllegalArgumentException iae) {
+			return null;
+		}
+		
+		final int[] encoded = encoder.getEncodedLabels();
+		final int k = encoder.getClasses().length, n = X[0].length;
+		
+		// [k x n sums][k counts]
+		final double[] acc = reduce(X.length, k * n + k, parallel, MIN_PARALLEL_CHUNK_SIZE, new RowAccumulator() {
+			@Override
+			public void accumulate(int i, double[] acc) {
+				final int label = encoded[i], offset = label * n;
+				final double[] row = X[i];
+				for(int j = 0; j < n; j++)
+					acc[offset + j] += row[j];
+				acc[k * n + label]++;
+			}
+		});
+		
+		final double[][] centers = new double[k][n];
+		for(int c = 0; c < k; c++)
+			for(int j = 0; j < n; j++)
+				centers[c][j] = acc[c * n + j] / acc[k * n + c];
+		
+		return new Clustering(X, encoded, centers, parallel);
+	}
+	
+	/**
+	 * Cluster the rows by the labels, with the model's centroids as centers if it
+	 * is a {@link CentroidLearner} and these are its labels. Otherwise the cluster
+	 * means are used.
+	 * @param model
+	 * @param X - the model's data
+	 * @param labels
+	 * @param parallel - whether to spread the passes over the rows across the pool
+	 * @return the clustering, or null if there are fewer than 2 or as many classes as rows
+	 */
+	static Clustering fromModel(final AbstractClusterer model, final double[][] X, 
+			final int[] labels, final boolean parallel) {
+		if(!(model instanceof CentroidLearner) || !(model instanceof BaseClassifier))
+			return fromLabels(X, labels, parallel);
+		
+		final ArrayList<double[]> centroids = ((CentroidLearner)model).getCentroids();
+		final int k = centroids.size(), m = X.length;
+		if(k < 2 || k >= m || !Arrays.equals(labels, ((BaseClassifier)model).getLabels()))
+			return fromLabels(X, labels, parallel);
+		
+		// every centroid must label some row
+		final boolean[] seen = new boolean[k];
+		int numSeen = 0;
+		for(int label: labels) {
+			if(label < 0 || label >= k)
+				return fromLabels(X, labels, parallel);
+			if(!seen[label]) {
+				seen[label] = true;
+				numSeen++;
+			}
+		}
+		
+		if(numSeen != k)
+			return fromLabels(X, labels, parallel);
+		
+		return new Clustering(X, labels, centroids.toArray(new double[k][]), parallel);
+	}
+	
+	
+	/**
+	 * The ratio of the between-cluster dispersion to the within-cluster
+	 * dispersion, each normalized by its degrees of freedom
+	 * @param cl
+	 * @return the Calinski-Harabasz index
+	 */
+	static double calinskiHarabasz(final Clustering cl) {
+		final int k = cl.k(), n = cl.n(), m = cl.X.length;
+		
+		// [k counts][within dispersion][n sums]
+		final double[] acc = reduce(m, k + 1 + n, cl.parallel, cl.chunkSize, new RowAccumulator() {
+			@Override
+			public void accumulate(int i, double[] acc) {
+				final int label = cl.encoded[i];
+				final double[] row = cl.X[i];
+				acc[label]++;
+				acc[k] += Distance.EUCLIDEAN.getPartialDistance(row, cl.centers[label]);
+				for(int j = 0; j < n; j++)
+					acc[k + 1 + j] += row[j];
+			}
+		});
+		
+		final double[] mean = new double[n];
+		for(int j = 0; j < n; j++)
+			mean[j] = acc[k + 1 + j] / m;
+		
+		double between = 0;
+		for(int c = 0; c < k; c++)
+			between += acc[c] * Distance.EUCLIDEAN.getPartialDistance(cl.centers[c], mean);
+		
+		final double within = acc[k];
+		return 0 == within ? 1.0 :
+			(between * (m - k)) / (within * (k - 1.0));
+	}
+	
+	/**
+	 * The mean, over the clusters, of the max ratio of the sum of two clusters'
+	 * mean distances to their centers to the distance between their centers
+	 * @param cl
+	 * @return the Davies-Bouldin index
+	 */
+	static double daviesBouldin(final Clustering cl) {
+		final int k = cl.k(), m = cl.X.length;
+		
+		// [k counts][k distance sums]
+		final double[] acc = reduce(m, 2 * k, cl.parallel, cl.chunkSize, new RowAccumulator() {
+			@Override
+			public void accumulate(int i, double[] acc) {
+				final int label = cl.encoded[i];
+				acc[label]++;
+				acc[k + label] += Distance.EUCLIDEAN.getDistance(cl.X[i], cl.centers[label]);
+			}
+		});
+		
+		final double[] scatter = new double[k];
+		boolean allTight = true;
+		for(int c = 0; c < k; c++) {
+			scatter[c] = acc[k + c] / acc[c];
+			allTight &= 0 == scatter[c];
+		}
+		
+		if(allTight)
+			return 0.0;
+		
+		double sum = 0, sep, ratio, max;
+		for(int c = 0; c < k; c++) {
+			max = 0;
+			for(int o = 0; o < k; o++) {
+				if(o == c)
+					continue;
+				
+				// coincident centers are infinitely far apart
+				sep = Distance.EUCLIDEAN.getDistance(cl.centers[c], cl.centers[o]);
+				ratio = 0 == sep ? 0 : (scatter[c] + scatter[o]) / sep;
+				max = FastMath.max(max, ratio);
+			}
+			
+			sum += max;
+		}
+		
+		return sum / k;
+	}
+	
+	/**
+	 * The silhouette score, with each row's mean distance to a cluster
+	 * replaced by its distance to the cluster's center
+	 * @param cl
+	 * @return the simplified silhouette score
+	 */
+	static double simplifiedSilhouette(final Clustering cl) {
+		final int k = cl.k(), m = cl.X.length;
+		
+		final double[] acc = reduce(m, 1, cl.parallel, cl.chunkSize, new RowAccumulator() {
+			@Override
+			public void accumulate(int i, double[] acc) {
+				final int label = cl.encoded[i];
+				final double[] row = cl.X[i];
+				
+				double intra = 0, inter = Double.POSITIVE_INFINITY;
+				for(int c = 0; c < k; c++) {
+					if(c == label)
+						intra = Distance.EUCLIDEAN.getDistance(row, cl.centers[c]);
+					else
+						inter = FastMath.min(inter, Distance.EUCLIDEAN.getDistance(row, cl.centers[c]));
+				}
+				
+				final double max = FastMath.max(intra, inter);
+				acc[0] += 0 == max ? 0 : (inter - intra) / max;
+			}
+		});
+		
+		return acc[0] / m;
+	}
+	
+	
+	private static double[] reduce(final int m, final int width, final boolean parallel, 
+			final int chunkSize, final RowAccumulator rows) {
+		final RowReduction task = new RowReduction(rows, width, parallel, chunkSize, 0, m);
+		if(!parallel)
+			return task.compute();
+		else if(ForkJoinTask.inForkJoinPool())
+			return task.invoke();
+		else
+			return GlobalState.ParallelismConf.FJ_THREADPOOL.invoke(task);
+	}
+	
+	/**
+	 * Adds the contribution of a row to a fixed-width accumulator
+	 * @author Taylor G Smith
+	 */
+	interface RowAccumulator {
+		/**
+		 * @param i - the row
+		 * @param acc - the chunk's accumulator
+		 */
+		void accumulate(int i, double[] acc);
+	}
+	
+	/**
+	 * Sums a fixed-width accumulator over a range of the rows. The rows are always
+	 * split into the same chunks, and the chunk sums are added in the same order,
+	 * whether or not the chunks run in parallel.
+	 * @author Taylor G Smith
+	 */
+	static class RowReduction extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = -3462518376508716409L;
+		
+		final RowAccumulator rows;
+		final int width, chunkSize, lo, hi;
+		final boolean parallel;
+		
+		RowReduction(RowAccumulator rows, int width, boolean parallel, int chunkSize, int lo, int hi) {
+			this.rows = rows;
+			this.width = width;
+			this.parallel = parallel;
+			this.chunkSize = chunkSize;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected double[] compute() {
+			if(hi - lo <= chunkSize) {
+				final double[] acc = new double[width];
+				for(int i = lo; i < hi; i++)
+					rows.accumulate(i, acc);
+				
+				return acc;
+			}
+			
+			final int mid = this.lo + (this.hi - this.lo) / 2;
+			final RowReduction left  = new RowReduction(rows, width, parallel, chunkSize, this.lo, mid);
+			final RowReduction right = new RowReduction(rows, width, parallel, chunkSize, mid, this.hi);
+			
+			final double[] l, r;
+			if(parallel) {
+				left.fork();
+				r = right.compute();
+				l = left.join();
+			} else {
+				l = left.compute();
+				r = right.compute();
+			}
+			
+			for(int j = 0; j < width; j++)
+				l[j] += r[j];
+			
+			return l;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.metrics.scoring;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.special.Gamma;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * A sparse contingency table between two labelings, built in one pass over
+ * the labels with primitive open-addressing hash maps. Only the non-zero cells
+ * are stored, so the table is linear in the number of records regardless of
+ * the number of classes. The actual labels index the rows, the predicted the columns.
+ * <p>
+ * The pair counting and information theoretic comparisons of the labelings
+ * are all computed from the table, after the definitions in scikit-learn.
+ *
+ * @author Taylor G Smith
+ */
+final class ContingencyTable {
+	/** The number of records */
+	final int n;
+	/** The number of records in each actual and predicted class */
+	final int[] rowSums, colSums;
+	/** The row, column and count of each non-zero cell */
+	final int[] cellRow, cellCol, cellCount;
+	
+	ContingencyTable(final int[] actual, final int[] predicted) {
+		if(actual.length != predicted.length)
+			throw new DimensionMismatchException(actual.length, predicted.length);
+		
+		final int m = actual.length;
+		final LongIndex rows = new LongIndex(), cols = new LongIndex(), cells = new LongIndex();
+		int[] rowCt = new int[16], colCt = new int[16], cellCt = new int[16];
+		int[] cRow = new int[16], cCol = new int[16];
+		
+		int r, c, cell;
+		for(int i = 0; i < m; i++) {
+			r = rows.indexOf(actual[i]);
+			c = cols.indexOf(predicted[i]);
+			cell = cells.indexOf(((long)r << 32) | c);
+			
+			if(r == rowCt.length) rowCt = Arrays.copyOf(rowCt, r << 1);
+			if(c == colCt.length) colCt = Arrays.copyOf(colCt, c << 1);
+			if(cell == cellCt.length) {
+				cellCt = Arrays.copyOf(cellCt, cell << 1);
+				cRow = Arrays.copyOf(cRow, cell << 1);
+				cCol = Arrays.copyOf(cCol, cell << 1);
+			}
+			
+			rowCt[r]++;
+			colCt[c]++;
+			cellCt[cell]++;
+			cRow[cell] = r;
+			cCol[cell] = c;
+		}
+		
+		this.n = m;
+		this.rowSums = Arrays.copyOf(rowCt, rows.size);
+		this.colSums = Arrays.copyOf(colCt, cols.size);
+		this.cellCount = Arrays.copyOf(cellCt, cells.size);
+		this.cellRow = Arrays.copyOf(cRow, cells.size);
+		this.cellCol = Arrays.copyOf(cCol, cells.size);
+	}
+	
+	/**
+	 * Whether the labelings are trivially identical, i.e., both have a single
+	 * class, both are empty, or both have a class per record
+	 */
+	boolean isTrivialMatch() {
+		final int r = rowSums.length, c = colSums.length;
+		return r == c && (r <= 1 || r == n);
+	}
+	
+	
+	/**
+	 * @return the Rand index, adjusted for chance
+	 */
+	double adjustedRandIndex() {
+		if(isTrivialMatch())
+			return 1.0;
+		
+		final double sumCombRows = sumComb2(rowSums), sumCombCols = sumComb2(colSums);
+		final double sumComb = sumComb2(cellCount);
+		
+		final double expected = sumCombRows * sumCombCols / comb2(n);
+		final double mean = (sumCombRows + sumCombCols) / 2.0;
+		return (sumComb - expected) / (mean - expected);
+	}
+	
+	/**
+	 * @return the geometric mean of the pairwise precision and recall
+	 */
+	double fowlkesMallows() {
+		double tk = -n, pk = -n, qk = -n;
+		for(int ct: cellCount) tk += (double)ct * ct;
+		for(int ct: rowSums) pk += (double)ct * ct;
+		for(int ct: colSums) qk += (double)ct * ct;
+		
+		return 0 == tk ? 0.0 : FastMath.sqrt(tk / pk) * FastMath.sqrt(tk / qk);
+	}
+	
+	/**
+	 * @return the mutual information between the labelings, in nats
+	 */
+	double mutualInfo() {
+		final double logN = FastMath.log(n);
+		
+		double mi = 0;
+		for(int k = 0; k < cellCount.length; k++) {
+			final double nij = cellCount[k];
+			mi += (nij / n) * (FastMath.log(nij) + logN
+				- FastMath.log(rowSums[cellRow[k]]) - FastMath.log(colSums[cellCol[k]]));
+		}
+		
+		// rounding may yield a tiny negative
+		return FastMath.max(0.0, mi);
+	}
+	
+	/**
+	 * The expected mutual information between two random labelings with the
+	 * same class sizes. This is quadratic in the number of classes and is
+	 * by far the most expensive part of the adjusted mutual info.
+	 * @return the expected mutual information, in nats
+	 */
+	double expectedMutualInfo() {
+		final double N = n, logN = FastMath.log(N), glnN = Gamma.logGamma(N + 1);
+		
+		int maxSum = 0;
+		for(int a: rowSums) maxSum = FastMath.max(maxSum, a);
+		for(int b: colSums) maxSum = FastMath.max(maxSum, b);
+		
+		final double[] glnNij = new double[maxSum + 1];
+		for(int nij = 0; nij <= maxSum; nij++)
+			glnNij[nij] = Gamma.logGamma(nij + 1.0);
+		
+		final double[] glnB = new double[colSums.length], glnNB = new double[colSums.length];
+		for(int j = 0; j < colSums.length; j++) {
+			glnB[j] = Gamma.logGamma(colSums[j] + 1.0);
+			glnNB[j] = Gamma.logGamma(N - colSums[j] + 1.0);
+		}
+		
+		double emi = 0;
+		for(int i = 0; i < rowSums.length; i++) {
+			final int a = rowSums[i];
+			final double logA = FastMath.log(a);
+			final double glnA = Gamma.logGamma(a + 1.0) + Gamma.logGamma(N - a + 1.0) - glnN;
+			
+			for(int j = 0; j < colSums.length; j++) {
+				final int b = colSums[j];
+				final int start = FastMath.max(1, a + b - n), end = FastMath.min(a, b);
+				final double base = glnA + glnB[j] + glnNB[j];
+				
+				for(int nij = start; nij <= end; nij++) {
+					final double term2 = logN + FastMath.log(nij) - logA - FastMath.log(b);
+					final double gln = base - glnNij[nij] - glnNij[a - nij] - glnNij[b - nij]
+						- Gamma.logGamma(N - a - b + nij + 1.0);
+					emi += ((double)nij / N) * term2 * FastMath.exp(gln);
+				}
+			}
+		}
+		
+		return emi;
+	}
+	
+	/**
+	 * @return the entropy of the actual labels, in nats
+	 */
+	double rowEntropy() {
+		return entropy(rowSums, n);
+	}
+	
+	/**
+	 * @return the entropy of the predicted labels, in nats
+	 */
+	double colEntropy() {
+		return entropy(colSums, n);
+	}
+	
+	
+	private static double entropy(final int[] counts, final int n) {
+		if(counts.length <= 1)
+			return 0.0;
+		
+		final double logN = FastMath.log(n);
+		double h = 0;
+		for(int ct: counts)
+			h -= ((double)ct / n) * (FastMath.log(ct) - logN);
+		
+		return h;
+	}
+	
+	private static double comb2(final double x) {
+		return x * (x - 1) / 2.0;
+	}
+	
+	private static double sumComb2(final int[] counts) {
+		double sum = 0;
+		for(int ct: counts)
+			sum += comb2(ct);
+		
+		return sum;
+	}
+	
+	
+	/**
+	 * Maps each distinct key to a dense index, in order of first appearance,
+	 * via linear probing on a power of two table
+	 * @author Taylor G Smith
+	 */
+	static final class LongIndex {
+		private long[] keys = new long[32];
+		private int[] idcs = filled(32);
+		private int mask = 31;
+		int size = 0;
+		
+		/**
+		 * @param key
+		 * @return the key's index, assigning it the next if it's new
+		 */
+		int indexOf(final long key) {
+			int slot = hash(key) & mask;
+			
+			int idx;
+			while(-1 != (idx = idcs[slot])) {
+				if(keys[slot] == key)
+					return idx;
+				slot = (slot + 1) & mask;
+			}
+			
+			keys[slot] = key;
+			idcs[slot] = size;
+			
+			// keep the load at most a half
+			if(++size << 1 > keys.length)
+				grow();
+			
+			return size - 1;
+		}
+		
+		private void grow() {
+			final long[] oldKeys = keys;
+			final int[] oldIdcs = idcs;
+			
+			keys = new long[oldKeys.length << 1];
+			idcs = filled(keys.length);
+			mask = keys.length - 1;
+			
+			int slot;
+			for(int s = 0; s < oldKeys.length; s++) {
+				if(-1 == oldIdcs[s])
+					continue;
+				
+				slot = hash(oldKeys[s]) & mask;
+				while(-1 != idcs[slot])
+					slot = (slot + 1) & mask;
+				
+				keys[slot] = oldKeys[s];
+				idcs[slot] = oldIdcs[s];
+			}
+		}
+		
+		private static int[] filled(final int length) {
+			final int[] a = new int[length];
+			Arrays.fill(a, -1);
+			return a;
+		}
+		
+		/** The MurmurHash3 finalizer */
+		private static int hash(long key) {
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			key *= 0xc4ceb9fe1a85ec53L;
+			key ^= key >>> 33;
+			return (int)key;
+		}
+	}
+}
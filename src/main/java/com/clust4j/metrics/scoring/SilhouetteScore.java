@@ -0,0 +1,287 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.metrics.scoring;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.util.FastMath;
+
+import com.clust4j.GlobalState;
+import com.clust4j.algo.LabelEncoder;
+import com.clust4j.metrics.pairwise.GeometricallySeparable;
+import com.clust4j.utils.VecUtils;
+
+/**
+ * Computes the silhouette score without materializing the distance matrix.
+ * The rows are streamed in tiles, and each row's distances to every other row are
+ * accumulated into per-cluster sums, so memory is linear in the number of rows.
+ * Tiles of rows are spread across the {@link GlobalState.ParallelismConf#FJ_THREADPOOL}
+ * once the number of pairs exceeds {@link GlobalState.ParallelismConf#MIN_ELEMENTS}.
+ * Each row's sums are accumulated in the same order regardless, so parallel and
+ * serial scores are identical.
+ * <p>
+ * A row's mean intra-cluster distance is taken over the other members of its
+ * cluster, and is 1.0 for singleton clusters. The score is undefined (NaN) for
+ * fewer than 2 or as many classes as rows.
+ *
+ * @author Taylor G Smith
+ */
+public abstract class SilhouetteScore {
+	/** The number of rows in a tile */
+	final static int BLOCK_SIZE = 64;
+	/** The default min number of rows in a parallel chunk */
+	static final int MIN_PARALLEL_CHUNK_SIZE = 256;
+	
+	
+	/**
+	 * Compute the exact silhouette score
+	 * @param X - the data
+	 * @param labels - the cluster labels
+	 * @param metric - the metric used to compute distances
+	 * @throws DimensionMismatchException if the number of labels does not match the number of rows
+	 * @return the mean silhouette coefficient over all rows
+	 */
+	public static double score(final double[][] X, final int[] labels,
+			final GeometricallySeparable metric) {
+		
+		final int m = X.length;
+		if(labels.length != m)
+			throw new DimensionMismatchException(m, labels.length);
+		
+		return score(X, labels, metric, null);
+	}
+	
+	/**
+	 * Estimate the silhouette score from the coefficients of a random sample of rows.
+	 * Each sampled coefficient is exact, i.e., measured against every row, so the
+	 * estimate costs <tt>O(sampleSize * m)</tt> distance computations.
+	 * @param X - the data
+	 * @param labels - the cluster labels
+	 * @param metric - the metric used to compute distances
+	 * @param sampleSize - the number of rows to sample. If at least the number
+	 * of rows, the exact score is computed
+	 * @param seed - the source of the sample
+	 * @throws DimensionMismatchException if the number of labels does not match the number of rows
+	 * @throws IllegalArgumentException if the sample size is less than 1
+	 * @return the mean silhouette coefficient over the sampled rows
+	 */
+	public static double sampledScore(final double[][] X, final int[] labels,
+			final GeometricallySeparable metric, final int sampleSize, final Random seed) {
+		
+		final int m = X.length;
+		if(labels.length != m)
+			throw new DimensionMismatchException(m, labels.length);
+		if(sampleSize < 1)
+			throw new IllegalArgumentException("sample size must be positive");
+		if(sampleSize >= m)
+			return score(X, labels, metric, null);
+		
+		// partial Fisher-Yates shuffle, then walk the sample in order for locality
+		final int[] idcs = VecUtils.arange(m);
+		for(int i = 0, j, tmp; i < sampleSize; i++) {
+			j = i + seed.nextInt(m - i);
+			tmp = idcs[i];
+			idcs[i] = idcs[j];
+			idcs[j] = tmp;
+		}
+		
+		final int[] rows = Arrays.copyOf(idcs, sampleSize);
+		Arrays.sort(rows);
+		
+		return score(X, labels, metric, rows);
+	}
+	
+	/**
+	 * @param rows - the rows to score, or null for all
+	 */
+	private static double score(final double[][] X, final int[] labels,
+			final GeometricallySeparable metric, final int[] rows) {
+		
+		final int m = X.length;
+		
+		// this method is undefined if numClasses is < 2 or >= m
+		final LabelEncoder encoder;
+		try {
+			encoder = new LabelEncoder(labels).fit();
+		} catch(IllegalArgumentException iae) {
+			return Double.NaN;
+		}
+		
+		final int[] encoded = encoder.getEncodedLabels();
+		final int k = encoder.getClasses().length;
+		final int numRows = null == rows ? m : rows.length;
+		final boolean parallel = GlobalState.ParallelismConf.PARALLELISM_ALLOWED
+			&& (long)numRows * m > GlobalState.ParallelismConf.MIN_ELEMENTS;
+		
+		return VecUtils.mean(coefficients(X, encoded, k, metric, rows, parallel));
+	}
+	
+	/**
+	 * Compute the silhouette coefficient of each of the rows
+	 * @param X - the data
+	 * @param encoded - the labels, encoded in <tt>[0, k)</tt>
+	 * @param k - the number of classes
+	 * @param metric
+	 * @param rows - the rows to score, or null for all
+	 * @param parallel - whether to spread the rows across the pool
+	 * @return the coefficient of each scored row
+	 */
+	static double[] coefficients(final double[][] X, final int[] encoded, final int k,
+			final GeometricallySeparable metric, final int[] rows, final boolean parallel) {
+		return coefficients(X, encoded, k, metric, rows, parallel, MIN_PARALLEL_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Compute the silhouette coefficient of each of the rows
+	 * @param X - the data
+	 * @param encoded - the labels, encoded in <tt>[0, k)</tt>
+	 * @param k - the number of classes
+	 * @param metric
+	 * @param rows - the rows to score, or null for all
+	 * @param parallel - whether to spread the rows across the pool
+	 * @param chunkSize - the max number of rows a task scores without splitting
+	 * @return the coefficient of each scored row
+	 */
+	static double[] coefficients(final double[][] X, final int[] encoded, final int k,
+			final GeometricallySeparable metric, final int[] rows, final boolean parallel,
+			final int chunkSize) {
+		
+		final int[] counts = new int[k];
+		for(int label: encoded)
+			counts[label]++;
+		
+		final CoefficientTask task = new CoefficientTask(X, encoded, counts,
+			metric, rows, parallel, chunkSize);
+		
+		if(!parallel)
+			task.compute();
+		else
+			GlobalState.ParallelismConf.FJ_THREADPOOL.invoke(task);
+		
+		return task.out;
+	}
+	
+	
+	/**
+	 * Computes the coefficients of a range of the scored rows,
+	 * recursively splitting the range across the pool
+	 * @author Taylor G Smith
+	 */
+	static class CoefficientTask extends RecursiveAction {
+		private static final long serialVersionUID = 3716540436585047853L;
+		
+		final double[][] X;
+		final int[] encoded, counts;
+		final GeometricallySeparable metric;
+		/** The rows to score, or null for all */
+		final int[] rows;
+		final boolean parallel;
+		final double[] out;
+		final int chunkSize, lo, hi;
+		
+		CoefficientTask(double[][] X, int[] encoded, int[] counts, GeometricallySeparable metric,
+				int[] rows, boolean parallel, int chunkSize) {
+			this.X = X;
+			this.encoded = encoded;
+			this.counts = counts;
+			this.metric = metric;
+			this.rows = rows;
+			this.parallel = parallel;
+			this.chunkSize = chunkSize;
+			this.lo = 0;
+			this.hi = null == rows ? X.length : rows.length;
+			this.out = new double[hi];
+		}
+		
+		CoefficientTask(CoefficientTask task, int lo, int hi) {
+			this.X = task.X;
+			this.encoded = task.encoded;
+			this.counts = task.counts;
+			this.metric = task.metric;
+			this.rows = task.rows;
+			this.parallel = task.parallel;
+			this.chunkSize = task.chunkSize;
+			this.out = task.out;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if(!parallel || hi - lo <= chunkSize) {
+				computeChunk();
+			} else {
+				int mid = this.lo + (this.hi - this.lo) / 2;
+				CoefficientTask left  = new CoefficientTask(this, this.lo, mid);
+				CoefficientTask right = new CoefficientTask(this, mid, this.hi);
+				
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+		
+		/**
+		 * Stream every row past each tile of scored rows, accumulating
+		 * the distances from each scored row to each cluster
+		 */
+		private void computeChunk() {
+			final int m = X.length, k = counts.length;
+			final double[] sums = new double[BLOCK_SIZE * k];
+			
+			for(int i0 = lo; i0 < hi; i0 += BLOCK_SIZE) {
+				final int i1 = FastMath.min(hi, i0 + BLOCK_SIZE);
+				Arrays.fill(sums, 0.0);
+				
+				for(int j = 0; j < m; j++) {
+					final double[] col = X[j];
+					final int label = encoded[j];
+					
+					for(int i = i0; i < i1; i++)
+						sums[(i - i0) * k + label] += metric.getDistance(X[row(i)], col);
+				}
+				
+				for(int i = i0; i < i1; i++)
+					out[i] = coefficient(sums, (i - i0) * k, encoded[row(i)]);
+			}
+		}
+		
+		private int row(final int i) {
+			return null == rows ? i : rows[i];
+		}
+		
+		/**
+		 * @param sums - the distance sums to each cluster, starting at the offset
+		 * @param offset
+		 * @param own - the row's cluster
+		 */
+		private double coefficient(final double[] sums, final int offset, final int own) {
+			final int k = counts.length;
+			final double intra = counts[own] > 1 ?
+				sums[offset + own] / (counts[own] - 1) : 1.0;
+			
+			double inter = Double.POSITIVE_INFINITY;
+			for(int c = 0; c < k; c++)
+				if(c != own)
+					inter = FastMath.min(inter, sums[offset + c] / counts[c]);
+			
+			return (inter - intra) / FastMath.max(intra, inter);
+		}
+	}
+}
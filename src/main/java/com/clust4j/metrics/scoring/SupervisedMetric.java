@@ -19,6 +19,8 @@ import java.util.HashSet;
 import java.util.TreeMap;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.util.FastMath;
+import org.apache.commons.math3.util.Precision;
 
 public enum SupervisedMetric implements EvaluationMetric {
 	BINOMIAL_ACCURACY {
@@ -241,9 +243,128 @@ public enum SupervisedMetric implements EvaluationMetric {
 		}
 	},
 	
-	// TODO: more?
+	/**
+	 * The Rand index&mdash;the fraction of record pairs on whose grouping the 
+	 * labelings agree&mdash;adjusted for chance. 1.0 for identical partitions,
+	 * near 0.0 for random labelings.
+	 */
+	ADJUSTED_RAND_INDEX {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			return new ContingencyTable(actual, predicted).adjustedRandIndex();
+		}
+	},
+	
+	/**
+	 * The mutual information of the labelings, normalized by
+	 * the arithmetic mean of their entropies
+	 */
+	NORMALIZED_MUTUAL_INFO {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			final ContingencyTable table = new ContingencyTable(actual, predicted);
+			if(table.isTrivialMatch())
+				return 1.0;
+			
+			final double mi = table.mutualInfo();
+			if(0 == mi)
+				return 0.0;
+			
+			return mi / FastMath.max(meanEntropy(table), Precision.EPSILON);
+		}
+	},
+	
+	/**
+	 * The mutual information of the labelings, adjusted for chance and normalized
+	 * by the arithmetic mean of their entropies. The expected mutual information is
+	 * quadratic in the number of classes, so this is far slower than
+	 * {@link #NORMALIZED_MUTUAL_INFO} when there are many.
+	 */
+	ADJUSTED_MUTUAL_INFO {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			final ContingencyTable table = new ContingencyTable(actual, predicted);
+			if(table.isTrivialMatch())
+				return 1.0;
+			
+			final double mi = table.mutualInfo();
+			final double emi = table.expectedMutualInfo();
+			
+			double denominator = meanEntropy(table) - emi;
+			denominator = denominator < 0 ? 
+				FastMath.min(denominator, -Precision.EPSILON) : 
+					FastMath.max(denominator, Precision.EPSILON);
+			
+			return (mi - emi) / denominator;
+		}
+	},
+	
+	/**
+	 * Whether each predicted class contains only members of a single actual class
+	 */
+	HOMOGENEITY {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			return homogeneityCompletenessV(actual, predicted)[0];
+		}
+	},
+	
+	/**
+	 * Whether all members of each actual class are in the same predicted class
+	 */
+	COMPLETENESS {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			return homogeneityCompletenessV(actual, predicted)[1];
+		}
+	},
+	
+	/**
+	 * The harmonic mean of the {@link #HOMOGENEITY} and {@link #COMPLETENESS}
+	 */
+	V_MEASURE {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			return homogeneityCompletenessV(actual, predicted)[2];
+		}
+	},
+	
+	/**
+	 * The geometric mean of the pairwise precision and recall, i.e., of the
+	 * fractions of same-class record pairs in one labeling that share
+	 * a class in the other
+	 */
+	FOWLKES_MALLOWS {
+		@Override
+		public double evaluate(final int[] actual, final int[] predicted) {
+			return new ContingencyTable(actual, predicted).fowlkesMallows();
+		}
+	},
 	;
 	
+	private static double meanEntropy(ContingencyTable table) {
+		return (table.rowEntropy() + table.colEntropy()) / 2.0;
+	}
+	
+	/**
+	 * @return the homogeneity, completeness and V-measure
+	 */
+	static double[] homogeneityCompletenessV(final int[] actual, final int[] predicted) {
+		final ContingencyTable table = new ContingencyTable(actual, predicted);
+		if(0 == table.n)
+			return new double[]{1.0, 1.0, 1.0};
+		
+		final double hRows = table.rowEntropy(), hCols = table.colEntropy();
+		final double mi = table.mutualInfo();
+		
+		final double homogeneity = 0 == hRows ? 1.0 : mi / hRows;
+		final double completeness = 0 == hCols ? 1.0 : mi / hCols;
+		final double v = 0 == homogeneity + completeness ? 0.0 :
+			2.0 * homogeneity * completeness / (homogeneity + completeness);
+		
+		return new double[]{homogeneity, completeness, v};
+	}
+	
 	private static void checkDims(int[] a, int[] b) {
 		if(a.length != b.length) // Allow empty; so we don't use VecUtils
 			throw new DimensionMismatchException(a.length, b.length);
@@ -15,151 +15,108 @@
  *******************************************************************************/
 package com.clust4j.metrics.scoring;
 
-import java.util.ArrayList;
-import java.util.TreeMap;
-
 import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.util.FastMath;
 
+import com.clust4j.GlobalState;
 import com.clust4j.algo.AbstractClusterer;
-import com.clust4j.algo.LabelEncoder;
 import com.clust4j.metrics.pairwise.Distance;
-import com.clust4j.metrics.pairwise.DistanceMetric;
-import com.clust4j.metrics.pairwise.Pairwise;
-import com.clust4j.utils.MatUtils;
-import com.clust4j.utils.VecUtils;
 
 public enum UnsupervisedMetric implements EvaluationMetric {
 	SILHOUETTE {
 		@Override
-		public double evaluate(RealMatrix data, final int[] labels) {
-
-			double[][] X = data.getData();
-			DistanceMetric metric = Distance.EUCLIDEAN;
-			
-			final int m = data.getRowDimension();
-			if(labels.length != m)
-				throw new DimensionMismatchException(m, labels.length);
-			
-			
-			LabelEncoder encoder = null; 
-			
-			// this method is undefined if numClasses is < 2 or >= m
-			try{
-				encoder = new LabelEncoder(labels).fit();
-			} catch(IllegalArgumentException iae) {
-				/*
-				model.warn("Silhouette score is undefined "
-					+ "for < 2 classes or >= m (" + m + "). "
-					+ "Try adjusting parameters within the model "
-					+ "to alter the number of clusters found");
-				*/
-				
-				return Double.NaN;
-			}
-			
-			
-			
-			final int[] encoded    = encoder.getEncodedLabels();
-			final int[] uniqueLabs = encoder.getClasses();
-			
-			
-			double[][] distMatrix = Pairwise.getDistance(X, metric, false, false);
-			double[] intraDists   = VecUtils.rep(1.0, m);
-			double[] interDists   = VecUtils.rep(Double.POSITIVE_INFINITY, m);
-			
-			Integer[] maskIdcs, otherIdxMask;
-			double[][] currDists;
-			
-			
-			// To avoid numerous passes on the order of M
-			// to get a mask for labels, do it once...
-			final int[] uniqueEncoded = encoder.transform(uniqueLabs);
-			TreeMap<Integer, Integer[]> labToIdcs = new TreeMap<>();
-			for(int label: uniqueEncoded) {
-				ArrayList<Integer> ref = new ArrayList<>();
-				
-				for(int i = 0; i < m; i++) {
-					if(encoded[i] == label)
-						ref.add(i);
-				}
-				
-				labToIdcs.put(label, ref.toArray(new Integer[ref.size()]));
-			}
-			
-			
-			for(int label: uniqueEncoded) {
-				
-				// Mask of idcs for label
-				maskIdcs = labToIdcs.get(label);
-				currDists = MatUtils.getRows(distMatrix, maskIdcs);
-				
-
-				int numCurrent = maskIdcs.length - 1;
-				if(numCurrent != 0) { // i.e., if this isn't the only label for this class
-					
-					// Get the row sums of all the columns included in the maskIdcs
-					for(int idx: maskIdcs) {
-						
-						// Easy way, but uses too many passes on order of N or M:
-						double colSum = 0;
-						for(int j = 0; j < currDists.length; j++)
-							colSum += currDists[j][idx];
-						intraDists[idx] = colSum / numCurrent;
-					}
-				} // if it does, we need to update inter anyways:
-				
-				// Look at other labels, see how close other clusters are
-				for(int other: uniqueEncoded) {
-					if(other == label)
-						continue;
-					
-					else {
-						otherIdxMask = labToIdcs.get(other);
-						
-						
-						/* Get row means. Same as:
-						double[] otherDists = MatUtils.rowMeans(
-							MatUtils.getColumns(currDists, otherIdxMask));*/
-						
-						final int maskCt = otherIdxMask.length;
-						double[] otherDists = new double[currDists.length];
-						for(int h = 0; h < otherDists.length; h++) {
-							for(int c= 0; c < maskCt; c++) {
-								otherDists[h] += currDists[h][otherIdxMask[c]];
-								if(c == maskCt - 1)
-									otherDists[h] /= (double)maskCt;
-							}
-						}
-						
-						
-						int k = 0;
-						for(int idx: maskIdcs)
-							interDists[idx] = FastMath.min(otherDists[k++], 
-								interDists[idx]); 
-						
-					}
-				}
-			}
-
-			
-			// Get difference in distances
-			double[] sil = new double[intraDists.length];
-			for(int i = 0; i < sil.length; i++)
-				sil[i] = (interDists[i] - intraDists[i]) /
-					FastMath.max(intraDists[i], interDists[i]);
-			
-			return VecUtils.mean(sil);
+		double score(AbstractClusterer model, double[][] X, int[] labels) {
+			return SilhouetteScore.score(X, labels, Distance.EUCLIDEAN);
 		}
-
+	},
+	
+	/**
+	 * The ratio of the between-cluster to the within-cluster dispersion, normalized
+	 * by their degrees of freedom. Higher is better. Computed in linear time.
+	 */
+	CALINSKI_HARABASZ {
+		@Override
+		double score(AbstractClusterer model, double[][] X, int[] labels) {
+			final CentroidScoring.Clustering clustering = CentroidScoring.fromModel(model, X, labels, parallel(model));
+			return null == clustering ? Double.NaN : CentroidScoring.calinskiHarabasz(clustering);
+		}
+	},
+	
+	/**
+	 * The mean, over the clusters, of the worst ratio of two clusters' combined
+	 * scatter to the distance between their centers. Lower is better. Computed in linear time.
+	 */
+	DAVIES_BOULDIN {
 		@Override
-		public double evaluate(AbstractClusterer model, final int[] labels) {
-			return evaluate(model.getData(), labels);
+		double score(AbstractClusterer model, double[][] X, int[] labels) {
+			final CentroidScoring.Clustering clustering = CentroidScoring.fromModel(model, X, labels, parallel(model));
+			return null == clustering ? Double.NaN : CentroidScoring.daviesBouldin(clustering);
+		}
+	},
+	
+	/**
+	 * The silhouette score measured against the cluster centers rather than
+	 * every other row. Computed in linear time.
+	 */
+	SIMPLIFIED_SILHOUETTE {
+		@Override
+		double score(AbstractClusterer model, double[][] X, int[] labels) {
+			final CentroidScoring.Clustering clustering = CentroidScoring.fromModel(model, X, labels, parallel(model));
+			return null == clustering ? Double.NaN : CentroidScoring.simplifiedSilhouette(clustering);
 		}
 	},
 	;
 	
-	public abstract double evaluate(AbstractClusterer model, int[] labels);
-	public abstract double evaluate(RealMatrix mat, int[] labels);
+	/**
+	 * Evaluate the labels of the model. The centroid based metrics measure against
+	 * the cluster centers: if the model is a {@link com.clust4j.algo.CentroidLearner}
+	 * whose centroids the labels index, its centroids are the centers; otherwise
+	 * the cluster means are.
+	 * @throws DimensionMismatchException if the number of labels does not match the number of rows
+	 * @return the score, or NaN for fewer than 2 or as many classes as rows
+	 */
+	public double evaluate(AbstractClusterer model, int[] labels) {
+		final double[][] X = data(model.getData());
+		checkDims(X.length, labels);
+		return score(model, X, labels);
+	}
+	
+	/**
+	 * Evaluate the labels. The centroid based metrics measure against the means of the clusters.
+	 * @throws DimensionMismatchException if the number of labels does not match the number of rows
+	 * @return the score, or NaN for fewer than 2 or as many classes as rows
+	 */
+	public double evaluate(RealMatrix mat, int[] labels) {
+		checkDims(mat.getRowDimension(), labels);
+		return score(null, mat.getData(), labels);
+	}
+	
+	
+	/**
+	 * @param model - the model whose labels are scored, or null if scoring a matrix
+	 * @param X - the data, whose rows match the labels
+	 * @param labels
+	 * @return the score, or NaN for fewer than 2 or as many classes as rows
+	 */
+	abstract double score(AbstractClusterer model, double[][] X, int[] labels);
+	
+	/** 
+	 * Whether the centroid based metrics may run in parallel: as the model does,
+	 * or as parallelism is globally allowed when scoring a matrix
+	 */
+	private static boolean parallel(AbstractClusterer model) {
+		return null != model ? model.getParallel() : GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+	}
+	
+	/** The data, without a second copy if the matrix is already one */
+	private static double[][] data(RealMatrix mat) {
+		return mat instanceof Array2DRowRealMatrix ? 
+			((Array2DRowRealMatrix)mat).getDataRef() : mat.getData();
+	}
+	
+	private static void checkDims(int m, int[] labels) {
+		if(labels.length != m)
+			throw new DimensionMismatchException(m, labels.length);
+	}
 }
@@ -45,6 +45,7 @@ import com.clust4j.algo.RadiusNeighborsTests;
 import com.clust4j.algo.pipeline.PipelineTest;
 import com.clust4j.algo.preprocess.ImputationTests;
 import com.clust4j.algo.preprocess.PreProcessorTests;
+import com.clust4j.data.BinaryDataSetTests;
 import com.clust4j.data.BufferedMatrixReaderTests;
 import com.clust4j.data.DataSet;
 import com.clust4j.data.ExampleDataSets;
@@ -74,6 +75,7 @@ import com.clust4j.utils.parallel.ParallelTests;
 @Suite.SuiteClasses({
 	AffinityPropagationTests.class,
 	BootstrapTest.class,
+	BinaryDataSetTests.class,
 	BoruvkaTests.class,
 	BufferedMatrixReaderTests.class,
 	ClustTests.class,
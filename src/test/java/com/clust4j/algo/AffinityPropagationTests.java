@@ -23,6 +23,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.Precision;
@@ -214,6 +215,74 @@ public class AffinityPropagationTests implements ClusterTest, ClassifierTest, Co
 		assertTrue(Precision.equals(ap.indexAffinityScore(expected), 1.0, 0.1));
 	}
 	
+	@Test
+	public void testSimilarityMedian() {
+		final Random rand = new Random(42);
+		
+		for(int m = 1; m <= 40; m++) {
+			final double[][] S = new double[m][m];
+			for(int i = 0; i < m; i++) {
+				for(int j = i; j < m; j++) {
+					// plenty of ties, and zeros of both signs
+					S[i][j] = S[j][i] = rand.nextInt(4) == 0 ? -0.0 : -rand.nextInt(6) * 1.5;
+				}
+			}
+			
+			assertEquals(VecUtils.median(MatUtils.flatten(S)), 
+				AffinityPropagation.similarityMedian(S), 0.0);
+		}
+		
+		final double[][] S = getRandom(75, 75).getData();
+		for(int i = 0; i < S.length; i++)
+			for(int j = 0; j < i; j++)
+				S[i][j] = S[j][i];
+		assertEquals(VecUtils.median(MatUtils.flatten(S)), 
+			AffinityPropagation.similarityMedian(S), 0.0);
+	}
+	
+	@Test
+	public void testParallelMessagePassing() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final Array2DRowRealMatrix X = getRandom(250, 3); // several default chunks
+		
+		final AffinityPropagation serial = new AffinityPropagation(X, 
+			new AffinityPropagationParameters().setSeed(new Random(42))).fit();
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			
+			final AffinityPropagation parallel = new AffinityPropagation(X, 
+				new AffinityPropagationParameters()
+					.setForceParallel(true)
+					.setSeed(new Random(42))).fit();
+			
+			assertTrue(VecUtils.equalsExactly(serial.getLabels(), parallel.getLabels()));
+			assertTrue(MatUtils.equalsExactly(serial.getAvailabilityMatrix(), parallel.getAvailabilityMatrix()));
+			assertTrue(MatUtils.equalsExactly(serial.getResponsibilityMatrix(), parallel.getResponsibilityMatrix()));
+			assertEquals(serial.itersElapsed(), parallel.itersElapsed());
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	@Test
+	public void testRangeTaskCoversEachRowOnce() {
+		final int n = 100;
+		final AtomicIntegerArray visits = new AtomicIntegerArray(n);
+		
+		AffinityPropagation.RangeTask.run(n, true, 8, new AffinityPropagation.RangePass() {
+			@Override
+			public void computeRange(int lo, int hi) {
+				assertTrue(hi - lo <= 8);
+				for(int i = lo; i < hi; i++)
+					visits.incrementAndGet(i);
+			}
+		});
+		
+		for(int i = 0; i < n; i++)
+			assertEquals(1, visits.get(i));
+	}
+	
 	@Test
 	public void testSimMatFormulation() {
 		double[][] X = MatUtils.reshape(VecUtils.asDouble(VecUtils.arange(9)), 3, 3);
@@ -264,33 +333,11 @@ public class AffinityPropagationTests implements ClusterTest, ClassifierTest, Co
 		final int m = S_noise.length;
 		double[][] A = new double[m][m];
 		double[][] R = new double[m][m];
-		double[][] tmp = new double[m][m];
-		int[] I = new int[m];
-		double[] Y = new double[m];
-		double[] Y2 = new double[m];
 		
 		// Performs the work IN PLACE
-		AffinityPropagation.affinityPiece1(A, S_noise, tmp, I, Y, Y2);
+		AffinityPropagation.updateResponsibilities(A, S_noise, R, 0.5, false);
 		
 		assertTrue(MatUtils.equalsExactly(A, MatUtils.rep(0.0, m, m)));
-		assertTrue(MatUtils.equalsExactly(R, MatUtils.rep(0.0, m, m)));
-		assertTrue(VecUtils.equalsExactly(I, new int[]{1,0,3,2}));
-		assertTrue(VecUtils.equalsWithTolerance(Y, new double[]{-0.1, -0.1 , -42.03, -42.03}, 1e-12));
-		assertTrue(VecUtils.equalsWithTolerance(Y2, new double[]{-888.345, -888.345, -888.345, -888.345}, 1e-12));
-
-		assertTrue(MatUtils.equalsWithTolerance(tmp, 
-			new double[][]{
-				new double[]{-8.88345000e+02, Double.NEGATIVE_INFINITY, -1.73466000e+03, -1.94721000e+03},
-				new double[]{Double.NEGATIVE_INFINITY, -8.88345000e+02, -1.73932000e+03, -1.95249000e+03},
-				new double[]{-1.73466000e+03, -1.73932000e+03, -8.88345000e+02, Double.NEGATIVE_INFINITY},
-				new double[]{-1.94721000e+03, -1.95249000e+03, Double.NEGATIVE_INFINITY, -8.88345000e+02}
-			}, 1e-8));
-		
-		
-		// Performs the work IN PLACE
-		double[] colSums = new double[m];
-		AffinityPropagation.affinityPiece2(colSums, tmp, I, S_noise, R, Y, Y2, 0.5);
-		
 		assertTrue(MatUtils.equalsWithTolerance(R, new double[][]{
 			new double[]{-444.1225,  444.1225, -867.28  , -973.555 },
 			new double[]{ 444.1225, -444.1225, -869.61  , -976.195 },
@@ -298,17 +345,16 @@ public class AffinityPropagationTests implements ClusterTest, ClassifierTest, Co
 			new double[]{-952.59  , -955.23  ,  423.1575, -423.1575}
 		}, 1e-12));
 		
-		assertTrue(MatUtils.equalsWithTolerance(tmp, new double[][]{
-			new double[]{-444.1225,  444.1225,    0.    ,    0.    },
-			new double[]{ 444.1225, -444.1225,    0.    ,    0.    },
-			new double[]{   0.    ,    0.    , -423.1575,  423.1575},
-			new double[]{   0.    ,    0.    ,  423.1575, -423.1575}
-		}, 1e-12));
+		
+		// Performs the work IN PLACE
+		double[] colSums = new double[m];
+		AffinityPropagation.availabilityColumnSums(R, colSums, false);
+		assertTrue(VecUtils.equalsWithTolerance(colSums, new double[m], 1e-12));
 		
 		
 		// Performs the work IN PLACE
 		double[] mask = new double[m];
-		AffinityPropagation.affinityPiece3(tmp, colSums, A, R, mask, 0.5);
+		AffinityPropagation.updateAvailabilities(A, R, colSums, mask, 0.5, false);
 		
 		assertTrue(MatUtils.equalsWithTolerance(R, new double[][]{
 			new double[]{-444.1225,  444.1225, -867.28  , -973.555 },
@@ -324,12 +370,7 @@ public class AffinityPropagationTests implements ClusterTest, ClassifierTest, Co
 			new double[]{-8.52651283e-14,   0.00000000e+00,  -2.11578750e+02,  2.11578750e+02}
 		}, 1e-12));
 		
-		assertTrue(MatUtils.equalsWithTolerance(tmp, new double[][]{
-			new double[]{-2.22061250e+02,   2.22061250e+02,   2.84217094e-14,  0.00000000e+00},
-			new double[]{ 2.22061250e+02,  -2.22061250e+02,   2.84217094e-14,  0.00000000e+00},
-			new double[]{ 8.52651283e-14,   0.00000000e+00,  -2.11578750e+02,  2.11578750e+02},
-			new double[]{ 8.52651283e-14,   0.00000000e+00,   2.11578750e+02, -2.11578750e+02}
-		}, 1e-12));
+		assertTrue(VecUtils.equalsExactly(mask, new double[]{0.0, 0.0, 0.0, 0.0}));
 	}
 	
 	/**
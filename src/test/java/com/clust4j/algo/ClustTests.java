@@ -18,12 +18,15 @@ package com.clust4j.algo;
 import static org.junit.Assert.*;
 import static com.clust4j.TestSuite.getRandom;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.math3.linear.AbstractRealMatrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.BlockRealMatrix;
 import org.junit.Test;
 
+import com.clust4j.GlobalState;
 import com.clust4j.TestSuite;
 import com.clust4j.algo.BaseClustererParameters;
 import com.clust4j.algo.DBSCAN;
@@ -33,7 +36,9 @@ import com.clust4j.except.NaNException;
 import com.clust4j.log.Log.Tag.Algo;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 import com.clust4j.metrics.pairwise.Similarity;
+import com.clust4j.utils.MatUtils;
 import com.clust4j.utils.MatrixFormatter;
+import com.clust4j.utils.VecUtils;
 
 public class ClustTests {
 	
@@ -153,6 +158,7 @@ public class ClustTests {
 			@Override public BaseClustererParameters setVerbose(boolean b) { return this; }
 			@Override public BaseClustererParameters setMetric(GeometricallySeparable dist) { return this; }
 			@Override public BaseClustererParameters setForceParallel(boolean b) { return this; }
+			@Override public BaseClustererParameters setCopyData(boolean b) { return this; }
 		};
 		
 		AbstractClusterer a = new AbstractClusterer(TestSuite.IRIS_DATASET.getData(), planner){
@@ -182,4 +188,98 @@ public class ClustTests {
 		assertFalse(a.equals(b));
 		assertFalse(a.equals(new Object()));
 	}
+	
+	@Test
+	public void testInitDataCopies() {
+		final double[][] d = new double[][]{
+			new double[]{1.0, 2.0},
+			new double[]{3.0, 4.0},
+			new double[]{5.0, 6.0}
+		};
+		
+		// both the direct and the non-Array2DRowRealMatrix paths
+		for(AbstractRealMatrix mat: new AbstractRealMatrix[]{
+				new Array2DRowRealMatrix(d, false), new BlockRealMatrix(d)}) {
+			KMeans model = new KMeans(mat, 1);
+			assertTrue(MatUtils.equalsExactly(d, model.data.getDataRef()));
+			assertFalse(d == model.data.getDataRef());
+			assertFalse(d[0] == model.data.getDataRef()[0]);
+			assertFalse(model.singular_value);
+		}
+	}
+	
+	@Test
+	public void testInitDataSingular() {
+		assertTrue(new KMeans(new Array2DRowRealMatrix(MatUtils.rep(3.0, 4, 3), false), 1).singular_value);
+		
+		// -0.0 and 0.0 are unique, as they are to a HashSet<Double>
+		final double[][] d = MatUtils.rep(0.0, 4, 3);
+		d[3][2] = -0.0;
+		assertFalse(new KMeans(new Array2DRowRealMatrix(d, false), 1).singular_value);
+		assertTrue(AbstractClusterer.allEqual(MatUtils.rep(0.0, 4, 3)));
+		assertFalse(AbstractClusterer.allEqual(d));
+	}
+	
+	@Test
+	public void testParallelValidation() {
+		final double[][] d = getRandom(2500, 5).getData();
+		final AbstractClusterer.ColumnSummary serial = 
+			new AbstractClusterer.ColumnSummary(5).scan(d, null, 0, d.length);
+		
+		final double[][] copy = new double[d.length][];
+		final AbstractClusterer.ColumnSummary par = 
+			AbstractClusterer.ParallelValidationTask.doAll(d, copy);
+		
+		assertTrue(MatUtils.equalsExactly(d, copy));
+		assertTrue(Arrays.equals(serial.maxes, par.maxes));
+		assertTrue(Arrays.equals(serial.mins, par.mins));
+		assertTrue(VecUtils.equalsWithTolerance(serial.sum, par.sum, 1e-8));
+		assertTrue(VecUtils.equalsWithTolerance(serial.sumSq, par.sumSq, 1e-8));
+		assertFalse(par.nan);
+		assertFalse(par.isSingular());
+		
+		// singular only if every chunk agrees
+		final double[][] s = MatUtils.rep(1.5, 2500, 2);
+		assertTrue(AbstractClusterer.ParallelValidationTask.doAll(s, null).isSingular());
+		s[2499][1] = 2.0;
+		assertFalse(AbstractClusterer.ParallelValidationTask.doAll(s, null).isSingular());
+		s[2499][1] = Double.NaN;
+		assertTrue(AbstractClusterer.ParallelValidationTask.doAll(s, null).nan);
+	}
+	
+	@Test
+	public void testParallelInitDataNaN() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final double[][] d = getRandom(100000, 2).getData();
+		d[77777][1] = Double.NaN;
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			new KMeans(new Array2DRowRealMatrix(d, false), 
+				new KMeansParameters(2).setForceParallel(true));
+			fail("expected NaNException");
+		} catch(NaNException e) {
+			// expected
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	@Test
+	public void testZeroCopy() {
+		final Array2DRowRealMatrix mat = new Array2DRowRealMatrix(MatUtils.rep(2.0, 5, 2), false);
+		final KMeansParameters planner = new KMeansParameters(1).setCopyData(false);
+		assertFalse(planner.getCopyData());
+		assertFalse(planner.copy().getCopyData());
+		assertTrue(new KMeansParameters(1).getCopyData());
+		
+		KMeans model = new KMeans(mat, planner);
+		assertTrue(mat.getDataRef() == model.data.getDataRef());
+		assertTrue(model.singular_value);
+		
+		// falls back to a copy for other matrix types
+		model = new KMeans(new BlockRealMatrix(mat.getData()), planner);
+		assertTrue(MatUtils.equalsExactly(mat.getDataRef(), model.data.getDataRef()));
+		assertTrue(model.singular_value);
+	}
 }
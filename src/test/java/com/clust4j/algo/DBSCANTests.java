@@ -21,6 +21,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
@@ -30,6 +33,7 @@ import static com.clust4j.TestSuite.getRandom;
 
 import org.junit.Test;
 
+import com.clust4j.GlobalState;
 import com.clust4j.TestSuite;
 import com.clust4j.algo.DBSCANParameters;
 import com.clust4j.algo.preprocess.StandardScaler;
@@ -376,4 +380,143 @@ public class DBSCANTests implements ClusterTest, ClassifierTest, BaseModelTest {
 			assertTrue(a);
 		}
 	}
+	
+	/**
+	 * The classic depth-first expansion, seeded in index order
+	 */
+	static int[] depthFirstLabels(int[][] neighborhoods, boolean[] core) {
+		final int m = core.length;
+		final int[] labels = VecUtils.repInt(DBSCAN.NOISE_CLASS, m);
+		final ArrayDeque<Integer> stack = new ArrayDeque<>();
+		
+		int nextLabel = 0;
+		for(int seed = 0; seed < m; seed++) {
+			if(labels[seed] != DBSCAN.NOISE_CLASS || !core[seed])
+				continue;
+			
+			stack.push(seed);
+			while(!stack.isEmpty()) {
+				int i = stack.pop();
+				if(labels[i] != DBSCAN.NOISE_CLASS)
+					continue;
+				
+				labels[i] = nextLabel;
+				if(core[i])
+					for(int v: neighborhoods[i])
+						if(labels[v] == DBSCAN.NOISE_CLASS)
+							stack.push(v);
+			}
+			
+			nextLabel++;
+		}
+		
+		return labels;
+	}
+	
+	@Test
+	public void testUnionFindMatchesDepthFirst() {
+		final double[][] X = MatUtils.randomGaussian(3000, 2, new Random(42));
+		final int m = X.length, minPts = 5;
+		final double eps = 0.1;
+		
+		final int[][] neighborhoods = new int[m][];
+		final boolean[] core = new boolean[m];
+		for(int i = 0; i < m; i++) {
+			int[] nbrs = new int[m];
+			int n = 0;
+			for(int j = 0; j < m; j++)
+				if(i != j && Distance.EUCLIDEAN.getDistance(X[i], X[j]) <= eps)
+					nbrs[n++] = j;
+			
+			core[i] = n >= minPts;
+			neighborhoods[i] = Arrays.copyOf(nbrs, core[i] ? n : 0);
+		}
+		
+		final int[] expected = depthFirstLabels(neighborhoods, core);
+		int maxLabel = DBSCAN.NOISE_CLASS;
+		for(int lab: expected)
+			maxLabel = Math.max(maxLabel, lab);
+		assertTrue(maxLabel > 0); // want more than one cluster
+		
+		for(boolean parallel: new boolean[]{false, true}) {
+			final int[] labels = new int[m];
+			final int k = new DBSCAN.UnionFindLabeler(neighborhoods, core, 16).label(labels, parallel);
+			
+			assertTrue(VecUtils.equalsExactly(expected, labels));
+			assertEquals(maxLabel + 1, k);
+		}
+	}
+	
+	@Test
+	public void testParallelFitMatchesSerial() {
+		final Array2DRowRealMatrix X = new Array2DRowRealMatrix(
+			MatUtils.randomGaussian(5000, 3, new Random(7)), false);
+		final int[] serial = new DBSCANParameters(0.25).setVerbose(false).fitNewModel(X).getLabels();
+		
+		// 5000 points exceed the default chunk size, so the labeling splits
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			
+			final int[] parallel = new DBSCANParameters(0.25).setForceParallel(true)
+				.setVerbose(false).fitNewModel(X).getLabels();
+			assertTrue(VecUtils.equalsExactly(serial, parallel));
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	static int[] fitLabels(Array2DRowRealMatrix X, double eps, int minPts, DBSCAN.DBSCANAlgorithm algo) {
+		DBSCAN model = new DBSCANParameters(eps).setMinPts(minPts)
+			.setAlgorithm(algo).setVerbose(false).fitNewModel(X);
+		assertEquals(algo, model.getAlgorithm());
+		return model.getLabels();
+	}
+	
+	@Test
+	public void testGridMatchesTree() {
+		final Random seed = new Random(13);
+		
+		for(int d = 1; d <= DBSCANGrid.MAX_DIMS; d++) {
+			final double[][] data = MatUtils.randomGaussian(2000, d, seed);
+			
+			// snap some of the points to a lattice to create duplicates and exact ties
+			for(int i = 0; i < data.length; i += 3)
+				for(int j = 0; j < d; j++)
+					data[i][j] = Math.round(data[i][j] * 10) / 10.0;
+			
+			final Array2DRowRealMatrix X = new Array2DRowRealMatrix(data, false);
+			for(double eps: new double[]{0.1, 0.3, 1.0}) {
+				for(int minPts: new int[]{1, 5, 20}) {
+					final int[] tree = fitLabels(X, eps, minPts, DBSCAN.DBSCANAlgorithm.TREE);
+					final int[] grid = fitLabels(X, eps, minPts, DBSCAN.DBSCANAlgorithm.GRID);
+					assertTrue("d=" + d + ", eps=" + eps + ", minPts=" + minPts, 
+						VecUtils.equalsExactly(tree, grid));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testGridSelection() {
+		final Array2DRowRealMatrix low = new Array2DRowRealMatrix(MatUtils.randomGaussian(50, 3, new Random(1)), false);
+		final Array2DRowRealMatrix high = new Array2DRowRealMatrix(MatUtils.randomGaussian(50, 5, new Random(1)), false);
+		
+		assertEquals(DBSCAN.DBSCANAlgorithm.GRID, new DBSCANParameters().fitNewModel(low).getAlgorithm());
+		assertEquals(DBSCAN.DBSCANAlgorithm.TREE, new DBSCANParameters().fitNewModel(high).getAlgorithm());
+		assertEquals(DBSCAN.DBSCANAlgorithm.TREE, new DBSCANParameters()
+			.setMetric(Distance.MANHATTAN).fitNewModel(low).getAlgorithm());
+		
+		// falls back when forced
+		assertEquals(DBSCAN.DBSCANAlgorithm.TREE, new DBSCANParameters()
+			.setAlgorithm(DBSCAN.DBSCANAlgorithm.GRID).fitNewModel(high).getAlgorithm());
+	}
+	
+	@Test
+	public void testGridNeighborOffsets() {
+		// a 5x5 block in 2D and 5x5x5 in 3D, less the center cell
+		assertEquals(24, DBSCANGrid.neighborOffsets(2).length);
+		assertEquals(124, DBSCANGrid.neighborOffsets(3).length);
+		assertEquals(4, DBSCANGrid.neighborOffsets(1).length);
+	}
 }
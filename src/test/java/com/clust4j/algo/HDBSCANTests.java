@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
@@ -50,6 +51,7 @@ import com.clust4j.kernel.GaussianKernel;
 import com.clust4j.kernel.Kernel;
 import com.clust4j.kernel.KernelTestCases;
 import com.clust4j.metrics.pairwise.Distance;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.DistanceMetric;
 import com.clust4j.metrics.pairwise.MinkowskiDistance;
 import com.clust4j.metrics.pairwise.Pairwise;
@@ -435,33 +437,74 @@ public class HDBSCANTests implements ClusterTest, ClassifierTest, BaseModelTest
 		System.out.println();
 	}
 	
+	/** A condensed tree of 10 points: the root splits into 11 and 12, and 11 into 13 and 14 */
+	static CondensedTree smallCondensedTree() {
+		ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> tup = new ArrayList<>();
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(10,6,0.5,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(10,7,0.5,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(10,8,0.5,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(10,9,0.5,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(10,11,1.0,4));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(10,12,1.0,2));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(11,13,2.0,2));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(11,14,2.0,2));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(12,0,1.5,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(12,1,1.5,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(13,2,3.0,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(13,3,3.0,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(14,4,3.0,1));
+		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(14,5,3.0,1));
+		return CondensedTree.fromList(tup);
+	}
+	
 	@Test
-	public void testDescKeySet() {
-		TreeMap<Integer, Double> stability = new TreeMap<>();
-		stability.put(1, 456.0);
-		stability.put(9, 23.0);
-		stability.put(-5, 89.0);
-			
-		ArrayList<Integer> nodes = HDBSCAN.GetLabelUtils.descSortedKeySet(stability);
-		assertTrue(nodes.size() == 2);
-		assertTrue(nodes.get(0) == 9);
-		assertTrue(nodes.get(1) == 1);
-		// It should trim the last one
+	public void testCondensedTreeSelectClusters() {
+		CondensedTree tree = smallCondensedTree();
+		assertTrue(tree.root == 10);
+		assertTrue(tree.numNodes == 5);
+		
+		// the children outweigh 11, so they're selected in its place
+		double[] stability = new double[]{0.0, 1.0, 2.0, 0.8, 0.7};
+		int[] clusters = tree.selectClusters(stability);
+		assertTrue(VecUtils.equalsExactly(clusters, new int[]{12,13,14}));
+		assertEquals(1.5, stability[1], 1e-12);
+		assertTrue(VecUtils.equalsExactly(tree.labels(clusters), 
+			new int[]{0,0,1,1,2,2,-1,-1,-1,-1}));
+		
+		// now 11 outweighs its children
+		stability = new double[]{0.0, 5.0, 2.0, 0.8, 0.7};
+		clusters = tree.selectClusters(stability);
+		assertTrue(VecUtils.equalsExactly(clusters, new int[]{11,12}));
+		assertTrue(VecUtils.equalsExactly(tree.labels(clusters), 
+			new int[]{1,1,0,0,0,0,-1,-1,-1,-1}));
+		assertTrue(VecUtils.equalsExactly(tree.owners(clusters), 
+			new int[]{-1,11,12,11,11}));
 	}
 	
 	@Test
-	public void testSizeOverOne() {
-		ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> tup = new ArrayList<>();
-		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(1,2,1.0,1));
-		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(1,1,1.0,2));
-		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(1,1,1.0,2));
-		tup.add(new CompQuadTup<Integer, Integer, Double, Integer>(1,1,1.0,2));
-		
-		EntryPair<ArrayList<double[]>, Integer> entry = 
-			HDBSCAN.GetLabelUtils.childSizeGtOneAndMaxChild(tup);
-		
-		assertTrue(entry.getKey().size() == 3);
-		assertTrue(entry.getValue() == 3);
+	public void testCondensedTreeRoundTrip() {
+		final double[][] dists = Pairwise.getDistance(iris, Distance.EUCLIDEAN, false, false);
+		final double[][] slt = HDBSCAN.label(MatUtils.sortAscByCol(
+			HDBSCAN.LinkageTreeUtils.minSpanTreeLinkageCore(dists, dists.length), 2));
+		
+		CondensedTree tree = CondensedTree.condense(slt, 5);
+		ArrayList<CompQuadTup<Integer, Integer, Double, Integer>> list = tree.toList();
+		CondensedTree back = CondensedTree.fromList(list);
+		
+		assertTrue(VecUtils.equalsExactly(tree.parent, back.parent));
+		assertTrue(VecUtils.equalsExactly(tree.child, back.child));
+		assertTrue(VecUtils.equalsExactly(tree.size, back.size));
+		assertTrue(VecUtils.equalsExactly(tree.lambda, back.lambda));
+		assertTrue(tree.root == back.root);
+		assertTrue(tree.numNodes == back.numNodes);
+	}
+	
+	@Test
+	public void testEncodeLabels() {
+		int[] labels = new int[]{2,-1,0,2,1,-1,0};
+		int[] counts = HDBSCAN.encodeLabels(labels, 3);
+		assertTrue(VecUtils.equalsExactly(labels, new int[]{0,-1,1,0,2,-1,1}));
+		assertTrue(VecUtils.equalsExactly(counts, new int[]{2,2,1}));
 	}
 	
 	@Test
@@ -1612,19 +1655,123 @@ public class HDBSCANTests implements ClusterTest, ClassifierTest, BaseModelTest
 			assertTrue(a);
 		}
 		
-		/*
-		 * Ensure unsupportedOperation
-		 */
-		newData = new Array2DRowRealMatrix(new double[][]{
-			new double[]{150,150,150,150}
-		}, false);
 		a = false;
 		try {
-			d.predict(newData);
-		} catch(UnsupportedOperationException u) {
+			d.approximatePredict(newData);
+		} catch(DimensionMismatchException dim) {
+			assertEquals(5, dim.getArgument());
+			assertEquals(4, dim.getDimension());
 			a = true;
 		} finally {
 			assertTrue(a);
 		}
+		
+		/*
+		 * A point far from all others is noise
+		 */
+		newData = new Array2DRowRealMatrix(new double[][]{
+			new double[]{150,150,150,150}
+		}, false);
+		EntryPair<int[], double[]> pred = d.approximatePredict(newData);
+		assertEquals(NoiseyClusterer.NOISE_CLASS, pred.getKey()[0]);
+		assertEquals(0.0, pred.getValue()[0], 0.0);
+		assertTrue(VecUtils.equalsExactly(pred.getKey(), d.predict(newData)));
+	}
+	
+	private static double[][] threeBlobs(final int m, final long seed) {
+		final Random rand = new Random(seed);
+		final double[][] X = new double[m][2];
+		for(int i = 0; i < m; i++) {
+			final double shift = 8.0 * (i % 3);
+			X[i][0] = shift + rand.nextGaussian();
+			X[i][1] = shift + rand.nextGaussian();
+		}
+		
+		return X;
+	}
+	
+	@Test
+	public void testApproximatePredictTrainingData() {
+		final Array2DRowRealMatrix X = new Array2DRowRealMatrix(threeBlobs(1500, 3), false);
+		
+		for(HDBSCAN_Algorithm algo: HDBSCAN_Algorithm.values()) {
+			final HDBSCAN model = new HDBSCANParameters(10).setAlgo(algo)
+				.setMinClustSize(50).setVerbose(false).fitNewModel(X);
+			final int[] labels = model.getLabels();
+			final EntryPair<int[], double[]> pred = model.approximatePredict(X);
+			
+			// each training point is predicted into its own cluster
+			assertTrue(VecUtils.equalsExactly(labels, pred.getKey()));
+			
+			// noise has no membership in any cluster
+			for(int i = 0; i < labels.length; i++) {
+				final double prob = pred.getValue()[i];
+				if(NoiseyClusterer.NOISE_CLASS == labels[i])
+					assertTrue(prob == 0.0);
+				else
+					assertTrue(prob > 0.0 && prob <= 1.0);
+			}
+		}
+	}
+	
+	@Test
+	public void testApproximatePredictNewData() {
+		final HDBSCAN model = new HDBSCANParameters(10).setMinClustSize(50)
+			.setVerbose(false).fitNewModel(new Array2DRowRealMatrix(threeBlobs(1500, 3), false));
+		final int[] labels = model.getLabels();
+		
+		// the blob centers fall in the clusters of the training points drawn from them
+		final EntryPair<int[], double[]> pred = model.approximatePredict(new Array2DRowRealMatrix(new double[][]{
+			new double[]{0.0, 0.0}, new double[]{8.0, 8.0}, new double[]{16.0, 16.0}
+		}, false));
+		
+		for(int i = 0; i < 3; i++) {
+			assertEquals(labels[i], pred.getKey()[i]);
+			assertTrue(pred.getValue()[i] > 0.5);
+		}
+	}
+	
+	@Test
+	public void testParallelApproximatePredict() {
+		final HDBSCAN model = new HDBSCANParameters(10).setMinClustSize(50)
+			.setVerbose(false).fitNewModel(new Array2DRowRealMatrix(threeBlobs(1500, 3), false));
+		final double[][] newData = threeBlobs(5000, 4);
+		final EntryPair<int[], double[]> serial = model.approximatePredict(new Array2DRowRealMatrix(newData, false));
+		
+		final EntryPair<int[], double[]> parallel = model.getPredictor().predict(newData, true, 64);
+		
+		assertTrue(VecUtils.equalsExactly(serial.getKey(), parallel.getKey()));
+		assertTrue(VecUtils.equalsExactly(serial.getValue(), parallel.getValue()));
+	}
+	
+	@Test
+	public void testBruteForcePredictMatchesTree() {
+		final HDBSCAN model = new HDBSCANParameters(10).setMinClustSize(50)
+			.setVerbose(false).fitNewModel(new Array2DRowRealMatrix(threeBlobs(900, 5), false));
+		final HDBSCANPredictor tree = model.getPredictor();
+		final double[][] newData = threeBlobs(1000, 6);
+		
+		final HDBSCANPredictor brute = new HDBSCANPredictor(tree, null);
+		
+		final EntryPair<int[], double[]> a = tree.predict(newData, false), b = brute.predict(newData, false);
+		assertTrue(VecUtils.equalsExactly(a.getKey(), b.getKey()));
+		assertTrue(VecUtils.equalsExactly(a.getValue(), b.getValue()));
+	}
+	
+	@Test
+	public void testGenericDistanceStorage() {
+		final Array2DRowRealMatrix X = TestSuite.IRIS_DATASET.getData();
+		final int[] expected = new HDBSCAN(X, new HDBSCANParameters()
+			.setAlgo(HDBSCAN_Algorithm.GENERIC)).fit().getLabels();
+		
+		// the heap-backed generic tree should agree with the tree-based algos
+		assertTrue(VecUtils.equalsExactly(expected, new HDBSCAN(X, 
+			new HDBSCANParameters().setAlgo(HDBSCAN_Algorithm.PRIMS_KDTREE)).fit().getLabels()));
+		
+		HDBSCANParameters planner = new HDBSCANParameters()
+			.setAlgo(HDBSCAN_Algorithm.GENERIC)
+			.setDistanceStorage(DistanceStorage.Type.MAPPED);
+		assertTrue(planner.copy().getDistanceStorage().equals(DistanceStorage.Type.MAPPED));
+		assertTrue(VecUtils.equalsExactly(expected, planner.fitNewModel(X).getLabels()));
 	}
 }
@@ -28,6 +28,7 @@ import static com.clust4j.TestSuite.getRandom;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.util.FastMath;
 import org.junit.Test;
 
 import com.clust4j.TestSuite;
@@ -41,6 +42,7 @@ import com.clust4j.kernel.Kernel;
 import com.clust4j.kernel.KernelTestCases;
 import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.pairwise.DistanceMetric;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.MinkowskiDistance;
 import com.clust4j.utils.MatUtils;
 import com.clust4j.utils.MatrixFormatter;
@@ -423,4 +425,120 @@ public class HierarchicalTests implements ClusterTest, ClassifierTest, BaseModel
 			assertTrue(a);
 		}
 	}
+	
+	/**
+	 * The original linkage, which scans the entire condensed matrix for the 
+	 * global min on each merge. Retained as a reference for the cached row minima.
+	 * @return the full linkage matrix, Z
+	 */
+	public static double[][] naiveLinkage(HierarchicalAgglomerative model) {
+		final int n = model.data.getRowDimension();
+		final HierarchicalAgglomerative.HierarchicalDendrogram tree = model.linkage.buildTree(model);
+		final double[] D = ((DistanceStorage.HeapStorage)new EfficientDistanceMatrix(
+			model.data, tree.dist, true).dists).getDataRef();
+		final double[][] Z = new double[n - 1][4];
+		
+		int i, j, k, x = -1, y = -1, i_start, nx, ny, ni, id_x, id_y, id_i, c_idx;
+		double current_min;
+		
+		int[] id_map = new int[n];
+		for(i = 0; i < n; i++) 
+			id_map[i] = i;
+		
+		for(k = 0; k < n - 1; k++) {
+			current_min = Double.POSITIVE_INFINITY;
+			for(i = 0; i < n - 1; i++) {
+				if(id_map[i] == -1)
+					continue;
+				
+				i_start = (int)EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, i + 1);
+				for(j = 0; j < n - i - 1; j++) {
+					if(D[i_start + j] < current_min) {
+						current_min = D[i_start + j];
+						x = i;
+						y = i + j + 1;
+					}
+				}
+			}
+			
+			id_x = id_map[x];
+			id_y = id_map[y];
+			nx = id_x < n ? 1 : (int)Z[id_x - n][3];
+			ny = id_y < n ? 1 : (int)Z[id_y - n][3];
+			
+			Z[k][0] = FastMath.min(id_x, id_y);
+			Z[k][1] = FastMath.max(id_y, id_x);
+			Z[k][2] = current_min;
+			Z[k][3] = nx + ny;
+			id_map[x] = -1;
+			id_map[y] = n + k;
+			
+			for(i = 0; i < n; i++) {
+				id_i = id_map[i];
+				if(id_i == -1 || id_i == n + k)
+					continue;
+				
+				ni = id_i < n ? 1 : (int)Z[id_i - n][3];
+				c_idx = (int)EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, y);
+				D[c_idx] = tree.getDist(D[(int)EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, x)], 
+					D[c_idx], current_min, nx, ny, ni);
+				
+				if(i < x)
+					D[(int)EfficientDistanceMatrix.getIndexFromFlattenedVec(n, i, x)] = Double.POSITIVE_INFINITY;
+			}
+		}
+		
+		return Z;
+	}
+	
+	/**
+	 * The linkage matrix, Z, using the cached row minima
+	 */
+	public static double[][] linkage(HierarchicalAgglomerative model) {
+		final int n = model.data.getRowDimension();
+		final HierarchicalAgglomerative.HierarchicalDendrogram tree = model.linkage.buildTree(model);
+		final double[][] Z = new double[n - 1][4];
+		
+		tree.link(new EfficientDistanceMatrix(model.data, tree.dist, true), Z, n);
+		return Z;
+	}
+	
+	@Test
+	public void testLinkageMatchesNaive() {
+		// iris has duplicate rows, so this covers ties as well
+		final Array2DRowRealMatrix[] datasets = new Array2DRowRealMatrix[]{
+			data_, matrix, TestSuite.BC_DATASET.getData(),
+			new Array2DRowRealMatrix(MatUtils.rep(-1, 10, 3), false)
+		};
+		
+		for(Array2DRowRealMatrix X: datasets) {
+			for(Linkage linkage: Linkage.values()) {
+				HierarchicalAgglomerative model = new HierarchicalAgglomerative(X,
+					new HierarchicalAgglomerativeParameters(linkage).setVerbose(false));
+				
+				final double[][] expected = naiveLinkage(model), actual = linkage(model);
+				for(int i = 0; i < expected.length; i++)
+					assertTrue(VecUtils.equalsExactly(expected[i], actual[i]));
+			}
+		}
+	}
+	
+	@Test
+	public void testDistanceStorage() {
+		final Array2DRowRealMatrix X = TestSuite.IRIS_DATASET.getData();
+		final int[] expected = new HierarchicalAgglomerative(X, 
+			new HierarchicalAgglomerativeParameters(3)).fit().getLabels();
+		
+		for(DistanceStorage.Type type: DistanceStorage.Type.values()) {
+			HierarchicalAgglomerativeParameters planner = 
+				new HierarchicalAgglomerativeParameters(3).setDistanceStorage(type);
+			assertTrue(planner.copy().getDistanceStorage().equals(type));
+			
+			HierarchicalAgglomerative model = planner.fitNewModel(X);
+			if(type.equals(DistanceStorage.Type.MAPPED))
+				assertTrue(VecUtils.equalsExactly(expected, model.getLabels()));
+			else // float32 can break ties differently
+				assertTrue(model.getLabels().length == expected.length);
+		}
+	}
 }
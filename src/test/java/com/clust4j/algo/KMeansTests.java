@@ -25,6 +25,7 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -707,6 +708,192 @@ public class KMeansTests implements ClassifierTest, ClusterTest, ConvergeableTes
 		assertTrue(new VecUtils.DoubleSeries(new KMeans(data_, 3).getWSS(), Inequality.EQUAL_TO, Double.NaN).all());
 	}
 	
+	@Test
+	public void testMiniBatch() {
+		KMeans model = new KMeansParameters(3)
+			.setAlgorithm(KMeans.KMeansAlgorithm.MINI_BATCH)
+			.setBatchSize(30)
+			.setSeed(new Random(42))
+			.setVerbose(true)
+			.fitNewModel(data_);
+		
+		final int[] labels = model.getLabels();
+		assertTrue(labels.length == data_.getRowDimension());
+		assertTrue(model.getCentroids().size() == model.getK());
+		assertTrue(model.itersElapsed() > 0);
+		assertTrue(Math.abs(model.getTSS() - (model.getBSS() + VecUtils.sum(model.getWSS()))) < 1e-8);
+		
+		// should be nearly as good as the full Lloyd fit on iris
+		final double lloyd_wss = VecUtils.sum(new KMeansParameters(3)
+			.setSeed(new Random(42)).fitNewModel(data_).getWSS());
+		assertTrue(VecUtils.sum(model.getWSS()) < 1.1 * lloyd_wss);
+		
+		// labels must be the nearest-centroid labels of the final centroids
+		final ArrayList<double[]> centroids = model.getCentroids();
+		final double[][] X = data_.getData();
+		for(int i = 0; i < X.length; i++) {
+			int nearest = 0;
+			double min = Double.POSITIVE_INFINITY, d;
+			for(int c = 0; c < centroids.size(); c++) {
+				if((d = Distance.EUCLIDEAN.getPartialDistance(X[i], centroids.get(c))) < min) {
+					min = d;
+					nearest = c;
+				}
+			}
+			
+			assertTrue(labels[i] == nearest);
+		}
+	}
+	
+	@Test
+	public void testMiniBatchMetric() {
+		KMeans model = new KMeansParameters(3)
+			.setAlgorithm(KMeans.KMeansAlgorithm.MINI_BATCH)
+			.setMetric(Distance.MANHATTAN)
+			.setBatchSize(30)
+			.setSeed(new Random(42))
+			.fitNewModel(data_);
+		
+		// labels must be the nearest-centroid labels under the model's metric
+		final int[] labels = model.getLabels();
+		final ArrayList<double[]> centroids = model.getCentroids();
+		final double[][] X = data_.getData();
+		for(int i = 0; i < X.length; i++) {
+			int nearest = 0;
+			double min = Double.POSITIVE_INFINITY, d;
+			for(int c = 0; c < centroids.size(); c++) {
+				if((d = Distance.MANHATTAN.getPartialDistance(X[i], centroids.get(c))) < min) {
+					min = d;
+					nearest = c;
+				}
+			}
+			
+			assertTrue(labels[i] == nearest);
+		}
+	}
+	
+	@Test
+	public void testMiniBatchBatchExceedsRows() {
+		KMeans model = new KMeansParameters(3)
+			.setAlgorithm(KMeans.KMeansAlgorithm.MINI_BATCH)
+			.setBatchSize(1000)
+			.fitNewModel(data_);
+		assertTrue(model.getLabels().length == data_.getRowDimension());
+	}
+	
+	@Test
+	public void testMiniBatchCopy() {
+		KMeansParameters params = new KMeansParameters(3)
+			.setAlgorithm(KMeans.KMeansAlgorithm.MINI_BATCH)
+			.setBatchSize(25)
+			.setReassignmentRatio(0.5)
+			.setMaxNoImprovement(3)
+			.copy();
+		
+		assertTrue(params.getAlgorithm() == KMeans.KMeansAlgorithm.MINI_BATCH);
+		assertTrue(params.getBatchSize() == 25);
+		assertTrue(params.getReassignmentRatio() == 0.5);
+		assertTrue(params.getMaxNoImprovement() == 3);
+		assertTrue(new KMeans(data_, new KMeansParameters()).algo == KMeans.DEF_ALGO);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testMiniBatchBadBatchSize() {
+		new KMeans(data_, new KMeansParameters(3).setBatchSize(0));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testMiniBatchBadReassignmentRatio() {
+		new KMeans(data_, new KMeansParameters(3).setReassignmentRatio(-0.1));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testMiniBatchBadMaxNoImprovement() {
+		new KMeans(data_, new KMeansParameters(3).setMaxNoImprovement(0));
+	}	
+	static void assertSameFit(KMeans a, KMeans b) {
+		assertTrue(VecUtils.equalsExactly(a.getLabels(), b.getLabels()));
+		assertTrue(a.itersElapsed() == b.itersElapsed());
+		assertTrue(VecUtils.equalsExactly(a.getWSS(), b.getWSS()));
+		
+		final ArrayList<double[]> ac = a.getCentroids(), bc = b.getCentroids();
+		assertTrue(ac.size() == bc.size());
+		for(int i = 0; i < ac.size(); i++)
+			assertTrue(VecUtils.equalsExactly(ac.get(i), bc.get(i)));
+	}
+	
+	@Test
+	public void testTriangleInequalityMatchesLloyd() {
+		final Array2DRowRealMatrix random = new Array2DRowRealMatrix(MatUtils.randomGaussian(2000, 3, new Random(7)), false);
+		final Array2DRowRealMatrix[] datasets = new Array2DRowRealMatrix[]{ data_, wine, bc, random };
+		final int[] ks = new int[]{ 3, 5, 25 };
+		
+		for(Array2DRowRealMatrix X: datasets) {
+			for(int k: ks) {
+				KMeans lloyd = new KMeansParameters(k)
+					.setSeed(new Random(42))
+					.setConvergenceCriteria(0)
+					.fitNewModel(X);
+				
+				for(KMeans.KMeansAlgorithm algo: new KMeans.KMeansAlgorithm[]{
+						KMeans.KMeansAlgorithm.ELKAN, KMeans.KMeansAlgorithm.HAMERLY}) {
+					
+					KMeans accel = new KMeansParameters(k)
+						.setSeed(new Random(42))
+						.setConvergenceCriteria(0)
+						.setAlgorithm(algo)
+						.fitNewModel(X);
+					
+					assertTrue(accel.algo == algo);
+					assertSameFit(lloyd, accel);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testTriangleInequalityNonEuclidean() {
+		KMeans model = new KMeans(data_, new KMeansParameters(3)
+			.setMetric(Distance.MANHATTAN)
+			.setAlgorithm(KMeans.KMeansAlgorithm.ELKAN));
+		
+		assertTrue(model.algo == KMeans.KMeansAlgorithm.LLOYD);
+		assertTrue(model.hasWarnings());
+		model.fit();
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		try {
+			/*
+			 * No matter the specs of the system testing this, we
+			 * need to ensure it will be able to force parallelism
+			 */
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+
+			// enough rows for several chunks
+			final Array2DRowRealMatrix X = new Array2DRowRealMatrix(MatUtils.randomGaussian(5000, 3, new Random(3)), false);
+			for(KMeans.KMeansAlgorithm algo: KMeans.KMeansAlgorithm.values()) {
+				KMeans serial = new KMeansParameters(8)
+					.setSeed(new Random(42))
+					.setAlgorithm(algo)
+					.setForceParallel(false)
+					.fitNewModel(X);
+
+				KMeans parallel = new KMeansParameters(8)
+					.setSeed(new Random(42))
+					.setAlgorithm(algo)
+					.setForceParallel(true)
+					.fitNewModel(X);
+
+				assertTrue(parallel.parallel);
+				assertSameFit(serial, parallel);
+			}
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
 	
 	/**
 	 * For testing synchronicity
@@ -24,13 +24,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.FastMath;
 import org.junit.Test;
 
+import com.clust4j.GlobalState;
 import com.clust4j.TestSuite;
+import com.clust4j.algo.KMedoids.KMedoidsAlgorithm;
 import com.clust4j.algo.KMedoidsParameters;
 import com.clust4j.algo.preprocess.StandardScaler;
 import com.clust4j.data.DataSet;
@@ -39,6 +42,7 @@ import com.clust4j.kernel.Kernel;
 //import com.clust4j.kernel.KernelTestCases;
 import com.clust4j.kernel.LaplacianKernel;
 import com.clust4j.metrics.pairwise.Distance;
+import com.clust4j.metrics.pairwise.DistanceStorage;
 import com.clust4j.metrics.pairwise.DistanceMetric;
 import com.clust4j.metrics.pairwise.GeometricallySeparable;
 import com.clust4j.utils.MatUtils;
@@ -440,4 +444,209 @@ public class KMedoidsTests implements ClusterTest, ClassifierTest, ConvergeableT
 		int[] labels = new KMedoids(X, new KMedoidsParameters(3).setVerbose(true)).fit().getLabels();
 		assertTrue(new VecUtils.IntSeries(labels, Inequality.EQUAL_TO, 0).all());
 	}
+	
+	@Test
+	public void testDistanceStorage() {
+		final Array2DRowRealMatrix X = TestSuite.IRIS_DATASET.getData();
+		final int[] expected = new KMedoids(X, new KMedoidsParameters(3)
+			.setSeed(new java.util.Random(42))).fit().getLabels();
+		
+		KMedoidsParameters planner = new KMedoidsParameters(3)
+			.setSeed(new java.util.Random(42))
+			.setDistanceStorage(DistanceStorage.Type.MAPPED);
+		assertTrue(planner.copy().getDistanceStorage().equals(DistanceStorage.Type.MAPPED));
+		assertTrue(VecUtils.equalsExactly(expected, planner.fitNewModel(X).getLabels()));
+	}
+	
+	/** The cost of the medoids, computed by brute force */
+	private static double pamCost(final double[][] X, final int[] medoids) {
+		double cost = 0, min;
+		for(double[] row: X) {
+			min = Double.POSITIVE_INFINITY;
+			for(int medoid: medoids)
+				min = FastMath.min(min, Distance.MANHATTAN.getDistance(row, X[medoid]));
+			cost += min;
+		}
+		
+		return cost;
+	}
+	
+	@Test
+	public void testFastPAMSwapDeltas() {
+		final double[][] X = irisdata.getData();
+		final FastPAM pam = new FastPAM(FastPAM.Dissimilarity.of(X, Distance.MANHATTAN), 
+			new int[]{0, 1, 2}, false);
+		final double cost = pam.cost();
+		assertEquals(pamCost(X, pam.medoids), cost, 1e-8);
+		
+		// the best swap for each slot matches the brute force search
+		final FastPAM.Swaps swaps = new FastPAM.SwapTask(pam).compute();
+		for(int s = 0; s < 3; s++) {
+			double best = Double.POSITIVE_INFINITY;
+			for(int c = 3; c < X.length; c++) {
+				final int[] swapped = pam.medoids.clone();
+				swapped[s] = c;
+				final double delta = pamCost(X, swapped) - cost;
+				assertEquals(delta, pam.swapDelta(s, c), 1e-8);
+				best = FastMath.min(best, delta);
+			}
+			
+			assertEquals(best, swaps.delta[s], 1e-8);
+		}
+		
+		// small parallel chunks make the same assignment and swaps
+		final FastPAM chunked = new FastPAM(FastPAM.Dissimilarity.of(X, Distance.MANHATTAN), 
+			new int[]{0, 1, 2}, true, 16);
+		assertTrue(VecUtils.equalsExactly(pam.nearest, chunked.nearest));
+		assertEquals(pam.swap(0.0), chunked.swap(0.0));
+		assertTrue(VecUtils.equalsExactly(pam.medoids, chunked.medoids));
+	}
+	
+	@Test
+	public void testFastPAMSwapOptimal() {
+		final double[][] X = irisdata.getData();
+		KMedoids model = new KMedoids(irisdata, new KMedoidsParameters(3)
+			.setAlgorithm(KMedoidsAlgorithm.FAST_PAM)
+			.setMaxIter(100)
+			.setConvergenceCriteria(0.0)
+			.setSeed(new Random(42))).fit();
+		assertTrue(model.didConverge());
+		
+		// recover the medoids from the labels
+		final int[] labels = model.getLabels(), medoids = new int[3];
+		final ArrayList<double[]> centroids = model.getCentroids();
+		for(int i = 0; i < X.length; i++)
+			if(VecUtils.equalsExactly(X[i], centroids.get(labels[i])))
+				medoids[labels[i]] = i;
+		
+		final double cost = pamCost(X, medoids);
+		assertEquals(cost, VecUtils.sum(model.getWSS()), 1e-8);
+		
+		// no single swap improves the cost
+		for(int s = 0; s < 3; s++) {
+			for(int c = 0; c < X.length; c++) {
+				final int[] swapped = medoids.clone();
+				swapped[s] = c;
+				assertTrue(pamCost(X, swapped) >= cost - 1e-8);
+			}
+		}
+		
+		// and the Voronoi iteration does no better
+		KMedoids voronoi = new KMedoids(irisdata, new KMedoidsParameters(3)
+			.setSeed(new Random(42))).fit();
+		assertTrue(VecUtils.sum(voronoi.getWSS()) >= cost - 1e-8);
+	}
+	
+	@Test
+	public void testParallelFastPAM() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final Array2DRowRealMatrix X = getRandom(1500, 3); // several default chunks
+		
+		final int[] serial = new KMedoids(X, new KMedoidsParameters(4)
+			.setAlgorithm(KMedoidsAlgorithm.FAST_PAM)
+			.setSeed(new Random(7))).fit().getLabels();
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			
+			final int[] parallel = new KMedoids(X, new KMedoidsParameters(4)
+				.setAlgorithm(KMedoidsAlgorithm.FAST_PAM)
+				.setForceParallel(true)
+				.setSeed(new Random(7))).fit().getLabels();
+			assertTrue(VecUtils.equalsExactly(serial, parallel));
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	@Test
+	public void testCLARA() {
+		final int per = 5000;
+		final double[][] centers = new double[][]{ {0, 0}, {50, 0}, {0, 50} };
+		final double[][] x = new double[3 * per][];
+		final Random rand = new Random(42);
+		for(int i = 0; i < x.length; i++)
+			x[i] = new double[]{ 
+				centers[i / per][0] + rand.nextGaussian(), 
+				centers[i / per][1] + rand.nextGaussian() };
+		
+		KMedoids model = new KMedoids(new Array2DRowRealMatrix(x, false), new KMedoidsParameters(3)
+			.setAlgorithm(KMedoidsAlgorithm.CLARA)
+			.setSeed(new Random(42))).fit();
+		assertEquals(KMedoids.DEF_NUM_SAMPLES, model.itersElapsed());
+		
+		// each blob is a cluster
+		final int[] labels = model.getLabels();
+		for(int i = 0; i < x.length; i++)
+			assertEquals(labels[(i / per) * per], labels[i]);
+		assertEquals(3, VecUtils.unique(labels).size());
+	}
+	
+	@Test
+	public void testCLARASmallSample() {
+		// a sample as large as the data is the same as FastPAM
+		final int[] expected = new KMedoids(irisdata, new KMedoidsParameters(3)
+			.setAlgorithm(KMedoidsAlgorithm.FAST_PAM)
+			.setSeed(new Random(42))).fit().getLabels();
+		
+		final int[] clara = new KMedoids(irisdata, new KMedoidsParameters(3)
+			.setAlgorithm(KMedoidsAlgorithm.CLARA)
+			.setSampleSize(irisdata.getRowDimension())
+			.setSeed(new Random(42))).fit().getLabels();
+		assertTrue(VecUtils.equalsExactly(expected, clara));
+		
+		// smaller samples still give a valid labeling
+		final KMedoids model = new KMedoids(irisdata, new KMedoidsParameters(3)
+			.setAlgorithm(KMedoidsAlgorithm.CLARA)
+			.setSampleSize(20)
+			.setNumSamples(3)
+			.setSeed(new Random(42))).fit();
+		assertEquals(3, VecUtils.unique(model.getLabels()).size());
+		assertEquals(3, model.itersElapsed());
+	}
+	
+	@Test
+	public void testSwapAlgorithmsAllSame() {
+		final Array2DRowRealMatrix X = new Array2DRowRealMatrix(MatUtils.rep(-1, 3, 3), false);
+		
+		for(KMedoidsAlgorithm algo: KMedoidsAlgorithm.values()) {
+			int[] labels = new KMedoids(X, new KMedoidsParameters(3)
+				.setAlgorithm(algo)).fit().getLabels();
+			assertTrue(new VecUtils.IntSeries(labels, Inequality.EQUAL_TO, 0).all());
+		}
+	}
+	
+	@Test
+	public void testAlgorithmParameters() {
+		KMedoidsParameters planner = new KMedoidsParameters(3)
+			.setAlgorithm(KMedoidsAlgorithm.CLARA)
+			.setSampleSize(50)
+			.setNumSamples(2)
+			.copy();
+		
+		assertEquals(KMedoidsAlgorithm.CLARA, planner.getAlgorithm());
+		assertEquals(50, planner.getSampleSize());
+		assertEquals(2, planner.getNumSamples());
+		assertEquals(KMedoids.DEF_ALGO, new KMedoidsParameters().getAlgorithm());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullAlgorithm() {
+		new KMedoids(irisdata, new KMedoidsParameters(3).setAlgorithm(null));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testSampleSizeNotAboveK() {
+		new KMedoids(irisdata, new KMedoidsParameters(3).setSampleSize(3));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeSampleSize() {
+		new KMedoids(irisdata, new KMedoidsParameters(3).setSampleSize(-1));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testZeroNumSamples() {
+		new KMedoids(irisdata, new KMedoidsParameters(3).setNumSamples(0));
+	}
 }
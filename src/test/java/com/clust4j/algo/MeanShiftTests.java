@@ -31,6 +31,7 @@ import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.util.Precision;
+import org.apache.commons.math3.util.FastMath;
 import org.junit.Test;
 
 import com.clust4j.GlobalState;
@@ -549,7 +550,7 @@ public class MeanShiftTests implements ClusterTest, ClassifierTest, Convergeable
 		}, 1e-6));
 
 		assertTrue(VecUtils.equalsExactly(centroids.get(1), new double[]{
-			-1.0560079864392702, 0.7416046454700266, -1.295231741534238, -1.2503554887998656
+			-1.0560079864392702, 0.7416046454700268, -1.295231741534238, -1.2503554887998654
 		}));
 		
 		
@@ -795,4 +796,138 @@ public class MeanShiftTests implements ClusterTest, ClassifierTest, Convergeable
 			a = false;
 		}
 	}
+	
+	@Test
+	public void testGetBinSeeds() {
+		final double[][] X = new double[][]{
+			new double[]{1.0, 1.0},
+			new double[]{1.4, 1.4},
+			new double[]{1.8, 1.2},
+			new double[]{2.0, 1.0},
+			new double[]{2.1, 1.1},
+			new double[]{0.0, 0.0}
+		};
+		
+		// bins (1,1), (2,1), (0,0) in order of first appearance
+		assertTrue(MatUtils.equalsExactly(MeanShift.getBinSeeds(X, 1.0, 1), new double[][]{
+			new double[]{1.0, 1.0}, new double[]{2.0, 1.0}, new double[]{0.0, 0.0}
+		}));
+		
+		assertTrue(MatUtils.equalsExactly(MeanShift.getBinSeeds(X, 1.0, 2), new double[][]{
+			new double[]{1.0, 1.0}, new double[]{2.0, 1.0}
+		}));
+		
+		assertEquals(0, MeanShift.getBinSeeds(X, 1.0, 4).length);
+	}
+	
+	@Test
+	public void testBinSeeding() {
+		final Random rand = new Random(5);
+		final double[][] X = new double[3000][2];
+		for(int i = 0; i < X.length; i++) {
+			final double shift = 10.0 * (i % 3);
+			X[i][0] = shift + rand.nextGaussian();
+			X[i][1] = shift + rand.nextGaussian();
+		}
+		
+		final Array2DRowRealMatrix mat = new Array2DRowRealMatrix(X, false);
+		final MeanShift all = new MeanShiftParameters(2.0).setVerbose(false).fitNewModel(mat);
+		final MeanShift binned = new MeanShiftParameters(2.0).setBinSeeding(true)
+			.setMinBinFreq(5).setVerbose(false).fitNewModel(mat);
+		
+		// isolated outliers may form their own modes when every point is a seed
+		assertTrue(all.getNumberOfIdentifiedClusters() >= 3);
+		assertEquals(3, binned.getNumberOfIdentifiedClusters());
+		assertTrue(binned.getKernelSeeds().length < X.length / 50);
+		
+		// each blob is one cluster, centered near its true mean
+		final int[] labels = binned.getLabels();
+		for(int i = 3; i < X.length; i++)
+			assertEquals(labels[i % 3], labels[i]);
+		for(int i = 0; i < 3; i++) {
+			boolean found = false;
+			for(double[] centroid: binned.getCentroids())
+				found |= FastMath.abs(centroid[0] - 10.0 * i) < 0.25
+					&& FastMath.abs(centroid[1] - 10.0 * i) < 0.25;
+			assertTrue(found);
+		}
+		
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			final MeanShift parallel = new MeanShiftParameters(2.0).setBinSeeding(true)
+				.setMinBinFreq(5).setForceParallel(true).setVerbose(false).fitNewModel(mat);
+			
+			assertTrue(VecUtils.equalsExactly(binned.getLabels(), parallel.getLabels()));
+			for(int i = 0; i < 3; i++)
+				assertTrue(VecUtils.equalsExactly(binned.getCentroids().get(i), parallel.getCentroids().get(i)));
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testBinSeedingNoBins() {
+		new MeanShiftParameters(0.5).setBinSeeding(true).setMinBinFreq(1000).fitNewModel(data_);
+	}
+	
+	@Test
+	public void testParallelCentroidAssignment() {
+		final Random rand = new Random(11);
+		final double[][] X = new double[5000][3];
+		for(double[] row: X)
+			for(int j = 0; j < row.length; j++)
+				row[j] = rand.nextDouble();
+		
+		final double[][] centers = MatUtils.slice(X, 0, 25);
+		final NearestNeighborHeapSearch tree = new KDTree(new Array2DRowRealMatrix(centers, false));
+		final int[] serial = MeanShift.CentroidAssigner.assign(tree, X, false);
+		
+		// nearest centroid by brute force
+		for(int i = 0; i < X.length; i++) {
+			double best = Double.POSITIVE_INFINITY;
+			int arg = -1;
+			for(int c = 0; c < centers.length; c++) {
+				final double d = Distance.EUCLIDEAN.getDistance(X[i], centers[c]);
+				if(d < best) {
+					best = d;
+					arg = c;
+				}
+			}
+			
+			assertEquals(arg, serial[i]);
+		}
+		
+		assertTrue(VecUtils.equalsExactly(serial, MeanShift.CentroidAssigner.assign(tree, X, true, 64)));
+	}
+	
+	@Test
+	public void testLabelsInOrderOfAppearance() {
+		final MeanShift model = new MeanShiftParameters(0.5).setVerbose(false).fitNewModel(data_);
+		final int[] labels = model.getLabels();
+		
+		int next = 0;
+		for(int label: labels) {
+			assertTrue(label <= next);
+			if(label == next)
+				next++;
+		}
+		
+		assertEquals(model.getNumberOfIdentifiedClusters(), next);
+	}
+	
+	@Test
+	public void testCentroidsIndexedByLabel() {
+		final MeanShift model = new MeanShiftParameters(0.5).setVerbose(false).fitNewModel(data_);
+		final int[] labels = model.getLabels();
+		final ArrayList<double[]> centroids = model.getCentroids();
+		final double[][] X = data_.getData();
+		
+		// each record was labeled by its nearest centroid
+		for(int i = 0; i < X.length; i++) {
+			double own = Distance.EUCLIDEAN.getDistance(X[i], centroids.get(labels[i]));
+			for(double[] centroid: centroids)
+				assertTrue(own <= Distance.EUCLIDEAN.getDistance(X[i], centroid));
+		}
+	}
 }
@@ -18,6 +18,7 @@ package com.clust4j.algo;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.commons.lang3.tuple.Triple;
@@ -27,6 +28,7 @@ import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.Precision;
 import org.junit.Test;
 
+import com.clust4j.GlobalState;
 import com.clust4j.TestSuite;
 import com.clust4j.algo.BallTree;
 import com.clust4j.algo.KDTree;
@@ -41,6 +43,7 @@ import com.clust4j.algo.Neighborhood;
 import com.clust4j.log.Loggable;
 import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.pairwise.DistanceMetric;
+import com.clust4j.metrics.pairwise.MinkowskiDistance;
 import com.clust4j.utils.MatUtils;
 import com.clust4j.utils.QuadTup;
 import com.clust4j.utils.VecUtils;
@@ -1940,4 +1943,312 @@ public class NNHSTests {
 			k.queryRadius(IRIS.getData(), 1.5, true)
 		);
 	}
+	
+	@Test
+	public void testConcurrentQueryMatchesQuery() {
+		final double[][] X = IRIS.getData();
+		final int k = 5;
+		
+		for(NearestNeighborHeapSearch tree: new NearestNeighborHeapSearch[]{
+				new KDTree(IRIS), new BallTree(IRIS)}) {
+			
+			final Neighborhood expected = tree.query(X, k, false, true);
+			final double[] dists = new double[X.length * k];
+			final int[] indices = new int[X.length * k];
+			tree.query(X, k, dists, indices);
+			
+			assertTrue(MatUtils.equalsExactly(expected.getDistances(), MatUtils.reshape(dists, X.length, k)));
+			assertTrue(MatUtils.equalsExactly(expected.getIndices(), MatUtils.reshape(indices, X.length, k)));
+			
+			final long[] stats = tree.getConcurrentStats();
+			assertTrue(stats[1] > 0 && stats[3] > 0); // leaves & calls
+			
+			// a context may be reused for different k without any stale neighbors
+			final NearestNeighborHeapSearch.QueryContext ctx = tree.newQueryContext();
+			final double[] d1 = new double[1];
+			final int[] i1 = new int[1];
+			tree.query(X[7], k, ctx, dists, indices, 0);
+			tree.query(X[7], 1, ctx, d1, i1, 0);
+			assertEquals(expected.getIndices()[7][0], i1[0]);
+			assertTrue(ctx.getNumCalls() > 0);
+			
+			tree.flushStats(ctx);
+			assertEquals(0, ctx.getNumCalls());
+		}
+	}
+	
+	@Test
+	public void testConcurrentQueryThreads() throws InterruptedException {
+		final double[][] X = MatUtils.randomGaussian(2000, 4, new Random(42));
+		final Array2DRowRealMatrix mat = new Array2DRowRealMatrix(X, false);
+		
+		for(final NearestNeighborHeapSearch tree: new NearestNeighborHeapSearch[]{
+				new KDTree(mat), new BallTree(mat)}) {
+			final int k = 3, nThreads = 4;
+			final Neighborhood expected = tree.query(X, k, false, true);
+			final int calls = tree.getNumCalls();
+			
+			final double[][] dists = new double[nThreads][X.length * k];
+			final int[][] indices = new int[nThreads][X.length * k];
+			final Thread[] threads = new Thread[nThreads];
+			for(int t = 0; t < nThreads; t++) {
+				final int thread = t;
+				threads[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						tree.query(X, k, dists[thread], indices[thread]);
+					}
+				});
+				threads[t].start();
+			}
+			
+			for(Thread thread: threads)
+				thread.join();
+			
+			for(int t = 0; t < nThreads; t++) {
+				assertTrue(MatUtils.equalsExactly(expected.getDistances(), MatUtils.reshape(dists[t], X.length, k)));
+				assertTrue(MatUtils.equalsExactly(expected.getIndices(), MatUtils.reshape(indices[t], X.length, k)));
+			}
+			
+			// the shared counter is left alone; the contexts count instead
+			assertTrue(calls == tree.getNumCalls());
+			assertTrue(tree.getConcurrentStats()[3] > 0);
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testConcurrentQuerySmallBuffer() {
+		new KDTree(IRIS).query(IRIS.getData(), 3, new double[3], new int[3]);
+	}
+	
+	@Test(expected=DimensionMismatchException.class)
+	public void testConcurrentQueryDimMismatch() {
+		KDTree tree = new KDTree(IRIS);
+		tree.query(new double[]{1.0, 2.0}, 3, tree.newQueryContext(), new double[3], new int[3], 0);
+	}
+	
+	static NearestNeighborHeapSearch buildTree(boolean kd, double[][] X, DistanceMetric dist, boolean flat) {
+		return kd ? new KDTree(X, 10, dist, null, flat, true) : new BallTree(X, 10, dist, null, flat, true);
+	}
+	
+	/** A default KDTree in the given layout */
+	public static KDTree buildKDTree(double[][] X, boolean flat) {
+		return new KDTree(X, KDTree.DEF_LEAF_SIZE, KDTree.DEF_DIST, null, flat, true);
+	}
+	
+	/** A default BallTree in the given layout */
+	public static BallTree buildBallTree(double[][] X, boolean flat) {
+		return new BallTree(X, BallTree.DEF_LEAF_SIZE, BallTree.DEF_DIST, null, flat, true);
+	}
+	
+	@Test
+	public void testFlatLayoutMatchesNested() {
+		final double[][] X = MatUtils.randomGaussian(1500, 5, new Random(7));
+		final double[][] Q = MatUtils.randomGaussian(100, 5, new Random(8));
+		final DistanceMetric[] metrics = new DistanceMetric[]{
+			Distance.EUCLIDEAN, Distance.MANHATTAN, 
+			Distance.CHEBYSHEV, new MinkowskiDistance(3.0)
+		};
+		
+		for(boolean kd: new boolean[]{true, false}) {
+			for(DistanceMetric dist: metrics) {
+				NearestNeighborHeapSearch flat = buildTree(kd, X, dist, true);
+				NearestNeighborHeapSearch nested = buildTree(kd, X, dist, false);
+				assertTrue(flat.isFlatLayout());
+				assertFalse(nested.isFlatLayout());
+				
+				Neighborhood a = flat.query(Q, 7, false, true), b = nested.query(Q, 7, false, true);
+				assertTrue(MatUtils.equalsExactly(a.getDistances(), b.getDistances()));
+				assertTrue(MatUtils.equalsExactly(a.getIndices(), b.getIndices()));
+				assertEquals(nested.getTreeStats(), flat.getTreeStats());
+				assertEquals(nested.getNumCalls(), flat.getNumCalls());
+				
+				final double[] d1 = new double[Q.length * 7], d2 = new double[Q.length * 7];
+				final int[] i1 = new int[Q.length * 7], i2 = new int[Q.length * 7];
+				flat.query(Q, 7, d1, i1);
+				nested.query(Q, 7, d2, i2);
+				assertTrue(VecUtils.equalsExactly(d1, d2));
+				assertTrue(VecUtils.equalsExactly(i1, i2));
+				
+				a = flat.queryRadius(Q, 1.5, true);
+				b = nested.queryRadius(Q, 1.5, true);
+				for(int i = 0; i < Q.length; i++) {
+					assertTrue(VecUtils.equalsExactly(a.getDistances()[i], b.getDistances()[i]));
+					assertTrue(VecUtils.equalsExactly(a.getIndices()[i], b.getIndices()[i]));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testFlatLayoutUnsupportedMetric() {
+		final double[][] X = MatUtils.randomGaussian(200, 3, new Random(7));
+		NearestNeighborHeapSearch tree = buildTree(false, X, Distance.BRAY_CURTIS, true);
+		assertFalse(tree.isFlatLayout());
+		assertTrue(tree.query(X, 3, false, true).getIndices()[5][0] == 5);
+	}
+	
+	/**
+	 * Each node was once split over the wrong slice of the index array,
+	 * which left nodes whose bounds did not contain their points
+	 */
+	@Test
+	public void testNodesContainTheirPoints() {
+		final double[][] X = MatUtils.randomGaussian(3000, 4, new Random(11));
+		final KDTree tree = (KDTree)buildTree(true, X, Distance.EUCLIDEAN, true);
+		final double[][][] bounds = tree.getNodeBoundsRef();
+		final int[] idcs = tree.getIndexArrayRef();
+		
+		for(int node = 0; node < tree.n_nodes; node++) {
+			NodeData nd = tree.getNodeDataRef()[node];
+			for(int i = nd.idx_start; i < nd.idx_end; i++)
+				for(int j = 0; j < X[0].length; j++)
+					assertTrue(X[idcs[i]][j] >= bounds[0][node][j] && X[idcs[i]][j] <= bounds[1][node][j]);
+		}
+		
+		// and the neighbors are exact
+		final int[][] nbrs = tree.query(X, 4, false, true).getIndices();
+		for(int i = 0; i < X.length; i += 97) {
+			final double[] d = new double[X.length];
+			for(int j = 0; j < X.length; j++)
+				d[j] = Distance.EUCLIDEAN.getPartialDistance(X[i], X[j]);
+			final double fourth = d[VecUtils.argSort(d)[3]];
+			
+			for(int j: nbrs[i])
+				assertTrue(d[j] <= fourth);
+		}
+	}
+	
+	@Test
+	public void testParallelBuildMatchesSerial() {
+		final double[][] X = MatUtils.randomGaussian(5000, 3, new Random(3));
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		
+		for(boolean kd: new boolean[]{true, false}) {
+			final NearestNeighborHeapSearch serial = buildTree(kd, X, Distance.EUCLIDEAN, true), parallel;
+			
+			try {
+				GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+				parallel = kd ? new KDTree(X, 10, Distance.EUCLIDEAN, null, true, true, 100) :
+					new BallTree(X, 10, Distance.EUCLIDEAN, null, true, true, 100);
+			} finally {
+				GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+			}
+			
+			assertTrue(VecUtils.equalsExactly(serial.getIndexArrayRef(), parallel.getIndexArrayRef()));
+			for(int i = 0; i < serial.n_nodes; i++) {
+				assertEquals(serial.getNodeDataRef()[i], parallel.getNodeDataRef()[i]);
+				for(int b = 0; b < serial.getNodeBoundsRef().length; b++)
+					assertTrue(VecUtils.equalsExactly(serial.getNodeBoundsRef()[b][i], parallel.getNodeBoundsRef()[b][i]));
+			}
+			
+			assertTrue(MatUtils.equalsExactly(serial.query(X, 3, false, true).getIndices(), 
+				parallel.query(X, 3, false, true).getIndices()));
+		}
+	}
+	
+	@Test
+	public void testModelParallelismReachesBuild() {
+		final Array2DRowRealMatrix X = new Array2DRowRealMatrix(MatUtils.randomGaussian(500, 3, new Random(3)), false);
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			for(boolean parallel: new boolean[]{true, false}) {
+				NearestNeighbors nn = new NearestNeighborsParameters(3)
+					.setForceParallel(parallel).setVerbose(false).fitNewModel(X);
+				assertTrue(parallel == nn.tree.parallel);
+			}
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	/**
+	 * Sorted columns and ties used to make the median selection quadratic
+	 */
+	@Test
+	public void testBuildSortedAndTiedData() {
+		final int m = 200000;
+		final double[][] X = new double[m][2];
+		for(int i = 0; i < m; i++) {
+			X[i][0] = i;
+			X[i][1] = i % 3;
+		}
+		
+		final KDTree tree = (KDTree)buildTree(true, X, Distance.EUCLIDEAN, true);
+		final double[][][] bounds = tree.getNodeBoundsRef();
+		final int[] idcs = tree.getIndexArrayRef();
+		
+		for(int node = 0; node < tree.n_nodes; node++) {
+			NodeData nd = tree.getNodeDataRef()[node];
+			for(int i = nd.idx_start; i < nd.idx_end; i++)
+				for(int j = 0; j < 2; j++)
+					assertTrue(X[idcs[i]][j] >= bounds[0][node][j] && X[idcs[i]][j] <= bounds[1][node][j]);
+		}
+		
+		final int[] nbr = tree.query(new double[][]{new double[]{1234.2, 1}}, 1, false, true).getIndices()[0];
+		assertEquals(1234, nbr[0]);
+		
+		// all ties in the split dimension
+		final double[][] tied = new double[m][2];
+		for(int i = 0; i < m; i++)
+			tied[i][0] = i % 2;
+		assertEquals(m, buildTree(true, tied, Distance.EUCLIDEAN, true).getIndexArrayRef().length);
+	}
+	
+	@Test
+	public void testSelfJoinMatchesRadiusQuery() {
+		final double[][] X = MatUtils.randomGaussian(2000, 3, new Random(5));
+		final double r = 0.4;
+		
+		for(boolean kd: new boolean[]{true, false}) {
+			for(boolean flat: new boolean[]{true, false}) {
+				final NearestNeighborHeapSearch tree = buildTree(kd, X, Distance.EUCLIDEAN, flat);
+				final int[][] expected = tree.queryRadius(X, r, false).getIndices();
+				final int[] counts = tree.countRadiusSelf(r);
+				
+				final boolean[] which = new boolean[X.length];
+				for(int i = 0; i < X.length; i++)
+					which[i] = i % 3 == 0;
+				
+				final int[][] all = tree.queryRadiusSelf(r, null, true);
+				final int[][] some = tree.queryRadiusSelf(r, which, false);
+				
+				for(int i = 0; i < X.length; i++) {
+					assertEquals(expected[i].length, counts[i]);
+					assertTrue(VecUtils.equalsExactly(expected[i], all[i]));
+					
+					if(which[i]) {
+						assertEquals(counts[i] - 1, some[i].length);
+						for(int j: some[i])
+							assertTrue(j != i);
+					} else {
+						assertEquals(0, some[i].length);
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testContextRadiusQueryMatchesBatch() {
+		final double[][] X = MatUtils.randomGaussian(1500, 3, new Random(9));
+		final double[][] Q = MatUtils.randomGaussian(50, 3, new Random(10));
+		
+		for(boolean kd: new boolean[]{true, false}) {
+			for(boolean flat: new boolean[]{true, false}) {
+				final NearestNeighborHeapSearch tree = buildTree(kd, X, Distance.EUCLIDEAN, flat);
+				final int[][] expected = tree.queryRadius(Q, 0.75, false).getIndices();
+				final NearestNeighborHeapSearch.QueryContext ctx = tree.newQueryContext();
+				
+				for(int i = 0; i < Q.length; i++) {
+					final int count = tree.queryRadius(Q[i], 0.75, ctx);
+					assertEquals(expected[i].length, count);
+					assertTrue(VecUtils.equalsExactly(expected[i], 
+						Arrays.copyOf(ctx.getRadiusIndicesRef(), count)));
+				}
+			}
+		}
+	}
 }
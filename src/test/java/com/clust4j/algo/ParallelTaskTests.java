@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import com.clust4j.algo.ParallelChunkingTask.ChunkingStrategy;
+import com.clust4j.algo.ParallelChunkingTask.FixedChunkingStrategy;
 import com.clust4j.algo.ParallelChunkingTask.SimpleChunkingStrategy;
 import com.clust4j.utils.MatUtils;
 
@@ -27,5 +28,19 @@ public class ParallelTaskTests {
 			@Override protected Integer compute() { return -1; }
 		}.formatName("FJ-1-1"));
 	}
+	
+	@Test
+	public void testFixedChunking() {
+		double[][] X = MatUtils.randomGaussian(750, 2);
+		ChunkingStrategy strat = new FixedChunkingStrategy(X.length);
+		assertTrue(strat.getNumChunks(X) == 2);
+		assertTrue(strat.map(X).get(1).start == 500);
+		assertTrue(strat.map(X).get(1).size() == 250);
+		
+		// never more than the max number of chunks
+		assertTrue(FixedChunkingStrategy.getFixedChunkSize(1000000) == 7813);
+		assertTrue(new FixedChunkingStrategy(1000000).getNumChunks(
+			new double[1000000][]) == FixedChunkingStrategy.MAX_CHUNKS);
+	}
 
 }
@@ -35,6 +35,7 @@ import com.clust4j.sample.BootstrapTest;
 import com.clust4j.sample.Bootstrapper;
 import com.clust4j.utils.MatUtils;
 import com.clust4j.utils.MatrixFormatter;
+import com.clust4j.utils.VecUtils;
 
 public class ImputationTests {
 	final static MatrixFormatter formatter = new MatrixFormatter();
@@ -266,6 +267,67 @@ public class ImputationTests {
 		assertTrue(MatUtils.equalsExactly(nn.transform(a).getData(), nn2.transform(a).getData()));
 	}
 	
+	@Test
+	public void testNNPatternsAndBruteForce() {
+		final double[][] d = new double[][]{
+			new double[]{1,	 		 1, 		 2},
+			new double[]{1, 		 Double.NaN, 3},
+			new double[]{8.5,		 7.9,        6},
+			new double[]{9,			 8,			 Double.NaN},
+			new double[]{3.5,		 2.9,        6.1},
+			new double[]{3, 		 Double.NaN, 1},
+			new double[]{0,	 		 0, 		 0},
+			new double[]{2,	 		 4, 		 9},
+			new double[]{1.4,	 	 5, 		 6},
+			new double[]{Double.NaN, 6, 		 Double.NaN},
+			new double[]{7,	 	 	 Double.NaN, 5},
+		};
+		
+		for(CentralTendencyMethod method: CentralTendencyMethod.values()) {
+			final double[][] grouped = new NearestNeighborImputation(
+				new NNImputationPlanner(3).setMethodOfCentralTendency(method)).transform(d);
+			
+			// the records missing only column 1 share a tree, but are imputed as if alone
+			for(int i: new int[]{1, 5, 10}) {
+				final double[] solo = new NearestNeighborImputation(
+					new NNImputationPlanner(3).setMethodOfCentralTendency(method))
+						.transform(MatUtils.getRows(d, new int[]{0, 2, 4, 6, 7, 8, i}))[6];
+				assertTrue(VecUtils.equalsExactly(solo, grouped[i]));
+			}
+			
+			final NearestNeighborImputation brute = new NearestNeighborImputation(
+				new NNImputationPlanner(3).setMethodOfCentralTendency(method).setBruteForce(true));
+			assertTrue(brute.getBruteForce());
+			assertTrue(brute.copy().getBruteForce());
+			assertTrue(MatUtils.equalsExactly(grouped, brute.transform(d)));
+		}
+	}
+	
+	@Test
+	public void testNNParallel() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final double[][] d = MatUtils.randomGaussian(1500, 4, new java.util.Random(7));
+		final java.util.Random rand = new java.util.Random(11);
+		for(int i = 0; i < d.length; i += 3)
+			d[i][rand.nextInt(4)] = Double.NaN;
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			
+			for(boolean brute: new boolean[]{false, true}) {
+				NNImputationPlanner planner = new NNImputationPlanner(5).setBruteForce(brute);
+				final double[][] serial = new NearestNeighborImputation(planner).transform(d);
+				
+				NearestNeighborImputation par = new NearestNeighborImputation(planner.setForceParallel(true));
+				assertTrue(par.getParallel());
+				assertTrue(par.copy().getParallel());
+				assertTrue(MatUtils.equalsExactly(serial, par.transform(d)));
+			}
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
 	@Test(expected=NaNException.class)
 	public void testNoComplete() {
 		final double[][] d = new double[][]{
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ *    Copyright 2015, 2016 Taylor G Smith
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *******************************************************************************/
+package com.clust4j.data;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.junit.Test;
+
+import com.clust4j.TestSuite;
+import com.clust4j.except.MatrixParseException;
+import com.clust4j.utils.MatUtils;
+import com.clust4j.utils.VecUtils;
+
+public class BinaryDataSetTests {
+	final static String file = new String("tmpbdstfile.c4j");
+	final static Path path = FileSystems.getDefault().getPath(file);
+	
+	@Test
+	public void testRoundTrip() throws IOException {
+		final DataSet iris = TestSuite.IRIS_DATASET.copy();
+		
+		try {
+			iris.toBinaryFile(new File(file));
+			final DataSet read = BinaryDataSet.read(new File(file));
+			
+			assertTrue(MatUtils.equalsExactly(iris.getDataRef().getDataRef(), read.getDataRef().getDataRef()));
+			assertTrue(VecUtils.equalsExactly(iris.getLabelRef(), read.getLabelRef()));
+			assertTrue(Arrays.equals(iris.getHeaderRef(), read.getHeaderRef()));
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void testRoundTripNoLabelsUnicodeHeaders() throws IOException {
+		final double[][] X = MatUtils.randomGaussian(1000, 3, new Random(4));
+		X[3][1] = Double.NaN;
+		X[4][2] = Double.NEGATIVE_INFINITY;
+		final DataSet data = new DataSet(X, new String[]{"a", "\u00e9t\u00e9", ""});
+		
+		try {
+			BinaryDataSet.write(data, new File(file));
+			final DataSet read = BinaryDataSet.read(new File(file));
+			
+			assertNull(read.getLabelRef());
+			assertTrue(Arrays.equals(data.getHeaderRef(), read.getHeaderRef()));
+			assertTrue(MatUtils.equalsExactly(X, read.getDataRef().getDataRef()));
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void testFloat32() throws IOException {
+		final DataSet iris = TestSuite.IRIS_DATASET.copy();
+		final double[][] X = iris.getDataRef().getDataRef();
+		
+		try {
+			iris.toBinaryFile(new File(file), true);
+			assertTrue(Files.size(path) < 150 * 4 * 8);
+			
+			final DataSet read = BinaryDataSet.read(new File(file));
+			final double[][] Y = read.getDataRef().getDataRef();
+			for(int i = 0; i < X.length; i++)
+				for(int j = 0; j < X[i].length; j++)
+					assertTrue(Y[i][j] == (float)X[i][j]);
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void testMappedAccess() throws IOException {
+		final DataSet iris = TestSuite.IRIS_DATASET.copy();
+		final Array2DRowRealMatrix X = iris.getDataRef();
+		
+		try {
+			iris.toBinaryFile(new File(file));
+			final BinaryDataSet bin = BinaryDataSet.open(new File(file));
+			
+			try {
+				assertTrue(bin.numRows() == 150);
+				assertTrue(bin.numCols() == 4);
+				assertTrue(bin.hasLabels());
+				assertFalse(bin.isFloat32());
+				assertTrue(VecUtils.equalsExactly(iris.getLabelRef(), bin.getLabels()));
+				
+				for(int j = 0; j < 4; j++)
+					assertTrue(VecUtils.equalsExactly(X.getColumn(j), bin.getColumn(j)));
+				assertTrue(bin.getEntry(77, 2) == X.getEntry(77, 2));
+				
+				boolean a = false;
+				try {
+					bin.getEntry(0, 4);
+				} catch(IndexOutOfBoundsException e) {
+					a = true;
+				} finally {
+					assertTrue(a);
+				}
+			} finally {
+				bin.close();
+			}
+			
+			boolean a = false;
+			try {
+				bin.getColumn(0);
+			} catch(IOException e) {
+				a = true;
+			} finally {
+				assertTrue(a);
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void testConvertCSV() throws IOException {
+		final File csv = new File("tmpbdstfile.csv");
+		final double[][] X = MatUtils.randomGaussian(500, 5, new Random(9));
+		
+		try {
+			new DataSet(X).toFlatFile(true, csv);
+			final DataSet parsed = BinaryDataSet.convertCSV(csv, new File(file), false, false);
+			final DataSet read = BinaryDataSet.read(new File(file));
+			
+			assertTrue(MatUtils.equalsExactly(X, parsed.getDataRef().getDataRef()));
+			assertTrue(MatUtils.equalsExactly(X, read.getDataRef().getDataRef()));
+			assertTrue(Arrays.equals(parsed.getHeaderRef(), read.getHeaderRef()));
+		} finally {
+			Files.delete(csv.toPath());
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void testNotBinary() throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write("1,2,3\n4,5,6\n7,8,9\n10,11,12\n13,14,15\n".getBytes());
+		} finally {
+			fos.close();
+		}
+		
+		boolean a = false;
+		try {
+			BinaryDataSet.read(new File(file));
+		} catch(MatrixParseException m) {
+			a = true;
+		} finally {
+			Files.delete(path);
+			assertTrue(a);
+		}
+	}
+}
@@ -26,6 +26,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -1042,7 +1043,7 @@ public class BufferedMatrixReaderTests {
 			
 			final MatrixReaderSetup copy= mrs.copy();
 			original[0] = HIVE;
-			assertFalse(copy.stream[0] == original[0]); // assert not the same reference
+			assertFalse(((BufferedMatrixReader.ArraySource)copy.source).bits[0] == original[0]); // assert not the same reference
 			
 			mrs.headers = new String[]{"asdf","asdf","asdf","asdf","asdf"};
 			assertNull(copy.headers); // assert not the same reference
@@ -1185,4 +1186,155 @@ public class BufferedMatrixReaderTests {
 			Files.delete(path);
 		}
 	}
+	
+	/**
+	 * Lines exercising quotes, thousands separators, NaN/Inf tokens,
+	 * comments, blank lines and mixed line breaks
+	 */
+	static byte[] trickyBytes(int rows, Random rand) {
+		final String[] nl = new String[]{"\n", "\r\n", "\r", "\n\n"};
+		final StringBuilder sb = new StringBuilder("# a comment\n");
+		
+		for(int i = 0; i < rows; i++) {
+			if(i % 17 == 0)
+				sb.append("% another comment\n");
+			if(i % 23 == 0)
+				sb.append("   \t \n");
+			
+			sb.append(rand.nextGaussian()).append(',')
+				.append('"').append(rand.nextInt(1000)).append('"').append(',')
+				.append(i % 5 == 0 ? "NaN" : i % 7 == 0 ? "-inf" : Double.toString(rand.nextDouble() * 1e10)).append(',')
+				.append(i % 11 == 0 ? "" : String.format("%.3e", rand.nextGaussian()))
+				.append(nl[i % nl.length]);
+		}
+		
+		return sb.toString().getBytes();
+	}
+	
+	@Test
+	public void testDoubleParser() {
+		final Random rand = new Random(42);
+		final String[] edge = new String[]{
+			"0", "-0", "+1", ".5", "5.", "1e5", "1E-5", "-1e22", "1e23", "9007199254740993",
+			"1.7976931348623157e308", "1.8e308", "4.9e-324", "2.2250738585072011e-308", "1e-400",
+			"NaN", "Infinity", "1d", "0x1p3", "18446744073709551615", "123456789012345678901234567890"
+		};
+		
+		for(int i = 0; i < edge.length + 200000; i++) {
+			final String str;
+			if(i < edge.length)
+				str = edge[i];
+			else if(i % 3 == 0)
+				str = Double.toString(Double.longBitsToDouble(rand.nextLong()));
+			else if(i % 3 == 1)
+				str = Double.toString(rand.nextGaussian() * Math.pow(10, rand.nextInt(40) - 20));
+			else
+				str = String.format("%.17e", rand.nextDouble());
+			
+			final byte[] b = str.getBytes();
+			final double expected = Double.parseDouble(str);
+			assertTrue(str, Double.doubleToRawLongBits(expected) == 
+				Double.doubleToRawLongBits(DoubleParser.parse(b, 0, b.length)));
+		}
+		
+		for(String bad: new String[]{"", ".", "-", "1e", "1e+", "1..2", "e5", "abc"}) {
+			boolean a = false;
+			try {
+				DoubleParser.parse(bad.getBytes(), 0, bad.length());
+			} catch(NumberFormatException n) {
+				a = true;
+			} finally {
+				assertTrue(bad, a);
+			}
+		}
+	}
+	
+	@Test
+	public void testRowParserMatchesTokenize() {
+		final byte[] bits = trickyBytes(500, new Random(7));
+		final MatrixReaderSetup setup = new MatrixReaderSetup(bits);
+		final BufferedMatrixReader.RowParser parser = new BufferedMatrixReader.RowParser(setup);
+		
+		final String[] lines = BufferedMatrixReader.getLines(bits, Integer.MAX_VALUE);
+		final double[] row = new double[setup.num_cols];
+		
+		for(String line: lines) {
+			final byte[] b = line.getBytes();
+			final double[] expected = BufferedMatrixReader.tokenize(
+				BufferedMatrixReader.getTokens(line, setup.separator, setup.single_quotes));
+			
+			assertTrue(parser.parse(b, 0, b.length, row) == expected.length);
+			assertTrue(line, Arrays.equals(expected, row));
+		}
+	}
+	
+	@Test
+	public void testLineReaderSmallBuffer() throws IOException {
+		final byte[] bits = trickyBytes(300, new Random(3));
+		final String[] expected = BufferedMatrixReader.getLines(bits, Integer.MAX_VALUE);
+		
+		// a one byte buffer must grow to fit each line
+		final BufferedMatrixReader.LineReader reader = new BufferedMatrixReader.LineReader(
+			new BufferedMatrixReader.ArraySource(bits), 0, bits.length, 1);
+		
+		int i = 0;
+		while(reader.next())
+			assertEquals(expected[i++], reader.line());
+		assertTrue(i == expected.length);
+	}
+	
+	@Test
+	public void testParallelRangesMatchSerial() throws IOException {
+		final byte[] bits = trickyBytes(2000, new Random(11));
+		final double[][] serial = new BufferedMatrixReader(bits).read(false).getDataRef().getDataRef();
+		
+		final MatrixReaderSetup setup = new MatrixReaderSetup(bits);
+		for(int numRanges: new int[]{1, 2, 7, 64, 5000}) {
+			final long[] bounds = BufferedMatrixReader.ParallelRangeParser.getBounds(setup, 0, numRanges);
+			
+			// each range after the first must begin on a new line
+			for(int k = 1; k < bounds.length; k++) {
+				assertTrue(bounds[k] >= bounds[k - 1]);
+				if(bounds[k] > 0 && bounds[k] < bits.length)
+					assertTrue(BufferedMatrixReader.isEOL(bits[(int)bounds[k] - 1]));
+			}
+			
+			final double[][] parallel = BufferedMatrixReader.ParallelRangeParser.doAll(setup, 0, numRanges);
+			assertTrue(parallel.length == serial.length);
+			for(int i = 0; i < serial.length; i++)
+				assertTrue(Arrays.equals(serial[i], parallel[i]));
+		}
+	}
+	
+	@Test
+	public void testStreamedFileMatchesBytes() throws IOException {
+		final double[][] g = MatUtils.randomGaussian(2500, 6, new Random(19));
+		
+		try {
+			Object[] o = new Object[g.length + 1];
+			o[0] = "a,b,c,d,e,f";
+			System.arraycopy(fromDoubleArr(g), 0, o, 1, g.length);
+			writeCSV(o);
+			
+			final File f = new File(file);
+			final BufferedMatrixReader reader = new BufferedMatrixReader(f);
+			
+			// the setup only reads the head of the file
+			assertTrue(reader.setup.source instanceof BufferedMatrixReader.FileSource);
+			assertTrue(reader.setup.headers.length == 6);
+			
+			final DataSet serial = reader.read(false);
+			assertTrue(MatUtils.equalsExactly(serial.getDataRef().getDataRef(), g));
+			assertTrue(Arrays.equals(serial.getHeaderRef(), new String[]{"a","b","c","d","e","f"}));
+			
+			// can be read again after closing, and in parallel
+			final double[][] parallel = reader.read(true).getDataRef().getDataRef();
+			assertTrue(MatUtils.equalsExactly(parallel, g));
+			
+			assertTrue(MatUtils.equalsExactly(g, new BufferedMatrixReader(
+				BufferedMatrixReader.fileToBytes(f)).read().getDataRef().getDataRef()));
+		} finally {
+			Files.delete(path);
+		}
+	}
 }
@@ -1,14 +1,48 @@
 package com.clust4j.load;
 
 import static org.junit.Assert.*;
+import static com.clust4j.metrics.scoring.UnsupervisedMetric.SILHOUETTE;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.junit.Test;
 
 import com.clust4j.GlobalState;
 import com.clust4j.TestSuite;
+import com.clust4j.algo.AffinityPropagation;
+import com.clust4j.algo.AffinityPropagationParameters;
+import com.clust4j.algo.BallTree;
+import com.clust4j.algo.DBSCAN;
+import com.clust4j.algo.DBSCANParameters;
+import com.clust4j.algo.HDBSCAN;
+import com.clust4j.algo.HDBSCANParameters;
+import com.clust4j.algo.HierarchicalAgglomerative;
+import com.clust4j.algo.HierarchicalAgglomerativeParameters;
+import com.clust4j.algo.HierarchicalTests;
+import com.clust4j.algo.KDTree;
+import com.clust4j.algo.KMeans;
+import com.clust4j.algo.KMeansParameters;
+import com.clust4j.algo.KMedoids;
+import com.clust4j.algo.KMedoids.KMedoidsAlgorithm;
+import com.clust4j.algo.KMedoidsParameters;
+import com.clust4j.algo.MeanShift;
+import com.clust4j.algo.MeanShiftParameters;
+import com.clust4j.algo.NNHSTests;
+import com.clust4j.data.BinaryDataSet;
+import com.clust4j.data.BufferedMatrixReader;
+import com.clust4j.data.DataSet;
 import com.clust4j.log.Log;
+import com.clust4j.log.LogTimer;
+import com.clust4j.metrics.pairwise.Distance;
+import com.clust4j.metrics.scoring.SilhouetteScore;
+import com.clust4j.metrics.scoring.SupervisedMetric;
+import com.clust4j.metrics.scoring.UnsupervisedMetric;
 import com.clust4j.utils.MatUtils;
+import com.clust4j.utils.VecUtils;
 
 /**
  * A set of tests that are quite large. Not
@@ -41,4 +75,425 @@ public class LoadTests {
 			}
 		}
 	}
+	
+	/**
+	 * Benchmarks {@link KMeans.KMeansAlgorithm#MINI_BATCH} against
+	 * the default {@link KMeans.KMeansAlgorithm#LLOYD} fit
+	 */
+	@Test
+	public void testMiniBatchKMeansBenchmark() {
+		final int[] sizes = new int[]{1_000_000, 10_000_000, 50_000_000};
+		final int cols = 2, k = 8;
+		
+		for(int rows: sizes) {
+			try {
+				Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+				
+				for(KMeans.KMeansAlgorithm algo: KMeans.KMeansAlgorithm.values()) {
+					LogTimer timer = new LogTimer();
+					KMeans model = new KMeansParameters(k)
+						.setAlgorithm(algo)
+						.setBatchSize(1000)
+						.fitNewModel(X);
+					
+					Log.info(algo.getName() + " KMeans on " + rows + " rows: " + timer.toString()
+						+ " (" + model.itersElapsed() + " iterations, BSS=" + model.getBSS() + ")");
+				}
+			} catch(OutOfMemoryError e) {
+				Log.info("could not complete KMeans benchmark on " + rows + " rows due to heap space");
+			}
+		}
+	}
+	
+	/**
+	 * Benchmarks the {@link HierarchicalAgglomerative} linkage against the
+	 * original full-scan linkage, which is cubic in the number of rows
+	 */
+	@Test
+	public void testHierarchicalLinkageBenchmark() {
+		final int[] sizes = new int[]{5_000, 20_000, 50_000};
+		final int cols = 2;
+		
+		for(int rows: sizes) {
+			try {
+				Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+				
+				for(HierarchicalAgglomerative.Linkage linkage: HierarchicalAgglomerative.Linkage.values()) {
+					HierarchicalAgglomerative model = new HierarchicalAgglomerativeParameters(linkage)
+						.setVerbose(false)
+						.fitNewModel(X);
+					
+					LogTimer timer = new LogTimer();
+					HierarchicalTests.linkage(model);
+					Log.info(linkage + " linkage on " + rows + " rows: " + timer.toString());
+					
+					timer = new LogTimer();
+					HierarchicalTests.naiveLinkage(model);
+					Log.info(linkage + " naive linkage on " + rows + " rows: " + timer.toString());
+				}
+			} catch(OutOfMemoryError e) {
+				Log.info("could not complete linkage benchmark on " + rows + " rows due to heap space");
+			}
+		}
+	}
+	
+	/**
+	 * Benchmarks loading a {@link BinaryDataSet} against
+	 * parsing the same data with {@link BufferedMatrixReader#read(boolean)}
+	 */
+	@Test
+	public void testBinaryDataSetBenchmark() throws IOException {
+		final int[] sizes = new int[]{100_000, 1_000_000, 5_000_000};
+		final int cols = 10;
+		
+		for(int rows: sizes) {
+			final File csv = File.createTempFile("clust4j-bench", ".csv");
+			final File bin = File.createTempFile("clust4j-bench", ".c4j");
+			
+			try {
+				new DataSet(TestSuite.getRandom(rows, cols)).toFlatFile(true, csv);
+				
+				LogTimer timer = new LogTimer();
+				BinaryDataSet.convertCSV(csv, bin, true, false);
+				Log.info("converted " + rows + " row CSV to binary in " + timer.toString());
+				
+				timer = new LogTimer();
+				new BufferedMatrixReader(csv).read(true);
+				Log.info("parallel CSV read of " + rows + " rows: " + timer.toString());
+				
+				timer = new LogTimer();
+				BinaryDataSet.read(bin);
+				Log.info("binary read of " + rows + " rows: " + timer.toString());
+				
+				timer = new LogTimer();
+				BinaryDataSet mapped = BinaryDataSet.open(bin);
+				try {
+					mapped.getColumn(cols - 1);
+				} finally {
+					mapped.close();
+				}
+				Log.info("mapped open and column read of " + rows + " rows: " + timer.toString());
+			} catch(OutOfMemoryError e) {
+				Log.info("could not complete binary dataset benchmark on " + rows + " rows due to heap space");
+			} finally {
+				csv.delete();
+				bin.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Benchmarks the k-neighbors query latency of trees in the flat
+	 * layout against trees in the nested layout
+	 */
+	@Test
+	public void testFlatTreeLayoutBenchmark() {
+		final int rows = 1_000_000, cols = 16, k = 10, queries = 2_000;
+		
+		try {
+			final double[][] X = TestSuite.getRandom(rows, cols).getDataRef();
+			final double[][] Q = TestSuite.getRandom(queries, cols).getDataRef();
+			
+			for(boolean flat: new boolean[]{false, true}) {
+				final String layout = flat ? "flat" : "nested";
+				
+				LogTimer timer = new LogTimer();
+				KDTree kd = NNHSTests.buildKDTree(X, flat);
+				Log.info("built " + layout + " KDTree on " + rows + " rows: " + timer.toString());
+				
+				timer = new LogTimer();
+				kd.query(Q, k, false, true);
+				Log.info(layout + " KDTree: " + queries + " queries: " + timer.toString());
+				kd = null;
+				
+				BallTree ball = NNHSTests.buildBallTree(X, flat);
+				timer = new LogTimer();
+				ball.query(Q, k, false, true);
+				Log.info(layout + " BallTree: " + queries + " queries: " + timer.toString());
+			}
+		} catch(OutOfMemoryError e) {
+			Log.info("could not complete tree layout benchmark due to heap space");
+		}
+	}
+	
+	/**
+	 * Benchmarks serial against parallel {@link KDTree} construction
+	 */
+	@Test
+	public void testParallelTreeBuildBenchmark() {
+		final int[] sizes = new int[]{1_000_000, 5_000_000};
+		final int cols = 2;
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		
+		for(int rows: sizes) {
+			try {
+				Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+				
+				for(boolean parallel: new boolean[]{false, true}) {
+					GlobalState.ParallelismConf.PARALLELISM_ALLOWED = parallel;
+					
+					LogTimer timer = new LogTimer();
+					new KDTree(X);
+					Log.info((parallel ? "parallel" : "serial") + " KDTree build on " 
+						+ rows + " rows: " + timer.toString());
+				}
+			} catch(OutOfMemoryError e) {
+				Log.info("could not complete tree build benchmark on " + rows + " rows due to heap space");
+			} finally {
+				GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+			}
+		}
+	}
+	
+	/**
+	 * Benchmarks {@link DBSCAN}, whose neighborhoods are found via
+	 * the dual-tree self-join, on dense data with a large epsilon
+	 */
+	@Test
+	public void testDBSCANSelfJoinBenchmark() {
+		final int[] sizes = new int[]{100_000, 500_000};
+		final int cols = 2;
+		
+		for(int rows: sizes) {
+			try {
+				Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+				
+				LogTimer timer = new LogTimer();
+				new DBSCANParameters(0.05).setVerbose(false).fitNewModel(X);
+				Log.info("DBSCAN on " + rows + " rows: " + timer.toString());
+			} catch(OutOfMemoryError e) {
+				Log.info("could not complete DBSCAN benchmark on " + rows + " rows due to heap space");
+			}
+		}
+	}
+	
+	/**
+	 * Benchmarks the scaling of the parallel {@link DBSCAN} labeling across
+	 * thread counts. The fit runs within a pool of the given size, which the
+	 * union-find labeling passes run in.
+	 */
+	@Test
+	public void testParallelDBSCANLabelingBenchmark() throws Exception {
+		final int rows = 500_000, cols = 2;
+		final int[] threadCounts = new int[]{1, 2, 4, 8, 16, 32};
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		
+		try {
+			final Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			
+			for(int threads: threadCounts) {
+				final ForkJoinPool pool = new ForkJoinPool(threads);
+				
+				try {
+					LogTimer timer = new LogTimer();
+					pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							new DBSCANParameters(0.05).setForceParallel(true)
+								.setVerbose(false).fitNewModel(X);
+						}
+					}).get();
+					
+					Log.info("parallel DBSCAN on " + rows + " rows with " + threads 
+						+ " thread" + (threads != 1 ? "s" : "") + ": " + timer.toString());
+				} finally {
+					pool.shutdown();
+				}
+			}
+		} catch(OutOfMemoryError e) {
+			Log.info("could not complete DBSCAN labeling benchmark due to heap space");
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	/**
+	 * Benchmarks the grid-based {@link DBSCAN} against the tree-based
+	 * search on low-dimensional Euclidean data
+	 */
+	@Test
+	public void testGridDBSCANBenchmark() {
+		final int rows = 10_000_000;
+		final double eps = 0.002;
+		
+		for(int cols: new int[]{2, 3}) {
+			try {
+				Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+				
+				for(DBSCAN.DBSCANAlgorithm algo: new DBSCAN.DBSCANAlgorithm[]{
+						DBSCAN.DBSCANAlgorithm.GRID, DBSCAN.DBSCANAlgorithm.TREE}) {
+					LogTimer timer = new LogTimer();
+					DBSCAN model = new DBSCANParameters(eps).setAlgorithm(algo)
+						.setVerbose(false).fitNewModel(X);
+					
+					Log.info(algo.getName() + " DBSCAN on " + rows + " rows, " + cols + " cols (" 
+						+ model.getNumberOfIdentifiedClusters() + " clusters): " + timer.toString());
+				}
+			} catch(OutOfMemoryError e) {
+				Log.info("could not complete grid DBSCAN benchmark on " + cols + " cols due to heap space");
+			}
+		}
+	}
+	
+	@Test
+	public void testMeanShiftBinSeedingBenchmark() {
+		final int rows = 20_000, cols = 2;
+		final double bandwidth = 0.1;
+		Array2DRowRealMatrix X = TestSuite.getRandom(rows, cols);
+		
+		for(boolean binSeeding: new boolean[]{true, false}) {
+			LogTimer timer = new LogTimer();
+			MeanShift model = new MeanShiftParameters(bandwidth).setBinSeeding(binSeeding)
+				.setVerbose(false).fitNewModel(X);
+			
+			Log.info("MeanShift (binSeeding=" + binSeeding + ") on " + rows + " rows, " 
+				+ model.getKernelSeeds().length + " seeds (" + model.getNumberOfIdentifiedClusters() 
+				+ " clusters): " + timer.toString());
+		}
+	}
+	
+	@Test
+	public void testMeanShiftLabelingBenchmark() {
+		final int rows = 2_000_000;
+		final double[][] X = new double[rows][2];
+		final Random rand = new Random(7);
+		for(int i = 0; i < rows; i++) {
+			final double shift = 10.0 * (i % 3);
+			X[i][0] = shift + rand.nextGaussian();
+			X[i][1] = shift + rand.nextGaussian();
+		}
+		
+		try {
+			LogTimer timer = new LogTimer();
+			MeanShift model = new MeanShiftParameters(2.0).setBinSeeding(true)
+				.setMinBinFreq(50).setVerbose(false).fitNewModel(new Array2DRowRealMatrix(X, false));
+			
+			Log.info("MeanShift on " + rows + " rows (" + model.getNumberOfIdentifiedClusters() 
+				+ " clusters): " + timer.toString());
+		} catch(OutOfMemoryError e) {
+			Log.info("could not complete MeanShift labeling benchmark due to heap space");
+		}
+	}
+	
+	@Test
+	public void testHDBSCANApproximatePredictBenchmark() {
+		final int rows = 50_000, batch = 100_000;
+		Array2DRowRealMatrix X = TestSuite.getRandom(rows, 3);
+		Array2DRowRealMatrix newData = TestSuite.getRandom(batch, 3);
+		
+		LogTimer timer = new LogTimer();
+		HDBSCAN model = new HDBSCANParameters(10).setVerbose(false).fitNewModel(X);
+		Log.info("HDBSCAN fit on " + rows + " rows: " + timer.toString());
+		
+		timer = new LogTimer();
+		model.approximatePredict(newData);
+		Log.info("HDBSCAN approximate predict on " + batch + " rows: " + timer.toString());
+	}
+	
+	@Test
+	public void testHDBSCANLabelingBenchmark() {
+		final int rows = 100_000;
+		Array2DRowRealMatrix X = TestSuite.getRandom(rows, 2);
+		
+		// the verbose log reports the condensed tree labeling time apart from the linkage
+		LogTimer timer = new LogTimer();
+		new HDBSCANParameters(5)
+			.setMinClustSize(25)
+			.setAlgo(HDBSCAN.HDBSCAN_Algorithm.BORUVKA_KDTREE)
+			.setVerbose(true)
+			.fitNewModel(X);
+		Log.info("HDBSCAN fit on " + rows + " rows: " + timer.toString());
+	}
+	
+	@Test
+	public void testSilhouetteBenchmark() {
+		final int rows = 20_000, sampled = 100_000, sampleSize = 2_000;
+		Array2DRowRealMatrix X = TestSuite.getRandom(rows, 5);
+		int[] labels = new int[rows];
+		for(int i = 0; i < rows; i++)
+			labels[i] = i % 10;
+		
+		// a full distance matrix at this size would take 3.2GB
+		LogTimer timer = new LogTimer();
+		SILHOUETTE.evaluate(X, labels);
+		Log.info("Silhouette score on " + rows + " rows: " + timer.toString());
+		
+		X = TestSuite.getRandom(sampled, 5);
+		labels = new int[sampled];
+		for(int i = 0; i < sampled; i++)
+			labels[i] = i % 10;
+		
+		timer = new LogTimer();
+		SilhouetteScore.sampledScore(X.getDataRef(), labels, Distance.EUCLIDEAN, sampleSize, new Random(1));
+		Log.info("Sampled silhouette score (" + sampleSize + ") on " + sampled + " rows: " + timer.toString());
+	}
+	
+	@Test
+	public void testCentroidMetricsBenchmark() {
+		final int rows = 1_000_000;
+		Array2DRowRealMatrix X = TestSuite.getRandom(rows, 5);
+		KMeans model = new KMeansParameters(8).setMaxIter(10).setVerbose(false).fitNewModel(X);
+		int[] labels = model.getLabels();
+		
+		for(UnsupervisedMetric metric: new UnsupervisedMetric[]{
+				UnsupervisedMetric.CALINSKI_HARABASZ, 
+				UnsupervisedMetric.DAVIES_BOULDIN, 
+				UnsupervisedMetric.SIMPLIFIED_SILHOUETTE}) {
+			LogTimer timer = new LogTimer();
+			metric.evaluate(model, labels);
+			Log.info(metric + " on " + rows + " rows: " + timer.toString());
+		}
+	}
+	
+	@Test
+	public void testContingencyMetricsBenchmark() {
+		final int rows = 10_000_000, k = 5000;
+		final Random rand = new Random(42);
+		final int[] actual = new int[rows], predicted = new int[rows];
+		for(int i = 0; i < rows; i++) {
+			actual[i] = rand.nextInt(k);
+			predicted[i] = rand.nextInt(10) == 0 ? rand.nextInt(k) : actual[i];
+		}
+		
+		for(SupervisedMetric metric: new SupervisedMetric[]{
+				SupervisedMetric.ADJUSTED_RAND_INDEX,
+				SupervisedMetric.NORMALIZED_MUTUAL_INFO,
+				SupervisedMetric.V_MEASURE,
+				SupervisedMetric.FOWLKES_MALLOWS}) {
+			LogTimer timer = new LogTimer();
+			metric.evaluate(actual, predicted);
+			Log.info(metric + " on " + rows + " rows, " + k + " classes: " + timer.toString());
+		}
+	}
+	
+	@Test
+	public void testKMedoidsAlgorithmBenchmark() {
+		Array2DRowRealMatrix X = TestSuite.getRandom(5000, 5);
+		for(KMedoidsAlgorithm algo: KMedoidsAlgorithm.values()) {
+			LogTimer timer = new LogTimer();
+			KMedoids model = new KMedoidsParameters(5).setAlgorithm(algo)
+				.setSeed(new Random(42)).setVerbose(false).fitNewModel(X);
+			Log.info(algo.getName() + " on 5000 rows: " + timer.toString() 
+				+ ", cost: " + VecUtils.sum(model.getWSS()));
+		}
+		
+		final int rows = 1_000_000;
+		X = TestSuite.getRandom(rows, 5);
+		LogTimer timer = new LogTimer();
+		new KMedoidsParameters(5).setAlgorithm(KMedoidsAlgorithm.CLARA)
+			.setSeed(new Random(42)).setVerbose(false).fitNewModel(X);
+		Log.info("CLARA on " + rows + " rows: " + timer.toString());
+	}
+	
+	@Test
+	public void testAffinityPropagationBenchmark() {
+		final int rows = 2500;
+		Array2DRowRealMatrix X = TestSuite.getRandom(rows, 5);
+		LogTimer timer = new LogTimer();
+		AffinityPropagation model = new AffinityPropagationParameters()
+			.setForceParallel(true).setVerbose(false).fitNewModel(X);
+		Log.info("AffinityPropagation on " + rows + " rows: " + timer.toString()
+			+ ", " + model.itersElapsed() + " iterations");
+	}
 }
@@ -17,9 +17,13 @@ package com.clust4j.metrics.pairwise;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.apache.commons.math3.util.Precision;
 import org.junit.Test;
 
+import com.clust4j.GlobalState;
+
 import com.clust4j.kernel.ANOVAKernel;
 import com.clust4j.kernel.CauchyKernel;
 import com.clust4j.kernel.CircularKernel;
@@ -390,4 +394,182 @@ public class PairwiseTests {
 		final double[] d = new double[]{1,2,3,4,5};
 		assertTrue(Similarity.COSINE.getPartialSimilarity(d, d) == Similarity.COSINE.getSimilarity(d, d));
 	}
+	
+	@Test
+	public void testBlockedMatchesNaive() {
+		// enough rows for several tiles, and for a parallel job if allowed
+		final double[][] big = MatUtils.randomGaussian(700, 5, new Random(11));
+		
+		for(DistanceMetric metric: distances()) {
+			if(Distance.HAVERSINE.MI.equals(metric) || Distance.HAVERSINE.KM.equals(metric))
+				continue; // only 2d
+			
+			final double[][] full = Pairwise.getDistance(big, metric, false, false);
+			final double[][] upper = Pairwise.getDistance(big, metric, true, true);
+			final double[] condensed = Pairwise.getCondensedDistance(big, metric, false);
+			final boolean exact = !Distance.EUCLIDEAN.equals(metric);
+			
+			for(int i = 0, r = 0; i < big.length - 1; i++) {
+				for(int j = i + 1; j < big.length; j++, r++) {
+					final double d = metric.getDistance(big[i], big[j]);
+					final double p = metric.getPartialDistance(big[i], big[j]);
+					
+					if(exact) {
+						assertTrue(full[i][j] == d && full[j][i] == d);
+						assertTrue(upper[i][j] == p && upper[j][i] == 0.0);
+						assertTrue(condensed[r] == d);
+					} else {
+						assertTrue(Precision.equals(full[i][j], d, 1e-12));
+						assertTrue(full[j][i] == full[i][j]);
+						assertTrue(Precision.equals(upper[i][j], p, 1e-12));
+						assertTrue(condensed[r] == full[i][j]);
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testCondensedSimilarity() {
+		for(SimilarityMetric kernel: similarities()) {
+			final double[][] full = Pairwise.getSimilarity(X, kernel, true, false);
+			final double[] condensed = Pairwise.getCondensedSimilarity(X, kernel, false);
+			
+			assertTrue(condensed.length == 3);
+			for(int i = 0, r = 0; i < X.length - 1; i++)
+				for(int j = i + 1; j < X.length; j++, r++)
+					assertTrue(Double.isNaN(full[i][j]) ? Double.isNaN(condensed[r]) : full[i][j] == condensed[r]);
+		}
+	}
+	
+	@Test
+	public void testEuclideanMatchesMetric() {
+		// ties and far-from-origin duplicates must match the metric exactly
+		final Random rand = new Random(7);
+		final double[][] ties = new double[60][4];
+		for(int i = 0; i < ties.length; i++)
+			for(int j = 0; j < ties[i].length; j++)
+				ties[i][j] = 1e6 + rand.nextInt(6);
+		
+		final double[] condensed = Pairwise.getCondensedDistance(ties, Distance.EUCLIDEAN, false);
+		for(int i = 0, r = 0; i < ties.length - 1; i++)
+			for(int j = i + 1; j < ties.length; j++, r++)
+				assertTrue(condensed[r] == Distance.EUCLIDEAN.getDistance(ties[i], ties[j]));
+		
+		// infinite values should not produce NaNs
+		final double[][] inf = new double[][]{
+			new double[]{Double.POSITIVE_INFINITY, 0},
+			new double[]{0, 0}
+		};
+		
+		assertTrue(Double.isInfinite(Pairwise.getCondensedDistance(inf, Distance.EUCLIDEAN, false)[0]));
+	}
+	
+	@Test
+	public void testParallelPairwise() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final double[][] big = MatUtils.randomGaussian(600, 3, new Random(5));
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			final double[][] parallel = Pairwise.getDistance(big, Distance.EUCLIDEAN, false, false);
+			
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = false;
+			final double[][] serial = Pairwise.getDistance(big, Distance.EUCLIDEAN, false, false);
+			
+			for(int i = 0; i < big.length; i++)
+				assertTrue(VecUtils.equalsExactly(parallel[i], serial[i]));
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	@Test
+	public void testCallerParallelism() {
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final double[][] big = MatUtils.randomGaussian(600, 3, new Random(5));
+		
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			for(boolean parallel: new boolean[]{true, false}) {
+				final Pairwise.PairwiseTask task = new Pairwise.PairwiseTask(big, Distance.EUCLIDEAN, 
+					false, 1.0, new double[big.length][big.length], null, true, parallel);
+				assertTrue(parallel == task.parallel);
+			}
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+	}
+	
+	@Test
+	public void testCondensedIndex() {
+		final int m = 7;
+		final double[][] X = MatUtils.randomGaussian(m, 2, new Random(3));
+		final double[][] full = Pairwise.getDistance(X, Distance.EUCLIDEAN, false, false);
+		final double[] condensed = Pairwise.getCondensedDistance(X, Distance.EUCLIDEAN, false);
+		
+		assertTrue(DistanceStorage.condensedSize(m) == condensed.length);
+		for(int i = 0; i < m; i++) {
+			for(int j = 0; j < m; j++) {
+				if(i == j) continue;
+				assertTrue(full[i][j] == condensed[(int)DistanceStorage.condensedIndex(m, i, j)]);
+			}
+		}
+		
+		boolean a = false;
+		try {
+			DistanceStorage.condensedIndex(m, 2, 2);
+		} catch(IllegalArgumentException e) {
+			a = true;
+		} finally {
+			assertTrue(a);
+		}
+	}
+	
+	@Test
+	public void testDistanceStorageTypes() {
+		final double[][] X = MatUtils.randomGaussian(150, 4, new Random(7));
+		final double[] expected = Pairwise.getCondensedDistance(X, Distance.EUCLIDEAN, false);
+		
+		for(DistanceStorage.Type type: DistanceStorage.Type.values()) {
+			final boolean float32 = type.equals(DistanceStorage.Type.HEAP_FLOAT)
+				|| type.equals(DistanceStorage.Type.MAPPED_FLOAT);
+			
+			final DistanceStorage store = Pairwise.getCondensedDistance(X, Distance.EUCLIDEAN, false, type);
+			try {
+				assertTrue(store.size() == expected.length);
+				for(int i = 0; i < expected.length; i++) {
+					if(float32)
+						assertTrue(store.get(i) == (float)expected[i]);
+					else
+						assertTrue(store.get(i) == expected[i]);
+				}
+				
+				store.set(3, -1.5);
+				assertTrue(store.get(3) == -1.5);
+				
+				store.fill(2.0);
+				assertTrue(store.get(0) == 2.0);
+				assertTrue(store.get(store.size() - 1) == 2.0);
+			} finally {
+				store.close();
+			}
+		}
+	}
+	
+	@Test
+	public void testMappedStorageClose() {
+		final DistanceStorage.MappedStorage store = 
+			(DistanceStorage.MappedStorage)DistanceStorage.Type.MAPPED.allocate(10);
+		store.set(9, 3.0);
+		assertTrue(store.get(9) == 3.0);
+		
+		store.close();
+		assertFalse(store.file.exists());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testHeapStorageTooLarge() {
+		DistanceStorage.Type.HEAP.allocate((long)Integer.MAX_VALUE + 1);
+	}
 }
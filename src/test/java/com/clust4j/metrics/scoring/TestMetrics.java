@@ -17,16 +17,24 @@ package com.clust4j.metrics.scoring;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.util.FastMath;
 import org.junit.Test;
 
+import com.clust4j.GlobalState;
 import com.clust4j.TestSuite;
+import com.clust4j.algo.KMeans;
+import com.clust4j.algo.KMeansParameters;
+import com.clust4j.algo.LabelEncoder;
 import com.clust4j.data.DataSet;
+import com.clust4j.metrics.pairwise.Distance;
 import com.clust4j.metrics.scoring.SupervisedMetric;
 import com.clust4j.utils.VecUtils;
 
-import static com.clust4j.metrics.scoring.UnsupervisedMetric.SILHOUETTE;
+import static com.clust4j.metrics.scoring.UnsupervisedMetric.*;
 
 public class TestMetrics {
 	final static DataSet IRIS = TestSuite.IRIS_DATASET.copy();
@@ -65,6 +73,260 @@ public class TestMetrics {
 			.evaluate(X, labels)));
 	}
 	
+	/** Three gaussian blobs, plus a singleton cluster */
+	private static double[][] blobs(final int m, final int[] labels) {
+		final Random rand = new Random(42);
+		final double[][] X = new double[m][3];
+		for(int i = 0; i < m; i++) {
+			labels[i] = i % 3;
+			for(int j = 0; j < 3; j++)
+				X[i][j] = rand.nextGaussian() + 6.0 * labels[i];
+		}
+		
+		labels[m - 1] = 7;
+		return X;
+	}
+	
+	@Test
+	public void testSilhouetteCoefficientsMatchNaive() {
+		final int m = 300;
+		final int[] labels = new int[m];
+		final double[][] X = blobs(m, labels);
+		final int[] encoded = new LabelEncoder(labels).fit().getEncodedLabels();
+		
+		final double[] coef = SilhouetteScore.coefficients(X, encoded, 4, Distance.EUCLIDEAN, null, false);
+		for(int i = 0; i < m; i++) {
+			double[] sums = new double[4];
+			int[] counts = new int[4];
+			for(int j = 0; j < m; j++) {
+				sums[encoded[j]] += Distance.EUCLIDEAN.getDistance(X[i], X[j]);
+				counts[encoded[j]]++;
+			}
+			
+			double a = counts[encoded[i]] > 1 ? sums[encoded[i]] / (counts[encoded[i]] - 1) : 1.0;
+			double b = Double.POSITIVE_INFINITY;
+			for(int c = 0; c < 4; c++)
+				if(c != encoded[i])
+					b = Math.min(b, sums[c] / counts[c]);
+			
+			assertEquals((b - a) / Math.max(a, b), coef[i], 1e-12);
+		}
+	}
+	
+	@Test
+	public void testParallelSilhouette() {
+		final int m = 1000;
+		final int[] labels = new int[m];
+		final double[][] X = blobs(m, labels);
+		final int[] encoded = new LabelEncoder(labels).fit().getEncodedLabels();
+		
+		final double[] serial = SilhouetteScore.coefficients(X, encoded, 4, Distance.EUCLIDEAN, null, false, 50);
+		final double[] parallel = SilhouetteScore.coefficients(X, encoded, 4, Distance.EUCLIDEAN, null, true, 50);
+		assertTrue(VecUtils.equalsExactly(serial, parallel));
+	}
+	
+	@Test
+	public void testSampledSilhouette() {
+		final int m = 3000;
+		final int[] labels = new int[m];
+		final double[][] X = blobs(m, labels);
+		labels[m - 1] = (m - 1) % 3; // drop the singleton
+		
+		final double exact = SilhouetteScore.score(X, labels, Distance.EUCLIDEAN);
+		assertTrue(exact > 0.7);
+		
+		// the whole data is just the exact score
+		assertTrue(exact == SilhouetteScore.sampledScore(X, labels, Distance.EUCLIDEAN, m, new Random(1)));
+		
+		// the same seed yields the same estimate
+		final double sampled = SilhouetteScore.sampledScore(X, labels, Distance.EUCLIDEAN, 500, new Random(1));
+		assertTrue(sampled == SilhouetteScore.sampledScore(X, labels, Distance.EUCLIDEAN, 500, new Random(1)));
+		assertEquals(exact, sampled, 0.05);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testSampledSilhouetteIAE() {
+		Array2DRowRealMatrix X = IRIS.getData();
+		SilhouetteScore.sampledScore(X.getData(), IRIS.getLabels(), Distance.EUCLIDEAN, 0, new Random(1));
+	}
+	
+	@Test(expected=DimensionMismatchException.class)
+	public void testSampledSilhouetteDME() {
+		Array2DRowRealMatrix X = IRIS.getData();
+		SilhouetteScore.sampledScore(X.getData(), new int[]{1,2,3}, Distance.EUCLIDEAN, 10, new Random(1));
+	}
+	
+	@Test
+	public void testCentroidMetricsIris() {
+		Array2DRowRealMatrix X = IRIS.getData();
+		final int[] labels = IRIS.getLabels();
+		
+		assertEquals(486.32083931855675, CALINSKI_HARABASZ.evaluate(X, labels), 1e-8);
+		assertEquals(0.7517428073901374, DAVIES_BOULDIN.evaluate(X, labels), 1e-12);
+		assertEquals(0.6133771174874248, SIMPLIFIED_SILHOUETTE.evaluate(X, labels), 1e-12);
+	}
+	
+	@Test
+	public void testCentroidMetricsNaNAndDME() {
+		Array2DRowRealMatrix X = IRIS.getData();
+		final int[] labels = VecUtils.repInt(1, X.getRowDimension());
+		
+		for(UnsupervisedMetric metric: new UnsupervisedMetric[]{
+				CALINSKI_HARABASZ, DAVIES_BOULDIN, SIMPLIFIED_SILHOUETTE}) {
+			assertTrue(Double.isNaN(metric.evaluate(X, labels)));
+			
+			boolean c = false;
+			try {
+				metric.evaluate(X, new int[]{1,2,3});
+			} catch(DimensionMismatchException d) {
+				c = true;
+			} finally {
+				assertTrue(c);
+			}
+		}
+	}
+	
+	@Test
+	public void testParallelCentroidMetrics() {
+		final int m = 5000;
+		final int[] labels = new int[m];
+		final double[][] X = blobs(m, labels);
+		
+		CentroidScoring.Clustering cl = CentroidScoring.fromLabels(X, labels, false);
+		CentroidScoring.Clustering serial = new CentroidScoring.Clustering(cl.X, cl.encoded, cl.centers, false, 100);
+		CentroidScoring.Clustering parallel = new CentroidScoring.Clustering(cl.X, cl.encoded, cl.centers, true, 100);
+		
+		assertTrue(CentroidScoring.calinskiHarabasz(serial) == CentroidScoring.calinskiHarabasz(parallel));
+		assertTrue(CentroidScoring.daviesBouldin(serial) == CentroidScoring.daviesBouldin(parallel));
+		assertTrue(CentroidScoring.simplifiedSilhouette(serial) == CentroidScoring.simplifiedSilhouette(parallel));
+	}
+	
+	@Test
+	public void testCentroidMetricsFromModel() {
+		Array2DRowRealMatrix X = IRIS.getData();
+		KMeans model = new KMeansParameters(3).setVerbose(false).fitNewModel(X);
+		final int[] labels = model.getLabels();
+		
+		// the fitted centroids are the cluster means, to within the convergence tolerance
+		for(UnsupervisedMetric metric: new UnsupervisedMetric[]{
+				CALINSKI_HARABASZ, DAVIES_BOULDIN, SIMPLIFIED_SILHOUETTE}) {
+			double fromData = metric.evaluate(X, labels);
+			assertEquals(fromData, metric.evaluate(model, labels), 1e-3 * FastMath.abs(fromData));
+		}
+		
+		// other labels are measured against their own means
+		final int[] truth = IRIS.getLabels();
+		assertTrue(CALINSKI_HARABASZ.evaluate(X, truth) == CALINSKI_HARABASZ.evaluate(model, truth));
+		assertTrue(DAVIES_BOULDIN.evaluate(X, truth) == DAVIES_BOULDIN.evaluate(model, truth));
+	}
+	
+	@Test
+	public void testCentroidMetricsFollowModelParallelism() {
+		Array2DRowRealMatrix X = IRIS.getData();
+		final KMeans serial = new KMeansParameters(3).setSeed(new Random(5))
+			.setVerbose(false).fitNewModel(X);
+		assertFalse(serial.getParallel());
+		
+		final boolean orig = GlobalState.ParallelismConf.PARALLELISM_ALLOWED;
+		final KMeans parallel;
+		try {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = true;
+			parallel = new KMeansParameters(3).setSeed(new Random(5)).setForceParallel(true)
+				.setVerbose(false).fitNewModel(X);
+		} finally {
+			GlobalState.ParallelismConf.PARALLELISM_ALLOWED = orig;
+		}
+		
+		assertTrue(parallel.getParallel());
+		final int[] labels = serial.getLabels();
+		for(UnsupervisedMetric metric: new UnsupervisedMetric[]{
+				CALINSKI_HARABASZ, DAVIES_BOULDIN, SIMPLIFIED_SILHOUETTE})
+			assertTrue(metric.evaluate(serial, labels) == metric.evaluate(parallel, labels));
+	}
+	
+	private static final SupervisedMetric[] CONTINGENCY_METRICS = new SupervisedMetric[]{
+		SupervisedMetric.ADJUSTED_RAND_INDEX,
+		SupervisedMetric.NORMALIZED_MUTUAL_INFO,
+		SupervisedMetric.ADJUSTED_MUTUAL_INFO,
+		SupervisedMetric.HOMOGENEITY,
+		SupervisedMetric.COMPLETENESS,
+		SupervisedMetric.V_MEASURE,
+		SupervisedMetric.FOWLKES_MALLOWS
+	};
+	
+	private static void assertContingencyMetrics(int[] actual, int[] predicted, double[] expected) {
+		for(int i = 0; i < expected.length; i++)
+			assertEquals(CONTINGENCY_METRICS[i].toString(), expected[i], 
+				CONTINGENCY_METRICS[i].evaluate(actual, predicted), 1e-10);
+	}
+	
+	@Test
+	public void testContingencyMetrics() {
+		// expected values as given by scikit-learn
+		assertContingencyMetrics(new int[]{0,0,1,1}, new int[]{0,0,1,2}, 
+			new double[]{0.5714285714285715, 0.8, 0.5714285714285710, 1.0, 0.6666666666666666, 0.8, 0.7071067811865476});
+		assertContingencyMetrics(new int[]{0,0,1,1}, new int[]{0,1,0,1}, 
+			new double[]{-0.5, 0.0, -0.5, 0.0, 0.0, 0.0, 0.0});
+		
+		// label values are arbitrary
+		assertContingencyMetrics(new int[]{5,5,-1,-1}, new int[]{1,1,0,0}, 
+			new double[]{1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0});
+		
+		final int m = 2000;
+		final int[] a = new int[m], b = new int[m], c = new int[m], d = new int[m];
+		for(int i = 0; i < m; i++) {
+			a[i] = (i / 3) % 7;
+			b[i] = ((i * i) % 13 + i % 5) % 9;
+			c[i] = i % 5;
+			d[i] = 0 == i % 10 ? 9 : i % 5;
+		}
+		
+		assertContingencyMetrics(a, b, new double[]{-0.002869255286117882, 0.00045918456569913767, 
+			-0.005595491059452246, 0.00047494359465832456, 0.0004444377465052283, 
+			0.0004591845656991376, 0.1362465279376066});
+		assertContingencyMetrics(c, d, new double[]{0.9349262671310915, 0.9587105826093278, 
+			0.9585867493471981, 1.0, 0.9206955977827226, 0.9587105826093281, 0.9485511970545312});
+	}
+	
+	@Test
+	public void testContingencyMetricsDME() {
+		for(SupervisedMetric metric: CONTINGENCY_METRICS) {
+			boolean c = false;
+			try {
+				metric.evaluate(new int[]{0,1}, new int[]{0,1,2});
+			} catch(DimensionMismatchException d) {
+				c = true;
+			} finally {
+				assertTrue(c);
+			}
+		}
+	}
+	
+	@Test
+	public void testContingencyTable() {
+		final int m = 100000;
+		final int[] a = new int[m], b = new int[m];
+		for(int i = 0; i < m; i++) {
+			a[i] = (i * 7919) % 1000 - 500;
+			b[i] = i % 3000;
+		}
+		
+		ContingencyTable table = new ContingencyTable(a, b);
+		assertTrue(table.rowSums.length == 1000);
+		assertTrue(table.colSums.length == 3000);
+		
+		int total = 0;
+		for(int ct: table.cellCount)
+			total += ct;
+		assertTrue(total == m);
+		
+		// the cells are in order of first appearance
+		for(int i = 0; i < 10; i++) {
+			assertTrue(table.cellRow[i] == i);
+			assertTrue(table.cellCol[i] == i);
+		}
+	}
+	
 	@Test(expected=DimensionMismatchException.class)
 	public void testDME() {
 		SupervisedMetric.BINOMIAL_ACCURACY.evaluate(new int[]{1,2}, new int[]{1,2,3});